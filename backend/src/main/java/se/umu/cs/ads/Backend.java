@@ -9,6 +9,8 @@ import org.springframework.boot.*;
 import se.umu.cs.ads.service.RESTManager;
 
 import java.util.Properties;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.apache.commons.cli.*;
 import org.apache.commons.validator.routines.*;
@@ -19,6 +21,15 @@ public class Backend {
 		options.addOption("ip", true, "the ip address of a member in the cluster. Format ip:port");
 		options.addOption("p", "port", true, "port for the gRPC server");
 		options.addOption("web", true, "the port to use for the web interface");
+		options.addOption("hb", "heartbeat-budget", true, "maximum number of heartbeats per second sent by the node");
+		options.addOption("hedge", false, "send hedged requests for slow idempotent reads");
+		options.addOption("rd", "rest-deadline", true, "default deadline in milliseconds of REST requests (default 600000, the longest gRPC call budget)");
+		options.addOption("ct", "control-threads", true, "threads of the gRPC lane for heartbeats and membership probes");
+		options.addOption("wt", "heavy-threads", true, "threads of the gRPC lane for all other calls");
+		options.addOption("lq", "lane-queue", true, "calls each gRPC lane queues before rejecting");
+		options.addOption("vt", "virtual-threads", false, "run gRPC handlers on virtual threads (Java 21+), which makes a high heavy-threads cheap");
+		options.addOption("tr", "transport", true, "gRPC network transport: auto, epoll or nio (default auto, epoll when available)");
+		options.addOption("el", "event-loops", true, "threads of the event loop group shared by the gRPC server and all channels (default number of cores)");
 		options.addOption("h", "help", false, "Display this help message");
 		CommandLineParser parser = new DefaultParser();
 		HelpFormatter formatter = new HelpFormatter();
@@ -46,6 +57,40 @@ public class Backend {
 			CommandLineArguments.initialMember = validateIP(cmd.getOptionValue("ip"));
 		}
 
+		if (cmd.hasOption("heartbeat-budget"))
+			CommandLineArguments.heartbeatBudget = option(cmd, "heartbeat-budget", Double::parseDouble, v -> v > 0 && v < Double.POSITIVE_INFINITY, "a positive number", formatter, options);
+
+		if (cmd.hasOption("hedge"))
+			CommandLineArguments.hedging = true;
+
+		if (cmd.hasOption("rest-deadline"))
+			CommandLineArguments.restDeadline = option(cmd, "rest-deadline", Long::parseLong, v -> v > 0, "a positive number", formatter, options);
+
+		if (cmd.hasOption("control-threads"))
+			CommandLineArguments.controlThreads = option(cmd, "control-threads", Integer::parseInt, v -> v > 0, "a positive number", formatter, options);
+
+		if (cmd.hasOption("heavy-threads"))
+			CommandLineArguments.heavyThreads = option(cmd, "heavy-threads", Integer::parseInt, v -> v > 0, "a positive number", formatter, options);
+
+		if (cmd.hasOption("lane-queue"))
+			CommandLineArguments.laneQueue = option(cmd, "lane-queue", Integer::parseInt, v -> v > 0, "a positive number", formatter, options);
+
+		if (cmd.hasOption("virtual-threads"))
+			CommandLineArguments.virtualThreads = true;
+
+		if (cmd.hasOption("transport")) {
+			String transport = cmd.getOptionValue("transport").toLowerCase();
+			if (!transport.equals("auto") && !transport.equals("epoll") && !transport.equals("nio")) {
+				System.err.println("transport must be auto, epoll or nio");
+				formatter.printHelp("utility-name", options);
+				System.exit(-1);
+			}
+			CommandLineArguments.transport = transport;
+		}
+
+		if (cmd.hasOption("event-loops"))
+			CommandLineArguments.eventLoopThreads = option(cmd, "event-loops", Integer::parseInt, v -> v >= 0, "zero or a positive number", formatter, options);
+
 		if (cmd.hasOption("port")) 
 			CommandLineArguments.grpcPort = Integer.parseInt(cmd.getOptionValue("port"));
 		 else 
@@ -64,6 +109,34 @@ public class Backend {
 		}
     }
 
+	/**
+	 * Parses a numeric option. Prints the usage and exits if the value is
+	 * not a number or is out of range.
+	 * @param cmd Parsed command line
+	 * @param name Long name of the option
+	 * @param parse Parser of the value
+	 * @param valid Check of the range of the value
+	 * @param range Description of the range, for the error message
+	 * @param formatter Formatter of the usage
+	 * @param options All options, for the usage
+	 * @return The value of the option
+	 */
+	private static <T> T option(CommandLine cmd, String name, Function<String, T> parse,
+			Predicate<T> valid, String range, HelpFormatter formatter, Options options) {
+		String value = cmd.getOptionValue(name);
+		try {
+			T number = parse.apply(value.trim());
+			if (valid.test(number))
+				return number;
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		System.err.println(String.format("Invalid value '%s' of %s, must be %s", value, name, range));
+		formatter.printHelp("utility-name", options);
+		System.exit(-1);
+		return null;
+	}
+
 	private static String validateIP(String target) {
 	
 		InetAddressValidator validator = InetAddressValidator.getInstance();
@@ -12,6 +12,15 @@ public final class CommandLineArguments {
 	public static int grpcPort;
 	public static int webPort;
 	public static String initialMember = "";
+	public static double heartbeatBudget = 50;
+	public static boolean hedging = false;
+	public static long restDeadline = 600000;
+	public static int controlThreads = 4;
+	public static int heavyThreads = 64;
+	public static int laneQueue = 1024;
+	public static boolean virtualThreads = false;
+	public static String transport = "auto";
+	public static int eventLoopThreads = 0;
 	public static final ExecutorService pool = Executors.newCachedThreadPool();
 	public static final ScheduledExecutorService scheduledPool = Executors.newScheduledThreadPool(2);
 }
@@ -2,6 +2,8 @@ package se.umu.cs.ads.clustermanagement;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,12 +20,21 @@ import se.umu.cs.ads.nodemanager.NodeManager;
 public class ClusterManager {
 	private final static Logger logger = LogManager.getLogger(ClusterManager.class);
 	private final Map<PicoAddress, Node> cluster;
-	private final Map<PicoAddress, Integer> suspectedMembers;
+	private final ContainerIndex index;
+	private final PhiAccrualDetector detector;
+	private final HeartbeatScheduler scheduler;
 	private final Map<PicoContainer, Long> initTimes;
+	private final Set<PicoAddress> inFlightHeartbeats;
+	private final AtomicBoolean reconciling;
 	private final PicoCommunication comm;
+	private final SwimMembership membership;
 	private final NodeManager manager;
 	private final ScheduledExecutorService scheduledPool = CommandLineArguments.scheduledPool;
 	public final String CLUSTER_NAME = "k8-pico";
+	public static final long HEARTBEAT_DEADLINE = 1500;
+	public static final double SUSPECT_PHI = 8;
+	public static final double REMOVAL_PHI = 12;
+	public static final long ANTI_ENTROPY_PERIOD = 10;
 	private final ExecutorService pool;
 
 	/**
@@ -32,10 +43,16 @@ public class ClusterManager {
 	 */
 	public ClusterManager(NodeManager manager) {
 		this.cluster = new ConcurrentHashMap<>();
+		this.index = new ContainerIndex();
+		this.index.track(manager.getNode());
 		this.initTimes = new ConcurrentHashMap<>();
+		this.detector = new PhiAccrualDetector();
+		this.scheduler = new HeartbeatScheduler(CommandLineArguments.heartbeatBudget);
 		this.manager = manager;
 		this.comm = new PicoCommunication(this, manager);
-		this.suspectedMembers = new ConcurrentHashMap<PicoAddress, Integer>();
+		this.membership = new SwimMembership(this, comm, manager.getAddress());
+		this.inFlightHeartbeats = ConcurrentHashMap.newKeySet();
+		this.reconciling = new AtomicBoolean(false);
 		this.pool = CommandLineArguments.pool;
 
 		scheduledPool.scheduleAtFixedRate(() -> {
@@ -43,6 +60,23 @@ public class ClusterManager {
 			int members = cluster.values().size();
 			logger.debug("Cluster {} has {} members with leader: {}", CLUSTER_NAME, members, leader);
 		}, 5, 5, TimeUnit.SECONDS); 
+
+		// The exchange runs on the pool, a round is skipped if the previous
+		// one is still running
+		scheduledPool.scheduleAtFixedRate(() -> {
+			if (!reconciling.compareAndSet(false, true))
+				return;
+
+			pool.submit(() -> {
+				try {
+					antiEntropy();
+				} finally {
+					reconciling.set(false);
+				}
+			});
+		}, ANTI_ENTROPY_PERIOD, ANTI_ENTROPY_PERIOD, TimeUnit.SECONDS);
+
+		membership.start();
 	}
 
 	/**
@@ -68,6 +102,14 @@ public class ClusterManager {
 		return this.comm;
 	}
 
+	/**
+	 * Method to get the membership protocol
+	 * @return SwimMembership object
+	 */
+	public SwimMembership getMembership() {
+		return this.membership;
+	}
+
 	/**
 	 * Method to get the leader of the cluster
 	 * @return Address of the leader
@@ -89,11 +131,10 @@ public class ClusterManager {
 	public void joinCluster(PicoAddress address) throws PicoException {
 		Node self = manager.getNode();
 
-		// send join req and add members
-		List<Node> newMembers = this.comm.joinRequest(address, self);
-
-		for (Node node : newMembers)
-			cluster.put(node.getAddress(), node);
+		// send join req, the members are added as soon as they arrive and
+		// their containers keep streaming in after this returns
+		List<PicoAddress> newMembers = this.comm.bootstrap(address, self);
+		logger.info("Joined cluster with {} members through {}", newMembers.size(), address);
 
 		//finally add ourselves
 		cluster.put(manager.getAddress(), manager.getNode());
@@ -129,17 +170,76 @@ public class ClusterManager {
 	 * @param node Node object
 	 */
 	public void addNode(Node node) {
-		cluster.put(node.getAddress(), node);
-		suspectedMembers.remove(node.getAddress());
+		replace(node);
+		detector.remove(node.getAddress());
+		scheduler.recordChurn(node.getAddress());
+		comm.connect(node.getAddress());
+		membership.joined(node.getAddress());
 		logger.info("Cluster now contains {} members", cluster.size());
 	}
 
+	/**
+	 * Method to add a member learned from the membership protocol to the
+	 * cluster. Its containers are fetched by the next heartbeat.
+	 * @param adr Address of the member
+	 */
+	public void addMember(PicoAddress adr) {
+		Node node = new Node(adr, CLUSTER_NAME, new ArrayList<>());
+		if (cluster.putIfAbsent(adr, node) == null) {
+			index.track(node);
+			scheduler.recordChurn(adr);
+			comm.connect(adr);
+			logger.info("Added member {} from membership protocol, cluster now contains {} members", adr, cluster.size());
+		}
+	}
+
+	/**
+	 * Method to remove a member that has been declared dead by the membership
+	 * protocol. The leader moves the running containers of the member to 
+	 * other nodes.
+	 * @param adr Address of the member
+	 */
+	public void memberDead(PicoAddress adr) {
+		Node dead = cluster.remove(adr);
+		drop(dead);
+		detector.remove(adr);
+		scheduler.recordChurn(adr);
+		comm.disconnect(adr);
+		if (dead == null)
+			return;
+
+		logger.warn("Node {} has been declared dead, cluster now contains {} members", adr, cluster.size());
+		this.comm.migrateContainers(adr, dead.getContainers());
+	}
+
+	/**
+	 * Method to handle the local node being declared dead by the membership
+	 * protocol. The leader has moved the running containers of the node to
+	 * other nodes, so they are removed here to not run twice. The node then
+	 * rejoins by refuting its death with a higher incarnation.
+	 */
+	public void declaredDead() {
+		ContainerSnapshot snapshot = manager.getNode().snapshot();
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (snapshot.stateAt(i) != PicoContainerState.RUNNING)
+				continue;
+
+			String name = snapshot.nameAt(i);
+			try {
+				manager.removeContainer(name);
+				logger.info("Removed container {} moved away while declared dead", name);
+			} catch (Exception e) {
+				logger.error("Failed to remove container {}: {}", name, e.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * Method to remove a node from the cluster
 	 * @param node Node object
 	 */
 	public void removeNode(Node node) {
-		cluster.remove(node.getAddress());
+		removeNode(node.getAddress());
 	}
 
 	/**
@@ -147,7 +247,10 @@ public class ClusterManager {
 	 * @param adr Address of the node
 	 */
 	public void removeNode(PicoAddress adr) {
-		cluster.remove(adr);
+		drop(cluster.remove(adr));
+		detector.remove(adr);
+		scheduler.recordChurn(adr);
+		comm.disconnect(adr);
 	}
 
 	/**
@@ -163,7 +266,134 @@ public class ClusterManager {
 	 * @param node Node object
 	 */
 	public void updateNode(Node node) {
-		cluster.put(node.getAddress(), node);
+		replace(node);
+	}
+
+	/**
+	 * Drops a node removed from the cluster from the container index. The
+	 * local node stays indexed, its containers are still served.
+	 * @param node Node object, may be null
+	 */
+	private void drop(Node node) {
+		if (node != null && node != manager.getNode())
+			index.untrack(node);
+	}
+
+	/**
+	 * Puts a node in the cluster, replacing the view of the node in the
+	 * container index
+	 * @param node Node object
+	 */
+	private void replace(Node node) {
+		Node old = cluster.put(node.getAddress(), node);
+		if (old != node) {
+			if (old != null)
+				old.setListener(null);
+			index.removeHost(node.getAddress());
+			index.track(node);
+		}
+	}
+
+	/**
+	 * Method to apply a full snapshot of a remote node to the view of the 
+	 * node in the cluster. Unknown nodes are added to the cluster.
+	 * @param node Node object
+	 */
+	public void applySnapshot(Node node) {
+		PicoAddress adr = node.getAddress();
+		if (adr.equals(manager.getAddress()))
+			return;
+
+		Node existing = cluster.putIfAbsent(adr, node);
+		if (existing != null)
+			existing.applySnapshot(node.snapshot());
+		else
+			index.track(node);
+	}
+
+	/**
+	 * Method to add the members received while joining the cluster. Their
+	 * containers are filled in by the rest of the bootstrap stream.
+	 * @param members Addresses of the members
+	 */
+	public void addBootstrapMembers(List<PicoAddress> members) {
+		for (PicoAddress adr : members) {
+			if (adr.equals(manager.getAddress()))
+				continue;
+			Node node = new Node(adr, CLUSTER_NAME, new ArrayList<>());
+			if (cluster.putIfAbsent(adr, node) == null)
+				index.track(node);
+			comm.connect(adr);
+		}
+	}
+
+	/**
+	 * Method to apply the containers of a remote node received while joining
+	 * the cluster. A view that a heartbeat has already brought to the same
+	 * version or newer is kept.
+	 * @param adr Address of the node
+	 * @param containers Containers of the node
+	 * @param version Version of the node
+	 */
+	public void applyBootstrap(PicoAddress adr, List<PicoContainer> containers, long version) {
+		Node existing = cluster.get(adr);
+		if (existing == null || adr.equals(manager.getAddress()))
+			return;
+
+		if (existing.applySnapshotIfNewer(containers, version))
+			logger.debug("Applied {} bootstrapped containers of {}", containers.size(), adr);
+	}
+
+	/**
+	 * Method to apply changes to the containers of a remote node to the view
+	 * of the node in the cluster. Changes that do not start at the version
+	 * of the view, or do not lead to a newer one, are ignored.
+	 * @param adr Address of the node
+	 * @param events List of changes
+	 * @param fromVersion Version of the node the changes start at
+	 * @param toVersion Version of the node after the changes
+	 */
+	public void applyChanges(PicoAddress adr, List<ContainerEvent> events, long fromVersion, long toVersion) {
+		Node existing = cluster.get(adr);
+		if (existing == null || adr.equals(manager.getAddress()) || events.isEmpty())
+			return;
+
+		if (!existing.applyChanges(events, fromVersion, toVersion))
+			logger.debug("Ignored changes of {} from version {} to {}, view is at {}",
+				adr, fromVersion, toVersion, existing.getVersion());
+	}
+
+	/**
+	 * Method to replace digest buckets in the view of a remote node
+	 * @param adr Address of the node
+	 * @param buckets Set of bucket indexes to replace
+	 * @param containers Containers of the node in the buckets
+	 * @param version Version of the node the containers were read at
+	 */
+	public void repairBuckets(PicoAddress adr, Set<Integer> buckets, List<PicoContainer> containers, long version) {
+		Node existing = cluster.get(adr);
+		if (existing == null || adr.equals(manager.getAddress()))
+			return;
+
+		existing.repairBuckets(buckets, containers, version);
+	}
+
+	/**
+	 * Anti-entropy method to reconcile the view of a random remote node with
+	 * the node itself. Repairs views left stale by missed broadcasts.
+	 */
+	public void antiEntropy() {
+		List<Node> members = getClusterMembers();
+		members.removeIf(n -> n.getAddress().equals(manager.getAddress()));
+		if (members.isEmpty())
+			return;
+
+		Node view = members.get(ThreadLocalRandom.current().nextInt(members.size()));
+		try {
+			this.comm.antiEntropyRemote(view);
+		} catch (Exception e) {
+			logger.warn("Failed anti-entropy with {}: {}", view.getAddress(), e.getMessage());
+		}
 	}
 
 	/**
@@ -210,74 +440,105 @@ public class ClusterManager {
 	}
 
 	/**
-	 * Heartbeat method to send heartbeats to all nodes in the cluster
-	 * and handle suspected dead nodes
+	 * Heartbeat method to send heartbeats to the nodes in the cluster that
+	 * are due according to the heartbeat scheduler and handle suspected dead
+	 * nodes. Heartbeats are sent in parallel with a per-round deadline, and a
+	 * node that has not yet answered its previous heartbeat is skipped so 
+	 * that rounds never pile up. Should be called every HeartbeatScheduler.TICK
+	 * milliseconds.
 	 */
 	public void heartbeat() {
 		List<Node> members = getClusterMembers();
+		members.removeIf(n -> n.getAddress().equals(manager.getAddress()));
 
-		pool.submit(() -> {
-			long start = System.currentTimeMillis();
+		List<PicoAddress> addresses = new ArrayList<>();
+		for (Node node : members)
+			addresses.add(node.getAddress());
+		Set<PicoAddress> due = scheduler.due(addresses, detector::phi);
 
-			for (Node node : members) {
-				// Filter out self
-				if (node.getAddress().equals(manager.getAddress()))
-					continue;
+		List<CompletableFuture<Void>> round = new ArrayList<>();
+		long start = System.currentTimeMillis();
 
-				try {
-					// Send heartbeat to node
-					Node n = this.comm.heartbeatRemote(node.getAddress());
-
-					// Update node data in cluster
-					cluster.put(n.getAddress(), n);
-
-					// Remove node from suspected list
-					suspectedMembers.remove(node.getAddress());
-				} catch (PicoException e) {
-					logger.warn("Failed to send heartbeat to {}: {}", node.getAddress(), e.getMessage());
-					logger.debug("Found suspected dead node {} adding or incrementing list of suspects.", node.getAddress());
-					// Handle heartbeat failure
-					if (suspectedMembers.containsKey(node.getAddress())) {
-						int count = suspectedMembers.get(node.getAddress());
-						// Ask nodes if node is suspected for them
-						if (count >= 3 && isNodeDead(node.getAddress())) {
-							// If it is suspedted by all nodes, remove it
-							this.comm.removeNodeRemote(node.getAddress());
+		for (Node node : members) {
+			PicoAddress remote = node.getAddress();
+
+			// Let the membership protocol decide on nodes that have been
+			// silent for too long. Only a member that is still alive is
+			// suspected, the suspicion then runs its course.
+			detector.track(remote);
+			double phi = detector.phi(remote);
+			if (phi >= REMOVAL_PHI && membership.suspect(remote))
+				logger.warn("Suspicion level of {} is {}, suspected node", remote, String.format("%.1f", phi));
+
+			if (!due.contains(remote))
+				continue;
+
+			// At most one heartbeat in flight per node
+			if (!inFlightHeartbeats.add(remote)) {
+				logger.debug("Heartbeat to {} is still in flight, skipping", remote);
+				continue;
+			}
+
+			// The reply only carries the changes since the version we know,
+			// which are applied to the node in place
+			CompletableFuture<Void> beat = this.comm.heartbeatRemoteAsync(remote, node.getVersion(), HEARTBEAT_DEADLINE)
+				.handle((res, err) -> {
+					try {
+						if (err == null) {
+							detector.heartbeat(remote);
+							scheduler.recordRtt(remote, System.currentTimeMillis() - start);
 						} else {
-							suspectedMembers.put(node.getAddress(), count + 1);
+							Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+							logger.warn("Failed to send heartbeat to {}: {}", remote, cause.getMessage());
+							scheduler.recordFailure(remote);
 						}
-					} else {
-						suspectedMembers.put(node.getAddress(), 1);
+					} finally {
+						inFlightHeartbeats.remove(remote);
 					}
-				}
-			}
+					return null;
+				});
+			round.add(beat);
+		}
+
+		if (round.isEmpty())
+			return;
+
+		CompletableFuture.allOf(round.toArray(new CompletableFuture[0])).whenComplete((res, err) -> {
 			long time = System.currentTimeMillis() - start;
-			logger.info("Heartbeat with cluster of size {} completed after {} ms", cluster.size(), time);
+			logger.debug("Heartbeat to {} of {} nodes completed after {} ms", round.size(), cluster.size(), time);
 		});
 	}
 
 	/**
-	 * Method to check if a node is dead by sending a suspect request to all
-	 * nodes. If all nodes flag the node as suspected, it is considered dead.
+	 * Method to suspect a node whose heartbeat stream has been broken. A broken
+	 * stream is a strong signal, so the node is suspected by the membership
+	 * protocol straight away and has to refute the suspicion to stay.
 	 * @param adr Address of the node
-	 * @return True if the node is dead, false otherwise
 	 */
-	private boolean isNodeDead(PicoAddress adr) {
-		List<Node> members = getClusterMembers();
+	public void suspect(PicoAddress adr) {
+		if (!cluster.containsKey(adr) || adr.equals(manager.getAddress()))
+			return;
 
-		for (Node node : members) {
-			try {
-				if (!adr.equals(node.getAddress()) && !this.comm.isSuspectRemote(node.getAddress(), adr)) {
-					return false;
-				}
-				
-			} catch (Exception e) {
-				logger.debug("Failed to get ISSUSPECT from {}", node.getAddress());
-				// We do not need to handle this since it is already checking for dead nodes
-			}
-		}
+		if (membership.suspect(adr))
+			logger.warn("Heartbeat stream with {} broke, suspected node", adr);
+	}
+
+	/**
+	 * Method to register that a heartbeat has been received from a node
+	 * @param adr Address of the node
+	 */
+	public void heardFrom(PicoAddress adr) {
+		if (cluster.containsKey(adr))
+			detector.heartbeat(adr);
+	}
 
-		return true;
+	/**
+	 * Method to get the suspicion level of a node, see PhiAccrualDetector
+	 * @param adr Address of the node
+	 * @return Suspicion level
+	 */
+	public double getSuspicion(PicoAddress adr) {
+		return detector.phi(adr);
 	}
 
 	/**
@@ -286,7 +547,7 @@ public class ClusterManager {
 	 * @return True if the node is suspected, false otherwise
 	 */
 	public boolean isSuspect(PicoAddress adr) {
-		return suspectedMembers.containsKey(adr);
+		return detector.phi(adr) >= SUSPECT_PHI || membership.isSuspect(adr);
 	}
 
 	/**
@@ -301,6 +562,20 @@ public class ClusterManager {
 		this.comm.initiateContainerElection(container, leader);
 	}
 
+	/**
+	 * Method to create a batch of containers through the leader, which
+	 * places the whole batch in one election
+	 * @param containers Containers to create
+	 * @param onPlaced Called with the outcome of each container
+	 */
+	public void createContainers(List<PicoContainer> containers, Consumer<Placement> onPlaced) {
+		logger.info("Initializing creation of {} containers ...", containers.size());
+		long start = System.currentTimeMillis();
+		this.comm.deployContainers(containers, onPlaced);
+		long time = System.currentTimeMillis() - start;
+		logger.info("Finished container election process for {} containers after {} ms", containers.size(), time);
+	}
+
 	/**
 	 * Method to add a container to a remote node
 	 * @param address Address of the remote node
@@ -312,7 +587,12 @@ public class ClusterManager {
 			logger.warn("Cannot add container to node: No node with address {} in cluster", address);
 			return;
 		}
-		n.addContainer(container);
+		// Only the node itself records changes to its containers
+		if (address.equals(manager.getAddress()))
+			n.addContainer(container);
+		else
+			n.putContainer(container);
+
 		if (initTimes.containsKey(container)) {
 			long createTime = System.currentTimeMillis() - initTimes.get(container);
 			logger.info("Finished container election process for {} after {} ms", container.getName(), createTime);
@@ -334,10 +614,20 @@ public class ClusterManager {
 	 * @return List of PicoContainer objects
 	 */
 	public List<PicoContainer> getAllContainers() {
+		return mergeContainers(getNodes());
+	}
+
+	/**
+	 * Method to merge the containers of nodes, containers with the same
+	 * name are only included once
+	 * @param nodes Collection of Node objects
+	 * @return List of PicoContainer objects
+	 */
+	public static List<PicoContainer> mergeContainers(Collection<Node> nodes) {
 		//ignore duplicates if running multiple instance on same node
 		HashSet<PicoContainer> set = new HashSet<>(); 
 	
-		for (Node n : getNodes()) 
+		for (Node n : nodes) 
 			set.addAll(n.getContainers());
 		
 		return new ArrayList<>(set);
@@ -349,17 +639,34 @@ public class ClusterManager {
 	 * @return PicoContainer object
 	 */
 	public PicoContainer getContainer(String name) {
-		List<Node> nodes = new ArrayList<Node>(cluster.values());
-		if (!nodes.contains(manager.getNode()))
-			nodes.add(manager.getNode());
-
-		for (Node node : cluster.values()) {
-			for (PicoContainer container : node.getContainers()) {
-				if (container.getName().equals(name)) {
-					return container;
-				}
-			}
-		}
-		return null;
+		ContainerIndex.Location loc = index.get(name);
+		return loc == null ? null : loc.getContainer();
+	}
+
+	/**
+	 * Method to get the host ports in use on the nodes of the cluster
+	 * @return ClusterPorts object
+	 */
+	public ClusterPorts getPorts() {
+		return index.getPorts();
+	}
+
+	/**
+	 * Method to find a container and the node hosting it
+	 * @param name Name of the container
+	 * @return Location of the container, null if no node hosts it
+	 */
+	public ContainerIndex.Location locateContainer(String name) {
+		return index.get(name);
+	}
+
+	/**
+	 * Method to find the node hosting a container
+	 * @param name Name of the container
+	 * @return Address of the node, null if no node hosts the container
+	 */
+	public PicoAddress getContainerHost(String name) {
+		ContainerIndex.Location loc = index.get(name);
+		return loc == null ? null : loc.getHost();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,235 @@
+package se.umu.cs.ads.clustermanagement;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.utils.PortBitmap;
+
+/**
+ * Host ports in use on every node of the cluster, as known from the views
+ * of the nodes. Each node has a PortBitmap that follows the containers
+ * reported by the node, so checking the ports of a container against a
+ * node takes a bit test per port instead of a scan of its containers.
+ *
+ * The leader uses the map to reject containers no node can run before
+ * asking the nodes, and to allocate host ports for containers that ask
+ * for any free port. The nodes still check their own ports when they
+ * evaluate a container, as the views of other nodes may lag behind.
+ */
+public class ClusterPorts {
+	public static final int ALLOC_MIN = 30000;
+	public static final int ALLOC_MAX = 32767;
+	// An allocated port is held until a container claims it, or until the
+	// reservation expires if the container is never created
+	static final long RESERVATION_TTL = 60_000;
+
+	private final ConcurrentHashMap<PicoAddress, HostPorts> hosts;
+	private final Map<Integer, Long> reserved;
+	private final LongSupplier clock;
+
+	/**
+	 * Constructor for the ClusterPorts
+	 */
+	public ClusterPorts() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor for the ClusterPorts with a given clock
+	 * @param clock Current time in milliseconds
+	 */
+	ClusterPorts(LongSupplier clock) {
+		this.hosts = new ConcurrentHashMap<>();
+		this.reserved = new HashMap<>();
+		this.clock = clock;
+	}
+
+	/**
+	 * Records the ports of a container added to or replaced on a node
+	 * @param host Address of the node
+	 * @param container PicoContainer object
+	 */
+	public void put(PicoAddress host, PicoContainer container) {
+		put(host, container.getName(), hostPorts(container));
+	}
+
+	/**
+	 * Records the host ports of a container added to or replaced on a node
+	 * @param host Address of the node
+	 * @param name Name of the container
+	 * @param hostPorts Host ports of the container, invalid ones are ignored
+	 */
+	public void put(PicoAddress host, String name, int[] hostPorts) {
+		int[] ports = Arrays.stream(hostPorts).filter(PortBitmap::isPort).toArray();
+		hosts.computeIfAbsent(host, h -> new HostPorts()).put(name, ports);
+
+		if (ports.length > 0) {
+			synchronized (reserved) {
+				for (int port : ports)
+					reserved.remove(port);
+			}
+		}
+	}
+
+	/**
+	 * Releases the ports of a container removed from a node
+	 * @param host Address of the node
+	 * @param name Name of the container
+	 */
+	public void removed(PicoAddress host, String name) {
+		HostPorts ports = hosts.get(host);
+		if (ports != null)
+			ports.remove(name);
+	}
+
+	/**
+	 * Forgets the ports of a node that left the cluster
+	 * @param host Address of the node
+	 */
+	public void removeHost(PicoAddress host) {
+		hosts.remove(host);
+	}
+
+	/**
+	 * Gets the given ports that are in use on a node
+	 * @param host Address of the node
+	 * @param ports Host ports to check
+	 * @return Ports in use, empty if none are
+	 */
+	public int[] conflicts(PicoAddress host, Collection<Integer> ports) {
+		HostPorts used = hosts.get(host);
+		return used == null ? new int[0] : used.conflicts(ports);
+	}
+
+	/**
+	 * Gets a copy of the ports in use on a node
+	 * @param host Address of the node
+	 * @return PortBitmap object
+	 */
+	public PortBitmap snapshot(PicoAddress host) {
+		HostPorts used = hosts.get(host);
+		return used == null ? new PortBitmap() : used.snapshot();
+	}
+
+	/**
+	 * Finds the nodes on which none of the given ports are in use
+	 * @param members Nodes to consider
+	 * @param ports Host ports to check
+	 * @return Nodes that can bind all the ports
+	 */
+	public List<PicoAddress> candidates(Collection<PicoAddress> members, Collection<Integer> ports) {
+		List<PicoAddress> res = new ArrayList<>(members.size());
+		for (PicoAddress member : members) {
+			HostPorts used = hosts.get(member);
+			if (used == null || !used.intersects(ports))
+				res.add(member);
+		}
+		return res;
+	}
+
+	/**
+	 * Allocates a host port that is free on all the given nodes and not
+	 * handed out by an earlier allocation, between ALLOC_MIN and ALLOC_MAX
+	 * @param members Nodes the port has to be free on
+	 * @return Port number, -1 if there is no free port
+	 */
+	public int allocate(Collection<PicoAddress> members) {
+		PortBitmap taken = new PortBitmap();
+		for (PicoAddress member : members) {
+			HostPorts used = hosts.get(member);
+			if (used != null)
+				used.addTo(taken);
+		}
+
+		synchronized (reserved) {
+			long now = clock.getAsLong();
+			reserved.values().removeIf(time -> now - time > RESERVATION_TTL);
+			for (int port : reserved.keySet())
+				taken.set(port);
+
+			int port = taken.nextClear(ALLOC_MIN, ALLOC_MAX);
+			if (port != -1)
+				reserved.put(port, now);
+			return port;
+		}
+	}
+
+	/**
+	 * Gets the host ports of a container
+	 * @param container PicoContainer object
+	 * @return Array of valid ports
+	 */
+	private static int[] hostPorts(PicoContainer container) {
+		Map<Integer, Integer> ports = container.getPortsMap();
+		if (ports == null || ports.isEmpty())
+			return new int[0];
+		return ports.keySet().stream()
+			.filter(port -> port != null && PortBitmap.isPort(port))
+			.mapToInt(Integer::intValue)
+			.toArray();
+	}
+
+	/**
+	 * Ports in use on one node. A port claimed by more than one container,
+	 * which a lagging view may show, is counted so that it stays in use
+	 * until the last of them is removed.
+	 */
+	private static class HostPorts {
+		private final PortBitmap used = new PortBitmap();
+		private final Map<Integer, Integer> shared = new HashMap<>();
+		private final Map<String, int[]> containers = new HashMap<>();
+
+		synchronized void put(String name, int[] ports) {
+			int[] old = containers.put(name, ports);
+			if (old != null) {
+				for (int port : old)
+					release(port);
+			}
+			for (int port : ports)
+				claim(port);
+		}
+
+		synchronized void remove(String name) {
+			int[] old = containers.remove(name);
+			if (old == null)
+				return;
+			for (int port : old)
+				release(port);
+		}
+
+		synchronized int[] conflicts(Collection<Integer> ports) {
+			return used.conflicts(ports);
+		}
+
+		synchronized boolean intersects(Collection<Integer> ports) {
+			return used.intersects(ports);
+		}
+
+		synchronized PortBitmap snapshot() {
+			return used.copy();
+		}
+
+		synchronized void addTo(PortBitmap taken) {
+			taken.or(used);
+		}
+
+		private void claim(int port) {
+			if (used.get(port))
+				shared.merge(port, 1, Integer::sum);
+			else
+				used.set(port);
+		}
+
+		private void release(int port) {
+			Integer extra = shared.get(port);
+			if (extra == null)
+				used.clear(port);
+			else if (extra == 1)
+				shared.remove(port);
+			else
+				shared.put(port, extra - 1);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package se.umu.cs.ads.clustermanagement;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.umu.cs.ads.types.*;
+
+/**
+ * Index from container name to the node hosting the container, over the
+ * views of all nodes in the cluster. The nodes report every change to
+ * their containers, so the index is kept up to date by heartbeats,
+ * election ends and local refreshes without scanning the nodes.
+ *
+ * A container moving between nodes may briefly be listed by both. The
+ * index follows the latest report, and a removal only clears the entry
+ * if it still points at the node that removed the container.
+ *
+ * The changes are also passed on to the ClusterPorts, which keeps the
+ * host ports in use on every node.
+ *
+ * The index only holds the node of each container, the container itself
+ * is read from the compact registry of the node when it is asked for.
+ */
+public class ContainerIndex implements Node.ContainerListener {
+	private final ConcurrentHashMap<String, Location> locations;
+	private final ConcurrentHashMap<PicoAddress, Set<String>> hosted;
+	private final ConcurrentHashMap<PicoAddress, Node> nodes;
+	private final ClusterPorts ports;
+
+	/**
+	 * Constructor for the ContainerIndex
+	 */
+	public ContainerIndex() {
+		this.locations = new ConcurrentHashMap<>();
+		this.hosted = new ConcurrentHashMap<>();
+		this.nodes = new ConcurrentHashMap<>();
+		this.ports = new ClusterPorts();
+	}
+
+	/**
+	 * Starts indexing a node, its current containers are indexed at once
+	 * @param node Node object
+	 */
+	public void track(Node node) {
+		nodes.put(node.getAddress(), node);
+		node.setListener(this);
+	}
+
+	/**
+	 * Stops indexing a node and drops its containers from the index
+	 * @param node Node object, may be null
+	 */
+	public void untrack(Node node) {
+		if (node == null)
+			return;
+		node.setListener(null);
+		nodes.remove(node.getAddress(), node);
+		removeHost(node.getAddress());
+	}
+
+	@Override
+	public void put(PicoAddress host, String name, int[] hostPorts) {
+		ports.put(host, name, hostPorts);
+
+		Node node = nodes.get(host);
+		if (node == null)
+			return;
+		Location current = locations.get(name);
+		if (current == null || current.node != node)
+			locations.put(name, new Location(name, node));
+		hosted.computeIfAbsent(host, h -> ConcurrentHashMap.newKeySet()).add(name);
+	}
+
+	@Override
+	public void removed(PicoAddress host, String name) {
+		ports.removed(host, name);
+		locations.computeIfPresent(name, (k, loc) -> loc.host.equals(host) ? null : loc);
+		Set<String> names = hosted.get(host);
+		if (names != null)
+			names.remove(name);
+	}
+
+	/**
+	 * Drops all containers of a node from the index
+	 * @param host Address of the node
+	 */
+	public void removeHost(PicoAddress host) {
+		ports.removeHost(host);
+		Set<String> names = hosted.remove(host);
+		if (names == null)
+			return;
+		for (String name : names)
+			locations.computeIfPresent(name, (k, loc) -> loc.host.equals(host) ? null : loc);
+	}
+
+	/**
+	 * Gets the location of a container
+	 * @param name Name of the container
+	 * @return Location object, null if no node hosts the container
+	 */
+	public Location get(String name) {
+		return locations.get(name);
+	}
+
+	/**
+	 * Gets the host ports in use on the indexed nodes
+	 * @return ClusterPorts object
+	 */
+	public ClusterPorts getPorts() {
+		return ports;
+	}
+
+	/**
+	 * Gets the number of indexed containers
+	 * @return int
+	 */
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Location of a container: the node hosting it. The container is
+	 * read from the node, and may be gone if the node removed it since
+	 * the location was looked up.
+	 */
+	public static final class Location {
+		private final String name;
+		private final PicoAddress host;
+		private final Node node;
+
+		Location(String name, Node node) {
+			this.name = name;
+			this.host = node.getAddress();
+			this.node = node;
+		}
+
+		public PicoAddress getHost() {
+			return host;
+		}
+
+		/**
+		 * Gets the container as last reported by the node
+		 * @return New PicoContainer object, null if the node no longer has it
+		 */
+		public PicoContainer getContainer() {
+			return node.getContainer(name);
+		}
+
+		/**
+		 * Gets the state of the container without creating a view of it
+		 * @return PicoContainerState, null if the node no longer has it
+		 */
+		public PicoContainerState getState() {
+			ContainerSnapshot snapshot = node.snapshot();
+			int index = snapshot.indexOf(name);
+			return index < 0 ? null : snapshot.stateAt(index);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package se.umu.cs.ads.clustermanagement;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Scheduler deciding when each node is sent its next heartbeat. Stable nodes
+ * are probed less often and nodes that are in trouble or recovering more
+ * often. A node is in trouble when a heartbeat to it fails or is answered
+ * late, or when the failure detector suspects it. The interval shrinks with recent membership churn, never drops
+ * below a few round trip times, and all intervals are stretched when the 
+ * total rate would exceed the heartbeat budget.
+ */
+public class HeartbeatScheduler {
+	public static final long TICK = 250;
+	public static final long MIN_INTERVAL = 500;
+	public static final long DEFAULT_INTERVAL = 2000;
+	public static final long MAX_INTERVAL = 4000;
+	public static final long CHURN_WINDOW = 60000;
+	public static final long RECOVERY_WINDOW = 30000;
+	public static final double TROUBLE_PHI = ClusterManager.SUSPECT_PHI;
+	public static final long LATE_RTT = 500;
+	public static final int RTT_FACTOR = 4;
+
+	private final double budget;
+	private final Map<PicoAddress, Peer> peers;
+	private final Deque<Long> churn;
+	private final LongSupplier clock;
+
+	/**
+	 * Constructor for the HeartbeatScheduler
+	 * @param budget Maximum number of heartbeats per second sent by the node
+	 */
+	public HeartbeatScheduler(double budget) {
+		this(budget, System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor for the HeartbeatScheduler with a given clock
+	 * @param budget Maximum number of heartbeats per second sent by the node
+	 * @param clock Current time in milliseconds
+	 */
+	HeartbeatScheduler(double budget, LongSupplier clock) {
+		this.budget = budget;
+		this.peers = new ConcurrentHashMap<>();
+		this.churn = new ArrayDeque<>();
+		this.clock = clock;
+	}
+
+	/**
+	 * Gets the nodes that are due for a heartbeat and schedules their next
+	 * heartbeat
+	 * @param members Addresses of the other nodes in the cluster
+	 * @param suspicion Suspicion level of a node, see PhiAccrualDetector
+	 * @return Set of addresses due for a heartbeat
+	 */
+	public synchronized Set<PicoAddress> due(List<PicoAddress> members, ToDoubleFunction<PicoAddress> suspicion) {
+		long now = clock.getAsLong();
+		int recentChurn = churn(now);
+
+		Map<PicoAddress, Long> intervals = new HashMap<>();
+		double rate = 0;
+		for (PicoAddress adr : members) {
+			Peer peer = peers.computeIfAbsent(adr, key -> new Peer(now));
+			if (suspicion.applyAsDouble(adr) >= TROUBLE_PHI)
+				peer.lastTrouble = now;
+
+			long interval = interval(peer, now, recentChurn);
+			intervals.put(adr, interval);
+			rate += 1000.0 / interval;
+		}
+
+		// Stretch all intervals evenly if the budget would be exceeded
+		double stretch = rate > budget ? rate / budget : 1;
+
+		Set<PicoAddress> due = new HashSet<>();
+		for (PicoAddress adr : members) {
+			Peer peer = peers.get(adr);
+			if (peer.nextDue > now)
+				continue;
+
+			due.add(adr);
+			peer.nextDue = now + (long) (intervals.get(adr) * stretch);
+		}
+
+		peers.keySet().retainAll(members);
+		return due;
+	}
+
+	/**
+	 * Computes the interval of a node before the budget is applied
+	 * @param peer State of the node
+	 * @param now Current time
+	 * @param recentChurn Number of membership changes in the churn window
+	 * @return Interval in milliseconds
+	 */
+	private long interval(Peer peer, long now, int recentChurn) {
+		long interval;
+		if (now - peer.lastTrouble < RECOVERY_WINDOW)
+			interval = MIN_INTERVAL;
+		else if (recentChurn == 0)
+			interval = MAX_INTERVAL;
+		else
+			interval = Math.max(MIN_INTERVAL, DEFAULT_INTERVAL / recentChurn);
+
+		return Math.max(interval, RTT_FACTOR * (long) peer.rtt);
+	}
+
+	/**
+	 * Records the round trip time of a heartbeat. A heartbeat answered
+	 * later than LATE_RTT and RTT_FACTOR times the usual round trip puts
+	 * the node in trouble.
+	 * @param adr Address of the node
+	 * @param rtt Round trip time in milliseconds
+	 */
+	public void recordRtt(PicoAddress adr, long rtt) {
+		Peer peer = peers.get(adr);
+		if (peer == null)
+			return;
+
+		synchronized (this) {
+			if (rtt > Math.max(LATE_RTT, RTT_FACTOR * peer.rtt))
+				peer.lastTrouble = clock.getAsLong();
+			peer.rtt = peer.rtt == 0 ? rtt : 0.8 * peer.rtt + 0.2 * rtt;
+		}
+	}
+
+	/**
+	 * Records a heartbeat that failed or was not answered in time. The node
+	 * is in trouble and probed often for a while.
+	 * @param adr Address of the node
+	 */
+	public void recordFailure(PicoAddress adr) {
+		Peer peer = peers.get(adr);
+		if (peer == null)
+			return;
+
+		synchronized (this) {
+			peer.lastTrouble = clock.getAsLong();
+		}
+	}
+
+	/**
+	 * Records a change of the cluster membership. The node is treated as
+	 * recovering so that it is probed often for a while.
+	 * @param adr Address of the node that joined or left
+	 */
+	public synchronized void recordChurn(PicoAddress adr) {
+		long now = clock.getAsLong();
+		churn.addLast(now);
+
+		Peer peer = peers.get(adr);
+		if (peer != null) 
+			peer.lastTrouble = now;
+	}
+
+	/**
+	 * Counts the membership changes in the churn window and forgets older
+	 * ones. Must be called while holding the lock.
+	 * @param now Current time
+	 * @return Number of recent membership changes
+	 */
+	private int churn(long now) {
+		while (!churn.isEmpty() && now - churn.peekFirst() > CHURN_WINDOW)
+			churn.removeFirst();
+		return churn.size();
+	}
+
+	/**
+	 * Scheduling state of a single node
+	 */
+	private static class Peer {
+		private long nextDue = 0;
+		private long lastTrouble;
+		private double rtt = 0;
+
+		/**
+		 * Constructor for the Peer. New nodes start as recovering.
+		 * @param now Current time
+		 */
+		Peer(long now) {
+			this.lastTrouble = now;
+		}
+	}
+}
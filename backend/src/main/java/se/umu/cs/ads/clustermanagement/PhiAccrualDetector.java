@@ -0,0 +1,155 @@
+package se.umu.cs.ads.clustermanagement;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Phi accrual failure detector. Keeps a sliding window of heartbeat 
+ * inter-arrival times per node and expresses how unlikely it is that the
+ * next heartbeat is still on its way as a continuous suspicion level phi.
+ * A phi of 1 means a 10% chance of a false suspicion, a phi of 2 a 1% chance
+ * and so on, so the thresholds adapt to the latency of every link.
+ */
+public class PhiAccrualDetector {
+	public static final int WINDOW = 100;
+	public static final long MIN_STD_DEV = 200;
+	public static final long ACCEPTABLE_PAUSE = 3000;
+	public static final long FIRST_HEARTBEAT_ESTIMATE = 2000;
+
+	private final Map<PicoAddress, History> histories;
+	private final LongSupplier clock;
+
+	/**
+	 * Constructor for the PhiAccrualDetector
+	 */
+	public PhiAccrualDetector() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor for the PhiAccrualDetector with a given clock
+	 * @param clock Current time in milliseconds
+	 */
+	PhiAccrualDetector(LongSupplier clock) {
+		this.histories = new ConcurrentHashMap<>();
+		this.clock = clock;
+	}
+
+	/**
+	 * Starts tracking a node if it is not tracked already. The time of the
+	 * call counts as the first heartbeat, so that a node that never answers
+	 * is suspected as well.
+	 * @param adr Address of the node
+	 */
+	public void track(PicoAddress adr) {
+		long now = clock.getAsLong();
+		histories.computeIfAbsent(adr, key -> new History(now));
+	}
+
+	/**
+	 * Records a heartbeat from a node
+	 * @param adr Address of the node
+	 */
+	public void heartbeat(PicoAddress adr) {
+		long now = clock.getAsLong();
+		History history = histories.computeIfAbsent(adr, key -> new History(now));
+		history.add(now);
+	}
+
+	/**
+	 * Stops tracking a node
+	 * @param adr Address of the node
+	 */
+	public void remove(PicoAddress adr) {
+		histories.remove(adr);
+	}
+
+	/**
+	 * Gets the suspicion level of a node
+	 * @param adr Address of the node
+	 * @return Suspicion level, 0 for nodes that are not tracked
+	 */
+	public double phi(PicoAddress adr) {
+		History history = histories.get(adr);
+		if (history == null)
+			return 0;
+		return history.phi(clock.getAsLong());
+	}
+
+	/**
+	 * Sliding window of inter-arrival times kept in a ring buffer, together
+	 * with running sums for the mean and variance
+	 */
+	private static class History {
+		private final long[] intervals = new long[WINDOW];
+		private int head = 0;
+		private int count = 0;
+		private long sum = 0;
+		private long sumSquares = 0;
+		private long last;
+
+		/**
+		 * Constructor for the History, seeded with an estimate of the 
+		 * heartbeat interval
+		 * @param now Time of the first heartbeat
+		 */
+		History(long now) {
+			this.last = now;
+			long deviation = FIRST_HEARTBEAT_ESTIMATE / 4;
+			push(FIRST_HEARTBEAT_ESTIMATE - deviation);
+			push(FIRST_HEARTBEAT_ESTIMATE + deviation);
+		}
+
+		/**
+		 * Records a heartbeat
+		 * @param now Time of the heartbeat
+		 */
+		synchronized void add(long now) {
+			long interval = now - last;
+			last = now;
+			push(interval);
+		}
+
+		/**
+		 * Pushes an interval into the window, evicting the oldest interval
+		 * when the window is full
+		 * @param interval Interval in milliseconds
+		 */
+		private void push(long interval) {
+			if (count == WINDOW) {
+				long evicted = intervals[head];
+				sum -= evicted;
+				sumSquares -= evicted * evicted;
+			} else {
+				count++;
+			}
+
+			intervals[head] = interval;
+			head = (head + 1) % WINDOW;
+			sum += interval;
+			sumSquares += interval * interval;
+		}
+
+		/**
+		 * Computes phi using a logistic approximation of the cumulative
+		 * normal distribution of the intervals
+		 * @param now Current time
+		 * @return Suspicion level
+		 */
+		synchronized double phi(long now) {
+			double mean = (double) sum / count;
+			double variance = (double) sumSquares / count - mean * mean;
+			double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), MIN_STD_DEV);
+
+			double elapsed = now - last;
+			double y = (elapsed - mean - ACCEPTABLE_PAUSE) / stdDev;
+			double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+			if (elapsed > mean + ACCEPTABLE_PAUSE)
+				return -Math.log10(e / (1.0 + e));
+			return -Math.log10(1.0 - 1.0 / (1.0 + e));
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package se.umu.cs.ads.clustermanagement;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.arguments.CommandLineArguments;
+import se.umu.cs.ads.communication.PicoCommunication;
+import se.umu.cs.ads.types.*;
+
+/**
+ * SWIM style membership protocol. Every protocol period one member is probed
+ * directly, and if it does not answer, indirectly through a few random
+ * helpers. Members that cannot be reached are suspected, and declared dead
+ * if they do not refute the suspicion in time. Membership updates are
+ * piggybacked on the probes, so the load on every node stays constant as
+ * the cluster grows.
+ */
+public class SwimMembership {
+	private final static Logger logger = LogManager.getLogger(SwimMembership.class);
+	public static final long PROTOCOL_PERIOD = 1000;
+	public static final long PING_TIMEOUT = 300;
+	public static final int INDIRECT_PROBES = 3;
+	public static final int SUSPICION_MULTIPLIER = 4;
+	public static final int RETRANSMIT_MULTIPLIER = 3;
+	public static final int MAX_PIGGYBACK = 8;
+
+	private final ClusterManager cluster;
+	private final PicoCommunication comm;
+	private final PicoAddress self;
+	private final Map<PicoAddress, MemberUpdate> members;
+	private final Map<PicoAddress, Long> suspectSince;
+	private final Map<PicoAddress, Integer> gossip;
+	private final List<PicoAddress> probeOrder;
+	private final AtomicBoolean probing;
+	private final ExecutorService pool = CommandLineArguments.pool;
+	private final ScheduledExecutorService scheduledPool = CommandLineArguments.scheduledPool;
+	private int probeIndex = 0;
+	private long incarnation = 0;
+
+	/**
+	 * Constructor for the SwimMembership
+	 * @param cluster ClusterManager object
+	 * @param comm PicoCommunication object
+	 * @param self Address of the local node
+	 */
+	public SwimMembership(ClusterManager cluster, PicoCommunication comm, PicoAddress self) {
+		this.cluster = cluster;
+		this.comm = comm;
+		this.self = self;
+		this.members = new ConcurrentHashMap<>();
+		this.suspectSince = new ConcurrentHashMap<>();
+		this.gossip = new HashMap<>();
+		this.probeOrder = new ArrayList<>();
+		this.probing = new AtomicBoolean(false);
+		this.members.put(self, new MemberUpdate(self, MemberStatus.ALIVE, incarnation));
+	}
+
+	/**
+	 * Starts the protocol periods. A period is skipped if the previous one
+	 * is still running.
+	 */
+	public void start() {
+		scheduledPool.scheduleAtFixedRate(() -> {
+			if (!probing.compareAndSet(false, true))
+				return;
+
+			pool.submit(() -> {
+				try {
+					protocolPeriod();
+				} catch (Exception e) {
+					logger.error("Membership protocol period failed: {}", e.getMessage());
+				} finally {
+					probing.set(false);
+				}
+			});
+		}, PROTOCOL_PERIOD, PROTOCOL_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs one protocol period: expires old suspicions and probes the next
+	 * member in the probe order
+	 */
+	private void protocolPeriod() {
+		expireSuspects();
+
+		PicoAddress target = nextTarget();
+		if (target == null)
+			return;
+
+		long start = System.currentTimeMillis();
+		if (probe(target)) {
+			logger.debug("Probed {} after {} ms", target, System.currentTimeMillis() - start);
+			return;
+		}
+
+		if (suspect(target))
+			logger.warn("Failed to probe {} directly and indirectly, suspected node", target);
+	}
+
+	/**
+	 * Probes a member, first directly and then indirectly through up to
+	 * INDIRECT_PROBES random helpers
+	 * @param target Address of the member
+	 * @return True if the member acknowledged the probe
+	 */
+	private boolean probe(PicoAddress target) {
+		try {
+			comm.pingRemote(target, piggyback(), PING_TIMEOUT);
+			return true;
+		} catch (Exception e) {
+			logger.debug("Direct probe of {} failed: {}", target, e.getMessage());
+		}
+
+		List<PicoAddress> helpers = cluster.getClusterAddresses();
+		helpers.removeIf(adr -> adr.equals(self) || adr.equals(target) || !isAlive(adr));
+		Collections.shuffle(helpers);
+		if (helpers.size() > INDIRECT_PROBES)
+			helpers = helpers.subList(0, INDIRECT_PROBES);
+
+		long timeout = PROTOCOL_PERIOD - PING_TIMEOUT;
+		List<Future<Boolean>> replies = new ArrayList<>();
+		for (PicoAddress helper : helpers) {
+			replies.add(pool.submit(() -> {
+				return comm.pingRequestRemote(helper, target, piggyback(), timeout);
+			}));
+		}
+
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean alive = false;
+		for (Future<Boolean> reply : replies) {
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				if (!alive && reply.get(remaining, TimeUnit.MILLISECONDS))
+					alive = true;
+			} catch (InterruptedException | ExecutionException | TimeoutException e) {
+				logger.debug("Indirect probe of {} failed: {}", target, e.getMessage());
+			} finally {
+				reply.cancel(true);
+			}
+		}
+		return alive;
+	}
+
+	/**
+	 * Probes a member on behalf of another member
+	 * @param target Address of the member
+	 * @return True if the member acknowledged the probe
+	 */
+	public boolean probeFor(PicoAddress target) {
+		try {
+			comm.pingRemote(target, piggyback(), PING_TIMEOUT);
+			return true;
+		} catch (Exception e) {
+			logger.debug("Probe of {} on request failed: {}", target, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the next member to probe. Members are probed in a random order
+	 * that is reshuffled every time all members have been probed.
+	 * @return Address of the member, or null if there are no other members
+	 */
+	private synchronized PicoAddress nextTarget() {
+		while (true) {
+			if (probeIndex >= probeOrder.size()) {
+				probeOrder.clear();
+				for (PicoAddress adr : cluster.getClusterAddresses()) {
+					if (!adr.equals(self) && isAlive(adr))
+						probeOrder.add(adr);
+				}
+				Collections.shuffle(probeOrder);
+				probeIndex = 0;
+
+				if (probeOrder.isEmpty())
+					return null;
+			}
+
+			PicoAddress target = probeOrder.get(probeIndex++);
+			if (cluster.getNode(target) != null)
+				return target;
+		}
+	}
+
+	/**
+	 * Suspects a member. The suspicion is disseminated to the other members
+	 * and the member is declared dead if it does not refute it in time.
+	 * A member that is already suspected or dead is left as it is.
+	 * @param adr Address of the member
+	 * @return True if the member was alive and is now suspected
+	 */
+	public synchronized boolean suspect(PicoAddress adr) {
+		if (adr.equals(self) || !isAlive(adr))
+			return false;
+
+		MemberUpdate current = members.get(adr);
+		long inc = current == null ? 0 : current.getIncarnation();
+		apply(new MemberUpdate(adr, MemberStatus.SUSPECT, inc));
+		return true;
+	}
+
+	/**
+	 * Marks a member as alive after it joined the cluster. Replaces any
+	 * earlier state of the member.
+	 * @param adr Address of the member
+	 */
+	public synchronized void joined(PicoAddress adr) {
+		if (adr.equals(self))
+			return;
+
+		MemberUpdate current = members.get(adr);
+		if (current != null && current.getStatus() == MemberStatus.ALIVE)
+			return;
+
+		long inc = current == null ? 0 : current.getIncarnation() + 1;
+		members.put(adr, new MemberUpdate(adr, MemberStatus.ALIVE, inc));
+		suspectSince.remove(adr);
+		gossip.put(adr, 0);
+	}
+
+	/**
+	 * Checks if a member is suspected by the membership protocol
+	 * @param adr Address of the member
+	 * @return boolean
+	 */
+	public boolean isSuspect(PicoAddress adr) {
+		MemberUpdate current = members.get(adr);
+		return current != null && current.getStatus() == MemberStatus.SUSPECT;
+	}
+
+	/**
+	 * Gets the current state of a member
+	 * @param adr Address of the member
+	 * @return MemberUpdate object, null if the member is unknown
+	 */
+	MemberUpdate member(PicoAddress adr) {
+		return members.get(adr);
+	}
+
+	/**
+	 * Checks if a member is not suspected or dead
+	 * @param adr Address of the member
+	 * @return boolean
+	 */
+	private boolean isAlive(PicoAddress adr) {
+		MemberUpdate current = members.get(adr);
+		return current == null || current.getStatus() == MemberStatus.ALIVE;
+	}
+
+	/**
+	 * Handles membership updates piggybacked on a probe or an ack
+	 * @param updates List of updates
+	 */
+	public void receive(List<MemberUpdate> updates) {
+		for (MemberUpdate update : updates) {
+			if (update.getAddress().equals(self))
+				refute(update);
+			else
+				apply(update);
+		}
+	}
+
+	/**
+	 * Refutes a suspicion about the local node by increasing the incarnation
+	 * number and disseminating that it is alive. If the node was declared
+	 * dead its running containers have been moved to other nodes, so they
+	 * are removed here before the node rejoins with the new incarnation.
+	 * @param update Update about the local node
+	 */
+	private synchronized void refute(MemberUpdate update) {
+		if (update.getStatus() == MemberStatus.ALIVE || update.getIncarnation() < incarnation)
+			return;
+
+		if (update.getStatus() == MemberStatus.DEAD) {
+			logger.warn("Local node has been declared dead by the cluster");
+			pool.submit(() -> {
+				cluster.declaredDead();
+			});
+		}
+
+		incarnation = update.getIncarnation() + 1;
+		members.put(self, new MemberUpdate(self, MemberStatus.ALIVE, incarnation));
+		gossip.put(self, 0);
+		logger.info("Refuted {}, now at incarnation {}", update, incarnation);
+	}
+
+	/**
+	 * Applies a membership update about another member if it overrides the
+	 * current state of the member
+	 * @param update Update to apply
+	 */
+	private void apply(MemberUpdate update) {
+		PicoAddress adr = update.getAddress();
+		synchronized (this) {
+			if (!update.overrides(members.get(adr)))
+				return;
+
+			members.put(adr, update);
+			gossip.put(adr, 0);
+
+			if (update.getStatus() == MemberStatus.SUSPECT)
+				suspectSince.putIfAbsent(adr, System.currentTimeMillis());
+			else
+				suspectSince.remove(adr);
+		}
+
+		logger.info("Applied membership update {}", update);
+		switch (update.getStatus()) {
+			case ALIVE:
+				cluster.addMember(adr);
+				break;
+			case DEAD:
+				pool.submit(() -> {
+					cluster.memberDead(adr);
+				});
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * Declares suspected members dead once their suspicion has timed out.
+	 * The timeout grows with the logarithm of the cluster size.
+	 */
+	private void expireSuspects() {
+		long timeout = SUSPICION_MULTIPLIER * scale() * PROTOCOL_PERIOD;
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<PicoAddress, Long> entry : suspectSince.entrySet()) {
+			if (now - entry.getValue() < timeout)
+				continue;
+
+			PicoAddress adr = entry.getKey();
+			MemberUpdate current = members.get(adr);
+			long inc = current == null ? 0 : current.getIncarnation();
+			logger.warn("Suspicion of {} timed out after {} ms, declaring node dead", adr, now - entry.getValue());
+			apply(new MemberUpdate(adr, MemberStatus.DEAD, inc));
+		}
+	}
+
+	/**
+	 * Selects the updates to piggyback on the next message. Updates that
+	 * have been sent the fewest times are selected first, and every update
+	 * is sent a number of times logarithmic in the cluster size.
+	 * @return List of updates
+	 */
+	public synchronized List<MemberUpdate> piggyback() {
+		if (gossip.isEmpty())
+			return new ArrayList<>();
+
+		int limit = RETRANSMIT_MULTIPLIER * scale();
+		List<Map.Entry<PicoAddress, Integer>> entries = new ArrayList<>(gossip.entrySet());
+		entries.sort(Map.Entry.comparingByValue());
+
+		List<MemberUpdate> res = new ArrayList<>();
+		for (Map.Entry<PicoAddress, Integer> entry : entries) {
+			if (res.size() >= MAX_PIGGYBACK)
+				break;
+
+			PicoAddress adr = entry.getKey();
+			res.add(members.get(adr));
+
+			int sent = entry.getValue() + 1;
+			if (sent >= limit)
+				gossip.remove(adr);
+			else
+				gossip.put(adr, sent);
+		}
+		return res;
+	}
+
+	/**
+	 * Gets the logarithm of the cluster size, at least 1
+	 * @return int
+	 */
+	private int scale() {
+		int size = cluster.getClusterAddresses().size();
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(size));
+	}
+}
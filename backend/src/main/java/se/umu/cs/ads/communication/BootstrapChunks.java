@@ -0,0 +1,93 @@
+package se.umu.cs.ads.communication;
+
+import java.util.*;
+
+import se.umu.cs.ads.serializers.ContainerSerializer;
+import se.umu.cs.ads.types.*;
+
+/**
+ * Produces the messages of a streamed cluster snapshot for a joining node.
+ * The membership comes first, followed by the containers of each node in
+ * chunks of at most CHUNK_SIZE containers. The containers of a node are
+ * only copied when its first chunk is produced, so the snapshot is never
+ * held in memory as a whole.
+ */
+public class BootstrapChunks implements Iterator<RpcBootstrap> {
+	public static final int CHUNK_SIZE = 256;
+
+	private final String clusterName;
+	private final List<Node> nodes;
+	private boolean membersSent = false;
+	private int nodeIndex = 0;
+	private ContainerSnapshot current = null;
+	private int offset = 0;
+
+	/**
+	 * Constructor for the BootstrapChunks
+	 * @param clusterName Name of the cluster
+	 * @param nodes Nodes of the cluster
+	 */
+	public BootstrapChunks(String clusterName, List<Node> nodes) {
+		this.clusterName = clusterName;
+		this.nodes = nodes;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !membersSent || nodeIndex < nodes.size();
+	}
+
+	@Override
+	public RpcBootstrap next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		if (!membersSent) {
+			membersSent = true;
+			return RpcBootstrap.newBuilder().setMembers(members()).build();
+		}
+
+		Node node = nodes.get(nodeIndex);
+		if (current == null) {
+			// The containers and the version come from the same snapshot,
+			// which is not copied
+			current = node.snapshot();
+			offset = 0;
+		}
+
+		int end = Math.min(offset + CHUNK_SIZE, current.size());
+		RpcContainerChunk.Builder chunk = RpcContainerChunk.newBuilder()
+			.setNode(metadata(node.getAddress()))
+			.setVersion(current.getVersion())
+			.setLast(end == current.size());
+		for (int i = offset; i < end; i++)
+			chunk.addContainers(ContainerSerializer.toRPC(current, i));
+
+		offset = end;
+		if (chunk.getLast()) {
+			current = null;
+			nodeIndex++;
+		}
+		return RpcBootstrap.newBuilder().setContainers(chunk).build();
+	}
+
+	/**
+	 * Builds the membership message
+	 * @return RpcBootstrapMembers object
+	 */
+	private RpcBootstrapMembers members() {
+		RpcBootstrapMembers.Builder builder = RpcBootstrapMembers.newBuilder().setClusterName(clusterName);
+		for (Node node : nodes)
+			builder.addMembers(metadata(node.getAddress()));
+		return builder.build();
+	}
+
+	/**
+	 * Builds the metadata of an address
+	 * @param adr PicoAddress object
+	 * @return RpcMetadata object
+	 */
+	private static RpcMetadata metadata(PicoAddress adr) {
+		return RpcMetadata.newBuilder().setIp(adr.getIP()).setPort(adr.getPort()).build();
+	}
+}
@@ -0,0 +1,296 @@
+package se.umu.cs.ads.communication;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.arguments.CommandLineArguments;
+import se.umu.cs.ads.communication.RpcServiceGrpc.*;
+import se.umu.cs.ads.exception.PicoException;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Keeps one channel per remote node and tracks its connectivity. Channels
+ * are opened eagerly when a node joins, and are only replaced after
+ * transport failures, with exponential backoff between attempts. Errors
+ * returned by the application on the remote leave the channel untouched.
+ */
+public class ChannelManager {
+	private final static Logger logger = LogManager.getLogger(ChannelManager.class);
+	public static final long INITIAL_BACKOFF = 250;
+	public static final long MAX_BACKOFF = 30000;
+	public static final double BACKOFF_MULTIPLIER = 2;
+	public static final double BACKOFF_JITTER = 0.2;
+
+	private final Map<PicoAddress, Connection> connections;
+	private final ScheduledExecutorService scheduledPool = CommandLineArguments.scheduledPool;
+
+	/**
+	 * Kind of an error returned by a call
+	 */
+	public enum ErrorKind {
+		/** The remote could not be reached or the connection broke */
+		TRANSPORT,
+		/** The remote did not reply before the deadline */
+		TIMEOUT,
+		/** The remote replied with an error, the connection is healthy */
+		APPLICATION
+	}
+
+	/**
+	 * Constructor for the ChannelManager
+	 */
+	public ChannelManager() {
+		this.connections = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Opens a channel to the remote if there is none and starts connecting
+	 * straight away, so that the first call does not pay for the handshake
+	 * @param remote PicoAddress object
+	 */
+	public void connect(PicoAddress remote) {
+		Connection conn = get(remote);
+		conn.channel.getState(true);
+	}
+
+	/**
+	 * Gets the blocking stub for the remote, opening a channel if needed
+	 * @param remote PicoAddress object
+	 * @return RpcServiceBlockingStub object
+	 */
+	public RpcServiceBlockingStub getStub(PicoAddress remote) {
+		return get(remote).stub;
+	}
+
+	/**
+	 * Gets the asynchronous stub for the remote, opening a channel if needed
+	 * @param remote PicoAddress object
+	 * @return RpcServiceStub object
+	 */
+	public RpcServiceStub getAsyncStub(PicoAddress remote) {
+		return get(remote).asyncStub;
+	}
+
+	/**
+	 * Gets the future stub for the remote, opening a channel if needed
+	 * @param remote PicoAddress object
+	 * @return RpcServiceFutureStub object
+	 */
+	public RpcServiceFutureStub getFutureStub(PicoAddress remote) {
+		return get(remote).futureStub;
+	}
+
+	/**
+	 * Gets the connectivity state of the channel to the remote
+	 * @param remote PicoAddress object
+	 * @return ConnectivityState, or SHUTDOWN if there is no channel
+	 */
+	public ConnectivityState getState(PicoAddress remote) {
+		Connection conn = connections.get(remote);
+		return conn == null ? ConnectivityState.SHUTDOWN : conn.channel.getState(false);
+	}
+
+	/**
+	 * Closes the channel to the remote, e.g. when it left the cluster
+	 * @param remote PicoAddress object
+	 */
+	public void disconnect(PicoAddress remote) {
+		Connection conn = connections.remove(remote);
+		if (conn == null)
+			return;
+
+		conn.close();
+		logger.info("Disconnected from {}", remote);
+	}
+
+	/**
+	 * Records a successful call to the remote and resets its backoff
+	 * @param remote PicoAddress object
+	 */
+	public void succeeded(PicoAddress remote) {
+		Connection conn = connections.get(remote);
+		if (conn != null)
+			conn.failures = 0;
+	}
+
+	/**
+	 * Records a failed call to the remote. Transport failures replace the
+	 * channel after a backoff, while timeouts and application errors keep it.
+	 * @param remote PicoAddress object
+	 * @param t Error of the call
+	 * @return Kind of the error
+	 */
+	public ErrorKind failed(PicoAddress remote, Throwable t) {
+		ErrorKind kind = classify(t);
+		if (kind != ErrorKind.TRANSPORT)
+			return kind;
+
+		Connection conn = connections.get(remote);
+		if (conn != null)
+			conn.transportFailure();
+		return kind;
+	}
+
+	/**
+	 * Classifies the error of a call
+	 * @param t Error of the call
+	 * @return Kind of the error
+	 */
+	public static ErrorKind classify(Throwable t) {
+		while (t instanceof CompletionException || t instanceof ExecutionException) {
+			if (t.getCause() == null)
+				break;
+			t = t.getCause();
+		}
+
+		if (t instanceof PicoException)
+			return ErrorKind.APPLICATION;
+
+		switch (Status.fromThrowable(t).getCode()) {
+			case UNAVAILABLE:
+				return ErrorKind.TRANSPORT;
+			case DEADLINE_EXCEEDED:
+			case CANCELLED:
+				return ErrorKind.TIMEOUT;
+			default:
+				return ErrorKind.APPLICATION;
+		}
+	}
+
+	/**
+	 * Gets the connection to the remote, opening it if there is none
+	 * @param remote PicoAddress object
+	 * @return Connection object
+	 */
+	private Connection get(PicoAddress remote) {
+		return connections.computeIfAbsent(remote, Connection::new);
+	}
+
+	/**
+	 * Channel to a single remote node and its reconnect state
+	 */
+	private class Connection {
+		private final PicoAddress remote;
+		private volatile ManagedChannel channel;
+		private volatile RpcServiceBlockingStub stub;
+		private volatile RpcServiceStub asyncStub;
+		private volatile RpcServiceFutureStub futureStub;
+		private volatile int failures = 0;
+		private volatile boolean reconnecting = false;
+		private volatile boolean closed = false;
+
+		/**
+		 * Constructor for the Connection, opens the channel
+		 * @param remote PicoAddress object
+		 */
+		Connection(PicoAddress remote) {
+			this.remote = remote;
+			open();
+			logger.info("Connected to new host: {}!", remote);
+		}
+
+		/**
+		 * Opens a new channel and creates the stubs
+		 */
+		private synchronized void open() {
+			ManagedChannel channel = Transport.get()
+				.channelBuilder(remote)
+				.usePlaintext()
+				.enableRetry()
+				.intercept(new ClientMetrics(remote))
+				.build();
+
+			this.channel = channel;
+			this.stub = RpcServiceGrpc.newBlockingStub(channel);
+			this.asyncStub = RpcServiceGrpc.newStub(channel);
+			this.futureStub = RpcServiceGrpc.newFutureStub(channel);
+			watch(channel, ConnectivityState.IDLE);
+		}
+
+		/**
+		 * Follows the state transitions of a channel, resetting the backoff
+		 * once the channel is ready
+		 * @param channel ManagedChannel object
+		 * @param last Last observed state
+		 */
+		private void watch(ManagedChannel channel, ConnectivityState last) {
+			ConnectivityState state = channel.getState(false);
+			if (state != last)
+				logger.debug("Channel to {} is {}", remote, state);
+			if (state == ConnectivityState.READY)
+				failures = 0;
+			if (state == ConnectivityState.SHUTDOWN)
+				return;
+
+			channel.notifyWhenStateChanged(state, () -> watch(channel, state));
+		}
+
+		/**
+		 * Handles a transport failure. The channel is replaced after a backoff
+		 * that grows with the number of consecutive failures, unless a
+		 * reconnect is already pending.
+		 */
+		private synchronized void transportFailure() {
+			failures++;
+			if (reconnecting || closed)
+				return;
+
+			reconnecting = true;
+			long delay = backoff(failures);
+			logger.warn("Transport to {} failed {} times, reconnecting in {} ms", remote, failures, delay);
+			scheduledPool.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Replaces the channel if it is broken, or asks it to connect if it
+		 * is idle
+		 */
+		private synchronized void reconnect() {
+			reconnecting = false;
+			if (closed)
+				return;
+
+			ConnectivityState state = channel.getState(false);
+			if (state == ConnectivityState.READY || state == ConnectivityState.CONNECTING)
+				return;
+
+			if (state == ConnectivityState.IDLE) {
+				channel.getState(true);
+				return;
+			}
+
+			ManagedChannel old = channel;
+			open();
+			old.shutdown();
+			channel.getState(true);
+			logger.info("Reconnected to {} after {} failures", remote, failures);
+		}
+
+		/**
+		 * Closes the channel
+		 */
+		private synchronized void close() {
+			closed = true;
+			channel.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes the backoff before the next reconnect attempt
+	 * @param failures Number of consecutive failures
+	 * @return Backoff in milliseconds
+	 */
+	static long backoff(int failures) {
+		double backoff = INITIAL_BACKOFF * Math.pow(BACKOFF_MULTIPLIER, Math.max(0, failures - 1));
+		backoff = Math.min(backoff, MAX_BACKOFF);
+		double jitter = 1 + BACKOFF_JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		return (long) (backoff * jitter);
+	}
+}
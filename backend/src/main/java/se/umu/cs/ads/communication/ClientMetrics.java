@@ -0,0 +1,52 @@
+package se.umu.cs.ads.communication;
+
+import io.grpc.*;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+
+import se.umu.cs.ads.metrics.RpcMetrics;
+import se.umu.cs.ads.metrics.RpcMetrics.CallStats;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Interceptor of the channel to one remote, recording every call in the
+ * RpcMetrics from the moment it starts until the remote closes it. Each
+ * attempt of a hedged request is a call of its own.
+ */
+public class ClientMetrics implements ClientInterceptor {
+	private final String peer;
+
+	/**
+	 * Constructor for the ClientMetrics
+	 * @param remote Remote of the channel
+	 */
+	public ClientMetrics(PicoAddress remote) {
+		this.peer = remote.toString();
+	}
+
+	@Override
+	public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+			CallOptions options, Channel next) {
+		CallStats stats = RpcMetrics.get().of(RpcMetrics.CLIENT, method.getBareMethodName(), peer);
+
+		return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, options)) {
+			@Override
+			public void start(Listener<RespT> listener, Metadata headers) {
+				long start = System.nanoTime();
+				stats.begin();
+				try {
+					super.start(new SimpleForwardingClientCallListener<RespT>(listener) {
+						@Override
+						public void onClose(Status status, Metadata trailers) {
+							stats.end(status.getCode(), System.nanoTime() - start);
+							super.onClose(status, trailers);
+						}
+					}, headers);
+				} catch (RuntimeException e) {
+					stats.end(Status.Code.UNKNOWN, System.nanoTime() - start);
+					throw e;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,113 @@
+package se.umu.cs.ads.communication;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline budget of a single RPC method. The budget follows the latency
+ * percentiles of recent successful calls, so that one hung peer is given up
+ * on once it is clearly slower than the healthy ones. The deadline of the
+ * incoming REST or gRPC call, if any, is never exceeded.
+ */
+public class DeadlineBudget {
+	public static final int WINDOW = 512;
+	public static final int MIN_SAMPLES = 20;
+	public static final double DEADLINE_PERCENTILE = 0.99;
+	public static final double HEDGE_PERCENTILE = 0.95;
+	public static final double DEADLINE_FACTOR = 2;
+
+	private final String method;
+	private final long fallback;
+	private final long min;
+	private final long max;
+	private final long[] samples;
+	private int next = 0;
+	private int count = 0;
+
+	/**
+	 * Constructor for the DeadlineBudget
+	 * @param method Name of the RPC method
+	 * @param fallback Deadline in milliseconds until enough calls have been seen
+	 * @param min Lower bound of the deadline in milliseconds
+	 * @param max Upper bound of the deadline in milliseconds
+	 */
+	public DeadlineBudget(String method, long fallback, long min, long max) {
+		this.method = method;
+		this.fallback = fallback;
+		this.min = min;
+		this.max = max;
+		this.samples = new long[WINDOW];
+	}
+
+	/**
+	 * Gets the name of the RPC method
+	 * @return String
+	 */
+	public String getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * Records the latency of a successful call
+	 * @param latency Latency in milliseconds
+	 */
+	public synchronized void record(long latency) {
+		samples[next] = latency;
+		next = (next + 1) % WINDOW;
+		count = Math.min(count + 1, WINDOW);
+	}
+
+	/**
+	 * Gets a latency percentile of the recent successful calls
+	 * @param p Percentile between 0 and 1
+	 * @return Latency in milliseconds, or -1 if too few calls have been seen
+	 */
+	public long percentile(double p) {
+		long[] sorted;
+		synchronized (this) {
+			if (count < MIN_SAMPLES)
+				return -1;
+			sorted = Arrays.copyOf(samples, count);
+		}
+
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	/**
+	 * Gets the timeout of the next call, a multiple of the p99 latency
+	 * bounded by the limits of the method
+	 * @return Timeout in milliseconds
+	 */
+	public long timeout() {
+		long p99 = percentile(DEADLINE_PERCENTILE);
+		if (p99 < 0)
+			return fallback;
+
+		long timeout = (long) (p99 * DEADLINE_FACTOR);
+		return Math.max(min, Math.min(max, timeout));
+	}
+
+	/**
+	 * Gets the deadline of the next call. The deadline of the current
+	 * context is used if it expires earlier.
+	 * @return Deadline object
+	 */
+	public Deadline deadline() {
+		Deadline deadline = Deadline.after(timeout(), TimeUnit.MILLISECONDS);
+		Deadline inherited = Context.current().getDeadline();
+		return inherited == null ? deadline : deadline.minimum(inherited);
+	}
+
+	/**
+	 * Gets the delay before a hedged call is sent, the p95 latency
+	 * @return Delay in milliseconds, or -1 if too few calls have been seen
+	 */
+	public long hedgeDelay() {
+		return percentile(HEDGE_PERCENTILE);
+	}
+}
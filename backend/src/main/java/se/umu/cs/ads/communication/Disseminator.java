@@ -0,0 +1,169 @@
+package se.umu.cs.ads.communication;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.arguments.CommandLineArguments;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Disseminates cluster-wide notices over a spanning tree. Notices published
+ * within a short window are sent together. Every message carries the list
+ * of members the receiver relays it to, which the receiver splits among up
+ * to FANOUT children. Each node thus sends at most FANOUT messages per batch
+ * and a batch reaches every member in a logarithmic number of hops.
+ */
+public class Disseminator {
+	private final static Logger logger = LogManager.getLogger(Disseminator.class);
+	public static final long WINDOW = 100;
+	public static final int MAX_BATCH = 512;
+	public static final int FANOUT = 4;
+
+	private final PicoCommunication comm;
+	private final PicoClient client;
+	private final Consumer<RpcNotice> deliver;
+	private final List<RpcNotice> pending;
+	private final ExecutorService pool = CommandLineArguments.pool;
+	private final ScheduledExecutorService scheduledPool = CommandLineArguments.scheduledPool;
+	private ScheduledFuture<?> scheduled = null;
+
+	/**
+	 * Constructor for the Disseminator
+	 * @param comm PicoCommunication object
+	 * @param client PicoClient object
+	 * @param deliver Applies a notice on the local node
+	 */
+	public Disseminator(PicoCommunication comm, PicoClient client, Consumer<RpcNotice> deliver) {
+		this.comm = comm;
+		this.client = client;
+		this.deliver = deliver;
+		this.pending = new ArrayList<>();
+	}
+
+	/**
+	 * Publishes a notice. It is delivered locally straight away and sent
+	 * to the other members with the next batch.
+	 * @param notice Notice to publish
+	 */
+	public void publish(RpcNotice notice) {
+		deliver.accept(notice);
+
+		boolean full;
+		synchronized (this) {
+			pending.add(notice);
+			full = pending.size() >= MAX_BATCH;
+			if (!full && scheduled == null)
+				scheduled = scheduledPool.schedule(() -> pool.submit(this::flush), WINDOW, TimeUnit.MILLISECONDS);
+		}
+
+		if (full)
+			pool.submit(() -> flush());
+	}
+
+	/**
+	 * Sends the pending notices to all other members and waits until the
+	 * first level of the tree has received them
+	 */
+	public void flush() {
+		List<RpcNotice> batch;
+		synchronized (this) {
+			if (scheduled != null) {
+				scheduled.cancel(false);
+				scheduled = null;
+			}
+			if (pending.isEmpty())
+				return;
+			batch = new ArrayList<>(pending);
+			pending.clear();
+		}
+
+		List<PicoAddress> members = comm.getClusterAddresses();
+		members.remove(comm.getAddress());
+		// Spreads the relaying over different members for every batch
+		Collections.shuffle(members);
+
+		PicoAddress self = comm.getAddress();
+		RpcNotices msg = RpcNotices.newBuilder()
+			.setOrigin(RpcMetadata.newBuilder().setIp(self.getIP()).setPort(self.getPort()))
+			.addAllNotices(batch)
+			.build();
+		logger.info("Disseminating {} notices to {} members", batch.size(), members.size());
+		relay(msg, members, true);
+	}
+
+	/**
+	 * Handles notices received from another member. They are delivered
+	 * locally and relayed to the members the message lists, in the
+	 * background.
+	 * @param msg Notices and the members to relay them to
+	 */
+	public void receive(RpcNotices msg) {
+		for (RpcNotice notice : msg.getNoticesList())
+			deliver.accept(notice);
+
+		if (msg.getRelayCount() == 0)
+			return;
+
+		List<PicoAddress> members = new ArrayList<>(msg.getRelayCount());
+		for (RpcMetadata member : msg.getRelayList())
+			members.add(new PicoAddress(member.getIp(), member.getPort()));
+
+		RpcNotices next = msg.toBuilder().clearRelay().build();
+		pool.submit(() -> relay(next, members, false));
+	}
+
+	/**
+	 * Splits the members into up to FANOUT subtrees and sends the notices to
+	 * the first member of each, which relays them to the rest of its subtree.
+	 * If a member cannot be reached the next member of its subtree takes its
+	 * place.
+	 * @param msg Notices to send, without relay list
+	 * @param members Members to reach
+	 * @param wait True to wait until every subtree has been sent to
+	 */
+	void relay(RpcNotices msg, List<PicoAddress> members, boolean wait) {
+		List<Future<?>> sends = new ArrayList<>();
+		int size = (members.size() + FANOUT - 1) / FANOUT;
+		for (int start = 0; start < members.size(); start += size) {
+			List<PicoAddress> subtree = members.subList(start, Math.min(start + size, members.size()));
+			sends.add(pool.submit(() -> sendSubtree(msg, subtree)));
+		}
+
+		if (!wait)
+			return;
+
+		for (Future<?> send : sends) {
+			try {
+				send.get();
+			} catch (InterruptedException | ExecutionException e) {
+				logger.warn("Failed to disseminate notices: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Sends the notices to the first reachable member of a subtree, with
+	 * the rest of the subtree as its relay list
+	 * @param msg Notices to send, without relay list
+	 * @param subtree Members of the subtree
+	 */
+	private void sendSubtree(RpcNotices msg, List<PicoAddress> subtree) {
+		for (int i = 0; i < subtree.size(); i++) {
+			PicoAddress head = subtree.get(i);
+			RpcNotices.Builder copy = msg.toBuilder();
+			for (PicoAddress member : subtree.subList(i + 1, subtree.size()))
+				copy.addRelay(RpcMetadata.newBuilder().setIp(member.getIP()).setPort(member.getPort()));
+
+			try {
+				client.disseminate(head, copy.build());
+				return;
+			} catch (Exception e) {
+				logger.warn("Failed to disseminate notices to {}, trying next member of subtree: {}", head, e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package se.umu.cs.ads.communication;
+
+import java.io.IOException;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+/**
+ * Sends the messages of a server stream from a thread of its own, waiting
+ * until the transport is ready for each message. The thread producing the
+ * messages is held up instead of the messages being buffered, so a slow
+ * client slows down the producer rather than filling the memory.
+ */
+public class FlowControlledSender<T> {
+	private final ServerCallStreamObserver<T> observer;
+	private final Object ready = new Object();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Constructor for the FlowControlledSender. Has to be called before the
+	 * handler of the call returns.
+	 * @param observer Response stream of the call
+	 * @param onCancel Run when the client cancels the call
+	 */
+	public FlowControlledSender(ServerCallStreamObserver<T> observer, Runnable onCancel) {
+		this.observer = observer;
+		observer.setOnReadyHandler(() -> {
+			synchronized (ready) {
+				ready.notifyAll();
+			}
+		});
+		observer.setOnCancelHandler(() -> {
+			cancelled = true;
+			synchronized (ready) {
+				ready.notifyAll();
+			}
+			onCancel.run();
+		});
+	}
+
+	/**
+	 * Sends a message once the transport is ready for it
+	 * @param msg Message to send
+	 * @throws IOException if the call was cancelled or the thread interrupted
+	 */
+	public void send(T msg) throws IOException {
+		synchronized (ready) {
+			try {
+				while (!observer.isReady() && !cancelled)
+					ready.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the client");
+			}
+		}
+
+		if (cancelled)
+			throw new IOException("Stream cancelled by the client");
+		observer.onNext(msg);
+	}
+
+	/**
+	 * Completes the call, unless it was cancelled
+	 */
+	public void complete() {
+		if (!cancelled)
+			observer.onCompleted();
+	}
+
+	/**
+	 * Fails the call, unless it was cancelled
+	 * @param error Cause of the failure
+	 */
+	public void fail(Throwable error) {
+		if (!cancelled)
+			observer.onError(error);
+	}
+
+	/**
+	 * Checks if the client has cancelled the call
+	 * @return boolean
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
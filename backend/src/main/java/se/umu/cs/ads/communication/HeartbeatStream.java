@@ -0,0 +1,161 @@
+package se.umu.cs.ads.communication;
+
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import io.grpc.stub.StreamObserver;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.communication.RpcServiceGrpc.RpcServiceStub;
+import se.umu.cs.ads.exception.PicoException;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Long-lived bidirectional heartbeat stream to a single remote node. Each
+ * heartbeat sent on the stream is answered by the remote with its own state.
+ * A stream that is broken by the remote or the transport is reported to the
+ * listener as a suspicion signal.
+ */
+public class HeartbeatStream implements StreamObserver<RpcHeartbeat> {
+	private final static Logger logger = LogManager.getLogger(HeartbeatStream.class);
+	private final PicoAddress remote;
+	private final Consumer<HeartbeatStream> onBroken;
+	private final StreamObserver<RpcHeartbeat> requests;
+	private long sequence = 0;
+	private volatile Pending pending;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor for the HeartbeatStream, opens the stream to the remote
+	 * @param remote PicoAddress object
+	 * @param stub Asynchronous stub connected to the remote
+	 * @param onBroken Called when the stream is broken by the remote
+	 */
+	public HeartbeatStream(PicoAddress remote, RpcServiceStub stub, Consumer<HeartbeatStream> onBroken) {
+		this.remote = remote;
+		this.onBroken = onBroken;
+		this.requests = stub.heartbeatStream(this);
+		logger.info("Opened HEARTBEAT stream to {}", remote);
+	}
+
+	/**
+	 * Gets the address of the remote node
+	 * @return PicoAddress object
+	 */
+	public PicoAddress getRemote() {
+		return this.remote;
+	}
+
+	/**
+	 * Sends a heartbeat on the stream
+	 * @param msg Heartbeat to send, the sequence number is set by the stream
+	 * @param timeout Time in milliseconds to wait for the reply
+	 * @return Future completed with the reply of the remote
+	 */
+	public synchronized CompletableFuture<RpcHeartbeat> send(RpcHeartbeat.Builder msg, long timeout) {
+		CompletableFuture<RpcHeartbeat> future = new CompletableFuture<>();
+		if (closed) {
+			future.completeExceptionally(new PicoException("HEARTBEAT stream to " + remote + " is closed"));
+			return future;
+		}
+
+		Pending previous = pending;
+		if (previous != null)
+			previous.future.cancel(false);
+
+		pending = new Pending(++sequence, future);
+		requests.onNext(msg.setSequence(sequence).build());
+		return future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes the stream without reporting it as broken
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+
+		closed = true;
+		try {
+			requests.onCompleted();
+		} catch (Exception e) {
+			logger.debug("Failed to close HEARTBEAT stream to {}: {}", remote, e.getMessage());
+		}
+		fail("HEARTBEAT stream to " + remote + " was closed");
+	}
+
+	/**
+	 * Handles a heartbeat reply from the remote. A reply to an earlier
+	 * heartbeat, which arrives after that heartbeat timed out, is dropped
+	 * so that it does not complete the current one.
+	 * @param reply Heartbeat reply
+	 */
+	@Override
+	public void onNext(RpcHeartbeat reply) {
+		Pending current = pending;
+		if (current == null || current.sequence != reply.getSequence()) {
+			logger.debug("Dropped stale HEARTBEAT reply {} from {}", reply.getSequence(), remote);
+			return;
+		}
+		current.future.complete(reply);
+	}
+
+	/**
+	 * Handles a broken stream
+	 * @param t Cause of the error
+	 */
+	@Override
+	public void onError(Throwable t) {
+		broken(String.format("HEARTBEAT stream to %s broke: %s", remote, t.getMessage()));
+	}
+
+	/**
+	 * Handles a stream closed by the remote
+	 */
+	@Override
+	public void onCompleted() {
+		broken(String.format("HEARTBEAT stream to %s was closed by the remote", remote));
+	}
+
+	/**
+	 * Marks the stream as closed and notifies the listener if the stream
+	 * was not closed on purpose
+	 * @param msg Reason the stream broke
+	 */
+	private void broken(String msg) {
+		boolean expected = closed;
+		closed = true;
+		fail(msg);
+
+		if (expected)
+			return;
+
+		logger.warn(msg);
+		onBroken.accept(this);
+	}
+
+	/**
+	 * Fails the pending heartbeat, if any
+	 * @param msg Reason of the failure
+	 */
+	private void fail(String msg) {
+		Pending current = pending;
+		if (current != null)
+			current.future.completeExceptionally(new PicoException(msg));
+	}
+
+	/**
+	 * Heartbeat waiting for its reply
+	 */
+	private static final class Pending {
+		private final long sequence;
+		private final CompletableFuture<RpcHeartbeat> future;
+
+		Pending(long sequence, CompletableFuture<RpcHeartbeat> future) {
+			this.sequence = sequence;
+			this.future = future;
+		}
+	}
+}
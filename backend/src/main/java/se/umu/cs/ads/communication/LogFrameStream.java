@@ -0,0 +1,76 @@
+package se.umu.cs.ads.communication;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import se.umu.cs.ads.containerengine.LogSink;
+
+/**
+ * Passes the log frames of a container on to a gRPC response stream. A
+ * frame is only sent when the transport is ready for it, otherwise the
+ * thread reading the log waits, so no more than one frame is held no
+ * matter how fast the log is written or how slow the client reads.
+ */
+public class LogFrameStream implements LogSink {
+	private final static Logger logger = LogManager.getLogger(LogFrameStream.class);
+
+	private final FlowControlledSender<RpcLogFrame> sender;
+	private volatile Closeable stream = null;
+
+	/**
+	 * Constructor for the LogFrameStream. Has to be called before the
+	 * handler of the call returns.
+	 * @param observer Response stream of the call
+	 */
+	public LogFrameStream(ServerCallStreamObserver<RpcLogFrame> observer) {
+		this.sender = new FlowControlledSender<>(observer, this::close);
+	}
+
+	/**
+	 * Sets the log stream that is closed when the client cancels the call
+	 * @param stream Log stream
+	 */
+	public void attach(Closeable stream) {
+		this.stream = stream;
+		if (sender.isCancelled())
+			close();
+	}
+
+	@Override
+	public void frame(byte[] payload) throws IOException {
+		sender.send(RpcLogFrame.newBuilder().setPayload(ByteString.copyFrom(payload)).build());
+	}
+
+	@Override
+	public void done(Throwable error) {
+		if (error == null) {
+			sender.complete();
+		} else {
+			logger.warn("Log stream failed: {}", error.getMessage());
+			sender.fail(Status.INTERNAL.withDescription(error.getMessage()).asRuntimeException());
+		}
+	}
+
+	/**
+	 * Closes the log stream if it has been attached
+	 */
+	private void close() {
+		Closeable current = stream;
+		if (current == null)
+			return;
+
+		try {
+			current.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close log stream: {}", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package se.umu.cs.ads.communication;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.arguments.CommandLineArguments;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Groups joins into epochs. Joins that arrive within a short window are
+ * merged into one epoch, which is sent to every member in parallel. An
+ * epoch is identified by its origin and a number that only grows, so that
+ * members skip epochs they have already applied.
+ */
+public class MembershipEpochs {
+	private final static Logger logger = LogManager.getLogger(MembershipEpochs.class);
+	public static final long EPOCH_WINDOW = 200;
+
+	private final PicoAddress self;
+	private final Supplier<List<PicoAddress>> members;
+	private final Consumer<RpcNode> addMember;
+	private final PicoClient client;
+	private final Map<PicoAddress, Long> applied;
+	private final List<RpcNode> pending;
+	private final ExecutorService pool = CommandLineArguments.pool;
+	private final ScheduledExecutorService scheduledPool = CommandLineArguments.scheduledPool;
+	private ScheduledFuture<?> flush = null;
+	private long epoch;
+
+	/**
+	 * Constructor for the MembershipEpochs
+	 * @param comm PicoCommunication object
+	 * @param client PicoClient object
+	 */
+	public MembershipEpochs(PicoCommunication comm, PicoClient client) {
+		this(comm.getAddress(), comm::getClusterAddresses, comm::addNewMember, client, System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor for the MembershipEpochs with a given clock
+	 * @param self Address of this node
+	 * @param members Gets the addresses of the members of the cluster
+	 * @param addMember Adds a node that joined to the cluster
+	 * @param client PicoClient object
+	 * @param clock Current time in milliseconds
+	 */
+	MembershipEpochs(PicoAddress self, Supplier<List<PicoAddress>> members, Consumer<RpcNode> addMember,
+			PicoClient client, LongSupplier clock) {
+		this.self = self;
+		this.members = members;
+		this.addMember = addMember;
+		this.client = client;
+		this.applied = new HashMap<>();
+		this.pending = new ArrayList<>();
+		// Seeded with the time so that a restarted node is not skipped
+		this.epoch = clock.getAsLong();
+	}
+
+	/**
+	 * Adds a join to the current epoch. The epoch is sent once the window
+	 * of its first join has passed.
+	 * @param aspirant The node that joined
+	 */
+	public synchronized void joined(RpcNode aspirant) {
+		pending.add(aspirant);
+		if (flush == null)
+			flush = scheduledPool.schedule(this::flush, EPOCH_WINDOW, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes the current epoch and sends it to every other member in
+	 * parallel, without waiting for the replies
+	 */
+	private void flush() {
+		RpcMembershipEpoch msg;
+		synchronized (this) {
+			flush = null;
+			if (pending.isEmpty())
+				return;
+
+			msg = RpcMembershipEpoch.newBuilder()
+				.setOrigin(RpcMetadata.newBuilder().setIp(self.getIP()).setPort(self.getPort()))
+				.setEpoch(++epoch)
+				.addAllJoined(pending)
+				.build();
+			pending.clear();
+		}
+
+		List<PicoAddress> others = new ArrayList<>(members.get());
+		others.remove(self);
+		logger.info("Sending membership epoch {} with {} joins to {} members",
+			msg.getEpoch(), msg.getJoinedCount(), others.size());
+
+		for (PicoAddress remote : others) {
+			pool.submit(() -> {
+				try {
+					client.membershipEpoch(remote, msg);
+				} catch (Exception e) {
+					logger.warn("Failed to send membership epoch {} to {}: {}", msg.getEpoch(), remote, e.getMessage());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Applies an epoch received from another member, unless an epoch of the
+	 * same origin at least as new has already been applied
+	 * @param msg Epoch to apply
+	 * @return True if the epoch was applied
+	 */
+	public boolean apply(RpcMembershipEpoch msg) {
+		RpcMetadata origin = msg.getOrigin();
+		PicoAddress adr = new PicoAddress(origin.getIp(), origin.getPort());
+		synchronized (applied) {
+			Long previous = applied.get(adr);
+			if (previous != null && previous >= msg.getEpoch())
+				return false;
+			applied.put(adr, msg.getEpoch());
+		}
+
+		for (RpcNode joined : msg.getJoinedList()) {
+			PicoAddress member = new PicoAddress(joined.getIp(), joined.getPort());
+			if (member.equals(self))
+				continue;
+			addMember.accept(joined);
+		}
+		logger.info("Applied membership epoch {} from {} with {} joins", msg.getEpoch(), adr, msg.getJoinedCount());
+		return true;
+	}
+}
@@ -1,12 +1,22 @@
 package se.umu.cs.ads.communication;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import se.umu.cs.ads.arguments.CommandLineArguments;
+import se.umu.cs.ads.containerengine.LogSink;
 import se.umu.cs.ads.communication.RpcServiceGrpc.*;
 import se.umu.cs.ads.exception.NameConflictException;
 import se.umu.cs.ads.exception.PicoException;
@@ -22,59 +32,89 @@ import org.apache.logging.log4j.Logger;
  */
 public class PicoClient {
 	private final static Logger logger = LogManager.getLogger(PicoClient.class);
-	private final Map<PicoAddress, ManagedChannel> channels;
-	private final Map<PicoAddress, RpcServiceBlockingStub> stubs;
+	private final ChannelManager channels;
+	private final Map<PicoAddress, HeartbeatStream> heartbeatStreams;
+	private final Consumer<PicoAddress> onStreamBroken;
+
+	// Deadline budgets: fallback, lower and upper bound in milliseconds
+	private final DeadlineBudget BOOTSTRAP = new DeadlineBudget("bootstrap", 60000, 5000, 600000);
+	private final DeadlineBudget MEMBERSHIP_EPOCH = new DeadlineBudget("membershipEpoch", 5000, 250, 10000);
+	private final DeadlineBudget LEAVE = new DeadlineBudget("leave", 10000, 500, 30000);
+	private final DeadlineBudget FETCH_PERFORMANCE = new DeadlineBudget("fetchNodePerformance", 5000, 250, 10000);
+	private final DeadlineBudget FETCH_NODE = new DeadlineBudget("fetchNode", 5000, 250, 10000);
+	private final DeadlineBudget EVALUATE = new DeadlineBudget("elvaluateContainer", 5000, 250, 10000);
+	private final DeadlineBudget EVALUATE_BATCH = new DeadlineBudget("evaluateContainers", 5000, 250, 10000);
+	private final DeadlineBudget DISSEMINATE = new DeadlineBudget("disseminate", 5000, 250, 10000);
+	private final DeadlineBudget ANTI_ENTROPY = new DeadlineBudget("antiEntropy", 10000, 500, 10000);
+	// Creating a container may pull its image, so these may take minutes
+	// once the latencies show that pulls are slow. Until then a call is
+	// given two minutes, so that a hung peer is not waited on for ten.
+	private final DeadlineBudget ELECTION_START = new DeadlineBudget("containerElectionStart", 120000, 60000, 600000);
+	private final DeadlineBudget CREATE_CONTAINER = new DeadlineBudget("createContainer", 120000, 60000, 600000);
+	private final DeadlineBudget DEPLOY = new DeadlineBudget("deployContainers", 120000, 60000, 600000);
+	private final DeadlineBudget CONTAINER_COMMAND = new DeadlineBudget("containerCommand", 120000, 10000, 300000);
+	private final DeadlineBudget CONTAINER_LOGS = new DeadlineBudget("containerLogs", 120000, 10000, 300000);
 	private final static Executor pool = CommandLineArguments.pool;
    
 	/**
 	 * Constructor for the PicoClient
+	 * @param onStreamBroken Called with the remote address when a heartbeat
+	 * 		  stream is broken by the remote
 	 */
-    public PicoClient() {
-		this.stubs = new ConcurrentHashMap<>();
-		this.channels = new ConcurrentHashMap<>();
+    public PicoClient(Consumer<PicoAddress> onStreamBroken) {
+		this.heartbeatStreams = new ConcurrentHashMap<>();
+		this.channels = new ChannelManager();
+		this.onStreamBroken = onStreamBroken;
     }
 
 	/**
-	 * Method to connect to a new host
+	 * Method to connect to a new host. The channel starts connecting right 
+	 * away so that the first call to the host does not wait for it.
 	 * @param address PicoAddress object
 	 */
 	public void connectNewHost(PicoAddress address) {
-		ManagedChannel channel = ManagedChannelBuilder
-			.forAddress(address.getIP(), address.getPort())
-			.usePlaintext()
-			.enableRetry()
-			.build();
+		channels.connect(address);
+	}
 
-		RpcServiceBlockingStub stub = RpcServiceGrpc
-			.newBlockingStub(channel);
+	/**
+	 * Method to disconnect from a host that left the cluster
+	 * @param address PicoAddress object
+	 */
+	public void disconnect(PicoAddress address) {
+		HeartbeatStream stream = heartbeatStreams.remove(address);
+		if (stream != null)
+			stream.close();
 
-		channels.put(address, channel);
-		stubs.put(address, stub);
-		logger.info("Connected to new host: {}!", address);
-	}	
+		channels.disconnect(address);
+	}
 
 	/**
-	 * Method to send a JOIN_REQUEST to a remote node
+	 * Request to join the cluster through a remote node, which streams back
+	 * a snapshot of the cluster
 	 * @param remote PicoAddress object
 	 * @param msg RpcJoinRequest object
-	 * @return RpcNodes object
+	 * @param observer Receives the messages of the snapshot
+	 */
+	public void bootstrap(PicoAddress remote, RpcJoinRequest msg, StreamObserver<RpcBootstrap> observer) {
+		logger.info("Sending BOOTSTRAP to {} ...", remote);
+		channels.getAsyncStub(remote)
+			.withDeadline(BOOTSTRAP.deadline())
+			.bootstrap(msg, observer);
+	}
+
+	/**
+	 * Request to apply a membership epoch on a remote node
+	 * @param remote PicoAddress object
+	 * @param msg RpcMembershipEpoch object
 	 * @throws PicoException if an error occurs during the call
 	 */
-	public RpcNodes join(PicoAddress remote, RpcJoinRequest msg) throws PicoException {
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
-		
-		logger.info("Sending JOIN_REQUEST to {} ...", remote);
-		long start = System.currentTimeMillis();
-		RpcNodes reply = null;
+	public void membershipEpoch(PicoAddress remote, RpcMembershipEpoch msg) throws PicoException {
 		try {
-			reply = stub.withDeadlineAfter(10, TimeUnit.MINUTES).join(msg);
+			call(remote, MEMBERSHIP_EPOCH, stub -> stub.membershipEpoch(msg));
 		} catch (Exception e) {
-			String err = String.format("Received error from %s when sending JOIN_REQUEST: %s", remote, e.getMessage());
-			throw handleError(remote, err);
+			String err = String.format("Received error from %s when sending MEMBERSHIP_EPOCH: %s", remote, e.getMessage());
+			throw handleError(remote, err, e);
 		}
-		long end = System.currentTimeMillis();
-		logger.info("Received reply for JOIN_REQUEST after {} ms", end - start);
-		return reply;
 	}
 
 	/**
@@ -83,13 +123,6 @@ public class PicoClient {
 	 * @throws Exception if an error occurs during the call
 	 */
 	public void leave(PicoAddress remote) throws Exception {
-		RpcServiceBlockingStub stub = stubs.get(remote);
-		
-		if (stub == null) {
-			connectNewHost(remote);
-			stub = stubs.get(remote);
-		}
-
 		RpcMetadata meta = RpcMetadata.newBuilder()
 			.setIp(remote.getIP())
 			.setPort(remote.getPort())
@@ -98,42 +131,16 @@ public class PicoClient {
 		logger.info("Sending LEAVE to {} ...", remote);
 		long start = System.currentTimeMillis();
 		try {
-			stub.withDeadlineAfter(10, TimeUnit.MINUTES).leave(meta);
-			stubs.remove(remote);
+			call(remote, LEAVE, stub -> stub.leave(meta));
+			disconnect(remote);
 		} catch (Exception e) {
 			String err = String.format("Received error from %s when sending LEAVE: %s", remote, e.getMessage());
-			handleError(remote, err);
+			handleError(remote, err, e);
 		}
 		long time = System.currentTimeMillis() - start;
 		logger.info("Received LEAVE_REPLY from {} after {} ms", remote, time);
 	}
 
-	/**
-	 * Request to remove self from remote node
-	 * @param remote PicoAddress object
-	 * @param self PicoAddress object
-	 * @throws PicoException if an error occurs during the call
-	 */
-	public void removeNode(PicoAddress remote, PicoAddress self) throws PicoException {
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
-
-		RpcMetadata meta = RpcMetadata.newBuilder()
-			.setIp(self.getIP())
-			.setPort(self.getPort())
-			.build();
-
-		logger.info("Sending request to remove node {} to {}...", self, remote);
-		long start = System.currentTimeMillis();
-		try {
-			stub.withDeadlineAfter(10, TimeUnit.MINUTES).removeNode(meta);
-			long time = System.currentTimeMillis() - start;
-			logger.info("Received REMOVE_NODE reply from {} after {} ms", remote, time);
-		} catch (Exception e) {
-			String err = String.format("Received error when removing node %s: %s", remote, e.getMessage());
-			throw handleError(remote, err);
-		}
-	}
-
 	/**
 	 * Request to fetch the performance of a remote node
 	 * @param remote PicoAddress object
@@ -141,32 +148,137 @@ public class PicoClient {
 	 * @throws PicoException if an error occurs during the call
 	 */
 	public RpcPerformance fetchPerformance(PicoAddress remote) throws PicoException {
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
 		logger.info("Fetching performance from {}...", remote);		
 		try {
 			long start = System.currentTimeMillis();
-			RpcPerformance result = stub.withDeadlineAfter(10, TimeUnit.MINUTES).fetchNodePerformance(RpcEmpty.newBuilder().build());
+			RpcPerformance result = read(remote, FETCH_PERFORMANCE, stub -> stub.fetchNodePerformance(RpcEmpty.newBuilder().build()));
 			long time = System.currentTimeMillis() - start;
 			logger.info("Done fetching performance from {} after {} ms", remote, time);
 			return result;
 		} catch (Exception e) {
 			String err = String.format("Could not fetch performance from %s: %s", remote, e.getMessage());
-			throw handleError(remote, err);
+			throw handleError(remote, err, e);
 		}
 	}
 
 	/**
-	 * Creates a new stub connection if it does not exist
+	 * Gets the stub of the remote, opening a channel if it does not exist
 	 * @param remote PicoAddress object
 	 * @return RpcServiceBlockingStub object
 	 */
 	private RpcServiceBlockingStub addRemoteIfNotConnected(PicoAddress remote) {
-		RpcServiceBlockingStub stub = stubs.get(remote);
-		if (stub == null) {
-			connectNewHost(remote);
-			stub = stubs.get(remote);
+		return channels.getStub(remote);
+	}
+
+	/**
+	 * Sends a call to the remote with the deadline of the method, and
+	 * records its latency if it succeeds
+	 * @param remote PicoAddress object
+	 * @param budget Deadline budget of the method
+	 * @param rpc Call to send on the stub
+	 * @return Reply of the remote
+	 */
+	private <T> T call(PicoAddress remote, DeadlineBudget budget, Function<RpcServiceBlockingStub, T> rpc) {
+		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote).withDeadline(budget.deadline());
+		long start = System.currentTimeMillis();
+		T reply = rpc.apply(stub);
+		budget.record(System.currentTimeMillis() - start);
+		channels.succeeded(remote);
+		return reply;
+	}
+
+	/**
+	 * Sends an idempotent read to the remote with the deadline of the method.
+	 * If hedging is enabled and no reply has arrived after the p95 latency of
+	 * the method, an identical call is sent and the first reply is used.
+	 * @param remote PicoAddress object
+	 * @param budget Deadline budget of the method
+	 * @param rpc Call to send on the stub
+	 * @return Reply of the remote
+	 * @throws Exception if all calls failed
+	 */
+	private <T> T read(PicoAddress remote, DeadlineBudget budget, Function<RpcServiceFutureStub, ListenableFuture<T>> rpc) throws Exception {
+		RpcServiceFutureStub stub = channels.getFutureStub(remote).withDeadline(budget.deadline());
+		long start = System.currentTimeMillis();
+		ListenableFuture<T> primary = rpc.apply(stub);
+		long delay = budget.hedgeDelay();
+
+		T reply;
+		try {
+			if (!CommandLineArguments.hedging || delay < 0)
+				reply = primary.get();
+			else
+				reply = hedge(remote, budget, primary, () -> rpc.apply(stub), delay);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+
+		budget.record(System.currentTimeMillis() - start);
+		channels.succeeded(remote);
+		return reply;
+	}
+
+	/**
+	 * Waits for a call and sends a hedged copy of it if it has not completed
+	 * after the delay. Both calls share the same deadline.
+	 * @param remote PicoAddress object
+	 * @param budget Deadline budget of the method
+	 * @param primary The call that has been sent
+	 * @param hedge Sends the hedged call
+	 * @param delay Time in milliseconds before the hedged call is sent
+	 * @return The first successful reply
+	 * @throws Exception if both calls failed
+	 */
+	static <T> T hedge(PicoAddress remote, DeadlineBudget budget, ListenableFuture<T> primary,
+			Callable<ListenableFuture<T>> hedge, long delay) throws Exception {
+		try {
+			return primary.get(delay, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			logger.debug("No reply for {} from {} after {} ms, sending hedged request", budget.getMethod(), remote, delay);
+		}
+
+		ListenableFuture<T> hedged = hedge.call();
+		CompletableFuture<T> first = new CompletableFuture<>();
+		AtomicInteger failures = new AtomicInteger();
+		for (ListenableFuture<T> call : List.of(primary, hedged)) {
+			call.addListener(() -> {
+				try {
+					first.complete(call.get());
+				} catch (Exception e) {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					if (failures.incrementAndGet() == 2)
+						first.completeExceptionally(cause);
+				}
+			}, MoreExecutors.directExecutor());
 		}
-		return stub; 
+
+		try {
+			return first.get();
+		} finally {
+			primary.cancel(true);
+			hedged.cancel(true);
+		}
+	}
+
+	/**
+	 * Opens a heartbeat stream to the remote if it does not exist
+	 * @param remote PicoAddress object
+	 * @return HeartbeatStream object
+	 */
+	private HeartbeatStream addHeartbeatStreamIfNotOpen(PicoAddress remote) {
+		return heartbeatStreams.computeIfAbsent(remote, adr -> {
+			return new HeartbeatStream(adr, channels.getAsyncStub(adr), this::heartbeatStreamBroken);
+		});
+	}
+
+	/**
+	 * Handles a heartbeat stream broken by the remote
+	 * @param stream HeartbeatStream object
+	 */
+	private void heartbeatStreamBroken(HeartbeatStream stream) {
+		PicoAddress remote = stream.getRemote();
+		heartbeatStreams.remove(remote, stream);
+		onStreamBroken.accept(remote);
 	}
 
 	/**
@@ -176,8 +288,6 @@ public class PicoClient {
 	 * @throws PicoException if an error occurs during the call
 	 */
 	public Node fetchNode(PicoAddress remote) throws PicoException {
-        RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
-
         RpcMetadata meta = RpcMetadata.newBuilder()
             .setIp(remote.getIP())
             .setPort(remote.getPort())
@@ -186,13 +296,13 @@ public class PicoClient {
         logger.info("Sending FETCH_NODE to {}...", remote);
 		long start = System.currentTimeMillis();
         try {
-			RpcNode reply = stub.withDeadlineAfter(10, TimeUnit.MINUTES).fetchNode(meta);
+			RpcNode reply = read(remote, FETCH_NODE, stub -> stub.fetchNode(meta));
 			long time = System.currentTimeMillis() - start;
         	logger.info("Received reply from FETCH_NODE after {} ms", time);
         	return NodeSerializer.fromRPC(reply);
 		} catch (Exception e) {
 			String err = String.format("Received error from remote %s from FETCH_NODE: %s", remote, e.getMessage());
-			throw handleError(remote, err);
+			throw handleError(remote, err, e);
 		}
     }
 
@@ -204,34 +314,52 @@ public class PicoClient {
 	 * @throws PicoException if an error occurs during the call
 	 */
 	public RpcContainerEvaluation evaluateContainer(RpcContainer container, PicoAddress remote) throws PicoException {
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
 		logger.info("Sending evaluation request for {} to {} ...", container.getName(), remote);
 		long start = System.currentTimeMillis();
 		try {
-			RpcContainerEvaluation res = stub.withDeadlineAfter(10, TimeUnit.MINUTES).elvaluateContainer(container);
+			RpcContainerEvaluation res = read(remote, EVALUATE, stub -> stub.elvaluateContainer(container));
 			long time = System.currentTimeMillis() - start;
 			logger.info("Received evaluation reply ({}) from {} after {} ms", res.getScore(), remote, time);
 			return res;
 		} catch(Exception e) {
-			String msg = e.getMessage();
-			ManagedChannel channel = channels.get(remote);
-			channel.shutdownNow();
-			channels.remove(remote);
-			stubs.remove(remote);
-
+			String msg = Status.fromThrowable(e).getDescription();
 			String err = String.format("Received error from remote %s when evaluating container %s: %s",
 				remote, container.getName(), e.getMessage());
-			logger.error(err);
+			PicoException ex = handleError(remote, err, e);
 
-			if (msg.startsWith("NAME_CONFLICT"))
+			// Conflicts are answers of a healthy remote, the channel is kept
+			if (msg != null && msg.startsWith("NAME_CONFLICT"))
 				throw new NameConflictException(msg);
-			if (msg.startsWith("PORT_CONFLICT"))
+			if (msg != null && msg.startsWith("PORT_CONFLICT"))
 				throw new PortConflictException(msg);
 				
-			throw new PicoException(err);
+			throw ex;
 		}		
 	}
 
+	/**
+	 * Request to evaluate a batch of containers on a remote node. Conflicts
+	 * are part of the reply rather than errors.
+	 * @param containers RpcContainers object
+	 * @param remote PicoAddress object
+	 * @return RpcContainerEvaluations with one result per container
+	 * @throws PicoException if an error occurs during the call
+	 */
+	public RpcContainerEvaluations evaluateContainers(RpcContainers containers, PicoAddress remote) throws PicoException {
+		logger.info("Sending evaluation request for {} containers to {} ...", containers.getContainersCount(), remote);
+		long start = System.currentTimeMillis();
+		try {
+			RpcContainerEvaluations res = read(remote, EVALUATE_BATCH, stub -> stub.evaluateContainers(containers));
+			long time = System.currentTimeMillis() - start;
+			logger.info("Received {} evaluations from {} after {} ms", res.getResultsCount(), remote, time);
+			return res;
+		} catch (Exception e) {
+			String err = String.format("Received error from remote %s when evaluating %d containers: %s",
+				remote, containers.getContainersCount(), e.getMessage());
+			throw handleError(remote, err, e);
+		}
+	}
+
 	/**
 	 * Request to start an election for a container
 	 * @param container RpcContainer object
@@ -240,12 +368,11 @@ public class PicoClient {
 	 */
 	public void containerElectionStart(RpcContainer container, PicoAddress remote) throws PicoException {
 		logger.info("Initiating CONTAINER_ELECTION_START for {} to {}", container.getName(), remote);
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
 		try {
-			stub.withDeadlineAfter(10, TimeUnit.MINUTES).containerElectionStart(container);
+			call(remote, ELECTION_START, stub -> stub.containerElectionStart(container));
 		} catch (Exception e) {
 			String err = String.format("Received exception from CONTAINER_ELECTION_START: %s", e.getMessage());
-			throw handleError(remote, err);
+			throw handleError(remote, err, e);
 		}
 	}
 
@@ -256,41 +383,83 @@ public class PicoClient {
 	 * @throws PicoException if an error occurs during the call
 	 */
 	public void createContainer(RpcContainer container, PicoAddress remote) throws PicoException {
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
 		logger.info("Sending CREATE_CONTAINER for container {} to {} ...", 
 			container.getName(), remote);
 		try {
-			stub.withDeadlineAfter(10, TimeUnit.MINUTES).createContainer(container);
+			call(remote, CREATE_CONTAINER, stub -> stub.createContainer(container));
 		} catch (Exception e) {
 			String err = String.format("Received error from remote %s when creating container %s: %s", 
 				remote, container.getName(), e.getMessage());
-			throw handleError(remote, err);
+			throw handleError(remote, err, e);
 		}
 	}
 
 	/**
-	 * Request to mark the election as ended on a remote node
-	 * @param container RpcContainer object
-	 * @param self PicoAddress object
-	 * @param to PicoAddress object
+	 * Request to deploy a batch of containers through the leader. The batch
+	 * is streamed to the leader, and the outcome of each container is 
+	 * streamed back as soon as it is known. Blocks until the leader has
+	 * reported every container.
+	 * @param leader PicoAddress object
+	 * @param containers Containers to deploy
+	 * @param onPlacement Called with the outcome of each container
 	 * @throws PicoException if an error occurs during the call
 	 */
-	public void markElectionEnd(RpcContainer container, PicoAddress self, PicoAddress to) throws PicoException {
-		RpcMetadata rpcSelf = RpcMetadata.newBuilder().setIp(self.getIP()).setPort(self.getPort()).build();
-		RpcContainerElectionEnd msg = RpcContainerElectionEnd.newBuilder()
-			.setContainer(container)
-			.setSender(rpcSelf)
-			.build();
+	public void deployContainers(PicoAddress leader, List<RpcContainer> containers, Consumer<RpcPlacement> onPlacement) throws PicoException {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		long start = System.currentTimeMillis();
+		StreamObserver<RpcContainer> requests = channels.getAsyncStub(leader)
+			.withDeadline(DEPLOY.deadline())
+			.deployContainers(new StreamObserver<RpcPlacement>() {
+				@Override
+				public void onNext(RpcPlacement placement) {
+					onPlacement.accept(placement);
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					done.completeExceptionally(t);
+				}
+
+				@Override
+				public void onCompleted() {
+					done.complete(null);
+				}
+			});
+
+		try {
+			for (RpcContainer container : containers)
+				requests.onNext(container);
+			requests.onCompleted();
+			done.get();
+		} catch (Exception e) {
+			requests.onError(e);
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			String err = String.format("Received error from leader %s when deploying %d containers: %s",
+				leader, containers.size(), cause.getMessage());
+			throw handleError(leader, err, cause);
+		}
 
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(to);
+		long time = System.currentTimeMillis() - start;
+		DEPLOY.record(time);
+		channels.succeeded(leader);
+		logger.info("Deployed batch of {} containers through {} after {} ms", containers.size(), leader, time);
+	}
+
+	/**
+	 * Request to deliver a batch of notices to a remote node, which relays
+	 * them to the members in the relay list of the message
+	 * @param remote PicoAddress object
+	 * @param msg RpcNotices object
+	 * @throws PicoException if an error occurs during the call
+	 */
+	public void disseminate(PicoAddress remote, RpcNotices msg) throws PicoException {
+		logger.debug("Sending {} notices to {} with {} members to relay to", 
+			msg.getNoticesCount(), remote, msg.getRelayCount());
 		try {
-			logger.info("Sending ELECTION_END for container {} to {} ...", container.getName(), to);
-			stub.withDeadlineAfter(10, TimeUnit.MINUTES).containerElectionEnd(msg);
+			call(remote, DISSEMINATE, stub -> stub.disseminate(msg));
 		} catch (Exception e) {
-			throw handleError(to, 
-				String.format("Failed to send ELECTION_END for container %s to %s: %s",
-					container.getName(), to, e.getMessage()));
-		
+			String err = String.format("Received error from %s when disseminating notices: %s", remote, e.getMessage());
+			throw handleError(remote, err, e);
 		}
 	}
 
@@ -302,80 +471,228 @@ public class PicoClient {
 	 * @throws PicoException if an error occurs during the call
 	 */
 	public String sendContainerCommand(RpcContainerCommand command, PicoAddress remote) {
-		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
 		try {
 
 			logger.info("Sending {} command to {} for container {}", 
 				command.getCommand().toString(), remote, command.getContainer().getName());
-			return stub.withDeadlineAfter(10, TimeUnit.MINUTES).containerCommand(command).getPayload();
+			return call(remote, CONTAINER_COMMAND, stub -> stub.containerCommand(command)).getPayload();
 		} catch (Exception e) {
-			throw handleError(remote, e.getMessage());
+			throw handleError(remote, e.getMessage(), e);
 		}
 	}
 
 	/**
-	 * Request to send a HEARTBEAT to a remote node
+	 * Request to stream the logs of a container on a remote node. Blocks
+	 * until the stream has ended. Frames are requested one at a time, so a
+	 * slow sink slows down the remote rather than buffering frames.
 	 * @param remote PicoAddress object
-	 * @return Node object
+	 * @param request RpcLogRequest object
+	 * @param sink Receives the frames
 	 * @throws PicoException if an error occurs during the call
 	 */
-	public Node heartbeat(PicoAddress remote) throws Exception {
+	public void containerLogs(PicoAddress remote, RpcLogRequest request, LogSink sink) throws PicoException {
 		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
+		// A followed log has no end, so only a bounded read gets a deadline
+		if (!request.getFollow())
+			stub = stub.withDeadline(CONTAINER_LOGS.deadline());
 
+		logger.info("Streaming logs of container {} from {} ...", request.getName(), remote);
+		Context.CancellableContext ctx = Context.current().withCancellation();
+		Context previous = ctx.attach();
 		try {
-			long start = System.currentTimeMillis();
-			Node node = NodeSerializer.fromRPC(stub.withDeadlineAfter(10, TimeUnit.MINUTES).heartbeat(RpcEmpty.newBuilder().build()));
-			long time = System.currentTimeMillis() - start;
-			logger.info("Successfully sent HEARTBEAT to {} after {} ms", remote, time);
-			return node;
+			Iterator<RpcLogFrame> frames = stub.containerLogs(request);
+			while (frames.hasNext())
+				sink.frame(frames.next().getPayload().toByteArray());
+			channels.succeeded(remote);
+			sink.done(null);
+		} catch (IOException e) {
+			// The receiver has gone away, the call is cancelled below
+			logger.info("Stopped streaming logs of container {} from {}: {}", request.getName(), remote, e.getMessage());
+			sink.done(e);
 		} catch (Exception e) {
-			throw handleError(remote, e.getMessage());
+			sink.done(e);
+			String err = String.format("Failed to stream logs of container %s from %s: %s", 
+				request.getName(), remote, e.getMessage());
+			throw handleError(remote, err, e);
+		} finally {
+			ctx.detach(previous);
+			ctx.cancel(null);
 		}
 	}
 
 	/**
-	 * Sends a request to check if a node is susepcted on the remote node
+	 * Request to search the container logs of a remote node. The search
+	 * starts on the remote right away, the lines are pulled one at a time
+	 * as the returned iterator is read. If the remote fails the iterator
+	 * ends early, so that a search over the cluster still returns the
+	 * lines of the other nodes.
 	 * @param remote PicoAddress object
-	 * @param suspect PicoAddress object
-	 * @return boolean value
-	 * @throws Exception if an error occurs during the call
+	 * @param search RpcLogSearch object
+	 * @return Lines found by the remote ordered by time, Closeable to cancel
+	 * 		   the search
+	 * @throws PicoException if the search could not be sent
+	 */
+	public Iterator<LogLine> searchLogs(PicoAddress remote, RpcLogSearch search) throws PicoException {
+		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
+		Context.CancellableContext ctx = Context.current().withCancellation();
+		logger.info("Sending log search to {} ...", remote);
+		try {
+			Iterator<RpcLogLine> lines = ctx.call(() -> stub.searchLogs(search));
+			return new RemoteLogLines(remote, lines, ctx);
+		} catch (Exception e) {
+			ctx.cancel(null);
+			String err = String.format("Failed to send log search to %s: %s", remote, e.getMessage());
+			throw handleError(remote, err, e);
+		}
+	}
+
+	/**
+	 * Lines of a log search on a remote node
 	 */
-	public boolean isSuspect(PicoAddress remote, PicoAddress suspect) throws Exception {
-		RpcServiceBlockingStub stub = stubs.get(remote);
+	private class RemoteLogLines implements Iterator<LogLine>, Closeable {
+		private final PicoAddress remote;
+		private final Iterator<RpcLogLine> lines;
+		private final Context.CancellableContext ctx;
+		private volatile boolean closed = false;
+
+		RemoteLogLines(PicoAddress remote, Iterator<RpcLogLine> lines, Context.CancellableContext ctx) {
+			this.remote = remote;
+			this.lines = lines;
+			this.ctx = ctx;
+		}
 
-		if (stub == null) {
-			connectNewHost(remote);
-			stub = stubs.get(remote);
+		@Override
+		public boolean hasNext() {
+			if (closed)
+				return false;
+			try {
+				if (lines.hasNext())
+					return true;
+				channels.succeeded(remote);
+			} catch (Exception e) {
+				if (!closed) {
+					logger.warn("Log search on {} failed, skipping its remaining lines: {}", remote, e.getMessage());
+					channels.failed(remote, e);
+				}
+			}
+			close();
+			return false;
 		}
 
-		RpcMetadata meta = RpcMetadata.newBuilder()
-			.setIp(suspect.getIP())
-			.setPort(suspect.getPort())
-			.build();
+		@Override
+		public LogLine next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return LogSerializer.fromRPC(lines.next(), remote);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			ctx.cancel(null);
+		}
+	}
+
+	/**
+	 * Asynchronous request to send a HEARTBEAT to a remote node. The heartbeat
+	 * is sent on a long-lived stream to the remote which is opened on first
+	 * use. The call does not block the caller, the returned future is
+	 * completed once the remote replies or the timeout expires.
+	 * @param remote PicoAddress object
+	 * @param msg RpcHeartbeat builder with the sender set
+	 * @param timeout Time in milliseconds to wait for the reply
+	 * @return CompletableFuture completed with the reply of the remote
+	 */
+	public CompletableFuture<RpcHeartbeat> heartbeatAsync(PicoAddress remote, RpcHeartbeat.Builder msg, long timeout) {
+		long start = System.currentTimeMillis();
+		CompletableFuture<RpcHeartbeat> call;
+		try {
+			call = addHeartbeatStreamIfNotOpen(remote).send(msg, timeout);
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(handleError(remote, e.getMessage(), e));
+		}
+
+		return call.handle((reply, err) -> {
+			if (err != null) {
+				String cause = err.getMessage() == null ? err.getClass().getSimpleName() : err.getMessage();
+				String log = String.format("Failed to send HEARTBEAT to %s: %s", remote, cause);
+				logger.error(log);
+				throw new PicoException(log);
+			}
+			long time = System.currentTimeMillis() - start;
+			logger.info("Successfully sent HEARTBEAT to {} after {} ms", remote, time);
+			return reply;
+		});
+	}
+
+	/**
+	 * Request to compare a digest of the view of a remote node with the
+	 * remote node itself
+	 * @param remote PicoAddress object
+	 * @param digest RpcDigest object
+	 * @return RpcDigestReply with the containers of the differing buckets
+	 * @throws PicoException if an error occurs during the call
+	 */
+	public RpcDigestReply antiEntropy(PicoAddress remote, RpcDigest digest) throws PicoException {
+		long start = System.currentTimeMillis();
+		try {
+			RpcDigestReply reply = call(remote, ANTI_ENTROPY, stub -> stub.antiEntropy(digest));
+			long time = System.currentTimeMillis() - start;
+			logger.info("Received ANTI_ENTROPY reply from {} with {} differing buckets after {} ms", 
+				remote, reply.getBucketsCount(), time);
+			return reply;
+		} catch (Exception e) {
+			String err = String.format("Failed to send ANTI_ENTROPY to %s: %s", remote, e.getMessage());
+			throw handleError(remote, err, e);
+		}
+	}
+
+	/**
+	 * Request to probe a remote node for the membership protocol
+	 * @param remote PicoAddress object
+	 * @param msg RpcPing object
+	 * @param timeout Deadline of the call in milliseconds
+	 * @return RpcAck object
+	 * @throws PicoException if the remote did not acknowledge in time
+	 */
+	public RpcAck ping(PicoAddress remote, RpcPing msg, long timeout) throws PicoException {
+		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
+		try {
+			return stub.withDeadlineAfter(timeout, TimeUnit.MILLISECONDS).ping(msg);
+		} catch (Exception e) {
+			throw handleError(remote, String.format("Failed to send PING to %s: %s", remote, e.getMessage()), e);
+		}
+	}
 
+	/**
+	 * Request to let a remote node probe another node on behalf of the
+	 * local node for the membership protocol
+	 * @param remote PicoAddress object
+	 * @param msg RpcPingRequest object
+	 * @param timeout Deadline of the call in milliseconds
+	 * @return RpcAck object, telling if the target acknowledged the probe
+	 * @throws PicoException if the remote did not answer in time
+	 */
+	public RpcAck pingRequest(PicoAddress remote, RpcPingRequest msg, long timeout) throws PicoException {
+		RpcServiceBlockingStub stub = addRemoteIfNotConnected(remote);
 		try {
-			return stub.withDeadlineAfter(10, TimeUnit.MINUTES).isSuspect(meta).getValue();
+			return stub.withDeadlineAfter(timeout, TimeUnit.MILLISECONDS).pingRequest(msg);
 		} catch (Exception e) {
-			throw handleError(remote, String.format("Failed to send ISSUSPECT to %s: %s", remote, e.getMessage()));
+			throw handleError(remote, String.format("Failed to send PING_REQUEST to %s: %s", remote, e.getMessage()), e);
 		}
 	}
 
 	/**
-	 * General error handler for the client
+	 * General error handler for the client. Transport failures make the
+	 * channel reconnect with backoff, other errors leave it untouched.
 	 * @param remote PicoAddress object
 	 * @param msg String message
+	 * @param e Error of the call
 	 * @return PicoException object
 	 */
-	private PicoException handleError(PicoAddress remote, String msg) {
+	private PicoException handleError(PicoAddress remote, String msg, Throwable e) {
 		logger.error(msg);
-		ManagedChannel channel = channels.get(remote);
-		if (channel == null)
-			return new PicoException(msg);
-		
-		channel.shutdownNow();
-		channels.remove(remote);
-		stubs.remove(remote);
-
-		return new PicoException(msg);
+		channels.failed(remote, e);
+		return new PicoException(msg, Status.fromThrowable(e).getCode());
 	}
 }
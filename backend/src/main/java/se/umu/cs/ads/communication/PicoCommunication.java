@@ -1,15 +1,24 @@
 package se.umu.cs.ads.communication;
 
+import java.io.Closeable;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import org.apache.logging.log4j.*;
 
+import io.grpc.Context;
+import io.grpc.stub.StreamObserver;
+
 import se.umu.cs.ads.arguments.CommandLineArguments;
 import se.umu.cs.ads.clustermanagement.ClusterManager;
+import se.umu.cs.ads.clustermanagement.ClusterPorts;
+import se.umu.cs.ads.clustermanagement.SwimMembership;
+import se.umu.cs.ads.containerengine.LogSink;
 import se.umu.cs.ads.exception.*;
 import se.umu.cs.ads.nodemanager.NodeManager;
 import se.umu.cs.ads.serializers.*;
 import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.utils.LogMerge;
 
 /**
  * Class for communication between nodes
@@ -21,6 +30,8 @@ public class PicoCommunication {
 	private final ClusterManager cluster;
 	private final ExecutorService pool;
 	private final PicoClient client;
+	private final MembershipEpochs epochs;
+	private final Disseminator disseminator;
 	private final NodeManager manager;
 
 	/**
@@ -32,7 +43,9 @@ public class PicoCommunication {
 		this.manager = manager;
 		this.address = manager.getAddress();
 		this.server = new PicoServer(this);
-		this.client = new PicoClient();
+		this.client = new PicoClient(this::heartbeatStreamBroken);
+		this.epochs = new MembershipEpochs(this, this.client);
+		this.disseminator = new Disseminator(this, this.client, this::deliverNotice);
 		this.cluster = cluster;
 		this.pool = CommandLineArguments.pool;
 
@@ -70,46 +83,94 @@ public class PicoCommunication {
 	}
 
 	/**
-	 * Method for sending a join request to a remote node.
+	 * Method for joining the cluster through a remote node with a streamed
+	 * snapshot. Returns as soon as the membership has arrived and has been
+	 * added to the cluster, while the containers of the members keep
+	 * streaming in.
 	 * @param remote Address of the remote node
 	 * @param aspirant Node object
-	 * @return List of Node objects
+	 * @return Addresses of the members
 	 * @throws PicoException If the join request fails
 	 */
-	public synchronized List<Node> joinRequest(PicoAddress remote, Node aspirant) throws PicoException {
-		RpcContainers.Builder builder = RpcContainers.newBuilder();
-		// aspirant.getContainers().forEach(it -> ContainerSerializer.toRPC(it));
-
+	public List<PicoAddress> bootstrap(PicoAddress remote, Node aspirant) throws PicoException {
 		RpcNode rpcAspirant = RpcNode.newBuilder()
 				.setClusterName(aspirant.getCluster())
 				.setIp(aspirant.getIP())
 				.setPort(aspirant.getPort())
-				.setContainers(builder.build())
+				.setContainers(RpcContainers.newBuilder().build())
 				.build();
+		RpcJoinRequest request = RpcJoinRequest.newBuilder().setAspirant(rpcAspirant).setSender(getSelfMetadata()).build();
+
+		CompletableFuture<List<PicoAddress>> members = new CompletableFuture<>();
+		Map<PicoAddress, List<PicoContainer>> partial = new HashMap<>();
+		long start = System.currentTimeMillis();
+
+		client.bootstrap(remote, request, new StreamObserver<RpcBootstrap>() {
+			@Override
+			public void onNext(RpcBootstrap msg) {
+				if (msg.hasMembers()) {
+					List<PicoAddress> res = new ArrayList<>();
+					for (RpcMetadata member : msg.getMembers().getMembersList())
+						res.add(new PicoAddress(member.getIp(), member.getPort()));
+					cluster.addBootstrapMembers(res);
+					members.complete(res);
+					return;
+				}
+
+				RpcContainerChunk chunk = msg.getContainers();
+				PicoAddress adr = new PicoAddress(chunk.getNode().getIp(), chunk.getNode().getPort());
+				List<PicoContainer> containers = partial.computeIfAbsent(adr, k -> new ArrayList<>());
+				for (RpcContainer container : chunk.getContainersList())
+					containers.add(ContainerSerializer.fromRPC(container));
+
+				if (chunk.getLast())
+					cluster.applyBootstrap(adr, partial.remove(adr), chunk.getVersion());
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				if (!members.completeExceptionally(t))
+					logger.warn("Bootstrap stream from {} broke, heartbeats fill in the rest: {}", remote, t.getMessage());
+			}
+
+			@Override
+			public void onCompleted() {
+				long time = System.currentTimeMillis() - start;
+				logger.info("Received cluster snapshot from {} after {} ms", remote, time);
+				members.completeExceptionally(new PicoException("Bootstrap stream ended without membership"));
+			}
+		});
 
-		RpcMetadata sender = getSelfMetadata();
-		RpcJoinRequest request = RpcJoinRequest.newBuilder().setAspirant(rpcAspirant).setSender(sender).build();
 		try {
-			RpcNodes nodes = client.join(remote, request);
-			return NodeSerializer.fromRPC(nodes);
-		} catch (Exception e) {
-			logger.error("Failed to join cluster: {}", e.getMessage());
-			throw new PicoException(e.getMessage());
+			return members.get();
+		} catch (InterruptedException | ExecutionException e) {
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			logger.error("Failed to join cluster: {}", cause.getMessage());
+			throw new PicoException(cause.getMessage());
 		}
-
 	}
 
 	/**
-	 * Method for constructing a reply to a join request.
+	 * Method for streaming a snapshot of the cluster to a joining node. The
+	 * join is added to the current membership epoch, which is sent to the
+	 * other members in the background.
 	 * @param msg Join request message
-	 * @return List of Node objects
+	 * @return Messages of the snapshot, membership first
 	 */
-	public synchronized RpcNodes joinReply(RpcNode msg) {
+	public Iterator<RpcBootstrap> bootstrapReply(RpcNode msg) {
 		Node newMember = NodeSerializer.fromRPC(msg);
 		cluster.addNode(newMember);
-		List<Node> nodes = cluster.getNodes();
+		epochs.joined(msg);
+		return new BootstrapChunks(cluster.CLUSTER_NAME, cluster.getNodes());
+	}
 
-		return NodeSerializer.toRPC(nodes);
+	/**
+	 * Method for applying a membership epoch sent by another member.
+	 * @param msg Membership epoch message
+	 */
+	public void membershipEpoch(RpcMembershipEpoch msg) {
+		if (!epochs.apply(msg))
+			logger.debug("Skipping membership epoch {} that has already been applied", msg.getEpoch());
 	}
 
 	/**
@@ -150,14 +211,6 @@ public class PicoCommunication {
 		return ContainerSerializer.toRPC(resutl);
 	}
 	
-	/**
-	 * Method for fetching a node from the cluster.
-	 * @return Node object
-	 */
-	public Node fetchNode() {
-		return this.cluster.fetchNode();
-	}
-
 	/**
 	 * Method for fetching a node from the cluster by address.
 	 * @param adr Address of the node
@@ -200,6 +253,23 @@ public class PicoCommunication {
 		return this.cluster.fetchNodePerformance();
 	}
 
+	/**
+	 * Method for opening a connection to a node ahead of the first call.
+	 * @param adr Address of the node
+	 */
+	public void connect(PicoAddress adr) {
+		if (!adr.equals(address))
+			this.client.connectNewHost(adr);
+	}
+
+	/**
+	 * Method for closing the connection to a node that left the cluster.
+	 * @param adr Address of the node
+	 */
+	public void disconnect(PicoAddress adr) {
+		this.client.disconnect(adr);
+	}
+
 	/**
 	 * Method for removing a node from the cluster.
 	 * @param adr Address of the node
@@ -228,7 +298,6 @@ public class PicoCommunication {
 	 * @param toRemove Address of the node to remove
 	 */
 	public void removeNodeRemote(PicoAddress toRemove) {
-		List<Node> members = this.cluster.getNodes();
 		boolean removeSelf = false;
 
 		if (toRemove == null) {
@@ -241,83 +310,241 @@ public class PicoCommunication {
 		manager.removeNode(toRemove);
 		logger.info("Removed node {} from self", toRemove);
 
-		for (Node member : members) {
-			PicoAddress remote = member.getAddress();
-			
-			// Safeguard
-			if (remote.equals(this.address))
-				continue;
-
-			if (remote.equals(this.cluster.getLeader()))
-				continue;
-				
-			if (toRemove.equals(remote))
-				continue;
-
-			try {
-				this.client.removeNode(remote, toRemove);
-			} catch (Exception e) {
-				removeSelf = true;
-				logger.error("Failed to remove {} from remote", toRemove);
-			}
-		}
+		// The removal is spread over the dissemination tree, the flush
+		// returns once the first level of the tree has received it
+		RpcNotice notice = RpcNotice.newBuilder()
+			.setType(RpcNoticeType.REMOVE_NODE)
+			.setNode(RpcMetadata.newBuilder().setIp(toRemove.getIP()).setPort(toRemove.getPort()))
+			.build();
+		disseminator.publish(notice);
+		disseminator.flush();
 		
 		// Send start container request of all node containers to 
 		// leader node. This is to ensure that the containers are not lost
+		migrateContainers(toRemove, zomboidContainers);
+
+		// Successfull exit if it removes self
+		if (removeSelf)
+			System.exit(0);
+
+	}
+
+	/**
+	 * Method for moving the running containers of a removed node to other
+	 * nodes. Only the leader moves containers, so that they are not started
+	 * more than once.
+	 * @param removed Address of the removed node
+	 * @param containers Containers of the removed node
+	 */
+	public void migrateContainers(PicoAddress removed, List<PicoContainer> containers) {
 		logger.info("Leader: {}", this.cluster.getLeader());
 		PicoAddress leader = this.cluster.getLeader();
 		logger.info("MYSELF: {}", this.address);
-		if (leader.equals(this.address)) {
-			logger.info("Starting process to move running containers from {}", toRemove);
-			for (PicoContainer cont : zomboidContainers) {
-				if (cont.getState() == PicoContainerState.RUNNING) {
-					try {
-						containerElectionStart(ContainerSerializer.toRPC(cont));
-					} catch (Exception e) {
-						logger.error("Failed to move container {}", e);
-					}
+		if (!leader.equals(this.address))
+			return;
+
+		logger.info("Starting process to move running containers from {}", removed);
+		List<RpcContainer> running = new ArrayList<>();
+		for (PicoContainer cont : containers) {
+			if (cont.getState() == PicoContainerState.RUNNING)
+				running.add(ContainerSerializer.toRPC(cont));
+		}
+
+		if (!running.isEmpty()) {
+			try {
+				for (Placement placement : containerElectionStart(running)) {
+					if (!placement.isPlaced())
+						logger.error("Failed to move container {}: {}", placement.getName(), placement.getError());
 				}
+			} catch (Exception e) {
+				logger.error("Failed to move containers {}", e);
 			}
-			logger.info("Finnished removing and moving {}", toRemove);
 		}
+		logger.info("Finnished removing and moving {}", removed);
+	}
 
-		// Successfull exit if it removes self
-		if (removeSelf)
-			System.exit(0);
+	/**
+	 * Method for sending an asynchronous heartbeat to a remote node. The
+	 * remote replies with the changes to its containers since the known 
+	 * version, or a full snapshot if the changes are no longer available,
+	 * which is applied to the view of the node in the cluster.
+	 * @param remote Address of the remote node
+	 * @param knownVersion Version of the remote node last seen
+	 * @param timeout Deadline of the heartbeat in milliseconds
+	 * @return Future completed once the reply has been applied
+	 */
+	public CompletableFuture<Void> heartbeatRemoteAsync(PicoAddress remote, long knownVersion, long timeout) {
+		RpcHeartbeat.Builder msg = RpcHeartbeat.newBuilder()
+			.setSender(getSelfMetadata())
+			.setKnownVersion(knownVersion);
 
+		return this.client.heartbeatAsync(remote, msg, timeout).thenAccept(reply -> {
+			if (reply.hasNode()) {
+				this.cluster.applySnapshot(NodeSerializer.fromRPC(reply.getNode()));
+			} else {
+				RpcNodeDelta delta = reply.getDelta();
+				List<ContainerEvent> events = NodeSerializer.fromRPC(delta);
+				this.cluster.applyChanges(remote, events, delta.getFromVersion(), delta.getToVersion());
+			}
+		});
 	}
 
 	/**
-	 * Method for sending a heartbeat to a remote node.
+	 * Handles a heartbeat received on a heartbeat stream from a remote node
+	 * @param msg Heartbeat from the remote node
+	 * @return Heartbeat reply containing the changes to the local node since
+	 * 		   the version known by the remote, or the full local node
+	 */
+	public RpcHeartbeat receiveHeartbeat(RpcHeartbeat msg) {
+		RpcMetadata sender = msg.getSender();
+		this.cluster.heardFrom(new PicoAddress(sender.getIp(), sender.getPort()));
+
+		Node self = this.cluster.fetchNode();
+		long known = msg.getKnownVersion();
+		List<ContainerEvent> changes = self.getChangesSince(known);
+
+		RpcHeartbeat.Builder reply = RpcHeartbeat.newBuilder()
+			.setSender(getSelfMetadata())
+			.setSequence(msg.getSequence());
+
+		if (changes == null)
+			reply.setNode(NodeSerializer.toRPC(self));
+		else
+			reply.setDelta(NodeSerializer.toRPC(known, changes));
+
+		return reply.build();
+	}
+
+	/**
+	 * Handles a heartbeat stream to or from a remote node that has been broken
 	 * @param remote Address of the remote node
-	 * @return Node object
-	 * @throws PicoException If the heartbeat fails
 	 */
-	public Node heartbeatRemote(PicoAddress remote) throws PicoException {
-		try {
-			return this.client.heartbeat(remote);
-		} catch (Exception e) {
-			throw new PicoException(e.getMessage());
-		}
+	public void heartbeatStreamBroken(PicoAddress remote) {
+		this.cluster.suspect(remote);
 	}
 
 	/**
-	 * Method for checking if the given address is suspected by the current node
-	 * @param adr Address of the node
-	 * @return True if the node is suspected, false otherwise
+	 * Method for reconciling the view of a remote node with the node itself.
+	 * Only a digest of the view is sent, the remote replies with the 
+	 * containers of the buckets that differ.
+	 * @param view View of the remote node
+	 * @throws PicoException If the request fails
 	 */
-	public boolean isSuspect(PicoAddress adr) {
-		return this.cluster.isSuspect(adr);
+	public void antiEntropyRemote(Node view) throws PicoException {
+		long[] buckets = view.computeDigest();
+		RpcDigest.Builder digest = RpcDigest.newBuilder()
+			.setSender(getSelfMetadata())
+			.setRoot(ContainerDigest.root(buckets));
+		for (long bucket : buckets)
+			digest.addBuckets(bucket);
+
+		RpcDigestReply reply = this.client.antiEntropy(view.getAddress(), digest.build());
+		if (reply.getBucketsCount() == 0)
+			return;
+
+		Set<Integer> repaired = new HashSet<>(reply.getBucketsList());
+		List<PicoContainer> containers = ContainerSerializer.fromRPC(reply.getContainers());
+		logger.info("Repairing {} buckets with {} containers in view of {}", 
+			repaired.size(), containers.size(), view.getAddress());
+		this.cluster.repairBuckets(view.getAddress(), repaired, containers, reply.getVersion());
+	}
+
+	/**
+	 * Method for comparing a digest of the view of the local node held by a
+	 * remote node with the local node
+	 * @param digest Digest of the view
+	 * @return Reply containing the containers of the differing buckets
+	 */
+	public RpcDigestReply antiEntropy(RpcDigest digest) {
+		// The digest and the containers sent come from the same snapshot
+		ContainerSnapshot self = this.cluster.fetchNode().snapshot();
+		long version = self.getVersion();
+		long[] buckets = ContainerDigest.buckets(self);
+
+		RpcDigestReply.Builder reply = RpcDigestReply.newBuilder().setVersion(version);
+		if (digest.getRoot() == ContainerDigest.root(buckets))
+			return reply.build();
+
+		long[] remote = digest.getBucketsList().stream().mapToLong(Long::longValue).toArray();
+		Set<Integer> differing = ContainerDigest.diff(buckets, remote);
+		reply.addAllBuckets(differing);
+		reply.setContainers(ContainerSerializer.toRPC(self, differing));
+		return reply.build();
 	}
 
 	/**
-	 * Method for sending a isSuspect request to a remote node.
+	 * Method for probing a remote node for the membership protocol. The
+	 * updates piggybacked on the ack are handed to the membership protocol.
 	 * @param remote Address of the remote node
-	 * @param suspect Address of the suspected node
-	 * @return True if the node is suspected, false otherwise
+	 * @param updates Membership updates to piggyback
+	 * @param timeout Deadline of the probe in milliseconds
+	 * @throws PicoException If the remote did not acknowledge in time
+	 */
+	public void pingRemote(PicoAddress remote, List<MemberUpdate> updates, long timeout) throws PicoException {
+		RpcPing msg = RpcPing.newBuilder()
+			.setSender(getSelfMetadata())
+			.addAllUpdates(MembershipSerializer.toRPC(updates))
+			.build();
+
+		RpcAck ack = this.client.ping(remote, msg, timeout);
+		this.cluster.getMembership().receive(MembershipSerializer.fromRPC(ack.getUpdatesList()));
+	}
+
+	/**
+	 * Method for asking a remote node to probe a target node on behalf of 
+	 * the current node
+	 * @param helper Address of the remote node
+	 * @param target Address of the node to probe
+	 * @param updates Membership updates to piggyback
+	 * @param timeout Deadline of the request in milliseconds
+	 * @return True if the target acknowledged the probe
+	 * @throws PicoException If the remote did not answer in time
+	 */
+	public boolean pingRequestRemote(PicoAddress helper, PicoAddress target, List<MemberUpdate> updates, long timeout) throws PicoException {
+		RpcPingRequest msg = RpcPingRequest.newBuilder()
+			.setSender(getSelfMetadata())
+			.setTarget(RpcMetadata.newBuilder().setIp(target.getIP()).setPort(target.getPort()))
+			.addAllUpdates(MembershipSerializer.toRPC(updates))
+			.build();
+
+		RpcAck ack = this.client.pingRequest(helper, msg, timeout);
+		this.cluster.getMembership().receive(MembershipSerializer.fromRPC(ack.getUpdatesList()));
+		return ack.getAlive();
+	}
+
+	/**
+	 * Method for handling a probe from a remote node
+	 * @param msg Probe from the remote node
+	 * @return Ack with piggybacked membership updates
+	 */
+	public RpcAck ping(RpcPing msg) {
+		SwimMembership membership = this.cluster.getMembership();
+		membership.receive(MembershipSerializer.fromRPC(msg.getUpdatesList()));
+
+		return RpcAck.newBuilder()
+			.setSender(getSelfMetadata())
+			.setAlive(true)
+			.addAllUpdates(MembershipSerializer.toRPC(membership.piggyback()))
+			.build();
+	}
+
+	/**
+	 * Method for handling a request from a remote node to probe a target
+	 * @param msg Request from the remote node
+	 * @return Ack telling if the target acknowledged the probe
 	 */
-	public boolean isSuspectRemote(PicoAddress remote, PicoAddress suspect) throws Exception {
-		return this.client.isSuspect(remote, suspect);
+	public RpcAck pingRequest(RpcPingRequest msg) {
+		SwimMembership membership = this.cluster.getMembership();
+		membership.receive(MembershipSerializer.fromRPC(msg.getUpdatesList()));
+
+		RpcMetadata target = msg.getTarget();
+		boolean alive = membership.probeFor(new PicoAddress(target.getIp(), target.getPort()));
+
+		return RpcAck.newBuilder()
+			.setSender(getSelfMetadata())
+			.setAlive(alive)
+			.addAllUpdates(MembershipSerializer.toRPC(membership.piggyback()))
+			.build();
 	}
 
 	/**
@@ -348,6 +575,20 @@ public class PicoCommunication {
 			.build();
 	}
 
+	/**
+	 * Evaluate the posibility for a batch of containers to run on the current node
+	 * @param containers containers to evaluate
+	 * @return the score or the conflicts of each container
+	 */
+	public RpcContainerEvaluations evaluateContainers(RpcContainers containers) {
+		List<PicoContainer> conts = new ArrayList<>(containers.getContainersCount());
+		for (RpcContainer container : containers.getContainersList())
+			conts.add(ContainerSerializer.fromRPC(container));
+
+		List<ContainerEvaluation> evaluations = this.manager.evaluateContainers(conts);
+		return EvaluationSerializer.toRPC(this.address, evaluations);
+	}
+
 	/** 
 	 * Initiates a container election for a node on the cluster
 	 * @param container container to evaluate
@@ -359,24 +600,28 @@ public class PicoCommunication {
 	}
 
 	/**
-	 * Method for starting a container election
-	 * @param container Container object
+	 * Method for starting a container election. Only the members on which
+	 * the host ports of the container are free are asked to evaluate it.
+	 * @param rpc Container object
 	 * @throws PicoException If the container cannot be started
 	 */
-	public void containerElectionStart(RpcContainer container) throws PicoException {
+	public void containerElectionStart(RpcContainer rpc) throws PicoException {
 		//send container create to that node
 		//that node sends container_election_end
 
-		List<PicoAddress> clusterMembers = cluster.getClusterAddresses();
+		PicoContainer cont = ContainerSerializer.fromRPC(rpc);
+		List<PicoAddress> clusterMembers = portCandidates(cont, cluster.getClusterAddresses());
+		RpcContainer container = withPorts(rpc, cont);
 		ArrayList<Future<RpcContainerEvaluation>> responses = new ArrayList<>();
 		logger.info("Starting container election for {}, sending evaluation request to {} nodes", 
 			container.getName(), clusterMembers.size());
 
-		//evaluate container at all hosts
+		//evaluate container at all hosts, within the deadline of the caller
+		Context ctx = Context.current();
 		for (PicoAddress remote : clusterMembers) {
-			Future<RpcContainerEvaluation> future = pool.submit(() -> {
+			Future<RpcContainerEvaluation> future = pool.submit(ctx.wrap(() -> {
 				return client.evaluateContainer(container, remote);
-			});
+			}));
 			responses.add(future);
 		}
 
@@ -442,6 +687,182 @@ public class PicoCommunication {
 		}
 	}
 
+	/**
+	 * Method for starting a container election for a batch of containers.
+	 * @param containers Containers to place
+	 * @return Placement of each container, in the same order
+	 */
+	public List<Placement> containerElectionStart(List<RpcContainer> containers) {
+		Map<String, Placement> done = new ConcurrentHashMap<>();
+		containerElectionStart(containers, placement -> done.put(placement.getName(), placement));
+
+		List<Placement> res = new ArrayList<>(containers.size());
+		for (RpcContainer container : containers)
+			res.add(done.get(container.getName()));
+		return res;
+	}
+
+	/**
+	 * Method for starting a container election for a batch of containers.
+	 * Every member evaluates the whole batch in one request, the batch is
+	 * placed in one pass, and the containers are then created on their nodes
+	 * in parallel. Returns once every container has been created or failed.
+	 * Containers whose host ports are in use on every member fail before
+	 * the evaluation.
+	 * @param requested Containers to place
+	 * @param onPlaced Called with the outcome of each container as soon as
+	 * 		  it is known, possibly from several threads at once
+	 */
+	public void containerElectionStart(List<RpcContainer> requested, Consumer<Placement> onPlaced) {
+		List<PicoAddress> clusterMembers = cluster.getClusterAddresses();
+		List<RpcContainer> containers = new ArrayList<>(requested.size());
+		for (RpcContainer rpc : requested) {
+			PicoContainer cont = ContainerSerializer.fromRPC(rpc);
+			try {
+				portCandidates(cont, clusterMembers);
+				containers.add(withPorts(rpc, cont));
+			} catch (PortConflictException e) {
+				onPlaced.accept(Placement.failed(rpc.getName(), e.getMessage()));
+			}
+		}
+		if (containers.isEmpty())
+			return;
+
+		RpcContainers batch = RpcContainers.newBuilder().addAllContainers(containers).build();
+		logger.info("Starting container election for {} containers, sending evaluation request to {} nodes",
+			containers.size(), clusterMembers.size());
+
+		Context ctx = Context.current();
+		Map<PicoAddress, Future<RpcContainerEvaluations>> responses = new HashMap<>();
+		for (PicoAddress remote : clusterMembers) {
+			responses.put(remote, pool.submit(ctx.wrap(() -> {
+				return client.evaluateContainers(batch, remote);
+			})));
+		}
+
+		Map<PicoAddress, List<ContainerEvaluation>> evaluations = new HashMap<>();
+		for (Map.Entry<PicoAddress, Future<RpcContainerEvaluations>> entry : responses.entrySet()) {
+			try {
+				evaluations.put(entry.getKey(), EvaluationSerializer.fromRPC(entry.getValue().get()));
+			} catch (InterruptedException | ExecutionException | CancellationException e) {
+				logger.warn("Exception while evaluating batch at {}: {}", entry.getKey(), e.getMessage());
+			}
+		}
+
+		List<PicoContainer> conts = new ArrayList<>(containers.size());
+		for (RpcContainer container : containers)
+			conts.add(ContainerSerializer.fromRPC(container));
+		List<Placement> placements = NodeManager.placeContainers(conts, evaluations);
+
+		// Create the placed containers on their nodes in parallel
+		List<Future<?>> created = new ArrayList<>(placements.size());
+		for (int i = 0; i < placements.size(); i++) {
+			Placement placement = placements.get(i);
+			RpcContainer container = containers.get(i);
+			if (!placement.isPlaced()) {
+				onPlaced.accept(placement);
+				continue;
+			}
+
+			created.add(pool.submit(ctx.wrap(() -> {
+				PicoAddress best = placement.getNode();
+				try {
+					if (best.equals(manager.getAddress()))
+						createLocalContainer(container);
+					else
+						client.createContainer(container, best);
+					onPlaced.accept(placement);
+				} catch (Exception e) {
+					logger.error("Could not send CREATE_CONTAINER for {} to remote {}", container.getName(), best);
+					onPlaced.accept(Placement.failed(container.getName(), "Could not send CREATE_CONTAINER to remote " + best));
+				}
+			})));
+		}
+
+		for (Future<?> future : created) {
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException | CancellationException e) {
+				logger.warn("Exception while creating batch: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Finds the members on which the host ports of a container are free,
+	 * according to the port map of the cluster. A host port of 0 asks for
+	 * any free port, which is allocated among the ports free on all of
+	 * these members.
+	 * @param container Container to place, its ports are rewritten when a
+	 * 		  port is allocated
+	 * @param members Members of the cluster
+	 * @return Members that can bind the host ports of the container
+	 * @throws PortConflictException If no member can
+	 */
+	private List<PicoAddress> portCandidates(PicoContainer container, List<PicoAddress> members) throws PortConflictException {
+		if (members.isEmpty())
+			return members;
+
+		ClusterPorts ports = cluster.getPorts();
+		Map<Integer, Integer> requested = new HashMap<>(container.getPortsMap());
+		Integer any = requested.remove(0);
+		List<PicoAddress> candidates = ports.candidates(members, requested.keySet());
+		if (candidates.isEmpty()) {
+			int[] taken = requested.keySet().stream().mapToInt(Integer::intValue).toArray();
+			logger.warn("Container {} has port conflicts on all {} members: {}", container.getName(), members.size(), Arrays.toString(taken));
+			throw new PortConflictException(taken);
+		}
+
+		if (any != null) {
+			int port = ports.allocate(candidates);
+			if (port == -1)
+				throw new PortConflictException(String.format("PORT_CONFLICT: No free host port between %d and %d",
+					ClusterPorts.ALLOC_MIN, ClusterPorts.ALLOC_MAX));
+			requested.put(port, any);
+			container.setPorts(requested);
+			logger.info("Allocated host port {} for container {}", port, container.getName());
+		}
+		return candidates;
+	}
+
+	/**
+	 * Gets a container message with the ports of the container, if they
+	 * were rewritten by portCandidates
+	 * @param rpc Container message
+	 * @param container Container with the final ports
+	 * @return RpcContainer object
+	 */
+	private RpcContainer withPorts(RpcContainer rpc, PicoContainer container) {
+		if (container.getPortsMap().equals(rpc.getPorts().getMap()))
+			return rpc;
+		return ContainerSerializer.toRPC(container);
+	}
+
+	/**
+	 * Method for deploying a batch of containers through the leader. The
+	 * whole batch is streamed to the leader, which places it in one pass and
+	 * streams back the outcome of each container as it completes.
+	 * @param containers Containers to deploy
+	 * @param onPlaced Called with the outcome of each container
+	 * @throws PicoException If the leader cannot be reached
+	 */
+	public void deployContainers(List<PicoContainer> containers, Consumer<Placement> onPlaced) throws PicoException {
+		List<RpcContainer> batch = new ArrayList<>(containers.size());
+		for (PicoContainer container : containers)
+			batch.add(ContainerSerializer.toRPC(container));
+
+		PicoAddress leader = cluster.getLeader();
+		if (leader.equals(this.address)) {
+			containerElectionStart(batch, onPlaced);
+			return;
+		}
+
+		logger.info("Sending batch of {} containers to leader {}", batch.size(), leader);
+		client.deployContainers(leader, batch, placement -> {
+			onPlaced.accept(EvaluationSerializer.fromRPC(placement));
+		});
+	}
+
 	/**
 	 * Creates a metadata object of the current node
 	 * @return metadata object
@@ -481,12 +902,42 @@ public class PicoCommunication {
 	 */
 	public void broadcastElectionEnd(RpcContainer rpc) {
 		PicoAddress self = getAddress();
-		List<PicoAddress> addresses = cluster.getClusterAddresses();
+		RpcNotice notice = RpcNotice.newBuilder()
+			.setType(RpcNoticeType.ELECTION_END)
+			.setNode(RpcMetadata.newBuilder().setIp(self.getIP()).setPort(self.getPort()))
+			.setContainer(rpc)
+			.build();
+		disseminator.publish(notice);
+	}
+
+	/**
+	 * Handles a batch of notices sent from a remote node, which are applied
+	 * and relayed further down the dissemination tree
+	 * @param msg Notices and the members to relay them to
+	 */
+	public void receiveNotices(RpcNotices msg) {
+		logger.debug("Received {} notices from {}:{}", 
+			msg.getNoticesCount(), msg.getOrigin().getIp(), msg.getOrigin().getPort());
+		disseminator.receive(msg);
+	}
 
-		for (PicoAddress remote : addresses) {
-			pool.submit(() -> {
-				client.markElectionEnd(rpc, self, remote);
-			});
+	/**
+	 * Applies a disseminated notice on the local node
+	 * @param notice Notice to apply
+	 */
+	private void deliverNotice(RpcNotice notice) {
+		RpcMetadata node = notice.getNode();
+		switch (notice.getType()) {
+			case ELECTION_END:
+				receiveElectionEnd(notice.getContainer(), node);
+				break;
+			case REMOVE_NODE:
+				PicoAddress adr = new PicoAddress(node.getIp(), node.getPort());
+				if (!adr.equals(this.address))
+					removeNode(adr);
+				break;
+			default:
+				logger.warn("Received notice of unknown type {}", notice.getType());
 		}
 	}
 
@@ -523,6 +974,73 @@ public class PicoCommunication {
 		return response;
 	}
 
+	/**
+	 * Streams the logs of a container on the local node
+	 * @param request Container name and the log parameters
+	 * @param sink Receives the frames
+	 * @return Closeable that stops the stream
+	 * @throws PicoException if the container does not exist
+	 */
+	public Closeable streamContainerLogs(RpcLogRequest request, LogSink sink) throws PicoException {
+		return manager.streamContainerLogs(request.getName(), request.getTail(), 
+			request.getSince(), request.getFollow(), sink);
+	}
+
+	/**
+	 * Streams the logs of a container on a remote node, blocks until the
+	 * stream has ended
+	 * @param remote Address of the node hosting the container
+	 * @param name Name of the container
+	 * @param tail Number of lines from the end of the log, negative for all
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit
+	 * @param follow True to keep the stream open for new lines
+	 * @param sink Receives the frames
+	 * @throws PicoException if the stream fails
+	 */
+	public void streamRemoteContainerLogs(PicoAddress remote, String name, int tail, long since, 
+			boolean follow, LogSink sink) throws PicoException {
+		RpcLogRequest request = RpcLogRequest.newBuilder()
+			.setName(name)
+			.setTail(tail)
+			.setSince(since)
+			.setFollow(follow)
+			.build();
+		client.containerLogs(remote, request, sink);
+	}
+
+	/**
+	 * Searches the logs of the local containers
+	 * @param query Search to run
+	 * @return Lines found ordered by time
+	 */
+	public LogMerge searchLocalLogs(LogQuery query) {
+		return manager.searchLocalLogs(query);
+	}
+
+	/**
+	 * Searches the container logs of the whole cluster. The search is sent
+	 * to all other nodes at once and runs there, the lines of every node
+	 * are merged by time as they are read.
+	 * @param query Search to run
+	 * @return Lines found ordered by time, has to be closed to stop the
+	 * 		   search if it is not read to the end
+	 */
+	public LogMerge searchLogs(LogQuery query) {
+		RpcLogSearch rpc = LogSerializer.toRPC(query);
+		List<Iterator<LogLine>> sources = new ArrayList<>();
+		for (PicoAddress remote : getClusterAddresses()) {
+			if (remote.equals(this.address))
+				continue;
+			try {
+				sources.add(client.searchLogs(remote, rpc));
+			} catch (PicoException e) {
+				logger.warn("Skipping node {} in log search: {}", remote, e.getMessage());
+			}
+		}
+		sources.add(searchLocalLogs(query));
+		return new LogMerge(sources);
+	}
+
 	/**
 	 * Sends a container command to a remote node
 	 * @param container Container object
@@ -1,12 +1,16 @@
 package se.umu.cs.ads.communication;
 
 import io.grpc.*;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.collections.functors.ExceptionClosure;
 import org.apache.logging.log4j.LogManager;
@@ -15,15 +19,16 @@ import org.apache.logging.log4j.Logger;
 import com.google.rpc.Code;
 import org.springframework.ui.context.ThemeSource;
 
-import io.grpc.Grpc;
-import io.grpc.InsecureServerCredentials;
 import io.grpc.Server;
 import io.grpc.stub.StreamObserver;
 
+import se.umu.cs.ads.serializers.EvaluationSerializer;
+import se.umu.cs.ads.serializers.LogSerializer;
 import se.umu.cs.ads.serializers.NodeSerializer;
 import se.umu.cs.ads.types.*;
 import se.umu.cs.ads.arguments.CommandLineArguments;
 import se.umu.cs.ads.exception.*;
+import se.umu.cs.ads.utils.LogMerge;
 
 /**
  * gRPC server for handling communication between nodes
@@ -33,6 +38,7 @@ public class PicoServer {
     private PicoCommunication comm;
 	private Server server;
 	private final PicoAddress address;
+	private final ServerLanes lanes;
     private final ExecutorService pool = CommandLineArguments.pool;
 	
 	/**
@@ -42,6 +48,8 @@ public class PicoServer {
 	public PicoServer(PicoCommunication comm) {
         this.comm = comm;
 		this.address = this.comm.getAddress();
+		this.lanes = new ServerLanes(CommandLineArguments.controlThreads, CommandLineArguments.heavyThreads,
+			CommandLineArguments.laneQueue, CommandLineArguments.virtualThreads);
     }
 
 	/**
@@ -50,8 +58,11 @@ public class PicoServer {
     public void start() {
 		int port = address.getPort();
         try {
-			server = Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+			server = Transport.get().serverBuilder(port)
 				.addService(new RpcService(comm))
+				.intercept(new ServerMetrics())
+				.executor(lanes.getDefault())
+				.callExecutor(lanes)
 				.build()
 				.start();
 
@@ -71,6 +82,7 @@ public class PicoServer {
 		} catch (InterruptedException e) {
 			logger.warn("Received interrupt while waiting for shutdown");
 		}
+		this.lanes.shutdown();
 	}
 
 	/**
@@ -114,10 +126,7 @@ public class PicoServer {
 			RpcContainer res = null;
 			
 			try {
-				pool.submit(() -> {
-					this.comm.broadcastElectionEnd(container);
-				});
-
+				this.comm.broadcastElectionEnd(container);
 				res = this.comm.createLocalContainer(container);
 			} catch (PicoException e) {
 				logger.error(e.getMessage());
@@ -130,87 +139,58 @@ public class PicoServer {
 		}
 
 		/**
-		 * Adds a remote node to the cluster, returns the known nodes in 
-		 * the cluster
-		 * @param msg Metadata of the remote node
-		 * @param responseObserver StreamObserver for the response
+		 * Adds a remote node to the cluster and streams a snapshot of the
+		 * cluster to it, the membership first and then the containers of
+		 * each node in chunks. Chunks are only produced when the transport
+		 * is ready for them.
+		 * @param msg Join request of the remote node
+		 * @param responseObserver StreamObserver for the snapshot
 		 */
 		@Override
-		public synchronized void join(RpcJoinRequest msg, StreamObserver<RpcNodes> responseObserver) {
+		public void bootstrap(RpcJoinRequest msg, StreamObserver<RpcBootstrap> responseObserver) {
 			RpcNode aspirant = msg.getAspirant();
-			RpcMetadata metadata = msg.getSender();
-
-
-			PicoAddress aspirantAddress = new PicoAddress(aspirant.getIp(), aspirant.getPort());
-			PicoAddress senderAddress = new PicoAddress(metadata.getIp(), metadata.getPort());
-		
-			logger.info("Received JOIN_REQUEST from {} for {}", senderAddress, aspirantAddress);
-
-			//if sender != aspirant we just add it to our system
-			//otherwise we forward it to other members
-			if (!senderAddress.equals(aspirantAddress)) {
-				logger.info("Join request has been forwarded, adding aspirant {} to cluster", aspirantAddress);
-				this.comm.addNewMember(aspirant);
-				//create empty response
-				RpcNodes empty = RpcNodes.newBuilder().build();
-				responseObserver.onNext(empty);
-				responseObserver.onCompleted();
-				return;
-			}
-			
-			RpcNodes reply = this.comm.joinReply(aspirant);
-			List<PicoAddress> clusterMembers = this.comm.getClusterAddresses();
-		
-			String b = "Broadcasting JOIN_REQUEST to () {}:\n";
-			//now send request to members in cluster
-			//except ourselves and the aspirant
-			for (PicoAddress addr : clusterMembers) {
-
-				if (addr.equals(this.comm.getAddress()))
-					continue;
-
-				if (addr.equals(aspirantAddress))
-					continue;
-
-				try {
-					b += "\t" + addr + "\n";
-					this.comm.joinRequest(addr, NodeSerializer.fromRPC(aspirant));
-				} catch(PicoException e) {
-					responseObserver.onError(e.toStatusException());
-				} catch(Exception e) {
-					logger.error("Failed to broadcast join request: {}", e.getMessage());
-				}
-			}
-			
-			logger.info(b, clusterMembers.size());
-			responseObserver.onNext(reply);
-			responseObserver.onCompleted();
+			logger.info("Received BOOTSTRAP from {}:{}", aspirant.getIp(), aspirant.getPort());
+
+			ServerCallStreamObserver<RpcBootstrap> call = (ServerCallStreamObserver<RpcBootstrap>) responseObserver;
+			Iterator<RpcBootstrap> chunks = this.comm.bootstrapReply(aspirant);
+			AtomicBoolean done = new AtomicBoolean(false);
+
+			call.setOnCancelHandler(() -> {
+				logger.warn("BOOTSTRAP of {}:{} was cancelled", aspirant.getIp(), aspirant.getPort());
+				done.set(true);
+			});
+			call.setOnReadyHandler(() -> {
+				while (call.isReady() && chunks.hasNext() && !done.get())
+					call.onNext(chunks.next());
+
+				if (!chunks.hasNext() && done.compareAndSet(false, true))
+					call.onCompleted();
+			});
 		}
 
 		/**
-		 * Removes itself from the cluster, returns nothing
-		 * @param msg Metadata of the node
+		 * Applies a membership epoch with the nodes that joined through
+		 * another member, returns nothing
+		 * @param msg Membership epoch
 		 * @param responseObserver StreamObserver for the response
 		 */
 		@Override
-		public synchronized void leave(RpcMetadata msg, StreamObserver<RpcEmpty> responseObserver) {
-			PicoAddress adr = new PicoAddress(msg.getIp(), msg.getPort());
-			//TODO: Error handling
-			this.comm.removeNodeRemote(null);
-
+		public void membershipEpoch(RpcMembershipEpoch msg, StreamObserver<RpcEmpty> responseObserver) {
+			this.comm.membershipEpoch(msg);
 			responseObserver.onNext(RpcEmpty.newBuilder().build());
 			responseObserver.onCompleted();
 		}
 
 		/**
-		 * Removes a remote node from the cluster, returns nothing
+		 * Removes itself from the cluster, returns nothing
 		 * @param msg Metadata of the node
 		 * @param responseObserver StreamObserver for the response
 		 */
 		@Override
-		public void removeNode(RpcMetadata msg, StreamObserver<RpcEmpty> responseObserver) {
+		public synchronized void leave(RpcMetadata msg, StreamObserver<RpcEmpty> responseObserver) {
 			PicoAddress adr = new PicoAddress(msg.getIp(), msg.getPort());
-			this.comm.removeNode(adr);
+			//TODO: Error handling
+			this.comm.removeNodeRemote(null);
 
 			responseObserver.onNext(RpcEmpty.newBuilder().build());
 			responseObserver.onCompleted();
@@ -231,28 +211,71 @@ public class PicoServer {
 		}
 
 		/**
-		 * Handles a heartbeat request, returns the node
-		 * @param empty Empty request
+		 * Handles a heartbeat stream from a remote node. Every heartbeat on 
+		 * the stream is answered with the local node, a broken stream is
+		 * treated as a suspicion of the remote
+		 * @param responseObserver StreamObserver for the replies
+		 * @return StreamObserver for the heartbeats
+		 */
+		@Override
+		public StreamObserver<RpcHeartbeat> heartbeatStream(StreamObserver<RpcHeartbeat> responseObserver) {
+			return new StreamObserver<RpcHeartbeat>() {
+				private PicoAddress sender = null;
+
+				@Override
+				public void onNext(RpcHeartbeat msg) {
+					RpcMetadata meta = msg.getSender();
+					sender = new PicoAddress(meta.getIp(), meta.getPort());
+					responseObserver.onNext(comm.receiveHeartbeat(msg));
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					logger.warn("HEARTBEAT stream from {} broke: {}", sender, t.getMessage());
+					if (sender != null)
+						comm.heartbeatStreamBroken(sender);
+				}
+
+				@Override
+				public void onCompleted() {
+					responseObserver.onCompleted();
+				}
+			};
+		}
+
+		/**
+		 * Compares a digest of the view of the local node held by a remote 
+		 * node, returns the containers of the buckets that differ
+		 * @param digest Digest of the view
 		 * @param responseObserver StreamObserver for the response
 		 */
 		@Override
-		public void heartbeat(RpcEmpty empty, StreamObserver<RpcNode> responseObserver) {
-			Node node = this.comm.fetchNode();
-			responseObserver.onNext(NodeSerializer.toRPC(node));
+		public void antiEntropy(RpcDigest digest, StreamObserver<RpcDigestReply> responseObserver) {
+			responseObserver.onNext(this.comm.antiEntropy(digest));
 			responseObserver.onCompleted();
 		}
 
 		/**
-		 * Checks if a remote node is suspected of being dead by the local node
-		 * @param msg Metadata of the node
+		 * Handles a probe from the membership protocol of a remote node, 
+		 * returns an ack with piggybacked membership updates
+		 * @param msg Probe from the remote node
 		 * @param responseObserver StreamObserver for the response
 		 */
 		@Override
-		public void isSuspect(RpcMetadata msg, StreamObserver<RpcBool> responseObserver) {
-			PicoAddress adr = new PicoAddress(msg.getIp(), msg.getPort());
-			boolean res = this.comm.isSuspect(adr);
+		public void ping(RpcPing msg, StreamObserver<RpcAck> responseObserver) {
+			responseObserver.onNext(this.comm.ping(msg));
+			responseObserver.onCompleted();
+		}
 
-			responseObserver.onNext(RpcBool.newBuilder().setValue(res).build());
+		/**
+		 * Handles a request to probe a target on behalf of a remote node,
+		 * returns an ack telling if the target acknowledged the probe
+		 * @param msg Request from the remote node
+		 * @param responseObserver StreamObserver for the response
+		 */
+		@Override
+		public void pingRequest(RpcPingRequest msg, StreamObserver<RpcAck> responseObserver) {
+			responseObserver.onNext(this.comm.pingRequest(msg));
 			responseObserver.onCompleted();
 		}
 
@@ -294,23 +317,127 @@ public class PicoServer {
 		}
 
 		/**
-		 * Handles a CONTAINER_ELECTION_END request. Ends the election for the 
-		 * container, returns nothing
-		 * @param msg Metadata of the sender
-		 * @param responseObserver StreamObserver for the response
+		 * Evaluates a batch of containers on the local node, returns the
+		 * score or the conflicts of each container
+		 * @param containers Containers to evaluate
+		 * @param ro StreamObserver for the response
 		 */
 		@Override
-		public void containerElectionEnd(RpcContainerElectionEnd msg, StreamObserver<RpcEmpty> responseObserver) {
-			RpcMetadata sender = msg.getSender();
-			RpcContainer container = msg.getContainer();
+		public void evaluateContainers(RpcContainers containers, StreamObserver<RpcContainerEvaluations> ro) {
+			try {
+				logger.info("Received evaluation request for {} containers", containers.getContainersCount());
+				ro.onNext(this.comm.evaluateContainers(containers));
+				ro.onCompleted();
+			} catch (PicoException e) {
+				ro.onError(e.toStatusException());
+			}
+		}
 
-			logger.info("Received ELECTION_END for container {} from {}:{}", 
-				container.getName(), sender.getIp(), sender.getIp());
-			this.comm.receiveElectionEnd(container, sender);
+		/**
+		 * Handles a stream of containers to deploy. The whole batch is
+		 * collected before it is placed in one pass, and the outcome of each
+		 * container is streamed back as soon as it is known.
+		 * @param ro StreamObserver for the placements
+		 * @return StreamObserver for the containers
+		 */
+		@Override
+		public StreamObserver<RpcContainer> deployContainers(StreamObserver<RpcPlacement> ro) {
+			return new StreamObserver<RpcContainer>() {
+				private final List<RpcContainer> batch = new ArrayList<>();
+
+				@Override
+				public void onNext(RpcContainer container) {
+					batch.add(container);
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					logger.warn("Deploy stream broke after {} containers: {}", batch.size(), t.getMessage());
+				}
+
+				@Override
+				public void onCompleted() {
+					logger.info("Received batch of {} containers to deploy", batch.size());
+					try {
+						comm.containerElectionStart(batch, placement -> {
+							synchronized (ro) {
+								ro.onNext(EvaluationSerializer.toRPC(placement));
+							}
+						});
+						ro.onCompleted();
+					} catch (PicoException e) {
+						ro.onError(e.toStatusException());
+					}
+				}
+			};
+		}
+
+		/**
+		 * Handles a batch of disseminated notices. Applies them and relays
+		 * them to the members in the relay list, returns nothing
+		 * @param msg Notices and the members to relay them to
+		 * @param responseObserver StreamObserver for the response
+		 */
+		@Override
+		public void disseminate(RpcNotices msg, StreamObserver<RpcEmpty> responseObserver) {
+			this.comm.receiveNotices(msg);
 			responseObserver.onNext(RpcEmpty.newBuilder().build());
 			responseObserver.onCompleted();
 		}
 
+		/**
+		 * Streams the logs of a local container as raw frames. Frames are
+		 * sent as the transport becomes ready, until the log ends or the
+		 * client cancels the call.
+		 * @param request Container name and the log parameters
+		 * @param responseObserver StreamObserver for the frames
+		 */
+		@Override
+		public void containerLogs(RpcLogRequest request, StreamObserver<RpcLogFrame> responseObserver) {
+			logger.info("Received log stream request for container {}", request.getName());
+			LogFrameStream stream = new LogFrameStream((ServerCallStreamObserver<RpcLogFrame>) responseObserver);
+			try {
+				stream.attach(this.comm.streamContainerLogs(request, stream));
+			} catch (PicoException e) {
+				logger.error(e.getMessage());
+				responseObserver.onError(e.toStatusException());
+			}
+		}
+
+		/**
+		 * Searches the logs of the local containers and streams the lines
+		 * found ordered by time. The lines are sent from a pool thread as
+		 * the transport becomes ready, cancelling the call stops the search.
+		 * @param msg Search to run
+		 * @param responseObserver StreamObserver for the lines
+		 */
+		@Override
+		public void searchLogs(RpcLogSearch msg, StreamObserver<RpcLogLine> responseObserver) {
+			LogQuery query;
+			try {
+				query = LogSerializer.fromRPC(msg);
+			} catch (IllegalArgumentException e) {
+				responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+				return;
+			}
+
+			logger.info("Received log search for containers '{}' with text '{}'", query.getNamePattern(), query.getText());
+			LogMerge lines = this.comm.searchLocalLogs(query);
+			FlowControlledSender<RpcLogLine> sender = 
+				new FlowControlledSender<>((ServerCallStreamObserver<RpcLogLine>) responseObserver, lines::close);
+			pool.submit(() -> {
+				try {
+					while (lines.hasNext())
+						sender.send(LogSerializer.toRPC(lines.next()));
+					sender.complete();
+				} catch (IOException e) {
+					logger.info("Log search stopped: {}", e.getMessage());
+				} finally {
+					lines.close();
+				}
+			});
+		}
+
 		/**
 		 * Handles a CONTAINER_COMMAND request. Executes the command on the 
 		 * container, returns the result
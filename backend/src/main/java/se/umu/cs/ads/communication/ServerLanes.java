@@ -0,0 +1,291 @@
+package se.umu.cs.ads.communication;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallExecutorSupplier;
+import io.grpc.Status;
+
+/**
+ * Executors of the gRPC server. Control-plane calls, which the failure
+ * detector and the membership protocol depend on, run in a lane of their
+ * own, so that handlers blocking on Docker or on nested calls cannot delay
+ * them. Both lanes are bounded in threads and queued tasks.
+ *
+ * The bound is enforced when a call is admitted to its lane. A call that
+ * finds its lane full is closed with RESOURCE_EXHAUSTED before it starts.
+ * The executors themselves never reject a task. A task rejected after the
+ * call was admitted would leave the call hanging until its deadline. The
+ * queue of a lane may therefore exceed the bound by the tasks of calls
+ * already running.
+ *
+ * gRPC looks up the method of every call on the default executor before
+ * it asks for the lane. That lookup runs in a small lane of its own, so
+ * that a full heavy lane does not hold up control calls.
+ *
+ * With virtual threads every task gets a thread of its own, and a
+ * semaphore with a permit per thread of the lane bounds how many run at
+ * once. Tasks waiting for a permit are the queue of the lane.
+ */
+public class ServerLanes implements ServerCallExecutorSupplier {
+	private final static Logger logger = LogManager.getLogger(ServerLanes.class);
+
+	public static final Set<String> CONTROL = Set.of(
+		"heartbeatStream", "ping", "pingRequest",
+		"antiEntropy", "fetchNode", "fetchNodePerformance"
+	);
+
+	private final Lane dispatch;
+	private final Lane control;
+	private final Lane heavy;
+
+	/**
+	 * Constructor for the ServerLanes
+	 * @param controlThreads Number of threads of the control lane
+	 * @param heavyThreads Number of threads of the lane for all other calls
+	 * @param queue Number of tasks each lane queues when all threads are
+	 * 		  busy before it turns new calls away
+	 * @param virtual True to run handlers on virtual threads if the runtime
+	 * 		  supports them
+	 */
+	public ServerLanes(int controlThreads, int heavyThreads, int queue, boolean virtual) {
+		this(controlThreads, heavyThreads, queue, virtual ? virtualThreadFactory() : null);
+		if (virtual && dispatch instanceof PoolLane)
+			logger.warn("Virtual threads are not supported by this runtime, using platform threads");
+	}
+
+	/**
+	 * Constructor for the ServerLanes with a given factory for the threads
+	 * of single tasks
+	 * @param controlThreads Number of threads of the control lane
+	 * @param heavyThreads Number of threads of the lane for all other calls
+	 * @param queue Number of tasks each lane queues when all threads are
+	 * 		  busy before it turns new calls away
+	 * @param perTask Factory for a thread per task, null for thread pools
+	 */
+	ServerLanes(int controlThreads, int heavyThreads, int queue, ThreadFactory perTask) {
+		this.dispatch = newLane("grpc-dispatch", controlThreads, Integer.MAX_VALUE, perTask);
+		this.control = newLane("grpc-control", controlThreads, queue, perTask);
+		this.heavy = newLane("grpc-heavy", heavyThreads, queue, perTask);
+		logger.info("gRPC server lanes: {} control and {} heavy {} threads, {} queued tasks per lane",
+			controlThreads, heavyThreads, perTask == null ? "platform" : "virtual", queue);
+	}
+
+	private static Lane newLane(String name, int threads, int queue, ThreadFactory perTask) {
+		if (perTask != null)
+			return new PerTaskLane(name, threads, queue, perTask);
+		return new PoolLane(name, threads, queue);
+	}
+
+	/**
+	 * Gets the lane of a call. A call whose lane is full is rejected by
+	 * throwing a RESOURCE_EXHAUSTED status, which gRPC turns into closing
+	 * the call with that status before the handler runs.
+	 */
+	@Override
+	public <ReqT, RespT> Executor getExecutor(ServerCall<ReqT, RespT> call, Metadata metadata) {
+		String method = call.getMethodDescriptor().getBareMethodName();
+		Lane lane = lane(method);
+		if (!lane.admit())
+			throw Status.RESOURCE_EXHAUSTED
+				.withDescription(String.format("Lane %s is full, rejected %s", lane.name, method))
+				.asRuntimeException();
+		return lane;
+	}
+
+	/**
+	 * Gets the lane a method runs in
+	 * @param method Name of the method
+	 * @return Executor of the lane
+	 */
+	public Executor laneOf(String method) {
+		return lane(method);
+	}
+
+	private Lane lane(String method) {
+		return CONTROL.contains(method) ? control : heavy;
+	}
+
+	/**
+	 * Gets the executor for work that is not bound to a lane, such as
+	 * looking up the method of a call
+	 * @return Executor of the dispatch lane, which is not bounded
+	 */
+	public Executor getDefault() {
+		return dispatch;
+	}
+
+	/**
+	 * Stops all lanes, running tasks are completed
+	 */
+	public void shutdown() {
+		dispatch.shutdown();
+		control.shutdown();
+		heavy.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return dispatch + ", " + control + ", " + heavy;
+	}
+
+	/**
+	 * Creates a factory for virtual threads. Virtual threads are only
+	 * available from Java 21, so they are looked up by reflection.
+	 * @return ThreadFactory, null if the runtime has no virtual threads
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			// The methods are looked up on the public interface, the builder
+			// itself is a class internal to java.base
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "grpc-virtual-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Executor of one lane, with a bound on the tasks it queues for new
+	 * calls
+	 */
+	private static abstract class Lane implements Executor {
+		protected final String name;
+		private final int queue;
+		private final AtomicInteger rejected = new AtomicInteger();
+
+		Lane(String name, int queue) {
+			this.name = name;
+			this.queue = queue;
+		}
+
+		/**
+		 * Checks if the lane takes a new call
+		 * @return False if the queue of the lane is full
+		 */
+		boolean admit() {
+			if (queued() < queue)
+				return true;
+
+			int n = rejected.incrementAndGet();
+			logger.warn("Lane {} is full: {} rejected calls so far", name, n);
+			return false;
+		}
+
+		/**
+		 * Gets the number of tasks waiting for a thread
+		 * @return int
+		 */
+		abstract int queued();
+
+		/**
+		 * Gets the number of tasks running
+		 * @return int
+		 */
+		abstract int active();
+
+		abstract void shutdown();
+
+		@Override
+		public String toString() {
+			return String.format("%s[active=%d, queued=%d, rejected=%d]",
+				name, active(), queued(), rejected.get());
+		}
+	}
+
+	/**
+	 * Lane running its tasks on a pool of platform threads
+	 */
+	private static class PoolLane extends Lane {
+		private final ThreadPoolExecutor executor;
+
+		PoolLane(String name, int threads, int queue) {
+			super(name, queue);
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory threadFactory = task -> {
+				Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+			this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), threadFactory);
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			executor.execute(task);
+		}
+
+		@Override
+		int queued() {
+			return executor.getQueue().size();
+		}
+
+		@Override
+		int active() {
+			return executor.getActiveCount();
+		}
+
+		@Override
+		void shutdown() {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Lane starting a new thread for every task, meant for virtual threads.
+	 * A task waits for one of the permits of the lane before it runs.
+	 */
+	private static class PerTaskLane extends Lane {
+		private final int threads;
+		private final Semaphore permits;
+		private final ThreadFactory factory;
+		private volatile boolean shutdown = false;
+
+		PerTaskLane(String name, int threads, int queue, ThreadFactory factory) {
+			super(name, queue);
+			this.threads = threads;
+			this.permits = new Semaphore(threads, true);
+			this.factory = factory;
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			if (shutdown)
+				throw new RejectedExecutionException("Lane " + name + " is shut down");
+
+			factory.newThread(() -> {
+				permits.acquireUninterruptibly();
+				try {
+					task.run();
+				} finally {
+					permits.release();
+				}
+			}).start();
+		}
+
+		@Override
+		int queued() {
+			return permits.getQueueLength();
+		}
+
+		@Override
+		int active() {
+			return threads - permits.availablePermits();
+		}
+
+		@Override
+		void shutdown() {
+			shutdown = true;
+		}
+	}
+}
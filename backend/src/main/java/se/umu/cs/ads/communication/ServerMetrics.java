@@ -0,0 +1,70 @@
+package se.umu.cs.ads.communication;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.*;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+
+import se.umu.cs.ads.metrics.RpcMetrics;
+import se.umu.cs.ads.metrics.RpcMetrics.CallStats;
+
+/**
+ * Interceptor of the server, recording every served call in the RpcMetrics
+ * until the handler closes it or the client cancels it. Remotes call from
+ * ephemeral ports, so the peer of a served call is only its IP.
+ */
+public class ServerMetrics implements ServerInterceptor {
+	@Override
+	public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+			Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+		CallStats stats = RpcMetrics.get().of(RpcMetrics.SERVER,
+			call.getMethodDescriptor().getBareMethodName(), peerOf(call));
+		long start = System.nanoTime();
+		AtomicBoolean ended = new AtomicBoolean(false);
+		stats.begin();
+
+		ServerCall<ReqT, RespT> recorded = new SimpleForwardingServerCall<ReqT, RespT>(call) {
+			@Override
+			public void close(Status status, Metadata trailers) {
+				if (ended.compareAndSet(false, true))
+					stats.end(status.getCode(), System.nanoTime() - start);
+				super.close(status, trailers);
+			}
+		};
+
+		ServerCall.Listener<ReqT> listener;
+		try {
+			listener = next.startCall(recorded, headers);
+		} catch (RuntimeException e) {
+			if (ended.compareAndSet(false, true))
+				stats.end(Status.Code.UNKNOWN, System.nanoTime() - start);
+			throw e;
+		}
+
+		return new SimpleForwardingServerCallListener<ReqT>(listener) {
+			@Override
+			public void onCancel() {
+				if (ended.compareAndSet(false, true))
+					stats.end(Status.Code.CANCELLED, System.nanoTime() - start);
+				super.onCancel();
+			}
+		};
+	}
+
+	/**
+	 * Gets the IP of the client of a call
+	 * @param call ServerCall object
+	 * @return IP, or "unknown" if the transport does not tell
+	 */
+	private static String peerOf(ServerCall<?, ?> call) {
+		SocketAddress adr = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+		if (adr instanceof InetSocketAddress) {
+			InetSocketAddress inet = (InetSocketAddress) adr;
+			return inet.getAddress() != null ? inet.getAddress().getHostAddress() : inet.getHostString();
+		}
+		return "unknown";
+	}
+}
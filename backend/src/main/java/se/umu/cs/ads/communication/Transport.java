@@ -0,0 +1,135 @@
+package se.umu.cs.ads.communication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.epoll.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.*;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import se.umu.cs.ads.arguments.CommandLineArguments;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Netty transport shared by all client channels and the server. Every
+ * channel runs on one event loop group sized by the configuration instead
+ * of each channel getting default loops, and buffers come from a pooled
+ * direct allocator so that messages are not copied through the heap. The
+ * native epoll transport is used when it is available, NIO otherwise.
+ */
+public final class Transport {
+	private final static Logger logger = LogManager.getLogger(Transport.class);
+	private static Transport instance = null;
+
+	private final String mode;
+	private final EventLoopGroup boss;
+	private final EventLoopGroup workers;
+	private final Class<? extends Channel> channelType;
+	private final Class<? extends ServerChannel> serverChannelType;
+	private final ByteBufAllocator allocator;
+
+	private Transport(boolean epoll, int threads) {
+		this.allocator = new PooledByteBufAllocator(true);
+		DefaultThreadFactory bossThreads = new DefaultThreadFactory("grpc-boss", true);
+		DefaultThreadFactory workerThreads = new DefaultThreadFactory("grpc-worker", true);
+
+		if (epoll) {
+			this.mode = "epoll";
+			this.boss = new EpollEventLoopGroup(1, bossThreads);
+			this.workers = new EpollEventLoopGroup(threads, workerThreads);
+			this.channelType = EpollSocketChannel.class;
+			this.serverChannelType = EpollServerSocketChannel.class;
+		} else {
+			this.mode = "nio";
+			this.boss = new NioEventLoopGroup(1, bossThreads);
+			this.workers = new NioEventLoopGroup(threads, workerThreads);
+			this.channelType = NioSocketChannel.class;
+			this.serverChannelType = NioServerSocketChannel.class;
+		}
+	}
+
+	/**
+	 * Gets the transport, choosing it on first use from the transport and
+	 * event loop arguments
+	 * @return Transport object
+	 */
+	public static synchronized Transport get() {
+		if (instance != null)
+			return instance;
+
+		String requested = CommandLineArguments.transport;
+		int threads = CommandLineArguments.eventLoopThreads > 0
+			? CommandLineArguments.eventLoopThreads
+			: Runtime.getRuntime().availableProcessors();
+
+		boolean epoll = false;
+		if (!requested.equals("nio")) {
+			String cause = epollUnavailability();
+			epoll = cause == null;
+			if (!epoll && requested.equals("epoll"))
+				logger.warn("Native epoll transport requested but not available ({}), falling back to NIO", cause);
+			else if (!epoll)
+				logger.info("Native epoll transport not available ({}), using NIO", cause);
+		}
+
+		instance = new Transport(epoll, threads);
+		logger.info("gRPC transport: {} with {} shared event loop threads and a pooled direct allocator",
+			instance.mode, threads);
+		return instance;
+	}
+
+	/**
+	 * Checks if the native epoll transport can be used
+	 * @return null if it can, otherwise the reason it cannot
+	 */
+	private static String epollUnavailability() {
+		try {
+			if (Epoll.isAvailable())
+				return null;
+			return String.valueOf(Epoll.unavailabilityCause());
+		} catch (LinkageError e) {
+			// The epoll classes are not on the class path
+			return e.toString();
+		}
+	}
+
+	/**
+	 * Creates a channel builder to a remote on the shared transport
+	 * @param remote PicoAddress object
+	 * @return NettyChannelBuilder object
+	 */
+	public NettyChannelBuilder channelBuilder(PicoAddress remote) {
+		return NettyChannelBuilder.forAddress(remote.getIP(), remote.getPort())
+			.eventLoopGroup(workers)
+			.channelType(channelType)
+			.withOption(ChannelOption.ALLOCATOR, allocator);
+	}
+
+	/**
+	 * Creates a server builder on the shared transport
+	 * @param port Port to listen on
+	 * @return NettyServerBuilder object
+	 */
+	public NettyServerBuilder serverBuilder(int port) {
+		return NettyServerBuilder.forPort(port)
+			.bossEventLoopGroup(boss)
+			.workerEventLoopGroup(workers)
+			.channelType(serverChannelType)
+			.withOption(ChannelOption.ALLOCATOR, allocator)
+			.withChildOption(ChannelOption.ALLOCATOR, allocator);
+	}
+
+	/**
+	 * Gets the transport in use
+	 * @return "epoll" or "nio"
+	 */
+	public String getMode() {
+		return mode;
+	}
+}
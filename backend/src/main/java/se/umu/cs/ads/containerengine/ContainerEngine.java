@@ -5,6 +5,7 @@ import com.github.dockerjava.api.async.ResultCallback;
 import com.github.dockerjava.api.command.CreateContainerResponse;
 import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.github.dockerjava.api.command.InspectContainerResponse.ContainerState;
+import com.github.dockerjava.api.command.LogContainerCmd;
 import com.github.dockerjava.api.model.*;
 import com.github.dockerjava.core.DockerClientConfig;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
@@ -20,18 +21,26 @@ import org.json.*;
 
 import java.time.Duration;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import se.umu.cs.ads.arguments.CommandLineArguments;
 import se.umu.cs.ads.exception.PicoException;
 import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.utils.LogMerge;
 import se.umu.cs.ads.utils.Util;
 public class ContainerEngine {
     private final DockerClient client;
+    // Log streams that follow a container stay open for as long as it runs
+    private final DockerClient followClient;
     private final HostConfig hostConfig;
 
     private final Set<String> pulledImages;
@@ -41,6 +50,7 @@ public class ContainerEngine {
 	private final Map<String, String> containerIDs;
 
     private final static Logger logger = LogManager.getLogger(ContainerEngine.class.getName());
+    private final LogCache logCache;
 
     public ContainerEngine() {
 
@@ -55,6 +65,15 @@ public class ContainerEngine {
                 .build();
 
         client = DockerClientImpl.getInstance(config, httpClient);
+
+        DockerHttpClient followHttpClient = new ApacheDockerHttpClient.Builder()
+                .dockerHost(config.getDockerHost())
+                .sslConfig(config.getSSLConfig())
+                .maxConnections(LogCache.MAX_LOGS + 100)
+                .connectionTimeout(Duration.ofSeconds(30))
+                .build();
+
+        followClient = DockerClientImpl.getInstance(config, followHttpClient);
         containers = new ConcurrentHashMap<>(64);
 		containerIDs = new ConcurrentHashMap<>(64);
         pulledImages = ConcurrentHashMap.newKeySet();
@@ -62,6 +81,13 @@ public class ContainerEngine {
        
 		setImages(readImages());
 		setContainers(readContainers(true));
+
+		Path cacheDir = Paths.get(System.getProperty("java.io.tmpdir"), "pico-logs-" + CommandLineArguments.grpcPort);
+		logCache = new LogCache(cacheDir, (n, since, follow, sink) -> openLog(n, -1, since, follow, sink));
+		for (PicoContainer container : containers.values()) {
+			if (container.getState() == PicoContainerState.RUNNING)
+				logCache.attach(container.getName());
+		}
     }
 
 
@@ -305,6 +331,7 @@ public class ContainerEngine {
         }
 
 		container.setState(PicoContainerState.RUNNING);
+		logCache.attach(name);
 		logger.info("Done starting container {}", name);
         return container;
     }
@@ -372,6 +399,7 @@ public class ContainerEngine {
 				client.removeContainerCmd(id).exec();
 				containers.remove(name);
 				containerIDs.remove(name);
+				logCache.detach(name);
 			}
         } catch (DockerException e) {
             String msg = parseDockerException(e);
@@ -387,60 +415,172 @@ public class ContainerEngine {
 			logger.warn("No container with name {}", name);
 			return new ArrayList<>();
 		}
-		
-		String id = containerIDs.get(name);
+
         List<String> logs = new ArrayList<>();
         CountDownLatch latch = new CountDownLatch(1);
+        LogSink sink = new LogSink() {
+            @Override
+            public void frame(byte[] payload) {
+                String entry = new String(payload);
+                if (entry.endsWith("\n"))
+                    entry = entry.substring(0, entry.length() - 1);
+                logs.add(entry);
+            }
+
+            @Override
+            public void done(Throwable error) {
+                latch.countDown();
+            }
+        };
+
         try {
-			client.logContainerCmd(id)
-                .withTimestamps(true)
-                .withStdOut(true)
-                .withStdErr(true)
-                .exec(new CallLog(logs, latch));
-		} catch(NotFoundException e) {
-			logger.warn("No container with id {}. Nothing to do.", id);
-			return new ArrayList<>();
-		}
+            streamLog(name, -1, 0, false, sink);
+        } catch (PicoException e) {
+            logger.warn("{}. Nothing to do.", e.getMessage());
+            return new ArrayList<>();
+        }
         latch.await();
 		logger.info("Done fetching {} logs for container {}", logs.size(), name);
         return logs;
     }
 
-    private class CallLog implements ResultCallback<Frame> {
-        private final List<String> logsList;
-        private final List<String> logsWhenComplete;
-        private final CountDownLatch latch;
-        public CallLog(List<String> logs, CountDownLatch latch) {
-            logsList = new ArrayList<>();
-            logsWhenComplete = logs;
-            this.latch = latch;
+    /**
+     * Streams the logs of a container to a sink. Frames are passed on as they
+     * are read from Docker without being collected, and the call returns as
+     * soon as the stream has been opened.
+     * @param name Name of the container
+     * @param tail Number of lines to start from the end of the log, negative
+     *             for the whole log
+     * @param since Unix time in seconds of the oldest line, 0 for no limit
+     * @param follow True to keep the stream open for new lines
+     * @param sink Receives the frames
+     * @return Closeable that stops the stream
+     * @throws PicoException if the container does not exist
+     */
+    public Closeable streamLog(String name, int tail, long since, boolean follow, LogSink sink) throws PicoException {
+        if (!containerIDs.containsKey(name))
+            throw new PicoException(String.format("No container with name %s", name), Code.NOT_FOUND);
+
+        if (!follow) {
+            LogCache.Query query = logCache.query(name, tail, since);
+            if (query != null) {
+                logger.info("Serving logs for container {} from the log cache (tail {}, since {})", name, tail, since);
+                Future<?> task = CommandLineArguments.pool.submit(() -> query.run(sink));
+                return () -> task.cancel(true);
+            }
         }
+        return openLog(name, tail, since, follow, sink);
+    }
 
-        @Override
-        public void onStart(Closeable closeable) {}
+    /**
+     * Searches the logs of the local containers the query selects. The
+     * filter runs on the threads reading the logs, and the lines of all
+     * containers are merged by time.
+     * @param query Search to run
+     * @param node Address of this node, set on the lines found
+     * @return Lines found, ordered by time. Has to be closed to stop the
+     *         log streams if it is not read to the end.
+     */
+    public LogMerge searchLogs(LogQuery query, PicoAddress node) {
+        List<LogLineQueue> sources = new ArrayList<>();
+        for (PicoContainer container : containers.values()) {
+            if (!query.matches(container))
+                continue;
+
+            LogLineQueue lines = new LogLineQueue(container.getName(), node, query);
+            try {
+                lines.attach(streamLog(container.getName(), -1, query.getSince(), false, lines));
+                sources.add(lines);
+            } catch (PicoException e) {
+                logger.warn("Skipping container {} in log search: {}", container.getName(), e.getMessage());
+            }
+        }
+        logger.info("Searching the logs of {} local containers", sources.size());
+        return new LogMerge(sources);
+    }
+
+    /**
+     * Opens a log stream of a container from Docker. Streams that follow the
+     * log use a client without a response timeout, so that a quiet container
+     * does not end the stream nor take a connection of the shared client.
+     * @param name Name of the container
+     * @param tail Number of lines from the end of the log, negative for all
+     * @param since Unix time in seconds of the oldest line, 0 for no limit
+     * @param follow True to keep the stream open for new lines
+     * @param sink Receives the frames
+     * @return Closeable that stops the stream
+     * @throws PicoException if the container does not exist
+     */
+    private Closeable openLog(String name, int tail, long since, boolean follow, LogSink sink) throws PicoException {
+        String id = containerIDs.get(name);
+        if (id == null)
+            throw new PicoException(String.format("No container with name %s", name), Code.NOT_FOUND);
+
+        LogContainerCmd cmd = (follow ? followClient : client).logContainerCmd(id)
+                .withTimestamps(true)
+                .withStdOut(true)
+                .withStdErr(true)
+                .withFollowStream(follow);
+        if (tail >= 0)
+            cmd.withTail(tail);
+        else
+            cmd.withTailAll();
+        if (since > 0)
+            cmd.withSince((int) since);
+
+        try {
+            logger.info("Streaming logs for container {} (tail {}, since {}, follow {})", name, tail, since, follow);
+            return cmd.exec(new LogCallback(sink));
+        } catch (NotFoundException e) {
+            throw new PicoException(String.format("No container with id %s", id), Code.NOT_FOUND);
+        }
+    }
+
+    /**
+     * Passes the frames of a log stream on to a sink and closes the stream
+     * when the sink fails
+     */
+    private static class LogCallback extends ResultCallback.Adapter<Frame> {
+        private final LogSink sink;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        public LogCallback(LogSink sink) {
+            this.sink = sink;
+        }
 
         @Override
-        public void onNext(Frame object) {
-            String entry = new String(object.getPayload());
-            if (entry.endsWith("\n"))
-                entry = entry.substring(0, entry.length() - 1);
-           logsList.add(entry);
+        public void onNext(Frame frame) {
+            try {
+                sink.frame(frame.getPayload());
+            } catch (IOException e) {
+                finish(e);
+                try {
+                    close();
+                } catch (IOException ignored) {}
+            }
         }
 
         @Override
         public void onError(Throwable throwable) {
-            latch.countDown(); //TODO: Error handling?
+            finish(throwable);
+            super.onError(throwable);
         }
 
         @Override
         public void onComplete() {
-            logsWhenComplete.addAll(logsList);
-            latch.countDown();
+            finish(null);
+            super.onComplete();
         }
 
         @Override
-        public void close() {
-            latch.countDown();
+        public void close() throws IOException {
+            super.close();
+            finish(null);
+        }
+
+        private void finish(Throwable error) {
+            if (done.compareAndSet(false, true))
+                sink.done(error);
         }
     }
 }
@@ -0,0 +1,372 @@
+package se.umu.cs.ads.containerengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cached log of one container. The most recent output is kept in an
+ * off-heap ring buffer. When the ring is full the oldest records are
+ * moved to memory-mapped segment files, of which at most MAX_SEGMENTS are
+ * kept. The ring is allocated when the first record is appended, so a
+ * container that writes no output holds no memory.
+ *
+ * Every record has a log offset, the number of bytes written before it,
+ * which does not change when the record moves from the ring to a segment.
+ * The segments and the ring thus form one contiguous range of offsets and
+ * a reader keeps its place by offset alone. A record is stored as
+ * [time][length][payload][length], so the log can also be walked
+ * backwards from its end.
+ */
+class ContainerLog {
+	private final static Logger logger = LogManager.getLogger(ContainerLog.class);
+	public static final int HEADER = 12;
+	public static final int TRAILER = 4;
+	public static final int MAX_PAYLOAD = 64 * 1024;
+
+	private final Path dir;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final int ringSize;
+	private ByteBuffer ring = null;
+	private final byte[] scratch;
+	private final Deque<LogSegment> segments = new ArrayDeque<>();
+	private long ringStart = 0;
+	private long end = 0;
+	private long lastTime = Long.MIN_VALUE;
+	private boolean truncated = false;
+
+	// State of the log stream feeding the cache
+	private Closeable stream = null;
+	private boolean attaching = false;
+	private boolean closed = false;
+	private volatile boolean live = false;
+
+	/**
+	 * Constructor for the ContainerLog
+	 * @param dir Directory for the segment files of the container
+	 * @param ringSize Size of the ring buffer in bytes
+	 * @param segmentSize Size of a segment in bytes
+	 * @param maxSegments Number of segments to keep
+	 */
+	ContainerLog(Path dir, int ringSize, int segmentSize, int maxSegments) {
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.ringSize = ringSize;
+		this.scratch = new byte[HEADER + MAX_PAYLOAD + TRAILER];
+	}
+
+	/**
+	 * Appends a record, moving the oldest records to the segments if the
+	 * ring is full. Records that are not newer than the last record are
+	 * skipped, as they have been read before by an earlier stream. Payloads
+	 * longer than MAX_PAYLOAD are cut.
+	 * @param time Time of the record in nanoseconds, negative if unknown
+	 * @param payload Raw frame
+	 */
+	synchronized void append(long time, byte[] payload) {
+		if (closed)
+			return;
+		if (time < 0)
+			time = Math.max(lastTime, 0);
+		else if (time <= lastTime)
+			return;
+
+		int length = Math.min(payload.length, MAX_PAYLOAD);
+		int size = HEADER + length + TRAILER;
+		if (ring == null)
+			ring = ByteBuffer.allocateDirect(ringSize);
+		while (end + size - ringStart > ringSize)
+			evict();
+
+		ByteBuffer header = ByteBuffer.wrap(scratch, 0, HEADER);
+		header.putLong(time).putInt(length);
+		ringWrite(end, scratch, 0, HEADER);
+		ringWrite(end + HEADER, payload, 0, length);
+		ByteBuffer.wrap(scratch, 0, TRAILER).putInt(length);
+		ringWrite(end + HEADER + length, scratch, 0, TRAILER);
+
+		end += size;
+		lastTime = Math.max(lastTime, time);
+	}
+
+	/**
+	 * Moves the oldest record of the ring to the last segment, starting a
+	 * new segment if it does not fit and dropping the oldest segment if
+	 * there are too many
+	 */
+	private void evict() {
+		ringRead(ringStart, scratch, 0, HEADER);
+		ByteBuffer header = ByteBuffer.wrap(scratch, 0, HEADER);
+		long time = header.getLong();
+		int size = HEADER + header.getInt() + TRAILER;
+		ringRead(ringStart, scratch, 0, size);
+
+		try {
+			LogSegment last = segments.peekLast();
+			if (last == null || !last.fits(size)) {
+				segments.addLast(new LogSegment(dir.resolve(ringStart + ".seg"), ringStart, segmentSize));
+				if (segments.size() > maxSegments) {
+					segments.removeFirst().delete();
+					truncated = true;
+				}
+			}
+			segments.peekLast().append(time, scratch, size);
+		} catch (IOException e) {
+			// Without a segment the record is lost, and with it everything
+			// before it, so that the offsets stay contiguous
+			logger.warn("Failed to spill log to {}: {}", dir, e.getMessage());
+			for (LogSegment segment : segments)
+				segment.delete();
+			segments.clear();
+			truncated = true;
+		}
+		ringStart += size;
+	}
+
+	/**
+	 * Finds where a query for the given tail and time starts
+	 * @param tail Number of records from the end, negative for all
+	 * @param since Time in nanoseconds of the oldest record, 0 for no limit
+	 * @return Log offset to start reading from, -1 if the cache no longer
+	 * 		   holds all records asked for
+	 */
+	synchronized long start(int tail, long since) {
+		long first = first();
+		long pos = first;
+
+		if (since > 0) {
+			if (truncated && (first == end || readLong(first) > since))
+				return -1;
+			pos = seek(since);
+		} else if (truncated && tail < 0) {
+			return -1;
+		}
+
+		if (tail >= 0) {
+			long p = end;
+			int n = 0;
+			while (n < tail && p > first) {
+				p -= HEADER + readInt(p - TRAILER) + TRAILER;
+				n++;
+			}
+			if (n < tail && truncated)
+				return -1;
+			pos = Math.max(pos, p);
+		}
+		return pos;
+	}
+
+	/**
+	 * Finds the first record at or after the given time
+	 * @param since Time in nanoseconds
+	 * @return Log offset of the record, the end of the log if there is none
+	 */
+	private long seek(long since) {
+		for (LogSegment segment : segments) {
+			if (segment.getLastTime() < since)
+				continue;
+			long p = segment.floor(since);
+			while (p < segment.getEnd() && segment.readLong(p) < since)
+				p += HEADER + segment.readInt(p + 8) + TRAILER;
+			return p;
+		}
+
+		long p = ringStart;
+		while (p < end && readLong(p) < since)
+			p += HEADER + readInt(p + 8) + TRAILER;
+		return p;
+	}
+
+	/**
+	 * Copies the payloads of the records from an offset, up to about the
+	 * given number of bytes. If the records at the offset have been dropped
+	 * reading continues from the oldest record kept.
+	 * @param pos Log offset of the first record
+	 * @param limit Log offset to stop at
+	 * @param out List to add the payloads to
+	 * @param maxBytes Number of payload bytes after which to stop
+	 * @return Log offset of the next record
+	 */
+	synchronized long read(long pos, long limit, List<byte[]> out, int maxBytes) {
+		pos = Math.max(pos, first());
+		int bytes = 0;
+		while (pos < limit && bytes < maxBytes) {
+			int length = readInt(pos + 8);
+			byte[] payload = new byte[length];
+			read(pos + HEADER, payload, length);
+			out.add(payload);
+			pos += HEADER + length + TRAILER;
+			bytes += length;
+		}
+		return pos;
+	}
+
+	/**
+	 * Marks that a stream is being attached, unless one already is
+	 * @return True if the caller should attach a stream
+	 */
+	synchronized boolean beginAttach() {
+		if (attaching || live || closed)
+			return false;
+		attaching = true;
+		return true;
+	}
+
+	/**
+	 * Sets the stream that reads the history of the log
+	 * @param history Stream reading the history
+	 */
+	synchronized void catchingUp(Closeable history) {
+		stream = history;
+		if (closed)
+			closeStream();
+	}
+
+	/**
+	 * Sets the stream that follows the log. The cache serves queries from
+	 * now on, unless the stream has already ended.
+	 * @param follow Stream following the log
+	 * @param ended True if the stream has already ended
+	 */
+	synchronized void following(Closeable follow, boolean ended) {
+		stream = follow;
+		attaching = false;
+		live = !ended && !closed;
+		if (closed)
+			closeStream();
+	}
+
+	/**
+	 * Marks that the stream feeding the cache has ended or could not be
+	 * attached. Queries go to Docker until a stream is attached again.
+	 */
+	synchronized void detached() {
+		stream = null;
+		attaching = false;
+		live = false;
+	}
+
+	/**
+	 * Checks if the cache holds the log up to now
+	 * @return boolean
+	 */
+	boolean isLive() {
+		return live;
+	}
+
+	/**
+	 * Stops the stream and deletes the segments. The ring buffer is freed
+	 * once the log is no longer referenced.
+	 */
+	synchronized void close() {
+		closed = true;
+		live = false;
+		closeStream();
+		for (LogSegment segment : segments)
+			segment.delete();
+		segments.clear();
+	}
+
+	private void closeStream() {
+		if (stream == null)
+			return;
+		try {
+			stream.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close log stream: {}", e.getMessage());
+		}
+		stream = null;
+	}
+
+	synchronized long getEnd() {
+		return end;
+	}
+
+	synchronized long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Gets the log offset of the oldest record kept
+	 * @return long
+	 */
+	private long first() {
+		return segments.isEmpty() ? ringStart : segments.peekFirst().getStart();
+	}
+
+	private long readLong(long offset) {
+		if (offset >= ringStart)
+			return ringLong(offset);
+		return segment(offset).readLong(offset);
+	}
+
+	private int readInt(long offset) {
+		if (offset >= ringStart)
+			return ringInt(offset);
+		return segment(offset).readInt(offset);
+	}
+
+	private void read(long offset, byte[] dst, int length) {
+		if (offset >= ringStart)
+			ringRead(offset, dst, 0, length);
+		else
+			segment(offset).read(offset, dst, length);
+	}
+
+	/**
+	 * Gets the segment holding an offset. Records never span segments or
+	 * the ring and a segment, so the whole record is in the same place.
+	 */
+	private LogSegment segment(long offset) {
+		Iterator<LogSegment> it = segments.descendingIterator();
+		while (it.hasNext()) {
+			LogSegment segment = it.next();
+			if (offset >= segment.getStart())
+				return segment;
+		}
+		throw new IllegalStateException("Log offset " + offset + " is no longer kept");
+	}
+
+	private long ringLong(long offset) {
+		int pos = (int) (offset % ring.capacity());
+		if (pos + 8 <= ring.capacity())
+			return ring.getLong(pos);
+
+		byte[] tmp = new byte[8];
+		ringRead(offset, tmp, 0, 8);
+		return ByteBuffer.wrap(tmp).getLong();
+	}
+
+	private int ringInt(long offset) {
+		int pos = (int) (offset % ring.capacity());
+		if (pos + 4 <= ring.capacity())
+			return ring.getInt(pos);
+
+		byte[] tmp = new byte[4];
+		ringRead(offset, tmp, 0, 4);
+		return ByteBuffer.wrap(tmp).getInt();
+	}
+
+	private void ringWrite(long offset, byte[] src, int from, int length) {
+		int pos = (int) (offset % ring.capacity());
+		int first = Math.min(length, ring.capacity() - pos);
+		ring.put(pos, src, from, first);
+		if (first < length)
+			ring.put(0, src, from + first, length - first);
+	}
+
+	private void ringRead(long offset, byte[] dst, int to, int length) {
+		int pos = (int) (offset % ring.capacity());
+		int first = Math.min(length, ring.capacity() - pos);
+		ring.get(pos, dst, to, first);
+		if (first < length)
+			ring.get(0, dst, to + first, length - first);
+	}
+}
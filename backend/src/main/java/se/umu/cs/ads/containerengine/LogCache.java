@@ -0,0 +1,277 @@
+package se.umu.cs.ads.containerengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.exception.PicoException;
+
+/**
+ * Node-local cache of container logs. One log stream is attached per
+ * container. It first reads the history of the log, then follows it, so
+ * that queries for the tail or the lines since a given time are served
+ * from the cache instead of reading the whole log from Docker again.
+ * While no stream is following a container, queries go to Docker. At
+ * most MAX_LOGS logs are cached, the least recently used one is dropped
+ * to make room for a new one.
+ */
+public class LogCache {
+	private final static Logger logger = LogManager.getLogger(LogCache.class);
+	public static final int RING_SIZE = 512 * 1024;
+	public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	public static final int MAX_SEGMENTS = 8;
+	public static final int MAX_LOGS = 64;
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Opens a log stream of a container from Docker
+	 */
+	public interface LogSource {
+		Closeable open(String name, long since, boolean follow, LogSink sink) throws PicoException;
+	}
+
+	private final Path dir;
+	private final LogSource source;
+	private final int maxLogs;
+	// Ordered by access, least recently used first
+	private final LinkedHashMap<String, ContainerLog> logs;
+
+	/**
+	 * Constructor for the LogCache. Segments left by an earlier run are
+	 * deleted, the cache is filled again from Docker.
+	 * @param dir Directory for the segment files
+	 * @param source Opens the log streams
+	 */
+	public LogCache(Path dir, LogSource source) {
+		this(dir, source, MAX_LOGS);
+	}
+
+	/**
+	 * Constructor for the LogCache with a given number of cached logs
+	 * @param dir Directory for the segment files
+	 * @param source Opens the log streams
+	 * @param maxLogs Number of container logs to cache at once
+	 */
+	LogCache(Path dir, LogSource source, int maxLogs) {
+		this.dir = dir;
+		this.source = source;
+		this.maxLogs = maxLogs;
+		this.logs = new LinkedHashMap<>(16, 0.75f, true);
+		deleteRecursively(dir);
+	}
+
+	/**
+	 * Attaches a stream to the log of a container, unless one is already
+	 * attached. Reads the part of the log the cache does not hold yet and
+	 * then follows it.
+	 * @param name Name of the container
+	 */
+	public void attach(String name) {
+		ContainerLog log;
+		Map.Entry<String, ContainerLog> evicted = null;
+		synchronized (logs) {
+			log = logs.computeIfAbsent(name, n -> new ContainerLog(dir.resolve(n), RING_SIZE, SEGMENT_SIZE, MAX_SEGMENTS));
+			if (logs.size() > maxLogs) {
+				Iterator<Map.Entry<String, ContainerLog>> it = logs.entrySet().iterator();
+				evicted = it.next();
+				it.remove();
+			}
+		}
+		if (evicted != null) {
+			logger.info("Dropping log cache of container {} to make room for {}", evicted.getKey(), name);
+			close(evicted.getKey(), evicted.getValue());
+		}
+		if (!log.beginAttach())
+			return;
+
+		long started = System.currentTimeMillis() / 1000;
+		try {
+			Files.createDirectories(dir.resolve(name));
+			Appender history = new Appender(log, error -> follow(name, log, started, error));
+			log.catchingUp(source.open(name, seconds(log.getLastTime()), false, history));
+		} catch (IOException | PicoException e) {
+			logger.warn("Failed to attach log cache to container {}: {}", name, e.getMessage());
+			log.detached();
+		}
+	}
+
+	/**
+	 * Follows the log once its history has been read. The stream starts at
+	 * the second of the last cached line, lines read twice are skipped.
+	 */
+	private void follow(String name, ContainerLog log, long started, Throwable error) {
+		if (error != null) {
+			logger.warn("Failed to read log history of container {}: {}", name, error.getMessage());
+			log.detached();
+			return;
+		}
+
+		long since = log.getLastTime() == Long.MIN_VALUE ? started : seconds(log.getLastTime());
+		try {
+			Appender appender = new Appender(log, e -> log.detached());
+			Closeable stream = source.open(name, since, true, appender);
+			log.following(stream, appender.isEnded());
+			logger.info("Log cache of container {} is following from {}", name, since);
+		} catch (PicoException e) {
+			logger.warn("Failed to follow log of container {}: {}", name, e.getMessage());
+			log.detached();
+		}
+	}
+
+	/**
+	 * Removes the cached log of a container and deletes its segments
+	 * @param name Name of the container
+	 */
+	public void detach(String name) {
+		ContainerLog log;
+		synchronized (logs) {
+			log = logs.remove(name);
+		}
+		if (log != null)
+			close(name, log);
+	}
+
+	private void close(String name, ContainerLog log) {
+		log.close();
+		deleteRecursively(dir.resolve(name));
+	}
+
+	/**
+	 * Prepares a query on the cached log of a container
+	 * @param name Name of the container
+	 * @param tail Number of lines from the end of the log, negative for all
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit
+	 * @return Query to run, null if the cache cannot answer it and the log
+	 * 		   has to be read from Docker
+	 */
+	public Query query(String name, int tail, long since) {
+		ContainerLog log;
+		synchronized (logs) {
+			log = logs.get(name);
+		}
+		if (log == null || !log.isLive()) {
+			// Picks the log up again, for example after a restart
+			attach(name);
+			return null;
+		}
+
+		long end = log.getEnd();
+		long start = log.start(tail, since * 1_000_000_000L);
+		if (start < 0)
+			return null;
+		return new Query(log, start, end);
+	}
+
+	/**
+	 * Query on a cached log. Copies at most CHUNK_SIZE bytes at a time out
+	 * of the cache, so the cost only depends on the size of the answer.
+	 */
+	public static class Query {
+		private final ContainerLog log;
+		private final long end;
+		private long pos;
+
+		private Query(ContainerLog log, long start, long end) {
+			this.log = log;
+			this.pos = start;
+			this.end = end;
+		}
+
+		/**
+		 * Passes the lines of the query on to a sink. Stops early if the
+		 * thread is interrupted.
+		 * @param sink Receives the lines
+		 */
+		public void run(LogSink sink) {
+			List<byte[]> chunk = new ArrayList<>();
+			try {
+				while (pos < end) {
+					if (Thread.currentThread().isInterrupted())
+						throw new IOException("Log query cancelled");
+					chunk.clear();
+					pos = log.read(pos, end, chunk, CHUNK_SIZE);
+					for (byte[] payload : chunk)
+						sink.frame(payload);
+				}
+				sink.done(null);
+			} catch (IOException e) {
+				sink.done(e);
+			}
+		}
+	}
+
+	/**
+	 * Appends the frames of a stream to a cached log
+	 */
+	private static class Appender implements LogSink {
+		private final ContainerLog log;
+		private final Consumer<Throwable> onDone;
+		private volatile boolean ended = false;
+
+		Appender(ContainerLog log, Consumer<Throwable> onDone) {
+			this.log = log;
+			this.onDone = onDone;
+		}
+
+		@Override
+		public void frame(byte[] payload) {
+			log.append(parseTime(payload), payload);
+		}
+
+		@Override
+		public void done(Throwable error) {
+			ended = true;
+			onDone.accept(error);
+		}
+
+		boolean isEnded() {
+			return ended;
+		}
+	}
+
+	/**
+	 * Parses the timestamp Docker puts in front of every line
+	 * @param payload Frame with a timestamp
+	 * @return Time in nanoseconds, -1 if there is no timestamp
+	 */
+	static long parseTime(byte[] payload) {
+		int space = -1;
+		for (int i = 0; i < Math.min(payload.length, 40); i++) {
+			if (payload[i] == ' ') {
+				space = i;
+				break;
+			}
+		}
+		if (space < 0)
+			return -1;
+
+		try {
+			Instant time = Instant.parse(new String(payload, 0, space, StandardCharsets.US_ASCII));
+			return time.getEpochSecond() * 1_000_000_000L + time.getNano();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	private static long seconds(long nanos) {
+		return nanos == Long.MIN_VALUE ? 0 : nanos / 1_000_000_000L;
+	}
+
+	private static void deleteRecursively(Path path) {
+		if (!Files.exists(path))
+			return;
+		try (var paths = Files.walk(path)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		} catch (IOException e) {
+			logger.warn("Failed to delete {}: {}", path, e.getMessage());
+		}
+	}
+}
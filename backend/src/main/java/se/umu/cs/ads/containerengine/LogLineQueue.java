@@ -0,0 +1,152 @@
+package se.umu.cs.ads.containerengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.types.LogLine;
+import se.umu.cs.ads.types.LogQuery;
+import se.umu.cs.ads.types.PicoAddress;
+
+/**
+ * Turns the log stream of one container into an iterator over the lines a
+ * search finds. Lines are filtered on the thread reading the log and put
+ * in a bounded queue, which holds up the reader when the consumer is
+ * slower. The stream is stopped at the first line after the time range.
+ */
+class LogLineQueue implements LogSink, Iterator<LogLine>, Closeable {
+	private final static Logger logger = LogManager.getLogger(LogLineQueue.class);
+	public static final int CAPACITY = 256;
+	private static final LogLine END = new LogLine("", null, 0, "");
+
+	private final String container;
+	private final PicoAddress node;
+	private final LogQuery query;
+	private final BlockingQueue<LogLine> queue = new ArrayBlockingQueue<>(CAPACITY);
+	private volatile boolean closed = false;
+	private Closeable stream = null;
+	private LogLine next = null;
+	private long lastTime = 0;
+
+	/**
+	 * Constructor for the LogLineQueue
+	 * @param container Name of the container
+	 * @param node Node running the container
+	 * @param query Search to run on the log
+	 */
+	LogLineQueue(String container, PicoAddress node, LogQuery query) {
+		this.container = container;
+		this.node = node;
+		this.query = query;
+	}
+
+	/**
+	 * Sets the log stream that is stopped when the queue is closed
+	 * @param stream Log stream
+	 */
+	synchronized void attach(Closeable stream) {
+		this.stream = stream;
+		if (closed)
+			closeStream();
+	}
+
+	@Override
+	public void frame(byte[] payload) throws IOException {
+		if (closed)
+			throw new IOException("Log search closed");
+
+		long time = LogCache.parseTime(payload);
+		int start = 0;
+		if (time < 0) {
+			// Lines without timestamp keep the place of the line before
+			time = lastTime;
+		} else {
+			while (payload[start] != ' ')
+				start++;
+			start++;
+		}
+		lastTime = time;
+
+		if (query.isAfter(time))
+			throw new IOException("End of time range");
+
+		int end = payload.length;
+		if (end > start && payload[end - 1] == '\n')
+			end--;
+		String text = new String(payload, start, end - start, StandardCharsets.UTF_8);
+		if (!query.matches(text))
+			return;
+
+		try {
+			queue.put(new LogLine(container, node, time, text));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the search");
+		}
+	}
+
+	@Override
+	public void done(Throwable error) {
+		if (error != null && !closed && !query.isAfter(lastTime))
+			logger.warn("Log stream of container {} failed during search: {}", container, error.getMessage());
+
+		// Waits for room for the end marker, unless the search was closed
+		try {
+			while (!closed) {
+				if (queue.offer(END, 100, TimeUnit.MILLISECONDS))
+					break;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !closed) {
+			try {
+				next = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				next = END;
+			}
+		}
+		return next != null && next != END;
+	}
+
+	@Override
+	public LogLine next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		LogLine res = next;
+		next = null;
+		return res;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		queue.clear();
+		// Wakes up a consumer waiting for a line
+		queue.offer(END);
+		closeStream();
+	}
+
+	private void closeStream() {
+		if (stream == null)
+			return;
+		try {
+			stream.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close log stream of container {}: {}", container, e.getMessage());
+		}
+		stream = null;
+	}
+}
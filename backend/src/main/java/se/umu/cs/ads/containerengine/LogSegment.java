@@ -0,0 +1,132 @@
+package se.umu.cs.ads.containerengine;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Append-only log segment backed by a memory-mapped file. Records are
+ * stored exactly as in the ring buffer of a ContainerLog and cover one
+ * contiguous range of its log offsets. A sparse index of record times,
+ * one entry every INDEX_INTERVAL bytes, is kept to find the records
+ * since a given time without scanning the segment.
+ */
+class LogSegment {
+	public static final int INDEX_INTERVAL = 4096;
+
+	private final Path path;
+	private final long start;
+	private final MappedByteBuffer buffer;
+	private int size = 0;
+	private long lastTime = Long.MIN_VALUE;
+	private long[] indexTimes = new long[64];
+	private int[] indexPositions = new int[64];
+	private int indexCount = 0;
+	private int lastIndexed = -INDEX_INTERVAL;
+
+	/**
+	 * Constructor for the LogSegment, creates and maps the file
+	 * @param path Path of the segment file
+	 * @param start Log offset of the first byte of the segment
+	 * @param capacity Size of the segment in bytes
+	 * @throws IOException if the file could not be created or mapped
+	 */
+	LogSegment(Path path, long start, int capacity) throws IOException {
+		this.path = path;
+		this.start = start;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+	}
+
+	/**
+	 * Checks if a record of the given size fits in the segment
+	 * @param length Size of the record in bytes
+	 * @return True if it fits
+	 */
+	boolean fits(int length) {
+		return size + length <= buffer.capacity();
+	}
+
+	/**
+	 * Appends an encoded record to the segment
+	 * @param time Time of the record in nanoseconds
+	 * @param record Encoded record
+	 * @param length Size of the record in bytes
+	 */
+	void append(long time, byte[] record, int length) {
+		if (size - lastIndexed >= INDEX_INTERVAL) {
+			if (indexCount == indexTimes.length) {
+				indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+				indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+			}
+			indexTimes[indexCount] = time;
+			indexPositions[indexCount] = size;
+			indexCount++;
+			lastIndexed = size;
+		}
+
+		buffer.put(size, record, 0, length);
+		size += length;
+		lastTime = Math.max(lastTime, time);
+	}
+
+	/**
+	 * Finds an indexed record that is not after the first record at or after
+	 * the given time, the scan for the record starts from there
+	 * @param time Time in nanoseconds
+	 * @return Log offset of the indexed record
+	 */
+	long floor(long time) {
+		int low = 0;
+		int high = indexCount - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (indexTimes[mid] < time) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found < 0 ? start : start + indexPositions[found];
+	}
+
+	long readLong(long offset) {
+		return buffer.getLong((int) (offset - start));
+	}
+
+	int readInt(long offset) {
+		return buffer.getInt((int) (offset - start));
+	}
+
+	void read(long offset, byte[] dst, int length) {
+		buffer.get((int) (offset - start), dst, 0, length);
+	}
+
+	long getStart() {
+		return start;
+	}
+
+	long getEnd() {
+		return start + size;
+	}
+
+	long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Deletes the segment file. The mapping is released once the segment
+	 * is no longer referenced.
+	 */
+	void delete() {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException ignored) {}
+	}
+}
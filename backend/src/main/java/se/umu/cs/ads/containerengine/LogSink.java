@@ -0,0 +1,25 @@
+package se.umu.cs.ads.containerengine;
+
+import java.io.IOException;
+
+/**
+ * Receives the log frames of a container as they are read from Docker.
+ * Frames are handed over one at a time and are not buffered, so a sink
+ * that blocks slows down the reading of the log.
+ */
+public interface LogSink {
+	/**
+	 * Handles the payload of a log frame
+	 * @param payload Raw bytes of the frame
+	 * @throws IOException if the frame could not be passed on, which stops
+	 * 		   the stream
+	 */
+	void frame(byte[] payload) throws IOException;
+
+	/**
+	 * Called once when the stream has ended
+	 * @param error Cause if the stream failed, null if it completed or was
+	 * 		   closed
+	 */
+	void done(Throwable error);
+}
@@ -1,19 +1,29 @@
 package se.umu.cs.ads.controller;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import se.umu.cs.ads.types.PicoAddress;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import io.grpc.Context;
 import io.grpc.Status.Code;
 import se.umu.cs.ads.exception.PicoException;
 import se.umu.cs.ads.containerengine.ContainerEngine;
+import se.umu.cs.ads.containerengine.LogSink;
 import se.umu.cs.ads.types.*;
 import se.umu.cs.ads.nodemanager.NodeManager;
 import se.umu.cs.ads.arguments.*;
+import se.umu.cs.ads.utils.LogMerge;
+import se.umu.cs.ads.metrics.RpcMetrics;
+import se.umu.cs.ads.metrics.RpcStats;
 import se.umu.cs.ads.clustermanagement.ClusterManager;
+import se.umu.cs.ads.clustermanagement.HeartbeatScheduler;
 
 /**
  * Controller class is the main class of the backend. It is responsible for
@@ -64,8 +74,8 @@ public class Controller {
 
 	/**
 	 * Method to start the periodic refresh of the containers and images. It refreshes
-	 * the containers and images every 5 seconds. It also sends a heartbeat to the cluster
-	 * every 5 seconds.
+	 * the containers and images every 5 seconds. It also ticks the heartbeat of the
+	 * cluster, which decides which nodes are due for a heartbeat.
 	 */
 	private void startPeriodicRefresh() {
 		scheduler.scheduleAtFixedRate(() -> {
@@ -86,7 +96,7 @@ public class Controller {
 		// Heartbeat
 		scheduler.scheduleAtFixedRate(() -> {
 			this.cluster.heartbeat();
-		}, 5, 2, TimeUnit.SECONDS);
+		}, 5000, HeartbeatScheduler.TICK, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -111,9 +121,9 @@ public class Controller {
 	 * @throws PicoException if there is an error while fetching the containers.
 	 */
 	public List<PicoContainer> listAllContainers() throws PicoException {
-		Future<List<PicoContainer>> res = pool.submit(() -> {
+		Future<List<PicoContainer>> res = pool.submit(Context.current().wrap(() -> {
 			return cluster.getAllContainers();
-			});
+			}));
 
 		try {
 			return res.get();
@@ -172,10 +182,10 @@ public class Controller {
 	 * @throws PicoException if there is an error while creating the container.
 	 */
 	public void createContainer(PicoContainer container) throws PicoException {
-		Future<PicoContainer> res = pool.submit(() -> {
+		Future<PicoContainer> res = pool.submit(Context.current().wrap(() -> {
 			cluster.createContainer(container);
 			return container;
-		});
+		}));
 		try {
 			res.get();
 		} catch (CancellationException | InterruptedException e) {
@@ -192,6 +202,35 @@ public class Controller {
 		}
 	}
 
+	/**
+	 * Method to create a batch of containers. The batch is placed in one 
+	 * election, and the outcome of each container is reported as soon as
+	 * it is known.
+	 * @param containers Configurations of the containers to create.
+	 * @param onPlaced Called with the outcome of each container, possibly 
+	 * 		  from several threads at once.
+	 * @throws PicoException if the batch could not be sent to the leader.
+	 */
+	public void createContainers(List<PicoContainer> containers, Consumer<Placement> onPlaced) throws PicoException {
+		Future<?> res = pool.submit(Context.current().wrap(() -> {
+			cluster.createContainers(containers, onPlaced);
+		}));
+		try {
+			res.get();
+		} catch (CancellationException | InterruptedException e) {
+			String err = String.format("Error while creating containers: " + e.getMessage());
+			logger.error(err);
+			throw new PicoException(err, Code.CANCELLED);
+		} catch (ExecutionException e) {
+			logger.error("Error while creating containers: " + e.getMessage());
+			
+			if (e.getCause() instanceof PicoException) {
+				throw (PicoException) e.getCause();
+			}
+			throw new PicoException(e.getMessage());
+		}
+	}
+
 	/**
 	 * Method to create a local container. It creates a container with the 
 	 * provided configuration in the local node.
@@ -262,6 +301,97 @@ public class Controller {
 		}
 	}
 
+	/**
+	 * Method to stream the logs of a local container to a sink. It returns
+	 * as soon as the stream has been opened.
+	 * @param name Name of the container.
+	 * @param tail Number of lines from the end of the log, negative for all.
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit.
+	 * @param follow True to keep the stream open for new lines.
+	 * @param sink Receives the frames.
+	 * @return Closeable that stops the stream.
+	 * @throws PicoException if the container does not exist.
+	 */
+	public Closeable streamContainerLogs(String name, int tail, long since, boolean follow, LogSink sink) throws PicoException {
+		return engine.streamLog(name, tail, since, follow, sink);
+	}
+
+	/**
+	 * Method to write the logs of a container to an output stream, whether
+	 * it runs on this node or on a remote node. Every frame is flushed as it
+	 * arrives and nothing is buffered. Blocks until the log has ended, or 
+	 * until writing fails if the log is followed.
+	 * @param name Name of the container.
+	 * @param tail Number of lines from the end of the log, negative for all.
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit.
+	 * @param follow True to keep the stream open for new lines.
+	 * @param out Stream to write the frames to.
+	 * @throws PicoException if the logs could not be streamed.
+	 */
+	public void writeContainerLogs(String name, int tail, long since, boolean follow, OutputStream out) throws PicoException {
+		CompletableFuture<Throwable> finished = new CompletableFuture<>();
+		LogSink sink = new LogSink() {
+			@Override
+			public void frame(byte[] payload) throws IOException {
+				out.write(payload);
+				out.flush();
+			}
+
+			@Override
+			public void done(Throwable error) {
+				finished.complete(error);
+			}
+		};
+
+		if (!engine.hasContainer(name)) {
+			manager.streamRemoteContainerLogs(name, tail, since, follow, sink);
+			return;
+		}
+
+		Closeable stream = engine.streamLog(name, tail, since, follow, sink);
+		try {
+			Throwable error = finished.get();
+			if (error != null && !(error instanceof IOException))
+				throw new PicoException("Error while streaming container logs: " + error.getMessage());
+		} catch (InterruptedException | ExecutionException e) {
+			try {
+				stream.close();
+			} catch (IOException ignored) {}
+			throw new PicoException("Error while streaming container logs: " + e.getMessage(), Code.CANCELLED);
+		}
+	}
+
+	/**
+	 * Method to search the logs of the local containers.
+	 * @param query Search to run.
+	 * @param node Address of this node.
+	 * @return Lines found ordered by time.
+	 */
+	public LogMerge searchLocalLogs(LogQuery query, PicoAddress node) {
+		return engine.searchLogs(query, node);
+	}
+
+	/**
+	 * Method to search the logs of the containers of the whole cluster. The
+	 * search runs on every node and the lines are merged by time as they are
+	 * read, without collecting them.
+	 * @param query Search to run.
+	 * @return Lines found ordered by time. Has to be closed.
+	 */
+	public LogMerge searchLogs(LogQuery query) {
+		return manager.searchClusterLogs(query);
+	}
+
+	/**
+	 * Method to check if a container exists on this node or on any other
+	 * node of the cluster.
+	 * @param name Name of the container.
+	 * @return True if some node hosts the container.
+	 */
+	public boolean containerExists(String name) {
+		return engine.hasContainer(name) || manager.getContainerHost(name) != null;
+	}
+
 	/**
 	 * Method to start a container. It starts the container with the provided name.
 	 * @param name Name of the container to start.
@@ -289,6 +419,16 @@ public class Controller {
 		}
 	}
 
+	/**
+	 * Method to find the node hosting a container, through the container
+	 * index of the cluster.
+	 * @param name Name of the container.
+	 * @return Address of the node, null if no node hosts the container.
+	 */
+	public PicoAddress getContainerHost(String name) {
+		return manager.getContainerHost(name);
+	}
+
 	/**
 	 * Method to check if a container exists. It returns true if a container
 	 * with the provided name exists, otherwise it returns false.
@@ -337,9 +477,9 @@ public class Controller {
 	 * @throws Exception if there is an error while fetching the node.
 	 */
 	public Node getNode(PicoAddress address) throws Exception {
-		Future<Node> res = pool.submit(() -> {
+		Future<Node> res = pool.submit(Context.current().wrap(() -> {
 			return manager.getNode(address);
-		});
+		}));
 
 		try {
 			return res.get();
@@ -373,9 +513,9 @@ public class Controller {
 	 * @throws Exception if there is an error while fetching the performance.
 	 */
 	public Performance getNodePerformance(PicoAddress address) throws Exception {
-		Future<Performance> res = pool.submit(() -> {
+		Future<Performance> res = pool.submit(Context.current().wrap(() -> {
 			return manager.getNodePerformance(address);
-		});
+		}));
 
 		try {
 			return res.get();
@@ -393,6 +533,18 @@ public class Controller {
 		}
 	}
 
+	/**
+	 * Method to get the statistics of the gRPC calls made and served by
+	 * this node.
+	 * @param side "client", "server" or null for both.
+	 * @param method Name of a gRPC method, or null for all.
+	 * @param peer Address of a peer, or null for all.
+	 * @return List of statistics per side, method and peer.
+	 */
+	public List<RpcStats> getRpcMetrics(String side, String method, String peer) {
+		return RpcMetrics.get().snapshot(side, method, peer);
+	}
+
 	/**
 	 * Method to remove a node. It removes the node with the provided address.
 	 * @param adr Address of the node to remove.
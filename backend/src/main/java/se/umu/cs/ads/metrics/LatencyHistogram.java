@@ -0,0 +1,118 @@
+package se.umu.cs.ads.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds with log-linear buckets, in the
+ * manner of HdrHistogram. Every power of two is split into SUB_BUCKETS
+ * linear buckets, so a recorded value is off by at most 1/SUB_BUCKETS
+ * (about 3%) from the value a percentile reports. Recording is a few
+ * shifts and an atomic increment, and needs no lock.
+ */
+public class LatencyHistogram {
+	static final int SUB_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Values from 2^MAX_BITS microseconds (about 71 minutes) end up in the last bucket
+	static final int MAX_BITS = 32;
+	static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+	static final int BUCKETS = SUB_BUCKETS * (MAX_BITS - SUB_BITS + 1);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+		counts.incrementAndGet(indexOf(micros));
+		count.increment();
+		sum.add(micros);
+		if (micros > max.get())
+			max.accumulateAndGet(micros, Math::max);
+	}
+
+	/**
+	 * Gets the bucket of a value. Values below SUB_BUCKETS have a bucket
+	 * each, larger values are shifted down to their SUB_BITS + 1 highest
+	 * bits, the shift selecting the power of two.
+	 * @param micros Value in microseconds
+	 * @return Index of the bucket
+	 */
+	static int indexOf(long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+		return SUB_BUCKETS * shift + (int) (micros >>> shift);
+	}
+
+	/**
+	 * Gets the highest value that ends up in a bucket
+	 * @param index Index of the bucket
+	 * @return Value in microseconds
+	 */
+	static long highestOf(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index - SUB_BUCKETS * shift;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Gets the number of recorded latencies
+	 * @return Count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets the mean of the recorded latencies
+	 * @return Mean in microseconds, 0 if none are recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Gets the highest recorded latency
+	 * @return Maximum in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets a percentile of the recorded latencies. Concurrent recordings
+	 * may or may not be included.
+	 * @param percentile Percentile between 0 and 100
+	 * @return Highest value of the bucket holding the percentile, in
+	 * 		   microseconds, capped at the maximum. 0 if none are recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(highestOf(i), max.get());
+		}
+		return max.get();
+	}
+}
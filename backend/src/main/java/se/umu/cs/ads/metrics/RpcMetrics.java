@@ -0,0 +1,127 @@
+package se.umu.cs.ads.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.grpc.Status;
+
+/**
+ * Registry of the gRPC calls made and served by the node, filled by the
+ * client and server interceptors. Calls are counted per side, method and
+ * peer, with the status codes they ended with, the calls in flight and a
+ * latency histogram. Entries are created on the first call and kept for
+ * the lifetime of the node.
+ */
+public final class RpcMetrics {
+	public static final String CLIENT = "client";
+	public static final String SERVER = "server";
+
+	private static final RpcMetrics instance = new RpcMetrics();
+	private static final Status.Code[] CODES = Status.Code.values();
+
+	private final Map<String, ConcurrentHashMap<String, ConcurrentHashMap<String, CallStats>>> sides;
+
+	private RpcMetrics() {
+		this.sides = Map.of(CLIENT, new ConcurrentHashMap<>(), SERVER, new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * Gets the registry of the node
+	 * @return RpcMetrics object
+	 */
+	public static RpcMetrics get() {
+		return instance;
+	}
+
+	/**
+	 * Gets the statistics of a method and peer, creating them on first use
+	 * @param side CLIENT or SERVER
+	 * @param method Bare name of the method
+	 * @param peer Address of the peer
+	 * @return CallStats object
+	 */
+	public CallStats of(String side, String method, String peer) {
+		ConcurrentHashMap<String, CallStats> peers = sides.get(side).get(method);
+		if (peers == null)
+			peers = sides.get(side).computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+
+		CallStats stats = peers.get(peer);
+		return stats != null ? stats : peers.computeIfAbsent(peer, p -> new CallStats());
+	}
+
+	/**
+	 * Takes a snapshot of the statistics
+	 * @param side CLIENT, SERVER or null for both
+	 * @param method Bare name of a method, or null for all
+	 * @param peer Address of a peer, or null for all
+	 * @return List of RpcStats, ordered by side, method and peer
+	 */
+	public List<RpcStats> snapshot(String side, String method, String peer) {
+		List<RpcStats> res = new ArrayList<>();
+		for (String s : List.of(CLIENT, SERVER)) {
+			if (side != null && !side.equals(s))
+				continue;
+
+			for (Map.Entry<String, ConcurrentHashMap<String, CallStats>> methods : sides.get(s).entrySet()) {
+				if (method != null && !method.equals(methods.getKey()))
+					continue;
+
+				for (Map.Entry<String, CallStats> peers : methods.getValue().entrySet()) {
+					if (peer != null && !peer.equals(peers.getKey()))
+						continue;
+					res.add(peers.getValue().snapshot(s, methods.getKey(), peers.getKey()));
+				}
+			}
+		}
+
+		res.sort(Comparator.comparing(RpcStats::getSide)
+			.thenComparing(RpcStats::getMethod)
+			.thenComparing(RpcStats::getPeer));
+		return res;
+	}
+
+	/**
+	 * Statistics of the calls of one method to or from one peer
+	 */
+	public static final class CallStats {
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLongArray statuses = new AtomicLongArray(CODES.length);
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		/**
+		 * Marks the start of a call
+		 */
+		public void begin() {
+			inFlight.incrementAndGet();
+		}
+
+		/**
+		 * Marks the end of a call started with begin
+		 * @param code Status code the call ended with
+		 * @param nanos Duration of the call in nanoseconds
+		 */
+		public void end(Status.Code code, long nanos) {
+			inFlight.decrementAndGet();
+			statuses.incrementAndGet(code.value());
+			latency.record(nanos);
+		}
+
+		private RpcStats snapshot(String side, String method, String peer) {
+			Map<String, Long> codes = new TreeMap<>();
+			for (Status.Code code : CODES) {
+				long n = statuses.get(code.value());
+				if (n > 0)
+					codes.put(code.name(), n);
+			}
+			return new RpcStats(side, method, peer, latency.getCount(), inFlight.get(), codes,
+				latency.getMean() / 1000.0,
+				latency.getPercentile(50) / 1000.0,
+				latency.getPercentile(90) / 1000.0,
+				latency.getPercentile(99) / 1000.0,
+				latency.getPercentile(99.9) / 1000.0,
+				latency.getMax() / 1000.0);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package se.umu.cs.ads.metrics;
+
+import java.util.Map;
+
+/**
+ * Snapshot of the calls of one gRPC method to or from one peer. Latencies
+ * are in milliseconds.
+ */
+public class RpcStats {
+	private final String side;
+	private final String method;
+	private final String peer;
+	private final long calls;
+	private final int inFlight;
+	private final Map<String, Long> statuses;
+	private final double mean;
+	private final double p50;
+	private final double p90;
+	private final double p99;
+	private final double p999;
+	private final double max;
+
+	public RpcStats(String side, String method, String peer, long calls, int inFlight,
+			Map<String, Long> statuses, double mean, double p50, double p90, double p99,
+			double p999, double max) {
+		this.side = side;
+		this.method = method;
+		this.peer = peer;
+		this.calls = calls;
+		this.inFlight = inFlight;
+		this.statuses = statuses;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public String getSide() {
+		return side;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getPeer() {
+		return peer;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public Map<String, Long> getStatuses() {
+		return statuses;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP90() {
+		return p90;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getP999() {
+		return p999;
+	}
+
+	public double getMax() {
+		return max;
+	}
+}
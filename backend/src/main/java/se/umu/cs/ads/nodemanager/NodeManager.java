@@ -1,17 +1,24 @@
 package se.umu.cs.ads.nodemanager;
 
+import java.io.Closeable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.*;
 
+import io.grpc.Status.Code;
+
 import se.umu.cs.ads.arguments.CommandLineArguments;
 import se.umu.cs.ads.clustermanagement.ClusterManager;
+import se.umu.cs.ads.clustermanagement.ContainerIndex;
 import se.umu.cs.ads.communication.ContainerCommand;
+import se.umu.cs.ads.containerengine.LogSink;
 import se.umu.cs.ads.controller.Controller;
 import se.umu.cs.ads.exception.*;
 import se.umu.cs.ads.metrics.SystemMetric;
 import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.utils.LogMerge;
+import se.umu.cs.ads.utils.PortBitmap;
 import se.umu.cs.ads.utils.Util;
 
 /**
@@ -19,6 +26,7 @@ import se.umu.cs.ads.utils.Util;
  */
 public class NodeManager {
 	private final static Logger logger = LogManager.getLogger(NodeManager.class);
+	public static final double PLACEMENT_PENALTY = 0.1;
 	private final Controller controller;
 	private final SystemMetric metrics;
 	private final ClusterManager cluster;
@@ -156,27 +164,19 @@ public class NodeManager {
 	 * @return True if the container exists, false otherwise
 	 */
 	public boolean hasContainerName(String name) {
-		List<PicoContainer> conts = node.getContainers();
-		int hasName = (int) conts.stream().filter(it -> it.getName().equals(name)).count();
-		return hasName > 0;
+		return node.hasContainer(name);
 	}
 
 	/**
-	 * Check if any of the currently running containers have any of the provided ports
+	 * Check if any of the currently running containers have any of the provided
+	 * ports, in the port bitmap of the node
 	 * @param external Set of ports to check
 	 * @return List of conflicting ports
 	 */
 	public List<Integer> conflictingPorts(Set<Integer> external) {
 		List<Integer> conflicting = new ArrayList<>();
-
-		for (Integer port : external) {
-			for (PicoContainer cont : node.getContainers()) {
-				Set<Integer> currentExternal = cont.getPortsMap().keySet();
-				//we have a conflict
-				if (currentExternal.contains(port))
-					conflicting.add(port);
-			}
-		}
+		for (int port : cluster.getPorts().conflicts(getAddress(), external))
+			conflicting.add(port);
 		return conflicting;
 	}
 
@@ -204,6 +204,30 @@ public class NodeManager {
 		return score;
 	}
 
+	/**
+	 * Method to evaluate a batch of containers on the current node. The port
+	 * bitmap of the node is copied once for the whole batch, and a 
+	 * container whose name occurs earlier in the batch is a name conflict.
+	 * @param containers Containers to evaluate
+	 * @return Evaluation of each container, in the same order
+	 */
+	public List<ContainerEvaluation> evaluateContainers(List<PicoContainer> containers) {
+		PortBitmap ports = cluster.getPorts().snapshot(getAddress());
+
+		double score = getScore();
+		Set<String> batch = new HashSet<>();
+		List<ContainerEvaluation> res = new ArrayList<>(containers.size());
+		for (PicoContainer container : containers) {
+			String name = container.getName();
+			boolean nameConflict = node.hasContainer(name) || !batch.add(name);
+			int[] portConflicts = ports.conflicts(container.getPortsMap().keySet());
+			res.add(new ContainerEvaluation(name, score, nameConflict, portConflicts));
+		}
+
+		logger.info("Evaluated {} containers with score {}", containers.size(), score);
+		return res;
+	}
+
 	/**
 	 * Method to evaluate the load on the loacl node. A high score indicates
 	 * a high load on the node.
@@ -279,22 +303,17 @@ public class NodeManager {
 	 */
 	public String remoteContainerCommand(String name, String command) {
 		//find container and the node that has it
-		PicoAddress remote = null;
-		PicoContainer container = null;
-		ArrayList<Node> nodes = new ArrayList<>(cluster.getClusterMembers());
-		for (Node n : nodes) {
-			for (PicoContainer cont : n.getContainers()) {
-				if (cont.getName().equals(name)) {
-					remote = n.getAddress();
-					container = cont;
-				}
-			}
-		}
-
-		if (remote == null || container == null) {
+		ContainerIndex.Location loc = cluster.locateContainer(name);
+		if (loc == null) {
 			logger.warn("Could not find any container with name {}", name);
 			return null;
 		}
+		PicoAddress remote = loc.getHost();
+		PicoContainer container = loc.getContainer();
+		if (container == null) {
+			logger.warn("Container {} was removed from {}", name, remote);
+			return null;
+		}
 		ContainerCommand cmd = parseCommand(command);
 		if (cmd == null) {
 			logger.warn("Could not parse command {}, ignoring", command);
@@ -341,6 +360,62 @@ public class NodeManager {
 		return builder.toString();
 	}
 
+	/**
+	 * Method to stream the logs of a container on the local node.
+	 * @param name Name of the container
+	 * @param tail Number of lines from the end of the log, negative for all
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit
+	 * @param follow True to keep the stream open for new lines
+	 * @param sink Receives the frames
+	 * @return Closeable that stops the stream
+	 */
+	public Closeable streamContainerLogs(String name, int tail, long since, boolean follow, LogSink sink) throws PicoException {
+		return this.controller.streamContainerLogs(name, tail, since, follow, sink);
+	}
+
+	/**
+	 * Method to stream the logs of a container on a remote node. Blocks 
+	 * until the stream has ended.
+	 * @param name Name of the container
+	 * @param tail Number of lines from the end of the log, negative for all
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit
+	 * @param follow True to keep the stream open for new lines
+	 * @param sink Receives the frames
+	 */
+	public void streamRemoteContainerLogs(String name, int tail, long since, boolean follow, LogSink sink) throws PicoException {
+		PicoAddress remote = getContainerHost(name);
+		if (remote == null)
+			throw new PicoException(String.format("No container with name %s", name), Code.NOT_FOUND);
+		cluster.getCommunication().streamRemoteContainerLogs(remote, name, tail, since, follow, sink);
+	}
+
+	/**
+	 * Method to search the logs of the containers on the local node.
+	 * @param query Search to run
+	 * @return Lines found ordered by time
+	 */
+	public LogMerge searchLocalLogs(LogQuery query) {
+		return this.controller.searchLocalLogs(query, getAddress());
+	}
+
+	/**
+	 * Method to search the logs of the containers in the whole cluster.
+	 * @param query Search to run
+	 * @return Lines found ordered by time
+	 */
+	public LogMerge searchClusterLogs(LogQuery query) {
+		return cluster.getCommunication().searchLogs(query);
+	}
+
+	/**
+	 * Method to find the node hosting a container.
+	 * @param name Name of the container
+	 * @return Address of the node, null if no node hosts the container
+	 */
+	public PicoAddress getContainerHost(String name) {
+		return cluster.getContainerHost(name);
+	}
+
 	/**
 	 * Method to evaluate the node with the best score.
 	 * @param evaluations Map of evaluations
@@ -366,6 +441,88 @@ public class NodeManager {
 		return minRemote;
 	} 
 
+	/**
+	 * Method to place a batch of containers in one pass. Each container is
+	 * placed on the node with the best score among those without conflicts.
+	 * The score of a node is raised for every container placed on it, and
+	 * the ports taken on a node are not given to another container of the 
+	 * batch, so that the batch is spread over the cluster. The evaluations
+	 * of a node are matched to the containers by position, so a name that
+	 * occurs twice in the batch only fails the second container.
+	 * @param containers Containers to place
+	 * @param evaluations Evaluations of the batch from each node, in the
+	 * order of the batch
+	 * @return Placement of each container, in the same order
+	 */
+	public static List<Placement> placeContainers(List<PicoContainer> containers, Map<PicoAddress, List<ContainerEvaluation>> evaluations) {
+		Map<PicoAddress, Integer> placed = new HashMap<>();
+		Map<PicoAddress, Set<Integer>> takenPorts = new HashMap<>();
+		List<Placement> res = new ArrayList<>(containers.size());
+
+		for (int i = 0; i < containers.size(); i++) {
+			PicoContainer container = containers.get(i);
+			String name = container.getName();
+			Set<Integer> ports = container.getPortsMap().keySet();
+			double minScore = Double.MAX_VALUE;
+			PicoAddress minRemote = null;
+			boolean nameConflict = false;
+
+			for (Map.Entry<PicoAddress, List<ContainerEvaluation>> entry : evaluations.entrySet()) {
+				PicoAddress remote = entry.getKey();
+				ContainerEvaluation eval = evaluationOf(entry.getValue(), i, name);
+				if (eval == null)
+					continue;
+				if (eval.hasNameConflict()) {
+					nameConflict = true;
+					break;
+				}
+				if (eval.hasPortConflict())
+					continue;
+
+				Set<Integer> taken = takenPorts.getOrDefault(remote, Collections.emptySet());
+				if (ports.stream().anyMatch(taken::contains))
+					continue;
+
+				double score = eval.getScore() + PLACEMENT_PENALTY * placed.getOrDefault(remote, 0);
+				if (score < minScore) {
+					minScore = score;
+					minRemote = remote;
+				}
+			}
+
+			if (nameConflict) {
+				res.add(Placement.failed(name, new NameConflictException(name).getMessage()));
+				continue;
+			}
+			if (minRemote == null) {
+				logger.warn("No remote met the criteria. The container {} cannot be created", name);
+				res.add(Placement.failed(name, "Cannot run container on any host!"));
+				continue;
+			}
+
+			placed.merge(minRemote, 1, Integer::sum);
+			takenPorts.computeIfAbsent(minRemote, k -> new HashSet<>()).addAll(ports);
+			res.add(Placement.placed(name, minRemote));
+		}
+
+		logger.info("Placed batch of {} containers on {} nodes", containers.size(), placed.size());
+		return res;
+	}
+
+	/**
+	 * Gets the evaluation of the container at a position of the batch
+	 * @param evaluations Evaluations of the batch from a node
+	 * @param index Position of the container in the batch
+	 * @param name Name of the container
+	 * @return ContainerEvaluation, null if the node did not evaluate it
+	 */
+	private static ContainerEvaluation evaluationOf(List<ContainerEvaluation> evaluations, int index, String name) {
+		if (index >= evaluations.size())
+			return null;
+		ContainerEvaluation eval = evaluations.get(index);
+		return name.equals(eval.getName()) ? eval : null;
+	}
+
 	/**
 	 * Method to remove a node from the cluster.
 	 * @param adr Address of the node
@@ -108,6 +108,59 @@ public final class ContainerSerializer extends StdSerializer<PicoContainer> {
 		return builder.build();
 	}
 
+	/**
+	 * Serializes a container of a snapshot straight from the fields of its
+	 * registry, without creating a view of it
+	 * @param snapshot ContainerSnapshot object
+	 * @param index Index of the container
+	 * @return RpcContainer object
+	 */
+	public static RpcContainer toRPC(ContainerSnapshot snapshot, int index) {
+		RpcStrings.Builder builder = RpcStrings.newBuilder();
+		for (int i = 0; i < snapshot.envCountAt(index); i++)
+			builder.addStrings(snapshot.envAt(index, i));
+
+		RpcMap.Builder mapBuilder = RpcMap.newBuilder();
+		for (int i = 0; i < snapshot.portCountAt(index); i++)
+			mapBuilder.putMap(snapshot.hostPortAt(index, i), snapshot.containerPortAt(index, i));
+
+		return RpcContainer.newBuilder()
+			.setName(snapshot.nameAt(index))
+			.setImage(snapshot.imageAt(index))
+			.setPorts(mapBuilder.build())
+			.setEnvs(builder.build())
+			.setState(parseState(snapshot.stateAt(index)))
+			.build();
+	}
+
+	/**
+	 * Serializes all containers of a snapshot
+	 * @param snapshot ContainerSnapshot object
+	 * @return RpcContainers object
+	 */
+	public static RpcContainers toRPC(ContainerSnapshot snapshot) {
+		RpcContainers.Builder builder = RpcContainers.newBuilder();
+		for (int i = 0; i < snapshot.size(); i++)
+			builder.addContainers(toRPC(snapshot, i));
+		return builder.build();
+	}
+
+	/**
+	 * Serializes the containers of a snapshot in the given digest buckets.
+	 * The buckets are found by name, so only the containers sent are read.
+	 * @param snapshot ContainerSnapshot object
+	 * @param buckets Set of bucket indexes, see ContainerDigest
+	 * @return RpcContainers object
+	 */
+	public static RpcContainers toRPC(ContainerSnapshot snapshot, Set<Integer> buckets) {
+		RpcContainers.Builder builder = RpcContainers.newBuilder();
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (buckets.contains(ContainerDigest.bucketOf(snapshot.nameAt(i))))
+				builder.addContainers(toRPC(snapshot, i));
+		}
+		return builder.build();
+	}
+
 	private static RpcContainerState parseState(PicoContainerState state) {
 		switch (state) {
 			case RUNNING:
@@ -0,0 +1,57 @@
+package se.umu.cs.ads.serializers;
+
+import java.util.*;
+
+import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.communication.*;
+
+public final class EvaluationSerializer {
+	public static ContainerEvaluation fromRPC(RpcEvaluationResult result) {
+		int[] ports = result.getConflictingPortsList().stream().mapToInt(Integer::intValue).toArray();
+		return new ContainerEvaluation(result.getName(), result.getScore(), result.getNameConflict(), ports);
+	}
+
+	public static List<ContainerEvaluation> fromRPC(RpcContainerEvaluations evaluations) {
+		List<ContainerEvaluation> res = new ArrayList<>(evaluations.getResultsCount());
+		for (RpcEvaluationResult result : evaluations.getResultsList())
+			res.add(fromRPC(result));
+		return res;
+	}
+
+	public static RpcEvaluationResult toRPC(ContainerEvaluation evaluation) {
+		RpcEvaluationResult.Builder builder = RpcEvaluationResult.newBuilder()
+			.setName(evaluation.getName())
+			.setScore(evaluation.getScore())
+			.setNameConflict(evaluation.hasNameConflict());
+		for (int port : evaluation.getConflictingPorts())
+			builder.addConflictingPorts(port);
+		return builder.build();
+	}
+
+	public static Placement fromRPC(RpcPlacement placement) {
+		if (!placement.hasNode())
+			return Placement.failed(placement.getName(), placement.getError());
+
+		RpcMetadata node = placement.getNode();
+		return Placement.placed(placement.getName(), new PicoAddress(node.getIp(), node.getPort()));
+	}
+
+	public static RpcPlacement toRPC(Placement placement) {
+		RpcPlacement.Builder builder = RpcPlacement.newBuilder().setName(placement.getName());
+		if (placement.isPlaced()) {
+			PicoAddress node = placement.getNode();
+			builder.setNode(RpcMetadata.newBuilder().setIp(node.getIP()).setPort(node.getPort()));
+		} else {
+			builder.setError(placement.getError() == null ? "" : placement.getError());
+		}
+		return builder.build();
+	}
+
+	public static RpcContainerEvaluations toRPC(PicoAddress sender, List<ContainerEvaluation> evaluations) {
+		RpcContainerEvaluations.Builder builder = RpcContainerEvaluations.newBuilder()
+			.setSender(RpcMetadata.newBuilder().setIp(sender.getIP()).setPort(sender.getPort()));
+		for (ContainerEvaluation evaluation : evaluations)
+			builder.addResults(toRPC(evaluation));
+		return builder.build();
+	}
+}
@@ -0,0 +1,34 @@
+package se.umu.cs.ads.serializers;
+
+import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.communication.*;
+
+public final class LogSerializer {
+	public static LogQuery fromRPC(RpcLogSearch search) {
+		return new LogQuery(search.getNamePattern(), search.getImage(), search.getSince(),
+			search.getUntil(), search.getText(), search.getRegex());
+	}
+
+	public static RpcLogSearch toRPC(LogQuery query) {
+		return RpcLogSearch.newBuilder()
+			.setNamePattern(query.getNamePattern())
+			.setImage(query.getImage())
+			.setSince(query.getSince())
+			.setUntil(query.getUntil())
+			.setText(query.getText())
+			.setRegex(query.isRegex())
+			.build();
+	}
+
+	public static LogLine fromRPC(RpcLogLine line, PicoAddress node) {
+		return new LogLine(line.getContainer(), node, line.getTime(), line.getLine());
+	}
+
+	public static RpcLogLine toRPC(LogLine line) {
+		return RpcLogLine.newBuilder()
+			.setContainer(line.getContainer())
+			.setTime(line.getTime())
+			.setLine(line.getLine())
+			.build();
+	}
+}
@@ -0,0 +1,40 @@
+package se.umu.cs.ads.serializers;
+
+import java.util.*;
+
+import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.communication.*;
+
+public final class MembershipSerializer {
+	public static MemberUpdate fromRPC(RpcMemberUpdate update) {
+		RpcMetadata member = update.getMember();
+		return new MemberUpdate(
+			new PicoAddress(member.getIp(), member.getPort()),
+			MemberStatus.valueOf(update.getStatus().name()),
+			update.getIncarnation()
+		);
+	}
+
+	public static List<MemberUpdate> fromRPC(List<RpcMemberUpdate> updates) {
+		List<MemberUpdate> res = new ArrayList<>(updates.size());
+		for (RpcMemberUpdate update : updates)
+			res.add(fromRPC(update));
+		return res;
+	}
+
+	public static RpcMemberUpdate toRPC(MemberUpdate update) {
+		PicoAddress adr = update.getAddress();
+		return RpcMemberUpdate.newBuilder()
+			.setMember(RpcMetadata.newBuilder().setIp(adr.getIP()).setPort(adr.getPort()))
+			.setStatus(RpcMemberStatus.valueOf(update.getStatus().name()))
+			.setIncarnation(update.getIncarnation())
+			.build();
+	}
+
+	public static List<RpcMemberUpdate> toRPC(List<MemberUpdate> updates) {
+		List<RpcMemberUpdate> res = new ArrayList<>(updates.size());
+		for (MemberUpdate update : updates)
+			res.add(toRPC(update));
+		return res;
+	}
+}
@@ -11,36 +11,57 @@ public final class NodeSerializer {
         return new Node(
             new PicoAddress(node.getIp(), node.getPort()),
             node.getClusterName(),
-            new ArrayList<PicoContainer>(ContainerSerializer.fromRPC(node.getContainers()))
+            new ArrayList<PicoContainer>(ContainerSerializer.fromRPC(node.getContainers())),
+            node.getVersion()
         );
     }
 
-    public static List<Node> fromRPC(RpcNodes nodes) {
-        List<Node> n = new ArrayList<>();
-        for (int i = 0; i < nodes.getNodesCount(); i++) {
-            n.add(fromRPC(nodes.getNodes(i)));
-        }
-        return n;
-    }
-
     public static RpcNode toRPC(Node node) {
         String[] buff = node.getAddress().toString().split(":");
         String ip = buff[0];
         int port = Integer.parseInt(buff[1]);
 
+        // The containers and the version come from the same snapshot
+        ContainerSnapshot snapshot = node.snapshot();
+
         return RpcNode.newBuilder()
             .setIp(ip)
             .setPort(port)
             .setClusterName(node.getCluster())
-            .setContainers(ContainerSerializer.toRPC(node.getContainers()))
+            .setContainers(ContainerSerializer.toRPC(snapshot))
+            .setVersion(snapshot.getVersion())
             .build();
     }
 
-    public static RpcNodes toRPC(List<Node> nodes) {
-        RpcNodes.Builder builder = RpcNodes.newBuilder();
-        for (Node n : nodes) {
-            builder.addNodes(toRPC(n));
+    public static RpcNodeDelta toRPC(long fromVersion, List<ContainerEvent> events) {
+        long toVersion = events.isEmpty() ? fromVersion : events.get(events.size() - 1).getVersion();
+        RpcNodeDelta.Builder builder = RpcNodeDelta.newBuilder()
+            .setFromVersion(fromVersion)
+            .setToVersion(toVersion);
+
+        for (ContainerEvent event : events) {
+            // Only the name is needed to remove a container
+            RpcContainer container = event.getType() == ContainerEvent.Type.REMOVED
+                ? RpcContainer.newBuilder().setName(event.getContainer().getName()).build()
+                : ContainerSerializer.toRPC(event.getContainer());
+
+            builder.addEvents(RpcContainerEvent.newBuilder()
+                .setType(RpcContainerEventType.valueOf(event.getType().name()))
+                .setVersion(event.getVersion())
+                .setContainer(container));
         }
         return builder.build();
     }
+
+    public static List<ContainerEvent> fromRPC(RpcNodeDelta delta) {
+        List<ContainerEvent> events = new ArrayList<>(delta.getEventsCount());
+        for (RpcContainerEvent event : delta.getEventsList()) {
+            events.add(new ContainerEvent(
+                ContainerEvent.Type.valueOf(event.getType().name()),
+                event.getVersion(),
+                ContainerSerializer.fromRPC(event.getContainer())
+            ));
+        }
+        return events;
+    }
 }
\ No newline at end of file
@@ -1,17 +1,35 @@
 package se.umu.cs.ads.service;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.apache.logging.log4j.LogManager;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.servlet.http.HttpServletResponse;
+
 import se.umu.cs.ads.exception.PicoException;
 import se.umu.cs.ads.types.*;
+import se.umu.cs.ads.utils.LogMerge;
 
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.units.qual.s;
@@ -25,6 +43,8 @@ public class ContainerController {
 	RESTService service;
 	
 	private final static Logger logger = LogManager.getLogger(ContainerController.class);
+	private final static String NDJSON = "application/x-ndjson";
+	private final ObjectMapper mapper = new ObjectMapper();
 
 	@GetMapping("")
 	public ResponseEntity<List<PicoContainer>> getAllContainers() {
@@ -56,15 +76,79 @@ public class ContainerController {
 		}
 	}
 
+	/**
+	 * Creates a batch of containers from a newline delimited JSON list of
+	 * container specs. The whole batch is placed in one election, and one
+	 * result line is written per container as soon as it completes.
+	 */
+	@PostMapping(value = "bulk", consumes = NDJSON, produces = NDJSON)
+	public void createContainers(InputStream body, HttpServletResponse response) throws IOException {
+		List<PicoContainer> containers = new ArrayList<>();
+		List<Placement> invalid = new ArrayList<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.isBlank())
+				continue;
+			try {
+				containers.add(mapper.readValue(line, PicoContainer.class));
+			} catch (JsonProcessingException e) {
+				invalid.add(Placement.failed("line " + lineNumber, "Invalid container spec: " + e.getOriginalMessage()));
+			}
+		}
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(NDJSON);
+		PrintWriter writer = response.getWriter();
+		Consumer<Placement> emit = placement -> {
+			synchronized (writer) {
+				writer.println(toJson(placement));
+				writer.flush();
+			}
+		};
+		invalid.forEach(emit);
+
+		if (containers.isEmpty())
+			return;
+
+		logger.info("Starting bulk deploy of {} containers", containers.size());
+		try {
+			service.getController().createContainers(containers, emit);
+		} catch (PicoException e) {
+			logger.error("Error trying to deploy {} containers: {}", containers.size(), e.getMessage());
+			emit.accept(Placement.failed("*", e.getMessage()));
+		}
+	}
+
+	private String toJson(Placement placement) {
+		Map<String, Object> res = new LinkedHashMap<>();
+		res.put("name", placement.getName());
+		res.put("placed", placement.isPlaced());
+		if (placement.isPlaced())
+			res.put("node", placement.getNode().toString());
+		else
+			res.put("error", placement.getError());
+
+		try {
+			return mapper.writeValueAsString(res);
+		} catch (JsonProcessingException e) {
+			return "{\"name\":\"" + placement.getName() + "\",\"placed\":false}";
+		}
+	}
+
 	@DeleteMapping("{name}")
 	public ResponseEntity<?> removeContainer(@PathVariable String name) {
 		try {
 			logger.info("Starting delete process for container {}", name);
 			long start = System.currentTimeMillis();
-			if (!hasContainer(name)) 
-				service.getController().sendRemoteCommand(name, "REMOVE");
-			else 
+			if (hasContainer(name)) 
 				service.getController().removeContainer(name);
+			else if (isRemote(name))
+				service.getController().sendRemoteCommand(name, "REMOVE");
+			else
+				return notFound(name);
 
 			long time = System.currentTimeMillis() - start;
 			logger.info("Proces to remove container {} finished after {} ms", name, time);
@@ -80,11 +164,13 @@ public class ContainerController {
 	public ResponseEntity<?> getContainerLogs(@PathVariable String name) {
 		try {
 			ArrayList<String> logs = new ArrayList<>();
-			if (!hasContainer(name)) {
+			if (hasContainer(name)) {
+				logs.addAll(service.getController().getContainerLogs(name));
+			} else if (isRemote(name)) {
 				String logsAsString = service.getController().sendRemoteCommand(name, "FETCH_LOGS");
 				logs.addAll(Arrays.asList(logsAsString.split("\n")));
 			} else {
-				logs.addAll(service.getController().getContainerLogs(name));
+				return notFound(name);
 			}
 			return ResponseEntity.ok().body(logs);
 		} catch (Exception e) {
@@ -93,15 +179,101 @@ public class ContainerController {
 		}
 	}
 
+	/**
+	 * Streams the raw logs of a container, wherever it runs. Each frame is
+	 * flushed to the client as soon as it is read, so memory use does not
+	 * depend on the size of the log.
+	 * @param name Name of the container
+	 * @param tail Number of lines from the end of the log, all if negative
+	 * @param since Unix time in seconds of the oldest line, no limit if 0
+	 * @param follow Keep the stream open and send new lines as they come
+	 */
+	@GetMapping(value = "{name}/logs/stream", produces = MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<?> streamContainerLogs(@PathVariable String name,
+			@RequestParam(defaultValue = "-1") int tail,
+			@RequestParam(defaultValue = "0") long since,
+			@RequestParam(defaultValue = "false") boolean follow) {
+		if (!service.getController().containerExists(name)) {
+			logger.warn("No container with name {}", name);
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No container with name " + name);
+		}
+
+		StreamingResponseBody body = out -> {
+			try {
+				service.getController().writeContainerLogs(name, tail, since, follow, out);
+			} catch (PicoException e) {
+				logger.error("Error trying to stream logs for container {}: {}", name, e.getMessage());
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(body);
+	}
+
+	/**
+	 * Searches the logs of the containers of the whole cluster. The search
+	 * runs on every node and the lines are merged by time on this node,
+	 * streamed as one JSON object per line.
+	 * @param name Regular expression the container name has to match
+	 * @param image Image of the containers
+	 * @param since Unix time in seconds of the oldest line, no limit if 0
+	 * @param until Unix time in seconds of the newest line, no limit if 0
+	 * @param q Text the lines have to contain
+	 * @param regex Whether q is a regular expression
+	 */
+	@GetMapping(value = "logs/search", produces = NDJSON)
+	public ResponseEntity<?> searchLogs(
+			@RequestParam(defaultValue = "") String name,
+			@RequestParam(defaultValue = "") String image,
+			@RequestParam(defaultValue = "0") long since,
+			@RequestParam(defaultValue = "0") long until,
+			@RequestParam(defaultValue = "") String q,
+			@RequestParam(defaultValue = "false") boolean regex) {
+		LogQuery query;
+		try {
+			query = new LogQuery(name, image, since, until, q, regex);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+
+		StreamingResponseBody body = out -> {
+			long start = System.currentTimeMillis();
+			int found = 0;
+			try (LogMerge lines = service.getController().searchLogs(query)) {
+				while (lines.hasNext()) {
+					out.write(toJson(lines.next()));
+					out.write('\n');
+					out.flush();
+					found++;
+				}
+			}
+			logger.info("Log search found {} lines after {} ms", found, System.currentTimeMillis() - start);
+		};
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+	}
+
+	private byte[] toJson(LogLine line) {
+		Map<String, Object> res = new LinkedHashMap<>();
+		res.put("time", Instant.ofEpochSecond(0, line.getTime()).toString());
+		res.put("node", line.getNode().toString());
+		res.put("container", line.getContainer());
+		res.put("line", line.getLine());
+
+		try {
+			return mapper.writeValueAsBytes(res);
+		} catch (JsonProcessingException e) {
+			return ("{\"container\":\"" + line.getContainer() + "\"}").getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
 	@PutMapping("{name}/start")
 	@ResponseBody
 	public ResponseEntity<?> startContainer(@PathVariable String name) {
 		try {
-			if (!hasContainer(name)) {
-				logger.warn("No container with name: {}", name);
+			if (hasContainer(name)) {
+				service.getController().startContainer(name);
+			} else if (isRemote(name)) {
 				service.getController().sendRemoteCommand(name, "START");
 			} else {
-				service.getController().startContainer(name);
+				return notFound(name);
 			}
 		
 			return ResponseEntity.status(HttpStatus.OK).body(null);
@@ -116,11 +288,12 @@ public class ContainerController {
 	public ResponseEntity<?> stopContainer(@PathVariable String name) {
 		
 		try {
-			if (!hasContainer(name)) {
-				logger.warn("No container with name {}", name);
-				service.getController().sendRemoteCommand(name, "STOP");;
-			} else {
+			if (hasContainer(name)) {
 				service.getController().stopContainer(name);
+			} else if (isRemote(name)) {
+				service.getController().sendRemoteCommand(name, "STOP");
+			} else {
+				return notFound(name);
 			}
 			return ResponseEntity.status(HttpStatus.OK).body(null);
 		} catch (PicoException e) {
@@ -133,11 +306,12 @@ public class ContainerController {
 	public ResponseEntity<?> restartContainer(@PathVariable String name) {
 		try {
 		
-		if (!hasContainer(name)) {
-			logger.warn("No container with name {}", name);
+		if (hasContainer(name)) {
+			service.getController().restartContainer(name);
+		} else if (isRemote(name)) {
 			service.getController().sendRemoteCommand(name, "RESTART");
 		} else {
-			service.getController().restartContainer(name);
+			return notFound(name);
 		}
 			return ResponseEntity.status(HttpStatus.OK).body(null);
 		} catch (PicoException e) {
@@ -149,4 +323,17 @@ public class ContainerController {
 	private boolean hasContainer(String name) {
 		return service.getController().hasContainer(name);
 	}
+
+	/**
+	 * Checks if another node of the cluster hosts the container, in the
+	 * container index of the cluster
+	 */
+	private boolean isRemote(String name) {
+		return service.getController().getContainerHost(name) != null;
+	}
+
+	private ResponseEntity<?> notFound(String name) {
+		logger.warn("No container with name {}", name);
+		return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No container with name " + name);
+	}
 }
@@ -0,0 +1,75 @@
+package se.umu.cs.ads.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.grpc.Context;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import se.umu.cs.ads.arguments.CommandLineArguments;
+
+/**
+ * Runs every REST request within a deadline, which is propagated to the
+ * gRPC calls made on its behalf. The deadline can be lowered by the client
+ * with the X-Request-Timeout header, in milliseconds.
+ *
+ * Endpoints that stream their response are exempt. Their body is written
+ * on another thread after the handler has returned, outside the context of
+ * the filter, and lasts as long as the client reads it: a followed log has
+ * no end. They are bounded by the client instead, whose disconnect cancels
+ * the gRPC calls of the stream. A bounded read of a remote log still gets
+ * the deadline budget of the call.
+ */
+@Component
+public class DeadlineFilter extends OncePerRequestFilter {
+	private final static Logger logger = LogManager.getLogger(DeadlineFilter.class);
+	public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+	public static final List<String> STREAMING = List.of(
+		"/api/containers/*/logs/stream",
+		"/api/containers/logs/search"
+	);
+	private final AntPathMatcher matcher = new AntPathMatcher();
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		for (String pattern : STREAMING) {
+			if (matcher.match(pattern, path))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		long timeout = CommandLineArguments.restDeadline;
+		String header = request.getHeader(TIMEOUT_HEADER);
+		if (header != null) {
+			try {
+				timeout = Math.min(timeout, Long.parseLong(header));
+			} catch (NumberFormatException e) {
+				logger.warn("Ignoring invalid {} header: {}", TIMEOUT_HEADER, header);
+			}
+		}
+
+		Context.CancellableContext ctx = Context.current()
+			.withDeadlineAfter(timeout, TimeUnit.MILLISECONDS, CommandLineArguments.scheduledPool);
+		Context previous = ctx.attach();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			ctx.detach(previous);
+			ctx.cancel(null);
+		}
+	}
+}
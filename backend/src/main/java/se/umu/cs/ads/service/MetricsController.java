@@ -0,0 +1,47 @@
+package se.umu.cs.ads.service;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import se.umu.cs.ads.metrics.RpcMetrics;
+import se.umu.cs.ads.metrics.RpcStats;
+
+@CrossOrigin(maxAge = 3600)
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+	@Autowired
+	RESTService service;
+
+    public MetricsController() {
+    }
+
+    /**
+     * Statistics of the gRPC calls of this node, latencies in milliseconds.
+     * Side is "client" or "server", the peer of a client call is "ip:port",
+     * of a served call only the IP.
+     */
+    @GetMapping("rpc")
+    public ResponseEntity<List<RpcStats>> getRpcMetrics(
+            @RequestParam(required = false) String side,
+            @RequestParam(required = false) String method,
+            @RequestParam(required = false) String peer) {
+        if (side != null && !side.equals(RpcMetrics.CLIENT) && !side.equals(RpcMetrics.SERVER))
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+
+        try {
+            List<RpcStats> stats = service.getController().getRpcMetrics(side, method, peer);
+            return ResponseEntity.status(HttpStatus.OK).body(stats);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+}
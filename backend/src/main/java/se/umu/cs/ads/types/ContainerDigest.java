@@ -0,0 +1,157 @@
+package se.umu.cs.ads.types;
+
+import java.util.*;
+
+/**
+ * Class for computing compact digests of a set of containers. Containers are
+ * bucketed by name and every bucket is summarized by a 64 bit hash, the root
+ * hash summarizes all buckets. Two nodes can compare their views by comparing
+ * the root and only exchange the buckets whose hashes differ.
+ */
+public final class ContainerDigest {
+	public static final int BUCKETS = 32;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private ContainerDigest() {}
+
+	/**
+	 * Gets the bucket of a container
+	 * @param name Name of the container
+	 * @return Index of the bucket
+	 */
+	public static int bucketOf(String name) {
+		return Math.floorMod(name.hashCode(), BUCKETS);
+	}
+
+	/**
+	 * Computes the bucket hashes of a collection of containers. The hash of a
+	 * bucket is independent of the order of its containers.
+	 * @param containers Collection of containers
+	 * @return Array of bucket hashes
+	 */
+	public static long[] buckets(Collection<PicoContainer> containers) {
+		long[] buckets = new long[BUCKETS];
+		for (PicoContainer container : containers) 
+			buckets[bucketOf(container.getName())] ^= hash(container);
+		return buckets;
+	}
+
+	/**
+	 * Computes the bucket hashes of a snapshot from the fields of its
+	 * registry, without creating views of the containers
+	 * @param snapshot ContainerSnapshot object
+	 * @return Array of bucket hashes, equal to those of its containers
+	 */
+	public static long[] buckets(ContainerSnapshot snapshot) {
+		long[] buckets = new long[BUCKETS];
+		for (int i = 0; i < snapshot.size(); i++)
+			buckets[bucketOf(snapshot.nameAt(i))] ^= hash(snapshot, i);
+		return buckets;
+	}
+
+	/**
+	 * Computes the root hash of the bucket hashes
+	 * @param buckets Array of bucket hashes
+	 * @return Root hash
+	 */
+	public static long root(long[] buckets) {
+		long h = FNV_OFFSET;
+		for (long bucket : buckets) 
+			h = mix(h, bucket);
+		return h;
+	}
+
+	/**
+	 * Gets the buckets that differ between two digests
+	 * @param a Array of bucket hashes
+	 * @param b Array of bucket hashes
+	 * @return Set of bucket indexes
+	 */
+	public static Set<Integer> diff(long[] a, long[] b) {
+		Set<Integer> res = new HashSet<>();
+		for (int i = 0; i < BUCKETS; i++) {
+			long x = i < a.length ? a[i] : 0;
+			long y = i < b.length ? b[i] : 0;
+			if (x != y)
+				res.add(i);
+		}
+		return res;
+	}
+
+	/**
+	 * Computes the hash of a container, covering everything that is 
+	 * exchanged between nodes
+	 * @param container PicoContainer object
+	 * @return 64 bit hash
+	 */
+	public static long hash(PicoContainer container) {
+		long h = FNV_OFFSET;
+		h = hash(h, container.getName());
+		h = hash(h, container.getImage());
+		h = mix(h, container.getState() == null ? -1 : container.getState().ordinal());
+
+		// Order independent hash of the port bindings
+		long ports = 0;
+		for (Map.Entry<Integer, Integer> port : container.getPortsMap().entrySet()) 
+			ports ^= mix(mix(FNV_OFFSET, port.getKey()), port.getValue());
+		h = mix(h, ports);
+
+		for (String env : container.getEnv()) 
+			h = hash(h, env);
+		return h;
+	}
+
+	/**
+	 * Computes the hash of a container of a snapshot, the same as the hash
+	 * of its view
+	 * @param snapshot ContainerSnapshot object
+	 * @param index Index of the container
+	 * @return 64 bit hash
+	 */
+	private static long hash(ContainerSnapshot snapshot, int index) {
+		long h = FNV_OFFSET;
+		h = hash(h, snapshot.nameAt(index));
+		h = hash(h, snapshot.imageAt(index));
+		PicoContainerState state = snapshot.stateAt(index);
+		h = mix(h, state == null ? -1 : state.ordinal());
+
+		long ports = 0;
+		for (int i = 0; i < snapshot.portCountAt(index); i++)
+			ports ^= mix(mix(FNV_OFFSET, snapshot.hostPortAt(index, i)), snapshot.containerPortAt(index, i));
+		h = mix(h, ports);
+
+		for (int i = 0; i < snapshot.envCountAt(index); i++)
+			h = hash(h, snapshot.envAt(index, i));
+		return h;
+	}
+
+	/**
+	 * Folds a string into a hash
+	 * @param h Current hash
+	 * @param s String to fold, may be null
+	 * @return New hash
+	 */
+	private static long hash(long h, String s) {
+		if (s == null)
+			return mix(h, -1);
+
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return mix(h, s.length());
+	}
+
+	/**
+	 * Folds a value into a hash
+	 * @param h Current hash
+	 * @param v Value to fold
+	 * @return New hash
+	 */
+	private static long mix(long h, long v) {
+		h ^= v;
+		h *= FNV_PRIME;
+		return h ^ (h >>> 29);
+	}
+}
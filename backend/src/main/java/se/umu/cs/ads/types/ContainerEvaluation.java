@@ -0,0 +1,86 @@
+package se.umu.cs.ads.types;
+
+import java.util.Arrays;
+
+/**
+ * Class for the evaluation of a container on a node. An evaluation either
+ * carries the score of the node, where a lower score is better, or the
+ * conflicts that prevent the container from running on the node.
+ */
+public class ContainerEvaluation {
+	private final String name;
+	private final double score;
+	private final boolean nameConflict;
+	private final int[] conflictingPorts;
+
+	/**
+	 * Constructor for the ContainerEvaluation object
+	 * @param name Name of the container
+	 * @param score Score of the node
+	 * @param nameConflict True if the node already has a container with the name
+	 * @param conflictingPorts Ports of the container already used on the node
+	 */
+	public ContainerEvaluation(String name, double score, boolean nameConflict, int[] conflictingPorts) {
+		this.name = name;
+		this.score = score;
+		this.nameConflict = nameConflict;
+		this.conflictingPorts = conflictingPorts;
+	}
+
+	/**
+	 * Gets the name of the container
+	 * @return String
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the score of the node
+	 * @return double
+	 */
+	public double getScore() {
+		return this.score;
+	}
+
+	/**
+	 * Checks if the node already has a container with the name
+	 * @return boolean
+	 */
+	public boolean hasNameConflict() {
+		return this.nameConflict;
+	}
+
+	/**
+	 * Checks if any of the ports of the container are used on the node
+	 * @return boolean
+	 */
+	public boolean hasPortConflict() {
+		return this.conflictingPorts.length > 0;
+	}
+
+	/**
+	 * Gets the ports of the container already used on the node
+	 * @return int[]
+	 */
+	public int[] getConflictingPorts() {
+		return this.conflictingPorts;
+	}
+
+	/**
+	 * Checks if the container can run on the node
+	 * @return boolean
+	 */
+	public boolean isFeasible() {
+		return !nameConflict && !hasPortConflict();
+	}
+
+	@Override
+	public String toString() {
+		if (nameConflict)
+			return name + " NAME_CONFLICT";
+		if (hasPortConflict())
+			return name + " PORT_CONFLICT " + Arrays.toString(conflictingPorts);
+		return name + " " + score;
+	}
+}
@@ -0,0 +1,69 @@
+package se.umu.cs.ads.types;
+
+import java.io.Serializable;
+
+/**
+ * Class for a change to the containers of a node. Events are numbered with
+ * the version of the node they produced.
+ */
+public class ContainerEvent implements Serializable {
+	private static final long serialVersionUID = 42424242L;
+
+	/**
+	 * Enum for the type of a container event
+	 */
+	public enum Type {
+		ADDED,
+		REMOVED,
+		UPDATED
+	}
+
+	private final Type type;
+	private final long version;
+	private final PicoContainer container;
+
+	/**
+	 * Constructor for the ContainerEvent object
+	 * @param type Type of the event
+	 * @param version Version of the node after the event
+	 * @param container PicoContainer object
+	 */
+	public ContainerEvent(Type type, long version, PicoContainer container) {
+		this.type = type;
+		this.version = version;
+		this.container = container;
+	}
+
+	/**
+	 * Gets the type of the event
+	 * @return Type object
+	 */
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * Gets the version of the node after the event
+	 * @return long
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Gets the container of the event
+	 * @return PicoContainer object
+	 */
+	public PicoContainer getContainer() {
+		return this.container;
+	}
+
+	/**
+	 * Get a string representation of the event
+	 * @return String object
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s %s (%d)", this.type, this.container.getName(), this.version);
+	}
+}
@@ -0,0 +1,619 @@
+package se.umu.cs.ads.types;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Compact, immutable table of containers, stored as one array per field
+ * instead of one PicoContainer per container:
+ * - images and environment variables are interned in a dictionary of
+ *   strings, so a container holds an int for its image and an array of
+ *   ints for its environment. Most containers of a cluster share a handful
+ *   of images and many of their variables.
+ * - ports are stored as a primitive array of (host port, container port)
+ *   pairs. Containers without ports or environment share one empty array.
+ * - the state is stored as a byte.
+ * Containers are found by name through an open addressing hash table of
+ * ints. PicoContainer objects are only created as views when a container
+ * is read, see get and getContainers. Serializing, hashing and indexing
+ * read the fields by index instead, so they create no views.
+ *
+ * A registry is changed by copying it into a Builder, which is cheap as
+ * only primitive arrays and the name references are copied. The registries
+ * built from one another share their dictionary, and only the newest of
+ * them adds to it. A dictionary holding mostly strings no container uses
+ * anymore is compacted when the next registry is built, so the strings of
+ * removed containers do not pile up.
+ */
+public final class ContainerRegistry {
+	private static final int[] NONE = new int[0];
+	private static final PicoContainerState[] STATES = PicoContainerState.values();
+	private static final ContainerRegistry EMPTY = new Builder(0).build();
+
+	private final String[] names;
+	private final int[] images;
+	private final int[][] envs;
+	private final int[][] ports;
+	private final byte[] states;
+	private final int size;
+	// Slot + 1 of the container hashed to each index, 0 if empty
+	private final int[] table;
+	private final Dictionary dictionary;
+	// Strings of the dictionary when the registry was built, later strings
+	// are added after them
+	private final String[] strings;
+	private final int generation;
+	private final List<PicoContainer> views;
+
+	private ContainerRegistry(Builder builder) {
+		this.names = builder.names;
+		this.images = builder.images;
+		this.envs = builder.envs;
+		this.ports = builder.ports;
+		this.states = builder.states;
+		this.size = builder.size;
+		this.table = builder.table;
+		this.dictionary = builder.dictionary;
+		this.strings = builder.dictionary.values;
+		this.generation = builder.generation;
+		this.views = new Views();
+	}
+
+	/**
+	 * Gets the empty registry
+	 * @return ContainerRegistry object
+	 */
+	public static ContainerRegistry empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Creates a registry of a collection of containers. Of several
+	 * containers with the same name the last is kept.
+	 * @param containers Collection of PicoContainer objects
+	 * @return ContainerRegistry object
+	 */
+	public static ContainerRegistry of(Collection<PicoContainer> containers) {
+		Builder builder = new Builder(containers.size());
+		for (PicoContainer cont : containers)
+			builder.put(cont);
+		return builder.build();
+	}
+
+	/**
+	 * Gets the number of containers
+	 * @return int
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if there is a container with the given name
+	 * @param name Name of the container
+	 * @return boolean
+	 */
+	public boolean contains(String name) {
+		return slotOf(table, names, name) >= 0;
+	}
+
+	/**
+	 * Gets a view of a container by name
+	 * @param name Name of the container
+	 * @return New PicoContainer object, null if there is no such container
+	 */
+	public PicoContainer get(String name) {
+		int slot = slotOf(table, names, name);
+		return slot < 0 ? null : view(slot);
+	}
+
+	/**
+	 * Gets the name of a container without creating a view of it
+	 * @param index Index of the container in getContainers
+	 * @return String object
+	 */
+	public String nameAt(int index) {
+		Objects.checkIndex(index, size);
+		return names[index];
+	}
+
+	/**
+	 * Gets the index of a container, to read its fields without creating
+	 * a view of it
+	 * @param name Name of the container
+	 * @return Index in getContainers, -1 if there is no such container
+	 */
+	public int indexOf(String name) {
+		return slotOf(table, names, name);
+	}
+
+	/**
+	 * Gets the image of a container without creating a view of it
+	 * @param index Index of the container in getContainers
+	 * @return String object, may be null
+	 */
+	public String imageAt(int index) {
+		Objects.checkIndex(index, size);
+		int image = images[index];
+		return image < 0 ? null : strings[image];
+	}
+
+	/**
+	 * Gets the state of a container without creating a view of it
+	 * @param index Index of the container in getContainers
+	 * @return PicoContainerState, may be null
+	 */
+	public PicoContainerState stateAt(int index) {
+		Objects.checkIndex(index, size);
+		byte state = states[index];
+		return state < 0 ? null : STATES[state];
+	}
+
+	/**
+	 * Gets the number of environment variables of a container
+	 * @param index Index of the container in getContainers
+	 * @return int
+	 */
+	public int envCountAt(int index) {
+		Objects.checkIndex(index, size);
+		return envs[index].length;
+	}
+
+	/**
+	 * Gets an environment variable of a container
+	 * @param index Index of the container in getContainers
+	 * @param i Index of the variable
+	 * @return String object
+	 */
+	public String envAt(int index, int i) {
+		Objects.checkIndex(index, size);
+		return strings[envs[index][i]];
+	}
+
+	/**
+	 * Gets the number of port bindings of a container
+	 * @param index Index of the container in getContainers
+	 * @return int
+	 */
+	public int portCountAt(int index) {
+		Objects.checkIndex(index, size);
+		return ports[index].length / 2;
+	}
+
+	/**
+	 * Gets the host port of a port binding of a container
+	 * @param index Index of the container in getContainers
+	 * @param i Index of the binding
+	 * @return int
+	 */
+	public int hostPortAt(int index, int i) {
+		Objects.checkIndex(index, size);
+		return ports[index][2 * i];
+	}
+
+	/**
+	 * Gets the container port of a port binding of a container
+	 * @param index Index of the container in getContainers
+	 * @param i Index of the binding
+	 * @return int
+	 */
+	public int containerPortAt(int index, int i) {
+		Objects.checkIndex(index, size);
+		return ports[index][2 * i + 1];
+	}
+
+	/**
+	 * Gets the containers. The list is not copied, its elements are views
+	 * created when they are read. Code reading many containers uses the
+	 * fields by index instead, see nameAt.
+	 * @return Unmodifiable list of PicoContainer objects
+	 */
+	public List<PicoContainer> getContainers() {
+		return views;
+	}
+
+	/**
+	 * Copies the registry into a builder for the next registry
+	 * @return Builder object
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Gets the number of strings in the dictionary, including strings no
+	 * container uses anymore that are not compacted yet
+	 * @return int
+	 */
+	int dictionarySize() {
+		return dictionary.size;
+	}
+
+	/**
+	 * Creates a view of a container
+	 */
+	private PicoContainer view(int slot) {
+		return view(names, images, envs, ports, states, strings, slot);
+	}
+
+	private static PicoContainer view(String[] names, int[] images, int[][] envs, int[][] ports,
+			byte[] states, String[] strings, int slot) {
+		int[] pairs = ports[slot];
+		Map<Integer, Integer> portsMap = new HashMap<>(Math.max(2, pairs.length));
+		for (int i = 0; i < pairs.length; i += 2)
+			portsMap.put(pairs[i], pairs[i + 1]);
+
+		int[] ids = envs[slot];
+		List<String> env = new ArrayList<>(ids.length);
+		for (int id : ids)
+			env.add(strings[id]);
+
+		int image = images[slot];
+		byte state = states[slot];
+		return new PicoContainer(names[slot])
+			.setImage(image < 0 ? null : strings[image])
+			.setPorts(portsMap)
+			.setEnv(env)
+			.setState(state < 0 ? null : STATES[state]);
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Finds the slot of a container in the hash table
+	 * @return Slot, -1 if there is no container with the name
+	 */
+	private static int slotOf(int[] table, String[] names, String name) {
+		int mask = table.length - 1;
+		for (int i = hash(name) & mask; ; i = (i + 1) & mask) {
+			int entry = table[i];
+			if (entry == 0)
+				return -1;
+			if (entry > 0 && names[entry - 1].equals(name))
+				return entry - 1;
+		}
+	}
+
+	/**
+	 * List of views of the containers
+	 */
+	private final class Views extends AbstractList<PicoContainer> implements RandomAccess {
+		@Override
+		public PicoContainer get(int index) {
+			Objects.checkIndex(index, size);
+			return view(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Builds a registry. The slots are kept dense, a removed container is
+	 * replaced by the last one. Not thread safe, and not to be used after
+	 * build.
+	 */
+	public static final class Builder {
+		private static final int TOMBSTONE = -1;
+		// A dictionary is not compacted below this size
+		private static final int COMPACT_MIN = 64;
+
+		private String[] names;
+		private int[] images;
+		private int[][] envs;
+		private int[][] ports;
+		private byte[] states;
+		private int size;
+		private int[] table;
+		private int tombstones;
+		private Dictionary dictionary;
+		private int generation;
+
+		/**
+		 * Constructor for an empty Builder
+		 * @param capacity Expected number of containers
+		 */
+		public Builder(int capacity) {
+			capacity = Math.max(capacity, 4);
+			this.names = new String[capacity];
+			this.images = new int[capacity];
+			this.envs = new int[capacity][];
+			this.ports = new int[capacity][];
+			this.states = new byte[capacity];
+			this.table = new int[tableSize(capacity)];
+			this.dictionary = new Dictionary(16);
+			this.generation = dictionary.claim(0);
+		}
+
+		private Builder(ContainerRegistry base) {
+			int capacity = Math.max(base.size + 4, base.size + (base.size >>> 4));
+			this.names = Arrays.copyOf(base.names, capacity);
+			this.images = Arrays.copyOf(base.images, capacity);
+			this.envs = Arrays.copyOf(base.envs, capacity);
+			this.ports = Arrays.copyOf(base.ports, capacity);
+			this.states = Arrays.copyOf(base.states, capacity);
+			this.size = base.size;
+			this.table = base.table.clone();
+
+			// Only one builder may add to a dictionary, the others move the
+			// strings they use to a dictionary of their own. The dictionary
+			// of the shared empty registry is never added to.
+			this.dictionary = base.dictionary;
+			this.generation = base.size == 0 ? -1 : base.dictionary.claim(base.generation);
+			if (this.generation < 0)
+				compact(base.strings);
+		}
+
+		/**
+		 * Adds or replaces a container
+		 * @param container PicoContainer object
+		 * @return View of the replaced container, null if it was added
+		 */
+		public PicoContainer put(PicoContainer container) {
+			String name = container.getName();
+			int slot = slotOf(table, names, name);
+			PicoContainer previous = null;
+			if (slot >= 0) {
+				previous = view(slot);
+			} else {
+				if (size == names.length)
+					grow();
+				if ((size + tombstones + 1) * 2 > table.length)
+					rehash(tableSize(size + 1));
+				slot = size++;
+				names[slot] = name;
+				insert(name, slot);
+			}
+
+			images[slot] = dictionary.idOf(container.getImage());
+			envs[slot] = envOf(container.getEnv());
+			ports[slot] = pairsOf(container.getPortsMap());
+			states[slot] = container.getState() == null ? -1 : (byte) container.getState().ordinal();
+			return previous;
+		}
+
+		/**
+		 * Removes a container
+		 * @param name Name of the container
+		 * @return View of the removed container, null if there was none
+		 */
+		public PicoContainer remove(String name) {
+			int index = indexOf(name);
+			if (index < 0)
+				return null;
+
+			int slot = table[index] - 1;
+			PicoContainer previous = view(slot);
+			table[index] = TOMBSTONE;
+			tombstones++;
+
+			int last = --size;
+			if (slot != last) {
+				names[slot] = names[last];
+				images[slot] = images[last];
+				envs[slot] = envs[last];
+				ports[slot] = ports[last];
+				states[slot] = states[last];
+				table[indexOf(names[slot])] = slot + 1;
+			}
+			names[last] = null;
+			envs[last] = null;
+			ports[last] = null;
+			return previous;
+		}
+
+		/**
+		 * Removes the containers whose names match
+		 * @param filter Predicate on the name
+		 */
+		public void removeIf(Predicate<String> filter) {
+			for (int slot = size - 1; slot >= 0; slot--) {
+				if (filter.test(names[slot]))
+					remove(names[slot]);
+			}
+		}
+
+		/**
+		 * Checks if there is a container with the given name
+		 * @param name Name of the container
+		 * @return boolean
+		 */
+		public boolean contains(String name) {
+			return slotOf(table, names, name) >= 0;
+		}
+
+		/**
+		 * Builds the registry
+		 * @return ContainerRegistry object
+		 */
+		public ContainerRegistry build() {
+			if (tombstones > 0)
+				rehash(tableSize(size));
+			if (dictionary.size >= Math.max(COMPACT_MIN, 2 * dictionary.live))
+				compactIfSparse();
+			return new ContainerRegistry(this);
+		}
+
+		private PicoContainer view(int slot) {
+			return ContainerRegistry.view(names, images, envs, ports, states, dictionary.values, slot);
+		}
+
+		/**
+		 * Counts the strings still in use, and compacts the dictionary if
+		 * less than half of it is
+		 */
+		private void compactIfSparse() {
+			boolean[] used = new boolean[dictionary.size];
+			int live = 0;
+			for (int slot = 0; slot < size; slot++) {
+				if (images[slot] >= 0 && !used[images[slot]]) {
+					used[images[slot]] = true;
+					live++;
+				}
+				for (int id : envs[slot]) {
+					if (!used[id]) {
+						used[id] = true;
+						live++;
+					}
+				}
+			}
+
+			dictionary.live = live;
+			if (live * 2 <= dictionary.size)
+				compact(dictionary.values);
+		}
+
+		/**
+		 * Moves the strings in use to a new dictionary owned by this builder.
+		 * The id arrays are shared with earlier registries, so they are
+		 * replaced and not changed.
+		 * @param strings Strings of the current ids
+		 */
+		private void compact(String[] strings) {
+			Dictionary next = new Dictionary(16);
+			for (int slot = 0; slot < size; slot++) {
+				if (images[slot] >= 0)
+					images[slot] = next.idOf(strings[images[slot]]);
+
+				int[] ids = envs[slot];
+				if (ids.length == 0)
+					continue;
+				int[] moved = new int[ids.length];
+				for (int i = 0; i < ids.length; i++)
+					moved[i] = next.idOf(strings[ids[i]]);
+				envs[slot] = moved;
+			}
+			next.live = next.size;
+			this.dictionary = next;
+			this.generation = next.claim(0);
+		}
+
+		/**
+		 * Finds the index of a container in the hash table
+		 * @return Index, -1 if there is no container with the name
+		 */
+		private int indexOf(String name) {
+			int mask = table.length - 1;
+			for (int i = hash(name) & mask; ; i = (i + 1) & mask) {
+				int entry = table[i];
+				if (entry == 0)
+					return -1;
+				if (entry > 0 && names[entry - 1].equals(name))
+					return i;
+			}
+		}
+
+		private void insert(String name, int slot) {
+			int mask = table.length - 1;
+			int i = hash(name) & mask;
+			while (table[i] > 0)
+				i = (i + 1) & mask;
+			if (table[i] == TOMBSTONE)
+				tombstones--;
+			table[i] = slot + 1;
+		}
+
+		private void rehash(int length) {
+			table = new int[length];
+			tombstones = 0;
+			for (int slot = 0; slot < size; slot++)
+				insert(names[slot], slot);
+		}
+
+		private void grow() {
+			int capacity = names.length + (names.length >>> 1) + 1;
+			names = Arrays.copyOf(names, capacity);
+			images = Arrays.copyOf(images, capacity);
+			envs = Arrays.copyOf(envs, capacity);
+			ports = Arrays.copyOf(ports, capacity);
+			states = Arrays.copyOf(states, capacity);
+		}
+
+		private static int tableSize(int capacity) {
+			int length = 16;
+			while (length < capacity * 2)
+				length <<= 1;
+			return length;
+		}
+
+		private int[] envOf(List<String> env) {
+			if (env == null || env.isEmpty())
+				return NONE;
+			int[] ids = new int[env.size()];
+			int i = 0;
+			for (String var : env)
+				ids[i++] = dictionary.idOf(var);
+			return ids;
+		}
+
+		private static int[] pairsOf(Map<Integer, Integer> map) {
+			if (map == null || map.isEmpty())
+				return NONE;
+			int[] pairs = new int[map.size() * 2];
+			int i = 0;
+			for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+				pairs[i++] = entry.getKey();
+				pairs[i++] = entry.getValue();
+			}
+			return pairs;
+		}
+	}
+
+	/**
+	 * Append-only dictionary of interned strings, shared by the registries
+	 * built from one another. Strings are only added by the builder that
+	 * claimed the dictionary last, so a registry never sees the ids it uses
+	 * change.
+	 */
+	private static final class Dictionary {
+		private final HashMap<String, Integer> ids;
+		private String[] values;
+		private int size = 0;
+		// Strings in use when last counted, see Builder.compactIfSparse
+		private int live = 0;
+		private int generation = 0;
+
+		Dictionary(int capacity) {
+			this.ids = new HashMap<>(capacity * 4 / 3 + 1);
+			this.values = new String[capacity];
+		}
+
+		/**
+		 * Claims the dictionary for a builder of the registry built at the
+		 * given generation. The claim fails if another builder claimed it
+		 * since.
+		 * @param generation Generation of the registry
+		 * @return Generation of the next registry, -1 if the claim failed
+		 */
+		synchronized int claim(int generation) {
+			if (generation != this.generation)
+				return -1;
+			return ++this.generation;
+		}
+
+		/**
+		 * Gets the id of a string, interning it on first use. Only called
+		 * by the builder holding the claim.
+		 * @param value String, may be null
+		 * @return Id, -1 for null
+		 */
+		int idOf(String value) {
+			if (value == null)
+				return -1;
+			Integer id = ids.get(value);
+			if (id != null)
+				return id;
+
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size] = value;
+			ids.put(value, size);
+			return size++;
+		}
+	}
+}
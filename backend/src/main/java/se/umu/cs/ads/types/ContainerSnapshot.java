@@ -0,0 +1,202 @@
+package se.umu.cs.ads.types;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable snapshot of the containers of a node at one version. A node
+ * publishes a new snapshot for every change, so readers share the
+ * snapshot without locking or copying it, and always see containers and
+ * version that belong together.
+ *
+ * The containers are held in a compact ContainerRegistry, the
+ * PicoContainer objects handed out are views created when they are read.
+ */
+public final class ContainerSnapshot implements Serializable {
+	private static final long serialVersionUID = 4242133769L;
+
+	private final transient ContainerRegistry registry;
+	private final long version;
+
+	/**
+	 * Constructor for the ContainerSnapshot
+	 * @param registry Containers of the snapshot
+	 * @param version Version of the containers
+	 */
+	ContainerSnapshot(ContainerRegistry registry, long version) {
+		this.registry = registry;
+		this.version = version;
+	}
+
+	/**
+	 * Creates a snapshot of a collection of containers. Of several
+	 * containers with the same name the last is kept.
+	 * @param containers Collection of PicoContainer objects
+	 * @param version Version of the containers
+	 * @return ContainerSnapshot object
+	 */
+	public static ContainerSnapshot of(Collection<PicoContainer> containers, long version) {
+		return new ContainerSnapshot(ContainerRegistry.of(containers), version);
+	}
+
+	/**
+	 * Gets the containers. The list is not copied, its elements are views
+	 * created when they are read.
+	 * @return Unmodifiable list of PicoContainer objects
+	 */
+	public List<PicoContainer> getContainers() {
+		return registry.getContainers();
+	}
+
+	/**
+	 * Gets the name of a container without creating a view of it
+	 * @param index Index of the container in getContainers
+	 * @return String object
+	 */
+	public String nameAt(int index) {
+		return registry.nameAt(index);
+	}
+
+	/**
+	 * Gets the index of a container, to read its fields without creating
+	 * a view of it
+	 * @param name Name of the container
+	 * @return Index in getContainers, -1 if there is no such container
+	 */
+	public int indexOf(String name) {
+		return registry.indexOf(name);
+	}
+
+	/**
+	 * Gets the image of a container without creating a view of it
+	 * @param index Index of the container in getContainers
+	 * @return String object, may be null
+	 */
+	public String imageAt(int index) {
+		return registry.imageAt(index);
+	}
+
+	/**
+	 * Gets the state of a container without creating a view of it
+	 * @param index Index of the container in getContainers
+	 * @return PicoContainerState, may be null
+	 */
+	public PicoContainerState stateAt(int index) {
+		return registry.stateAt(index);
+	}
+
+	/**
+	 * Gets the number of environment variables of a container
+	 * @param index Index of the container in getContainers
+	 * @return int
+	 */
+	public int envCountAt(int index) {
+		return registry.envCountAt(index);
+	}
+
+	/**
+	 * Gets an environment variable of a container
+	 * @param index Index of the container in getContainers
+	 * @param i Index of the variable
+	 * @return String object
+	 */
+	public String envAt(int index, int i) {
+		return registry.envAt(index, i);
+	}
+
+	/**
+	 * Gets the number of port bindings of a container
+	 * @param index Index of the container in getContainers
+	 * @return int
+	 */
+	public int portCountAt(int index) {
+		return registry.portCountAt(index);
+	}
+
+	/**
+	 * Gets the host port of a port binding of a container
+	 * @param index Index of the container in getContainers
+	 * @param i Index of the binding
+	 * @return int
+	 */
+	public int hostPortAt(int index, int i) {
+		return registry.hostPortAt(index, i);
+	}
+
+	/**
+	 * Gets the container port of a port binding of a container
+	 * @param index Index of the container in getContainers
+	 * @param i Index of the binding
+	 * @return int
+	 */
+	public int containerPortAt(int index, int i) {
+		return registry.containerPortAt(index, i);
+	}
+
+	/**
+	 * Gets a container by name
+	 * @param name Name of the container
+	 * @return New PicoContainer object or null
+	 */
+	public PicoContainer get(String name) {
+		return registry.get(name);
+	}
+
+	/**
+	 * Checks if there is a container with the given name
+	 * @param name Name of the container
+	 * @return boolean
+	 */
+	public boolean contains(String name) {
+		return registry.contains(name);
+	}
+
+	/**
+	 * Gets the version of the containers
+	 * @return long
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the number of containers
+	 * @return int
+	 */
+	public int size() {
+		return registry.size();
+	}
+
+	/**
+	 * Copies the containers into a builder, for a writer building the next
+	 * snapshot
+	 * @return ContainerRegistry.Builder object
+	 */
+	ContainerRegistry.Builder copy() {
+		return registry.toBuilder();
+	}
+
+	/**
+	 * The registry is not serializable, the snapshot is written as a list
+	 * of containers
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new SerialForm(new ArrayList<>(registry.getContainers()), version);
+	}
+
+	private static final class SerialForm implements Serializable {
+		private static final long serialVersionUID = 4242133770L;
+		private final ArrayList<PicoContainer> containers;
+		private final long version;
+
+		SerialForm(ArrayList<PicoContainer> containers, long version) {
+			this.containers = containers;
+			this.version = version;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return ContainerSnapshot.of(containers, version);
+		}
+	}
+}
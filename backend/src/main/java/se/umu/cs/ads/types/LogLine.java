@@ -0,0 +1,64 @@
+package se.umu.cs.ads.types;
+
+import java.time.Instant;
+
+/**
+ * Class for a line of a container log found by a log search
+ */
+public class LogLine {
+	private final String container;
+	private final PicoAddress node;
+	private final long time;
+	private final String line;
+
+	/**
+	 * Constructor for the LogLine object
+	 * @param container Name of the container
+	 * @param node Node running the container
+	 * @param time Time of the line in nanoseconds since the epoch
+	 * @param line Text of the line, without timestamp
+	 */
+	public LogLine(String container, PicoAddress node, long time, String line) {
+		this.container = container;
+		this.node = node;
+		this.time = time;
+		this.line = line;
+	}
+
+	/**
+	 * Gets the name of the container
+	 * @return String
+	 */
+	public String getContainer() {
+		return this.container;
+	}
+
+	/**
+	 * Gets the node running the container
+	 * @return PicoAddress object
+	 */
+	public PicoAddress getNode() {
+		return this.node;
+	}
+
+	/**
+	 * Gets the time of the line
+	 * @return Nanoseconds since the epoch
+	 */
+	public long getTime() {
+		return this.time;
+	}
+
+	/**
+	 * Gets the text of the line
+	 * @return String
+	 */
+	public String getLine() {
+		return this.line;
+	}
+
+	@Override
+	public String toString() {
+		return Instant.ofEpochSecond(0, time) + " " + container + "@" + node + " " + line;
+	}
+}
@@ -0,0 +1,97 @@
+package se.umu.cs.ads.types;
+
+import java.util.regex.Pattern;
+
+/**
+ * Class for a search in the container logs of the cluster. Selects the
+ * containers by a pattern on their name and by image, and the lines by a
+ * time range and a substring or regular expression.
+ */
+public class LogQuery {
+	private final String namePattern;
+	private final String image;
+	private final long since;
+	private final long until;
+	private final String text;
+	private final boolean regex;
+	private final Pattern name;
+	private final Pattern line;
+
+	/**
+	 * Constructor for the LogQuery object
+	 * @param namePattern Regular expression the container name has to match,
+	 * 		  empty for all containers
+	 * @param image Image of the containers, empty for all images
+	 * @param since Unix time in seconds of the oldest line, 0 for no limit
+	 * @param until Unix time in seconds of the newest line, 0 for no limit
+	 * @param text Text the lines have to contain, empty for all lines
+	 * @param regex True if the text is a regular expression
+	 * @throws IllegalArgumentException if a pattern is invalid
+	 */
+	public LogQuery(String namePattern, String image, long since, long until, String text, boolean regex) {
+		this.namePattern = namePattern;
+		this.image = image;
+		this.since = since;
+		this.until = until;
+		this.text = text;
+		this.regex = regex;
+		this.name = namePattern.isEmpty() ? null : Pattern.compile(namePattern);
+		this.line = regex && !text.isEmpty() ? Pattern.compile(text) : null;
+	}
+
+	/**
+	 * Checks if the logs of a container are searched
+	 * @param container PicoContainer object
+	 * @return boolean
+	 */
+	public boolean matches(PicoContainer container) {
+		if (name != null && !name.matcher(container.getName()).matches())
+			return false;
+		return image.isEmpty() || image.equals(container.getImage());
+	}
+
+	/**
+	 * Checks if a line is found by the search. The time range is checked
+	 * separately.
+	 * @param text Text of the line
+	 * @return boolean
+	 */
+	public boolean matches(String text) {
+		if (line != null)
+			return line.matcher(text).find();
+		return this.text.isEmpty() || text.contains(this.text);
+	}
+
+	/**
+	 * Checks if a line is newer than the time range
+	 * @param time Time of the line in nanoseconds
+	 * @return boolean
+	 */
+	public boolean isAfter(long time) {
+		return until > 0 && time > until * 1_000_000_000L;
+	}
+
+	public String getNamePattern() {
+		return this.namePattern;
+	}
+
+	public String getImage() {
+		return this.image;
+	}
+
+	public long getSince() {
+		return this.since;
+	}
+
+	public long getUntil() {
+		return this.until;
+	}
+
+	public String getText() {
+		return this.text;
+	}
+
+	public boolean isRegex() {
+		return this.regex;
+	}
+}
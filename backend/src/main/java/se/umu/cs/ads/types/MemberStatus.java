@@ -0,0 +1,10 @@
+package se.umu.cs.ads.types;
+
+/**
+ * Enum for the status of a cluster member in the membership protocol
+ */
+public enum MemberStatus {
+    ALIVE,
+    SUSPECT,
+    DEAD
+}
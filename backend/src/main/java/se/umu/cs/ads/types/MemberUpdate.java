@@ -0,0 +1,85 @@
+package se.umu.cs.ads.types;
+
+/**
+ * Class for a membership update disseminated by the membership protocol.
+ * Updates about the same member are ordered by their incarnation number,
+ * which only the member itself may increase.
+ */
+public class MemberUpdate {
+	private final PicoAddress address;
+	private final MemberStatus status;
+	private final long incarnation;
+
+	/**
+	 * Constructor for the MemberUpdate object
+	 * @param address Address of the member
+	 * @param status Status of the member
+	 * @param incarnation Incarnation number of the member
+	 */
+	public MemberUpdate(PicoAddress address, MemberStatus status, long incarnation) {
+		this.address = address;
+		this.status = status;
+		this.incarnation = incarnation;
+	}
+
+	/**
+	 * Gets the address of the member
+	 * @return PicoAddress object
+	 */
+	public PicoAddress getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * Gets the status of the member
+	 * @return MemberStatus object
+	 */
+	public MemberStatus getStatus() {
+		return this.status;
+	}
+
+	/**
+	 * Gets the incarnation number of the member
+	 * @return long
+	 */
+	public long getIncarnation() {
+		return this.incarnation;
+	}
+
+	/**
+	 * Checks if this update overrides the current state of the member. A
+	 * dead member is only brought back by the member itself, refuting with
+	 * a higher incarnation, and a death is only declared at the current
+	 * incarnation or newer, so a stale death does not end a refutation.
+	 * @param current Current state of the member, may be null
+	 * @return boolean
+	 */
+	public boolean overrides(MemberUpdate current) {
+		if (current == null)
+			return true;
+
+		if (current.status == MemberStatus.DEAD)
+			return this.status == MemberStatus.ALIVE && this.incarnation > current.incarnation;
+
+		switch (this.status) {
+			case DEAD:
+				return this.incarnation >= current.incarnation;
+			case SUSPECT:
+				if (current.status == MemberStatus.ALIVE)
+					return this.incarnation >= current.incarnation;
+				return this.incarnation > current.incarnation;
+			case ALIVE:
+			default:
+				return this.incarnation > current.incarnation;
+		}
+	}
+
+	/**
+	 * Get a string representation of the update
+	 * @return String object
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s %s (%d)", this.address, this.status, this.incarnation);
+	}
+}
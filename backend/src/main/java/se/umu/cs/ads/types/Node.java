@@ -5,32 +5,81 @@ import java.util.ArrayList;
 import java.util.*;
 
 /**
- * Class for the Node object
+ * Class for the Node object. The containers are held in an immutable
+ * ContainerSnapshot that is replaced on every change. Writers hold the
+ * lock of the node and publish a new snapshot, readers take the current
+ * snapshot without locking or copying. The snapshot stores the
+ * containers in a compact ContainerRegistry, so the containers read from
+ * a node are views and changing them does not change the node.
  */
 public class Node implements Serializable {
 	private static final long serialVersionUID = 69691337L;
+	public static final int MAX_CHANGES = 256;
     private PicoAddress address;
     private String cluster;
+	// Version of the changes recorded so far, guarded by the lock and
+	// published with the next snapshot
+	private long version;
 
-    private final HashSet<PicoContainer> containers;
+    private volatile ContainerSnapshot containers;
+	private final ArrayDeque<ContainerEvent> changes;
+	private transient ContainerListener listener;
+
+	/**
+	 * Receives every change to the containers of a node, called while
+	 * holding the lock of the node
+	 */
+	public interface ContainerListener {
+		/**
+		 * A container was added to or replaced in the node
+		 * @param host Address of the node
+		 * @param name Name of the container
+		 * @param hostPorts Host ports of the container
+		 */
+		void put(PicoAddress host, String name, int[] hostPorts);
+
+		/**
+		 * A container was removed from the node
+		 * @param host Address of the node
+		 * @param name Name of the container
+		 */
+		void removed(PicoAddress host, String name);
+	}
     
 	/**
-	 * Empty constructor for the Node object
+	 * Empty constructor for the Node object. The version is seeded with the
+	 * current time so that a restarted node never reuses the versions of its
+	 * previous run.
 	 */
     public Node() {
-        this.containers = new HashSet<>();
+		this.changes = new ArrayDeque<>();
+		this.version = System.currentTimeMillis();
+        this.containers = new ContainerSnapshot(ContainerRegistry.empty(), this.version);
     }
 
 	/**
 	 * Constructor for the Node object
 	 * @param address PicoAddress object
 	 * @param cluster String object
-	 * @param containers ArrayList of PicoContainer objects
+	 * @param containers List of PicoContainer objects
 	 */
-    public Node(PicoAddress address, String cluster, ArrayList<PicoContainer> containers) {
+    public Node(PicoAddress address, String cluster, List<PicoContainer> containers) {
+        this(address, cluster, containers, 0);
+    }
+
+	/**
+	 * Constructor for the Node object
+	 * @param address PicoAddress object
+	 * @param cluster String object
+	 * @param containers List of PicoContainer objects
+	 * @param version Version of the containers
+	 */
+    public Node(PicoAddress address, String cluster, List<PicoContainer> containers, long version) {
         this.address = address;
         this.cluster = cluster;
-        this.containers = new HashSet<>(containers);
+		this.changes = new ArrayDeque<>();
+		this.version = version;
+        this.containers = ContainerSnapshot.of(containers, version);
     }
 
 	/**
@@ -67,36 +116,358 @@ public class Node implements Serializable {
 
 	/**
 	 * Gets the containers of the node
-	 * @return ArrayList of PicoContainer objects
+	 * @return Unmodifiable list of PicoContainer objects
 	 */
-    public ArrayList<PicoContainer> getContainers() {
-        synchronized (this) {
-			//create a copy so no one can modify the original list
-			return new ArrayList<>(containers);
-		}
+    public List<PicoContainer> getContainers() {
+		return this.containers.getContainers();
     }
 
+	/**
+	 * Gets the current snapshot of the containers, with the version it
+	 * belongs to
+	 * @return ContainerSnapshot object
+	 */
+	public ContainerSnapshot snapshot() {
+		return this.containers;
+	}
+
+	/**
+	 * Sets the listener for changes to the containers, the current
+	 * containers are reported to it at once
+	 * @param listener ContainerListener object, null to remove it
+	 */
+	public void setListener(ContainerListener listener) {
+		synchronized (this) {
+			this.listener = listener;
+			if (listener != null) {
+				ContainerSnapshot snapshot = this.containers;
+				for (int i = 0; i < snapshot.size(); i++)
+					listener.put(this.address, snapshot.nameAt(i), hostPorts(snapshot, i));
+			}
+		}
+	}
+
+	/**
+	 * Gets the version of the containers of the node. The version is 
+	 * increased for every change to the containers.
+	 * @return long
+	 */
+	public long getVersion() {
+		return this.containers.getVersion();
+	}
+
 	/**
 	 * Adds a container to the node
 	 * @param container PicoContainer object
 	 */
 	public void addContainer(PicoContainer container) {
 		synchronized (this) {
-			this.containers.add(container);
+			ContainerRegistry.Builder next = this.containers.copy();
+			PicoContainer existing = next.put(container);
+			if (existing == null)
+				record(ContainerEvent.Type.ADDED, container);
+			else if (!sameContent(existing, container))
+				record(ContainerEvent.Type.UPDATED, container);
+
+			publish(next);
+			notifyPut(container);
+		}
+	}
+
+	/**
+	 * Adds or replaces a container in this view of a remote node without
+	 * recording a change. Changes are only recorded by the node itself.
+	 * @param container PicoContainer object
+	 */
+	public void putContainer(PicoContainer container) {
+		synchronized (this) {
+			ContainerRegistry.Builder next = this.containers.copy();
+			next.put(container);
+			publish(next);
+			notifyPut(container);
 		}
 	}
 
 	/**
-	 * Overrides the containers list of the node
+	 * Overrides the containers list of the node, every difference to the
+	 * current containers is recorded as a change
 	 * @param containers ArrayList of PicoContainer objects
 	 */
     public void setContainers(List<PicoContainer> containers) {
         synchronized (this) {
-			this.containers.clear();
-			this.containers.addAll(containers);
+			ContainerSnapshot current = this.containers;
+			ContainerRegistry.Builder next = new ContainerRegistry.Builder(containers.size());
+			for (PicoContainer cont : containers) {
+				PicoContainer existing = current.get(cont.getName());
+				if (existing == null)
+					record(ContainerEvent.Type.ADDED, cont);
+				else if (!sameContent(existing, cont))
+					record(ContainerEvent.Type.UPDATED, cont);
+				next.put(cont);
+			}
+
+			List<PicoContainer> removed = new ArrayList<>();
+			for (int i = 0; i < current.size(); i++) {
+				if (!next.contains(current.nameAt(i)))
+					removed.add(current.get(current.nameAt(i)));
+			}
+			for (PicoContainer cont : removed)
+				record(ContainerEvent.Type.REMOVED, cont);
+
+			publish(next);
+
+			for (PicoContainer cont : removed)
+				notifyRemoved(cont);
+			for (PicoContainer cont : containers)
+				notifyPut(cont);
 		}
     }
 
+	/**
+	 * Gets the changes made to the containers after the given version
+	 * @param known Last version known by the caller
+	 * @return List of changes, or null if the changes are no longer 
+	 * 		   available and a full snapshot is required
+	 */
+	public List<ContainerEvent> getChangesSince(long known) {
+		synchronized (this) {
+			if (known == this.version)
+				return new ArrayList<>();
+
+			if (known > this.version || changes.isEmpty() || changes.peekFirst().getVersion() > known + 1)
+				return null;
+
+			List<ContainerEvent> res = new ArrayList<>();
+			for (ContainerEvent event : changes) {
+				if (event.getVersion() > known)
+					res.add(event);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Applies changes received from the node itself to this view of the node.
+	 * The changes are only applied if they start at the version of this view
+	 * and lead to a newer one, so a stale or reordered delta cannot roll the
+	 * view back. A skipped delta is made up for by the next heartbeat, which
+	 * asks for the changes since the version of this view.
+	 * @param events List of changes
+	 * @param fromVersion Version of the node the changes start at
+	 * @param toVersion Version of the node after the changes
+	 * @return True if the changes were applied
+	 */
+	public boolean applyChanges(List<ContainerEvent> events, long fromVersion, long toVersion) {
+		synchronized (this) {
+			if (fromVersion != this.version || toVersion <= this.version)
+				return false;
+
+			ContainerRegistry.Builder next = this.containers.copy();
+			for (ContainerEvent event : events) {
+				PicoContainer container = event.getContainer();
+				if (event.getType() != ContainerEvent.Type.REMOVED) {
+					next.put(container);
+					notifyPut(container);
+				} else {
+					next.remove(container.getName());
+					notifyRemoved(container);
+				}
+			}
+			this.version = toVersion;
+			publish(next);
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces this view of the node with a snapshot received from the 
+	 * node itself
+	 * @param containers List of containers
+	 * @param version Version of the node of the snapshot
+	 */
+	public void applySnapshot(List<PicoContainer> containers, long version) {
+		synchronized (this) {
+			ContainerSnapshot before = this.containers;
+			this.changes.clear();
+			this.version = version;
+			this.containers = ContainerSnapshot.of(containers, version);
+			notifyReplaced(before);
+		}
+	}
+
+	/**
+	 * Replaces this view of the node with the snapshot of another view of
+	 * it. Snapshots are immutable, so it is shared and not copied.
+	 * @param snapshot ContainerSnapshot object
+	 */
+	public void applySnapshot(ContainerSnapshot snapshot) {
+		synchronized (this) {
+			ContainerSnapshot before = this.containers;
+			this.changes.clear();
+			this.version = snapshot.getVersion();
+			this.containers = snapshot;
+			notifyReplaced(before);
+		}
+	}
+
+	/**
+	 * Replaces the containers of the node with a snapshot, unless the node
+	 * is already at the version of the snapshot or newer
+	 * @param containers List of containers
+	 * @param version Version of the snapshot
+	 * @return True if the snapshot was applied
+	 */
+	public boolean applySnapshotIfNewer(List<PicoContainer> containers, long version) {
+		synchronized (this) {
+			if (this.version >= version)
+				return false;
+
+			applySnapshot(containers, version);
+			return true;
+		}
+	}
+
+	/**
+	 * Computes the digest of the containers of the node
+	 * @return Array of bucket hashes, see ContainerDigest
+	 */
+	public long[] computeDigest() {
+		return ContainerDigest.buckets(this.containers);
+	}
+
+	/**
+	 * Replaces the containers of the given digest buckets in this view of a
+	 * remote node with the containers received from the node itself
+	 * @param buckets Set of bucket indexes to replace
+	 * @param containers Containers of the node in the buckets
+	 * @param version Version of the node the containers were read at
+	 */
+	public void repairBuckets(Set<Integer> buckets, List<PicoContainer> containers, long version) {
+		synchronized (this) {
+			ContainerSnapshot before = this.containers;
+			ContainerRegistry.Builder next = before.copy();
+			next.removeIf(name -> buckets.contains(ContainerDigest.bucketOf(name)));
+			for (PicoContainer cont : containers)
+				next.put(cont);
+			this.version = version;
+			publish(next);
+			notifyReplaced(before);
+		}
+	}
+
+	/**
+	 * Records a change to the containers, the oldest change is dropped when
+	 * the log is full. Must be called while holding the lock.
+	 * @param type Type of the change
+	 * @param container PicoContainer object
+	 */
+	private void record(ContainerEvent.Type type, PicoContainer container) {
+		this.version++;
+		this.changes.addLast(new ContainerEvent(type, this.version, container));
+		if (this.changes.size() > MAX_CHANGES)
+			this.changes.removeFirst();
+	}
+
+	/**
+	 * Publishes the containers as the next snapshot, at the current version.
+	 * Must be called while holding the lock.
+	 * @param next Builder of the containers, not to be used afterwards
+	 */
+	private void publish(ContainerRegistry.Builder next) {
+		this.containers = new ContainerSnapshot(next.build(), this.version);
+	}
+
+	/**
+	 * Reports an added or replaced container to the listener. Must be
+	 * called while holding the lock.
+	 * @param container PicoContainer object
+	 */
+	private void notifyPut(PicoContainer container) {
+		if (this.listener == null)
+			return;
+
+		Map<Integer, Integer> ports = container.getPortsMap();
+		int[] hostPorts = new int[ports == null ? 0 : ports.size()];
+		int i = 0;
+		if (ports != null) {
+			for (int port : ports.keySet())
+				hostPorts[i++] = port;
+		}
+		this.listener.put(this.address, container.getName(), hostPorts);
+	}
+
+	/**
+	 * Reports a removed container to the listener. Must be called while
+	 * holding the lock.
+	 * @param container PicoContainer object
+	 */
+	private void notifyRemoved(PicoContainer container) {
+		if (this.listener != null)
+			this.listener.removed(this.address, container.getName());
+	}
+
+	/**
+	 * Reports the difference between the given snapshot and the current
+	 * snapshot to the listener. Must be called while holding the lock.
+	 * @param before Snapshot before the change
+	 */
+	private void notifyReplaced(ContainerSnapshot before) {
+		if (this.listener == null)
+			return;
+
+		ContainerSnapshot after = this.containers;
+		for (int i = 0; i < before.size(); i++) {
+			if (!after.contains(before.nameAt(i)))
+				this.listener.removed(this.address, before.nameAt(i));
+		}
+		for (int i = 0; i < after.size(); i++)
+			this.listener.put(this.address, after.nameAt(i), hostPorts(after, i));
+	}
+
+	/**
+	 * Gets the host ports of a container of a snapshot
+	 * @param snapshot ContainerSnapshot object
+	 * @param index Index of the container
+	 * @return Array of host ports
+	 */
+	private static int[] hostPorts(ContainerSnapshot snapshot, int index) {
+		int[] res = new int[snapshot.portCountAt(index)];
+		for (int i = 0; i < res.length; i++)
+			res[i] = snapshot.hostPortAt(index, i);
+		return res;
+	}
+
+	/**
+	 * Checks if the node has a container with the given name
+	 * @param name Name of the container
+	 * @return boolean
+	 */
+	public boolean hasContainer(String name) {
+		return this.containers.contains(name);
+	}
+
+	/**
+	 * Gets a container of the node by name
+	 * @param name Name of the container
+	 * @return New PicoContainer object or null
+	 */
+	public PicoContainer getContainer(String name) {
+		return this.containers.get(name);
+	}
+
+	/**
+	 * Checks if two containers with the same name have the same content
+	 * @param a PicoContainer object
+	 * @param b PicoContainer object
+	 * @return boolean
+	 */
+	private static boolean sameContent(PicoContainer a, PicoContainer b) {
+		return Objects.equals(a.getImage(), b.getImage())
+			&& a.getState() == b.getState()
+			&& Objects.equals(a.getPortsMap(), b.getPortsMap())
+			&& Objects.equals(a.getEnv(), b.getEnv());
+	}
+
 	/**
 	 * Gets the ip of the node
 	 * @return String object
@@ -123,12 +494,13 @@ public class Node implements Serializable {
 	}
 
 	/**
-	 * Get the hash code of the node
+	 * Get the hash code of the node, which is the cached hash code of its
+	 * address
 	 * @return int
 	 */
 	@Override
 	public int hashCode() {
-		return this.toString().hashCode();
+		return Objects.hashCode(this.address);
 	}
 
 	/**
@@ -6,6 +6,10 @@ package se.umu.cs.ads.types;
 public class PicoAddress implements Comparable<PicoAddress> {
 	private final String ip;
 	private final int port;
+	// Both are used on every lookup in the cluster and channel maps, and
+	// the address is immutable, so they are computed once
+	private final String str;
+	private final int hash;
 	
 	/**
 	 * Constructor for the PicoAddress object
@@ -15,6 +19,8 @@ public class PicoAddress implements Comparable<PicoAddress> {
 	public PicoAddress(String ip, int port) {
 		this.ip = ip;
 		this.port = port;
+		this.str = ip + ":" + port;
+		this.hash = 31 * ip.hashCode() + port;
 	}
 
 	/**
@@ -34,13 +40,14 @@ public class PicoAddress implements Comparable<PicoAddress> {
 	}
 
 	/**
-	 * Method to compare two PicoAddress objects
+	 * Method to compare two PicoAddress objects. Addresses are ordered by
+	 * their string representation, which the leader election depends on.
 	 * @param other PicoAddress object
 	 * @return int object
 	 */
 	@Override 
 	public int compareTo(PicoAddress other) {
-		return this.toString().compareTo(other.toString());
+		return this.str.compareTo(other.str);
 	}
 	
 	/**
@@ -49,7 +56,7 @@ public class PicoAddress implements Comparable<PicoAddress> {
 	 */
 	@Override
 	public String toString() {
-		return this.ip + ":" + this.port;
+		return this.str;
 	}
 
 	/**
@@ -69,7 +76,7 @@ public class PicoAddress implements Comparable<PicoAddress> {
 			return false;
 
 		PicoAddress other = (PicoAddress) o;
-		return this.ip.equals(other.ip) && this.port == other.port;
+		return this.hash == other.hash && this.port == other.port && this.ip.equals(other.ip);
 	}
 
 	/**
@@ -78,6 +85,6 @@ public class PicoAddress implements Comparable<PicoAddress> {
 	 */
 	@Override
 	public int hashCode() {
-		return this.toString().hashCode();
+		return this.hash;
 	}
 }
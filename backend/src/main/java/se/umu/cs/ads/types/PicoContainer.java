@@ -192,6 +192,8 @@ public class PicoContainer implements Serializable {
 	 */
     @Override
     public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
         if (obj instanceof PicoContainer) {
             PicoContainer container = (PicoContainer) obj;
             return container.getName().equals(this.name);
@@ -200,12 +202,14 @@ public class PicoContainer implements Serializable {
     }
 
 	/**
-	 * Method to get the hash code of the PicoContainer object
+	 * Method to get the hash code of the PicoContainer object. Containers
+	 * are equal by name, so only the name is hashed. Strings cache their
+	 * hash, so this does not allocate.
 	 * @return int object
 	 */
 	@Override
 	public int hashCode() {
-		return this.toString().hashCode();
+		return this.name == null ? 0 : this.name.hashCode();
 	}
 
 	/**
@@ -214,6 +218,6 @@ public class PicoContainer implements Serializable {
 	 */
 	@Override
 	public String toString() {
-		return String.format("{} {}", this.name, this.image);
+		return this.name + " " + this.image;
 	}
 }
@@ -0,0 +1,81 @@
+package se.umu.cs.ads.types;
+
+/**
+ * Class for the outcome of placing a container in a container election,
+ * either the node the container was placed on or the reason it could not
+ * be placed.
+ */
+public class Placement {
+	private final String name;
+	private final PicoAddress node;
+	private final String error;
+
+	/**
+	 * Constructor for the Placement object
+	 * @param name Name of the container
+	 * @param node Node the container is placed on, null if it was not placed
+	 * @param error Reason the container was not placed, null if it was placed
+	 */
+	private Placement(String name, PicoAddress node, String error) {
+		this.name = name;
+		this.node = node;
+		this.error = error;
+	}
+
+	/**
+	 * Creates a placement of a container on a node
+	 * @param name Name of the container
+	 * @param node Node the container is placed on
+	 * @return Placement object
+	 */
+	public static Placement placed(String name, PicoAddress node) {
+		return new Placement(name, node, null);
+	}
+
+	/**
+	 * Creates a failed placement of a container
+	 * @param name Name of the container
+	 * @param error Reason the container was not placed
+	 * @return Placement object
+	 */
+	public static Placement failed(String name, String error) {
+		return new Placement(name, null, error);
+	}
+
+	/**
+	 * Gets the name of the container
+	 * @return String
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the node the container is placed on
+	 * @return PicoAddress object, null if the container was not placed
+	 */
+	public PicoAddress getNode() {
+		return this.node;
+	}
+
+	/**
+	 * Gets the reason the container was not placed
+	 * @return String, null if the container was placed
+	 */
+	public String getError() {
+		return this.error;
+	}
+
+	/**
+	 * Checks if the container was placed
+	 * @return boolean
+	 */
+	public boolean isPlaced() {
+		return this.node != null;
+	}
+
+	@Override
+	public String toString() {
+		return isPlaced() ? name + " -> " + node : name + " failed: " + error;
+	}
+}
@@ -0,0 +1,104 @@
+package se.umu.cs.ads.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import se.umu.cs.ads.types.LogLine;
+
+/**
+ * Merges streams of log lines that are each ordered by time into one
+ * stream ordered by time. A heap holds the next line of every stream, so
+ * only one line per stream is kept in memory. Lines with the same time
+ * keep the order of their streams.
+ */
+public class LogMerge implements Iterator<LogLine>, Closeable {
+	private final static Logger logger = LogManager.getLogger(LogMerge.class);
+
+	private final List<Iterator<LogLine>> sources;
+	private final PriorityQueue<Head> heap;
+	private boolean started = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor for the LogMerge
+	 * @param sources Streams ordered by time, closed with the merge if
+	 * 		  they are Closeable
+	 */
+	public LogMerge(List<? extends Iterator<LogLine>> sources) {
+		this.sources = new ArrayList<>(sources);
+		this.heap = new PriorityQueue<>(Math.max(1, sources.size()));
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed)
+			return false;
+
+		// The first line of every stream is only waited for when the merge
+		// is read, so that the streams are all opened before
+		if (!started) {
+			started = true;
+			for (int i = 0; i < sources.size(); i++)
+				advance(i);
+		}
+		return !heap.isEmpty();
+	}
+
+	@Override
+	public LogLine next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		Head head = heap.poll();
+		advance(head.source);
+		return head.line;
+	}
+
+	/**
+	 * Puts the next line of a stream on the heap, if it has one
+	 * @param source Index of the stream
+	 */
+	private void advance(int source) {
+		Iterator<LogLine> it = sources.get(source);
+		if (it.hasNext())
+			heap.add(new Head(it.next(), source));
+	}
+
+	/**
+	 * Closes the streams. May be called from another thread than the one
+	 * reading the merge, which then sees no more lines.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Iterator<LogLine> source : sources) {
+			if (!(source instanceof Closeable))
+				continue;
+			try {
+				((Closeable) source).close();
+			} catch (IOException e) {
+				logger.warn("Failed to close log stream: {}", e.getMessage());
+			}
+		}
+	}
+
+	private static class Head implements Comparable<Head> {
+		private final LogLine line;
+		private final int source;
+
+		Head(LogLine line, int source) {
+			this.line = line;
+			this.source = source;
+		}
+
+		@Override
+		public int compareTo(Head other) {
+			int res = Long.compare(line.getTime(), other.line.getTime());
+			return res != 0 ? res : Integer.compare(source, other.source);
+		}
+	}
+}
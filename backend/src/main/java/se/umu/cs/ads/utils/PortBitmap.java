@@ -0,0 +1,139 @@
+package se.umu.cs.ads.utils;
+
+import java.util.*;
+
+/**
+ * Set of TCP ports as a bitmap of 65536 bits, one per port. Testing a
+ * port is a shift and a mask on one word. Not thread safe.
+ */
+public class PortBitmap {
+	public static final int PORTS = 65536;
+	private final long[] words;
+
+	/**
+	 * Constructor for an empty PortBitmap
+	 */
+	public PortBitmap() {
+		this.words = new long[PORTS >>> 6];
+	}
+
+	private PortBitmap(long[] words) {
+		this.words = words;
+	}
+
+	/**
+	 * Checks if a port is valid, port 0 is not
+	 * @param port Port number
+	 * @return boolean
+	 */
+	public static boolean isPort(int port) {
+		return port > 0 && port < PORTS;
+	}
+
+	/**
+	 * Checks if a port is in the set
+	 * @param port Port number
+	 * @return False for invalid ports
+	 */
+	public boolean get(int port) {
+		return isPort(port) && (words[port >>> 6] & (1L << port)) != 0;
+	}
+
+	/**
+	 * Adds a port to the set, invalid ports are ignored
+	 * @param port Port number
+	 */
+	public void set(int port) {
+		if (isPort(port))
+			words[port >>> 6] |= 1L << port;
+	}
+
+	/**
+	 * Removes a port from the set
+	 * @param port Port number
+	 */
+	public void clear(int port) {
+		if (isPort(port))
+			words[port >>> 6] &= ~(1L << port);
+	}
+
+	/**
+	 * Gets the given ports that are in the set
+	 * @param ports Ports to check
+	 * @return Ports in the set, empty if none are
+	 */
+	public int[] conflicts(Collection<Integer> ports) {
+		int n = 0;
+		int[] res = new int[ports.size()];
+		for (int port : ports) {
+			if (get(port))
+				res[n++] = port;
+		}
+		return n == res.length ? res : Arrays.copyOf(res, n);
+	}
+
+	/**
+	 * Checks if any of the given ports is in the set
+	 * @param ports Ports to check
+	 * @return boolean
+	 */
+	public boolean intersects(Collection<Integer> ports) {
+		for (int port : ports) {
+			if (get(port))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds all ports of another set to this set
+	 * @param other PortBitmap object
+	 */
+	public void or(PortBitmap other) {
+		for (int i = 0; i < words.length; i++)
+			words[i] |= other.words[i];
+	}
+
+	/**
+	 * Finds the lowest port of a range that is not in the set
+	 * @param from First port of the range
+	 * @param to Last port of the range
+	 * @return Port number, -1 if all ports of the range are in the set
+	 */
+	public int nextClear(int from, int to) {
+		from = Math.max(from, 1);
+		to = Math.min(to, PORTS - 1);
+		if (from > to)
+			return -1;
+		int i = from >>> 6;
+		long word = ~words[i] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				int port = (i << 6) + Long.numberOfTrailingZeros(word);
+				return port <= to ? port : -1;
+			}
+			if (++i > (to >>> 6))
+				return -1;
+			word = ~words[i];
+		}
+	}
+
+	/**
+	 * Counts the ports in the set
+	 * @return int
+	 */
+	public int cardinality() {
+		int n = 0;
+		for (long word : words)
+			n += Long.bitCount(word);
+		return n;
+	}
+
+	/**
+	 * Copies the set
+	 * @return PortBitmap object
+	 */
+	public PortBitmap copy() {
+		return new PortBitmap(words.clone());
+	}
+}
@@ -0,0 +1,74 @@
+package se.umu.cs.ads.benchmark;
+
+import java.util.*;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import se.umu.cs.ads.types.*;
+
+/**
+ * Heap footprint of the containers of a node, held as PicoContainer
+ * objects and as a ContainerRegistry. The containers use a few images and
+ * environments and one or two ports each, as the containers of a cluster
+ * do. Strings are built per container, as they are when decoded from
+ * messages, so the list does not share them by accident.
+ * The dictionary of interned strings belongs to the registry and is part
+ * of the measured graph.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * 		-Dexec.mainClass=se.umu.cs.ads.benchmark.FootprintBenchmark
+ */
+public class FootprintBenchmark {
+	private static final int[] SIZES = {10_000, 100_000};
+	private static final String[] IMAGES = {"nginx:latest", "redis:7", "postgres:16", "alpine:3.20"};
+	private static final int ENVS = 8;
+
+	public static void main(String[] args) {
+		System.out.printf("%10s %16s %16s %8s%n", "containers", "objects (B)", "registry (B)", "ratio");
+		for (int size : SIZES) {
+			List<PicoContainer> containers = containers(size);
+			long objects = GraphLayout.parseInstance(containers).totalSize();
+			ContainerRegistry registry = ContainerRegistry.of(containers);
+			long compact = GraphLayout.parseInstance(registry).totalSize();
+			System.out.printf("%10d %16d %16d %8.2f%n", size, objects, compact, (double) objects / compact);
+
+			check(containers, registry);
+		}
+	}
+
+	private static List<PicoContainer> containers(int size) {
+		List<PicoContainer> res = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			int env = i % ENVS;
+			Map<Integer, Integer> ports = new HashMap<>();
+			ports.put(10000 + i % 50000, 80);
+			if (i % 3 == 0)
+				ports.put(60000 + i % 5000, 443);
+
+			res.add(new PicoContainer("container-" + i)
+				.setImage(new String(IMAGES[i % IMAGES.length]))
+				.setPorts(ports)
+				.setEnv(new ArrayList<>(List.of("ENV=" + env, "REPLICA=" + (env % 2))))
+				.setState(PicoContainerState.values()[i % PicoContainerState.values().length]));
+		}
+		return res;
+	}
+
+	/**
+	 * Checks that the views of the registry match the containers
+	 */
+	private static void check(List<PicoContainer> containers, ContainerRegistry registry) {
+		if (registry.size() != containers.size())
+			throw new IllegalStateException("Size " + registry.size() + " != " + containers.size());
+		for (PicoContainer expected : containers) {
+			PicoContainer view = registry.get(expected.getName());
+			if (view == null
+					|| !Objects.equals(view.getImage(), expected.getImage())
+					|| !Objects.equals(view.getPortsMap(), expected.getPortsMap())
+					|| !Objects.equals(view.getEnv(), expected.getEnv())
+					|| view.getState() != expected.getState())
+				throw new IllegalStateException("View of " + expected.getName() + " differs: " + view);
+		}
+	}
+}
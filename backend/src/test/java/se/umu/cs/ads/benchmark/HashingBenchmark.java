@@ -0,0 +1,105 @@
+package se.umu.cs.ads.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import se.umu.cs.ads.clustermanagement.ClusterManager;
+import se.umu.cs.ads.types.*;
+
+/**
+ * Benchmark of the hashing of containers, addresses and nodes. Covers the
+ * merge done by ClusterManager.getAllContainers, set operations on
+ * containers and lookups in a cluster map keyed by address. Lookups use
+ * equal but distinct objects, as the keys built from received messages are.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * 		-Dexec.mainClass=se.umu.cs.ads.benchmark.HashingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+	@Param({"10000"})
+	private int containers;
+
+	@Param({"10"})
+	private int nodes;
+
+	private List<Node> cluster;
+	private List<PicoContainer> all;
+	private List<PicoContainer> probes;
+	private Set<PicoContainer> set;
+	private Map<PicoAddress, Node> members;
+	private List<PicoAddress> addresses;
+
+	@Setup
+	public void setup() {
+		cluster = new ArrayList<>();
+		all = new ArrayList<>();
+		probes = new ArrayList<>();
+		members = new HashMap<>();
+		addresses = new ArrayList<>();
+
+		for (int n = 0; n < nodes; n++) {
+			PicoAddress adr = new PicoAddress("10.0.0." + (n + 1), 9000);
+			ArrayList<PicoContainer> local = new ArrayList<>();
+			for (int i = n; i < containers; i += nodes) {
+				PicoContainer cont = new PicoContainer("container-" + i).setImage("nginx:latest");
+				local.add(cont);
+				all.add(cont);
+				probes.add(new PicoContainer("container-" + i).setImage("nginx:latest"));
+			}
+
+			Node node = new Node(adr, "k8-pico", local);
+			cluster.add(node);
+			members.put(adr, node);
+			addresses.add(new PicoAddress("10.0.0." + (n + 1), 9000));
+		}
+		set = new HashSet<>(all);
+	}
+
+	@Benchmark
+	public List<PicoContainer> getAllContainers() {
+		return ClusterManager.mergeContainers(cluster);
+	}
+
+	@Benchmark
+	public Set<PicoContainer> buildSet() {
+		return new HashSet<>(all);
+	}
+
+	@Benchmark
+	public void containsContainers(Blackhole bh) {
+		for (PicoContainer probe : probes)
+			bh.consume(set.contains(probe));
+	}
+
+	@Benchmark
+	public void lookupNodes(Blackhole bh) {
+		for (PicoAddress adr : addresses)
+			bh.consume(members.get(adr));
+	}
+
+	@Benchmark
+	public void sortAddresses(Blackhole bh) {
+		List<PicoAddress> sorted = new ArrayList<>(addresses);
+		Collections.sort(sorted);
+		bh.consume(sorted);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(HashingBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+}
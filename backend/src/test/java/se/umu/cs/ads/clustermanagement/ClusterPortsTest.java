@@ -0,0 +1,126 @@
+package se.umu.cs.ads.clustermanagement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static se.umu.cs.ads.types.ContainerFixtures.container;
+
+import java.util.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.*;
+
+public class ClusterPortsTest {
+	private static final PicoAddress A = new PicoAddress("10.0.0.1", 9000);
+	private static final PicoAddress B = new PicoAddress("10.0.0.2", 9000);
+	private long now;
+	private ClusterPorts ports;
+
+	@BeforeEach
+	public void prepare() {
+		now = 1_000_000;
+		ports = new ClusterPorts(() -> now);
+	}
+
+	@Test
+	public void containerPortsAreTracked() {
+		ports.put(A, container("web", 8080, 8443));
+		assertArrayEquals(new int[] { 8080 }, ports.conflicts(A, List.of(8080, 9090)));
+		assertArrayEquals(new int[0], ports.conflicts(B, List.of(8080)));
+
+		// Replacing the container releases the ports it no longer has
+		ports.put(A, container("web", 8443));
+		assertArrayEquals(new int[0], ports.conflicts(A, List.of(8080)));
+
+		ports.removed(A, "web");
+		assertEquals(0, ports.snapshot(A).cardinality());
+		ports.removed(A, "web");
+		ports.removed(B, "web");
+	}
+
+	@Test
+	public void sharedPortStaysUntilLastRemoval() {
+		ports.put(A, container("old", 8080));
+		ports.put(A, container("new", 8080));
+
+		ports.removed(A, "old");
+		assertTrue(ports.snapshot(A).get(8080));
+		ports.removed(A, "new");
+		assertFalse(ports.snapshot(A).get(8080));
+	}
+
+	@Test
+	public void invalidPortsAreIgnored() {
+		ports.put(A, container("any", 0));
+		assertEquals(0, ports.snapshot(A).cardinality());
+	}
+
+	@Test
+	public void candidatesHaveAllPortsFree() {
+		PicoAddress c = new PicoAddress("10.0.0.3", 9000);
+		ports.put(A, container("web", 8080));
+		ports.put(B, container("db", 5432));
+
+		assertEquals(List.of(B, c), ports.candidates(List.of(A, B, c), List.of(8080)));
+		assertEquals(List.of(c), ports.candidates(List.of(A, B, c), List.of(8080, 5432)));
+		assertEquals(List.of(A, B, c), ports.candidates(List.of(A, B, c), List.of()));
+	}
+
+	@Test
+	public void removedHostIsForgotten() {
+		ports.put(A, container("web", 8080));
+		ports.removeHost(A);
+		assertEquals(List.of(A), ports.candidates(List.of(A), List.of(8080)));
+	}
+
+	@Test
+	public void snapshotIsACopy() {
+		ports.put(A, container("web", 8080));
+		ports.snapshot(A).clear(8080);
+		assertTrue(ports.snapshot(A).get(8080));
+	}
+
+	@Test
+	public void allocateSkipsPortsUsedOnAnyMember() {
+		ports.put(A, container("a", ClusterPorts.ALLOC_MIN));
+		ports.put(B, container("b", ClusterPorts.ALLOC_MIN + 1));
+		ports.put(new PicoAddress("10.0.0.3", 9000), container("c", ClusterPorts.ALLOC_MIN + 2));
+
+		assertEquals(ClusterPorts.ALLOC_MIN + 2, ports.allocate(List.of(A, B)));
+	}
+
+	@Test
+	public void allocatedPortIsReserved() {
+		int first = ports.allocate(List.of(A));
+		int second = ports.allocate(List.of(B));
+		assertEquals(ClusterPorts.ALLOC_MIN, first);
+		assertEquals(ClusterPorts.ALLOC_MIN + 1, second);
+
+		// Claiming the port ends the reservation, so it is free again once
+		// the container is gone
+		ports.put(A, container("web", first));
+		ports.removed(A, "web");
+		assertEquals(first, ports.allocate(List.of(A, B)));
+	}
+
+	@Test
+	public void reservationExpires() {
+		int port = ports.allocate(List.of(A));
+		now += ClusterPorts.RESERVATION_TTL;
+		assertEquals(port + 1, ports.allocate(List.of(A)));
+
+		now += 1;
+		assertEquals(port, ports.allocate(List.of(A)));
+	}
+
+	@Test
+	public void allocateFailsWhenRangeIsFull() {
+		int[] all = new int[ClusterPorts.ALLOC_MAX - ClusterPorts.ALLOC_MIN + 1];
+		for (int i = 0; i < all.length; i++)
+			all[i] = ClusterPorts.ALLOC_MIN + i;
+		ports.put(A, container("all", all));
+
+		assertEquals(-1, ports.allocate(List.of(A)));
+		assertEquals(ClusterPorts.ALLOC_MIN, ports.allocate(List.of(B)));
+	}
+}
@@ -0,0 +1,118 @@
+package se.umu.cs.ads.clustermanagement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static se.umu.cs.ads.types.ContainerFixtures.container;
+
+import java.util.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.*;
+
+public class ContainerIndexTest {
+	private static final PicoAddress A = new PicoAddress("10.0.0.1", 9000);
+	private static final PicoAddress B = new PicoAddress("10.0.0.2", 9000);
+	private ContainerIndex index;
+	private Node a;
+	private Node b;
+
+	@BeforeEach
+	public void prepare() {
+		index = new ContainerIndex();
+		a = new Node(A, "test", new ArrayList<>());
+		b = new Node(B, "test", new ArrayList<>());
+		index.track(a);
+		index.track(b);
+	}
+
+	@Test
+	public void trackIndexesCurrentContainers() {
+		Node c = new Node(new PicoAddress("10.0.0.3", 9000), "test",
+			new ArrayList<>(List.of(container("x", 8080), container("y", 8081))));
+		index.track(c);
+
+		assertEquals(2, index.size());
+		assertEquals(c.getAddress(), index.get("x").getHost());
+		assertEquals(c.getAddress(), index.get("y").getHost());
+		assertEquals(1, index.getPorts().conflicts(c.getAddress(), List.of(8080)).length);
+	}
+
+	@Test
+	public void changesAreIndexed() {
+		a.addContainer(container("web", 8080));
+		b.addContainer(container("db", 5432));
+
+		assertEquals(A, index.get("web").getHost());
+		assertEquals(B, index.get("db").getHost());
+		assertEquals(PicoContainerState.RUNNING, index.get("web").getState());
+		assertNull(index.get("missing"));
+
+		a.setContainers(new ArrayList<>());
+		assertNull(index.get("web"));
+		assertEquals(1, index.size());
+		assertEquals(0, index.getPorts().conflicts(A, List.of(8080)).length);
+	}
+
+	@Test
+	public void locationReadsCurrentContainer() {
+		a.addContainer(container("web", 8080));
+		ContainerIndex.Location location = index.get("web");
+
+		a.addContainer(container("web", 8080).setState(PicoContainerState.STOPPED));
+		assertEquals(PicoContainerState.STOPPED, location.getState());
+
+		a.setContainers(new ArrayList<>());
+		assertNull(location.getContainer());
+		assertNull(location.getState());
+	}
+
+	@Test
+	public void moveFollowsLatestReport() {
+		a.addContainer(container("web", 8080));
+		b.addContainer(container("web", 8080));
+		assertEquals(B, index.get("web").getHost());
+
+		// The old host reporting the removal late does not clear the entry
+		a.setContainers(new ArrayList<>());
+		assertEquals(B, index.get("web").getHost());
+		assertNotNull(index.get("web").getContainer());
+	}
+
+	@Test
+	public void removalByCurrentHostClears() {
+		a.addContainer(container("web", 8080));
+		b.addContainer(container("web", 8080));
+		b.setContainers(new ArrayList<>());
+
+		// A still lists it, but the index followed B
+		assertNull(index.get("web"));
+	}
+
+	@Test
+	public void untrackDropsContainersOfNode() {
+		a.addContainer(container("web", 8080));
+		b.addContainer(container("db", 5432));
+		index.untrack(a);
+
+		assertNull(index.get("web"));
+		assertEquals(B, index.get("db").getHost());
+		assertEquals(0, index.getPorts().conflicts(A, List.of(8080)).length);
+
+		// Changes to an untracked node are no longer indexed
+		a.addContainer(container("cache", 6379));
+		assertNull(index.get("cache"));
+		index.untrack(null);
+	}
+
+	@Test
+	public void removeHostKeepsMovedContainers() {
+		a.addContainer(container("web", 8080));
+		a.addContainer(container("api", 8081));
+		b.addContainer(container("web", 8080));
+		index.removeHost(A);
+
+		assertNull(index.get("api"));
+		assertEquals(B, index.get("web").getHost());
+	}
+}
@@ -0,0 +1,188 @@
+package se.umu.cs.ads.clustermanagement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.PicoAddress;
+
+public class HeartbeatSchedulerTest {
+	private static final PicoAddress A = new PicoAddress("10.0.0.1", 9000);
+	private static final PicoAddress B = new PicoAddress("10.0.0.2", 9000);
+	private long now;
+	private HeartbeatScheduler scheduler;
+	private Map<PicoAddress, Double> phi;
+
+	@BeforeEach
+	public void prepare() {
+		now = 1_000_000;
+		phi = new HashMap<>();
+		scheduler = new HeartbeatScheduler(1000, () -> now);
+	}
+
+	private Set<PicoAddress> due(PicoAddress... members) {
+		return scheduler.due(List.of(members), adr -> phi.getOrDefault(adr, 0.0));
+	}
+
+	/**
+	 * Measures the intervals the scheduler picks for all members, which
+	 * must be due now, by stepping the clock one millisecond at a time until
+	 * each member is due again. The clock is left at the start.
+	 */
+	private Map<PicoAddress, Long> intervals(PicoAddress... members) {
+		assertEquals(Set.of(members), due(members));
+		long start = now;
+		Map<PicoAddress, Long> res = new HashMap<>();
+		for (long step = 1; step <= 10 * HeartbeatScheduler.MAX_INTERVAL && res.size() < members.length; step++) {
+			now = start + step;
+			for (PicoAddress adr : due(members))
+				res.putIfAbsent(adr, step);
+		}
+		now = start;
+		assertEquals(members.length, res.size(), "members never due again");
+		return res;
+	}
+
+	private void settle() {
+		due(A, B);
+		now += HeartbeatScheduler.RECOVERY_WINDOW;
+	}
+
+	@Test
+	public void newNodeIsDueAtOnceAndProbedOften() {
+		assertEquals(Set.of(A), due(A));
+		now += HeartbeatScheduler.MIN_INTERVAL - 1;
+		assertTrue(due(A).isEmpty());
+		now += 1;
+		assertEquals(Set.of(A), due(A));
+	}
+
+	@Test
+	public void stableNodeWithoutChurnIsProbedRarely() {
+		settle();
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals(A, B).get(A));
+	}
+
+	@Test
+	public void churnShortensInterval() {
+		settle();
+		scheduler.recordChurn(new PicoAddress("10.0.0.9", 9000));
+		scheduler.recordChurn(new PicoAddress("10.0.0.8", 9000));
+		assertEquals(HeartbeatScheduler.DEFAULT_INTERVAL / 2, (long) intervals(A, B).get(A));
+	}
+
+	@Test
+	public void churnIsForgottenAfterWindow() {
+		settle();
+		scheduler.recordChurn(new PicoAddress("10.0.0.9", 9000));
+		now += HeartbeatScheduler.CHURN_WINDOW + 1;
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals(A, B).get(A));
+	}
+
+	@Test
+	public void suspectedNodeIsProbedOften() {
+		settle();
+		phi.put(A, HeartbeatScheduler.TROUBLE_PHI);
+		Map<PicoAddress, Long> intervals = intervals(A, B);
+		assertEquals(HeartbeatScheduler.MIN_INTERVAL, (long) intervals.get(A));
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals.get(B));
+	}
+
+	@Test
+	public void suspectedNodeRecoversAfterWindow() {
+		settle();
+		phi.put(A, HeartbeatScheduler.TROUBLE_PHI);
+		due(A, B);
+		phi.remove(A);
+		now += HeartbeatScheduler.RECOVERY_WINDOW;
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals(A, B).get(A));
+	}
+
+	@Test
+	public void mildSuspicionIsNoTrouble() {
+		settle();
+		phi.put(A, HeartbeatScheduler.TROUBLE_PHI / 2);
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals(A, B).get(A));
+	}
+
+	@Test
+	public void failedHeartbeatMakesNodeTroubled() {
+		settle();
+		scheduler.recordFailure(A);
+		Map<PicoAddress, Long> intervals = intervals(A, B);
+		assertEquals(HeartbeatScheduler.MIN_INTERVAL, (long) intervals.get(A));
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals.get(B));
+	}
+
+	@Test
+	public void lateReplyMakesNodeTroubled() {
+		settle();
+		scheduler.recordRtt(A, 20);
+		scheduler.recordRtt(B, 20);
+		scheduler.recordRtt(B, HeartbeatScheduler.LATE_RTT);
+		scheduler.recordRtt(A, HeartbeatScheduler.LATE_RTT + 1);
+		Map<PicoAddress, Long> intervals = intervals(A, B);
+		assertEquals(HeartbeatScheduler.MIN_INTERVAL, (long) intervals.get(A));
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals.get(B));
+	}
+
+	@Test
+	public void stableNodeReachesMaxIntervalWithDetector() {
+		PhiAccrualDetector detector = new PhiAccrualDetector(() -> now);
+		List<PicoAddress> members = List.of(A, B);
+		List<Long> sent = new ArrayList<>();
+
+		// Both nodes answer every heartbeat at once, for two minutes
+		for (long t = 0; t < 120000; t += HeartbeatScheduler.TICK) {
+			for (PicoAddress adr : members)
+				detector.track(adr);
+			for (PicoAddress adr : scheduler.due(members, detector::phi)) {
+				detector.heartbeat(adr);
+				scheduler.recordRtt(adr, 5);
+				if (adr.equals(A))
+					sent.add(now);
+			}
+			now += HeartbeatScheduler.TICK;
+		}
+
+		int n = sent.size();
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, sent.get(n - 1) - sent.get(n - 2));
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, sent.get(n - 2) - sent.get(n - 3));
+		assertTrue(detector.phi(A) < HeartbeatScheduler.TROUBLE_PHI);
+	}
+
+	@Test
+	public void intervalCoversRoundTrips() {
+		settle();
+		scheduler.recordRtt(A, 2000);
+		assertEquals(HeartbeatScheduler.RTT_FACTOR * 2000, (long) intervals(A, B).get(A));
+	}
+
+	@Test
+	public void budgetStretchesIntervals() {
+		List<PicoAddress> members = new ArrayList<>();
+		for (int i = 0; i < 8; i++)
+			members.add(new PicoAddress("10.0.1." + i, 9000));
+		PicoAddress[] all = members.toArray(new PicoAddress[0]);
+
+		// 8 nodes at 4 s would be 2 heartbeats per second, twice the budget
+		scheduler = new HeartbeatScheduler(1, () -> now);
+		due(all);
+		now += HeartbeatScheduler.RECOVERY_WINDOW;
+		assertEquals(2 * HeartbeatScheduler.MAX_INTERVAL, (long) intervals(all).get(members.get(0)));
+	}
+
+	@Test
+	public void departedNodeStartsOver() {
+		settle();
+		assertEquals(HeartbeatScheduler.MAX_INTERVAL, (long) intervals(A, B).get(A));
+
+		// A left and rejoined, it is new again and recovering
+		due(B);
+		now += 2 * HeartbeatScheduler.MAX_INTERVAL;
+		assertEquals(HeartbeatScheduler.MIN_INTERVAL, (long) intervals(A, B).get(A));
+	}
+}
@@ -0,0 +1,105 @@
+package se.umu.cs.ads.clustermanagement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.PicoAddress;
+
+public class PhiAccrualDetectorTest {
+	private static final PicoAddress ADR = new PicoAddress("10.0.0.1", 9000);
+	private long now;
+	private PhiAccrualDetector detector;
+
+	@BeforeEach
+	public void prepare() {
+		now = 1_000_000;
+		detector = new PhiAccrualDetector(() -> now);
+	}
+
+	private void beat(PicoAddress adr, long interval, int count) {
+		for (int i = 0; i < count; i++) {
+			now += interval;
+			detector.heartbeat(adr);
+		}
+	}
+
+	@Test
+	public void untrackedNodeIsNotSuspected() {
+		assertEquals(0, detector.phi(ADR), 0);
+	}
+
+	@Test
+	public void regularNodeIsNotSuspected() {
+		beat(ADR, 1000, PhiAccrualDetector.WINDOW);
+		now += 1000;
+		assertTrue(detector.phi(ADR) < 0.1, "phi " + detector.phi(ADR));
+	}
+
+	@Test
+	public void phiGrowsWithSilence() {
+		beat(ADR, 1000, PhiAccrualDetector.WINDOW);
+
+		double previous = -1;
+		for (int elapsed = 0; elapsed <= 8000; elapsed += 500) {
+			long at = now;
+			now = at + elapsed;
+			double phi = detector.phi(ADR);
+			now = at;
+
+			assertTrue(phi >= previous, "phi fell to " + phi + " after " + elapsed + " ms");
+			previous = phi;
+		}
+
+		now += 1000 + PhiAccrualDetector.ACCEPTABLE_PAUSE + 5 * PhiAccrualDetector.MIN_STD_DEV;
+		assertTrue(detector.phi(ADR) > 5, "phi " + detector.phi(ADR));
+	}
+
+	@Test
+	public void heartbeatResetsSuspicion() {
+		beat(ADR, 1000, PhiAccrualDetector.WINDOW);
+		now += 10_000;
+		assertTrue(detector.phi(ADR) > 8);
+
+		detector.heartbeat(ADR);
+		assertTrue(detector.phi(ADR) < 0.1);
+	}
+
+	@Test
+	public void jitteryLinkIsSuspectedLater() {
+		beat(ADR, 1000, PhiAccrualDetector.WINDOW);
+		long steadyLast = now;
+
+		// Same mean interval, but alternating between 200 and 1800 ms
+		PicoAddress jittery = new PicoAddress("10.0.0.2", 9000);
+		for (int i = 0; i < PhiAccrualDetector.WINDOW; i++)
+			beat(jittery, i % 2 == 0 ? 200 : 1800, 1);
+		long jitteryLast = now;
+
+		now = steadyLast + 5500;
+		double steady = detector.phi(ADR);
+		now = jitteryLast + 5500;
+		double jitter = detector.phi(jittery);
+
+		assertTrue(jitter < steady, jitter + " >= " + steady);
+		assertTrue(steady > 8, "phi " + steady);
+	}
+
+	@Test
+	public void silentNodeIsSuspectedFromTracking() {
+		detector.track(ADR);
+		assertTrue(detector.phi(ADR) < 0.1);
+
+		now += 10_000;
+		assertTrue(detector.phi(ADR) > 8, "phi " + detector.phi(ADR));
+	}
+
+	@Test
+	public void removedNodeIsForgotten() {
+		beat(ADR, 1000, 10);
+		now += 20_000;
+		detector.remove(ADR);
+		assertEquals(0, detector.phi(ADR), 0);
+	}
+}
@@ -0,0 +1,79 @@
+package se.umu.cs.ads.clustermanagement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.*;
+
+/**
+ * Refutation of updates about the local node and local suspicion of other
+ * members, which need no cluster or communication
+ */
+public class SwimMembershipTest {
+	private static final PicoAddress SELF = new PicoAddress("10.0.0.1", 9000);
+	private static final PicoAddress OTHER = new PicoAddress("10.0.0.2", 9000);
+	private SwimMembership membership;
+
+	@BeforeEach
+	public void prepare() {
+		membership = new SwimMembership(null, null, SELF);
+	}
+
+	@Test
+	public void refutesSuspicionWithHigherIncarnation() {
+		membership.receive(List.of(new MemberUpdate(SELF, MemberStatus.SUSPECT, 0)));
+
+		MemberUpdate self = membership.member(SELF);
+		assertEquals(MemberStatus.ALIVE, self.getStatus());
+		assertEquals(1, self.getIncarnation());
+	}
+
+	@Test
+	public void refutesAboveIncarnationOfSuspicion() {
+		membership.receive(List.of(new MemberUpdate(SELF, MemberStatus.SUSPECT, 5)));
+		assertEquals(6, membership.member(SELF).getIncarnation());
+	}
+
+	@Test
+	public void ignoresStaleSuspicion() {
+		membership.receive(List.of(new MemberUpdate(SELF, MemberStatus.SUSPECT, 3)));
+		membership.receive(List.of(new MemberUpdate(SELF, MemberStatus.SUSPECT, 2)));
+		assertEquals(4, membership.member(SELF).getIncarnation());
+	}
+
+	@Test
+	public void ignoresAliveAboutSelf() {
+		membership.receive(List.of(new MemberUpdate(SELF, MemberStatus.ALIVE, 7)));
+
+		MemberUpdate self = membership.member(SELF);
+		assertEquals(MemberStatus.ALIVE, self.getStatus());
+		assertEquals(0, self.getIncarnation());
+	}
+
+	@Test
+	public void refutationOverridesDeclaredDeath() {
+		MemberUpdate dead = new MemberUpdate(SELF, MemberStatus.DEAD, 2);
+		membership.receive(List.of(new MemberUpdate(SELF, MemberStatus.SUSPECT, 2)));
+		assertTrue(membership.member(SELF).overrides(dead));
+	}
+
+	@Test
+	public void suspectsAliveMemberOnce() {
+		assertTrue(membership.suspect(OTHER));
+		assertEquals(MemberStatus.SUSPECT, membership.member(OTHER).getStatus());
+		assertFalse(membership.suspect(OTHER), "The member is already suspected");
+		assertTrue(membership.isSuspect(OTHER));
+	}
+
+	@Test
+	public void neverSuspectsSelf() {
+		assertFalse(membership.suspect(SELF));
+		assertEquals(MemberStatus.ALIVE, membership.member(SELF).getStatus());
+	}
+}
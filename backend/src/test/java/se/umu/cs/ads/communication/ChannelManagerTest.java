@@ -0,0 +1,87 @@
+package se.umu.cs.ads.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+
+import io.grpc.Status;
+
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.communication.ChannelManager.ErrorKind;
+import se.umu.cs.ads.exception.PicoException;
+
+public class ChannelManagerTest {
+
+	@Test
+	public void unavailableIsTransport() {
+		assertEquals(ErrorKind.TRANSPORT, ChannelManager.classify(Status.UNAVAILABLE.asRuntimeException()));
+		assertEquals(ErrorKind.TRANSPORT, ChannelManager.classify(Status.UNAVAILABLE.asException()));
+	}
+
+	@Test
+	public void deadlineAndCancellationAreTimeouts() {
+		assertEquals(ErrorKind.TIMEOUT, ChannelManager.classify(Status.DEADLINE_EXCEEDED.asRuntimeException()));
+		assertEquals(ErrorKind.TIMEOUT, ChannelManager.classify(Status.CANCELLED.asRuntimeException()));
+	}
+
+	@Test
+	public void remoteErrorsAreApplication() {
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(Status.NOT_FOUND.asRuntimeException()));
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(Status.RESOURCE_EXHAUSTED.asRuntimeException()));
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(Status.INTERNAL.asRuntimeException()));
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(new IllegalStateException("bug")));
+	}
+
+	@Test
+	public void picoExceptionIsApplicationWhateverItsCode() {
+		PicoException e = new PicoException("gone", Status.Code.UNAVAILABLE);
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(e));
+	}
+
+	@Test
+	public void wrappersAreUnwrapped() {
+		Throwable cause = Status.UNAVAILABLE.asRuntimeException();
+		assertEquals(ErrorKind.TRANSPORT, ChannelManager.classify(new CompletionException(cause)));
+		assertEquals(ErrorKind.TRANSPORT, ChannelManager.classify(new ExecutionException(cause)));
+		assertEquals(ErrorKind.TRANSPORT,
+			ChannelManager.classify(new CompletionException(new ExecutionException(cause))));
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(new CompletionException(new PicoException("no"))));
+	}
+
+	@Test
+	public void emptyWrapperIsApplication() {
+		assertEquals(ErrorKind.APPLICATION, ChannelManager.classify(new CompletionException(null)));
+	}
+
+	@Test
+	public void backoffGrowsExponentially() {
+		for (int failures = 1; failures <= 6; failures++) {
+			double expected = ChannelManager.INITIAL_BACKOFF * Math.pow(ChannelManager.BACKOFF_MULTIPLIER, failures - 1);
+			assertWithinJitter(expected, failures);
+		}
+	}
+
+	@Test
+	public void backoffIsCapped() {
+		for (int failures = 10; failures <= 1000; failures *= 10)
+			assertWithinJitter(ChannelManager.MAX_BACKOFF, failures);
+		assertWithinJitter(ChannelManager.MAX_BACKOFF, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void backoffStartsAtInitial() {
+		assertWithinJitter(ChannelManager.INITIAL_BACKOFF, 0);
+		assertWithinJitter(ChannelManager.INITIAL_BACKOFF, 1);
+	}
+
+	private static void assertWithinJitter(double expected, int failures) {
+		long low = (long) (expected * (1 - ChannelManager.BACKOFF_JITTER));
+		long high = (long) (expected * (1 + ChannelManager.BACKOFF_JITTER));
+		for (int i = 0; i < 100; i++) {
+			long backoff = ChannelManager.backoff(failures);
+			assertTrue(backoff >= low && backoff <= high,
+				backoff + " ms after " + failures + " failures, expected " + low + ".." + high);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package se.umu.cs.ads.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+
+import org.junit.jupiter.api.Test;
+
+public class DeadlineBudgetTest {
+	private static final long FALLBACK = 5000;
+	private static final long MIN = 100;
+	private static final long MAX = 10000;
+
+	private static DeadlineBudget budget(long... latencies) {
+		DeadlineBudget budget = new DeadlineBudget("test", FALLBACK, MIN, MAX);
+		for (long latency : latencies)
+			budget.record(latency);
+		return budget;
+	}
+
+	/**
+	 * Latencies 1 to n in a shuffled order
+	 */
+	private static long[] range(int n) {
+		long[] res = new long[n];
+		for (int i = 0; i < n; i++)
+			res[i] = (i * 37) % n + 1;
+		return res;
+	}
+
+	@Test
+	public void percentileNeedsEnoughSamples() {
+		DeadlineBudget budget = budget(range(DeadlineBudget.MIN_SAMPLES - 1));
+		assertEquals(-1, budget.percentile(0.5));
+		assertEquals(-1, budget.hedgeDelay());
+		assertEquals(FALLBACK, budget.timeout());
+
+		budget.record(DeadlineBudget.MIN_SAMPLES);
+		assertEquals(DeadlineBudget.MIN_SAMPLES, budget.percentile(1));
+	}
+
+	@Test
+	public void percentileIsNearestRank() {
+		DeadlineBudget budget = budget(range(100));
+		assertEquals(1, budget.percentile(0));
+		assertEquals(1, budget.percentile(0.01));
+		assertEquals(50, budget.percentile(0.5));
+		assertEquals(51, budget.percentile(0.505));
+		assertEquals(95, budget.hedgeDelay());
+		assertEquals(99, budget.percentile(DeadlineBudget.DEADLINE_PERCENTILE));
+		assertEquals(100, budget.percentile(1));
+	}
+
+	@Test
+	public void oldSamplesLeaveTheWindow() {
+		DeadlineBudget budget = budget();
+		for (int i = 0; i < DeadlineBudget.WINDOW; i++)
+			budget.record(9000);
+		for (int i = 0; i < DeadlineBudget.WINDOW; i++)
+			budget.record(10);
+		assertEquals(10, budget.percentile(1));
+	}
+
+	@Test
+	public void timeoutIsMultipleOfP99() {
+		DeadlineBudget budget = budget(range(100));
+		assertEquals((long) (99 * DeadlineBudget.DEADLINE_FACTOR), budget.timeout());
+	}
+
+	@Test
+	public void timeoutIsBounded() {
+		long[] fast = new long[DeadlineBudget.MIN_SAMPLES];
+		Arrays.fill(fast, 1);
+		assertEquals(MIN, budget(fast).timeout());
+
+		long[] slow = new long[DeadlineBudget.MIN_SAMPLES];
+		Arrays.fill(slow, MAX);
+		assertEquals(MAX, budget(slow).timeout());
+	}
+
+	@Test
+	public void deadlineFollowsTimeout() {
+		Deadline deadline = budget().deadline();
+		long remaining = deadline.timeRemaining(TimeUnit.MILLISECONDS);
+		assertTrue(remaining <= FALLBACK && remaining > FALLBACK - 1000, "remaining " + remaining);
+	}
+
+	@Test
+	public void earlierInheritedDeadlineIsKept() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			Context.CancellableContext context = Context.current().withDeadlineAfter(200, TimeUnit.MILLISECONDS, scheduler);
+			Deadline deadline = context.call(() -> budget().deadline());
+			assertTrue(deadline.timeRemaining(TimeUnit.MILLISECONDS) <= 200);
+
+			// A later inherited deadline does not stretch the budget
+			Context.CancellableContext later = Context.current().withDeadlineAfter(60, TimeUnit.SECONDS, scheduler);
+			deadline = later.call(() -> budget().deadline());
+			assertTrue(deadline.timeRemaining(TimeUnit.MILLISECONDS) <= FALLBACK);
+			context.cancel(null);
+			later.cancel(null);
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package se.umu.cs.ads.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.exception.PicoException;
+import se.umu.cs.ads.types.PicoAddress;
+
+public class DisseminatorTest {
+	private static final RpcNotice NOTICE = RpcNotice.newBuilder()
+		.setType(RpcNoticeType.REMOVE_NODE)
+		.setNode(RpcMetadata.newBuilder().setIp("10.0.9.9").setPort(9000))
+		.build();
+	private static final RpcNotices MSG = RpcNotices.newBuilder().addNotices(NOTICE).build();
+
+	private FakeClient client;
+	private List<RpcNotice> delivered;
+	private Disseminator disseminator;
+
+	/**
+	 * Client that records the notices sent instead of sending them, and
+	 * fails for the members marked unreachable
+	 */
+	private static class FakeClient extends PicoClient {
+		private final Set<PicoAddress> unreachable = ConcurrentHashMap.newKeySet();
+		private final Map<PicoAddress, List<PicoAddress>> sent = new ConcurrentHashMap<>();
+		private final Queue<PicoAddress> attempts = new ConcurrentLinkedQueue<>();
+
+		FakeClient() {
+			super(adr -> {});
+		}
+
+		@Override
+		public void disseminate(PicoAddress remote, RpcNotices msg) throws PicoException {
+			attempts.add(remote);
+			if (unreachable.contains(remote))
+				throw new PicoException("unreachable");
+			assertEquals(MSG.getNoticesList(), msg.getNoticesList());
+			assertNull(sent.put(remote, relayOf(msg)), "sent twice to " + remote);
+		}
+	}
+
+	private static PicoAddress member(int i) {
+		return new PicoAddress("10.0.0." + i, 9000);
+	}
+
+	private static List<PicoAddress> members(int... ids) {
+		List<PicoAddress> res = new ArrayList<>();
+		for (int id : ids)
+			res.add(member(id));
+		return res;
+	}
+
+	private static List<PicoAddress> range(int n) {
+		List<PicoAddress> res = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			res.add(member(i));
+		return res;
+	}
+
+	private static List<PicoAddress> relayOf(RpcNotices msg) {
+		List<PicoAddress> res = new ArrayList<>();
+		for (RpcMetadata member : msg.getRelayList())
+			res.add(new PicoAddress(member.getIp(), member.getPort()));
+		return res;
+	}
+
+	private static RpcNotices withRelay(List<PicoAddress> members) {
+		RpcNotices.Builder builder = MSG.toBuilder();
+		for (PicoAddress member : members)
+			builder.addRelay(RpcMetadata.newBuilder().setIp(member.getIP()).setPort(member.getPort()));
+		return builder.build();
+	}
+
+	private void awaitSent(int n) throws InterruptedException {
+		long until = System.currentTimeMillis() + 5000;
+		while (client.sent.size() < n && System.currentTimeMillis() < until)
+			Thread.sleep(5);
+		assertEquals(n, client.sent.size());
+	}
+
+	@BeforeEach
+	public void prepare() {
+		client = new FakeClient();
+		delivered = new CopyOnWriteArrayList<>();
+		disseminator = new Disseminator(null, client, delivered::add);
+	}
+
+	@Test
+	public void membersAreSplitIntoFanoutSubtrees() {
+		disseminator.relay(MSG, range(10), true);
+
+		// Subtrees of ceil(10 / FANOUT) = 3 members, their heads relay
+		Map<PicoAddress, List<PicoAddress>> expected = new HashMap<>();
+		expected.put(member(0), members(1, 2));
+		expected.put(member(3), members(4, 5));
+		expected.put(member(6), members(7, 8));
+		expected.put(member(9), members());
+		assertEquals(expected, client.sent);
+	}
+
+	@Test
+	public void fewMembersAreSentToDirectly() {
+		disseminator.relay(MSG, range(Disseminator.FANOUT), true);
+		assertEquals(Disseminator.FANOUT, client.sent.size());
+		for (List<PicoAddress> relay : client.sent.values())
+			assertTrue(relay.isEmpty());
+
+		client.sent.clear();
+		disseminator.relay(MSG, range(0), true);
+		assertTrue(client.sent.isEmpty());
+	}
+
+	@Test
+	public void unreachableHeadIsReplacedByNextMember() {
+		client.unreachable.add(member(0));
+		client.unreachable.add(member(6));
+		client.unreachable.add(member(7));
+		disseminator.relay(MSG, range(10), true);
+
+		assertEquals(members(2), client.sent.get(member(1)));
+		assertEquals(members(4, 5), client.sent.get(member(3)));
+		assertEquals(members(), client.sent.get(member(8)));
+		assertEquals(members(), client.sent.get(member(9)));
+		assertEquals(4, client.sent.size());
+	}
+
+	@Test
+	public void unreachableSubtreeDoesNotStopOthers() {
+		client.unreachable.addAll(members(0, 1, 2));
+		disseminator.relay(MSG, range(10), true);
+
+		assertEquals(Set.of(member(3), member(6), member(9)), client.sent.keySet());
+		assertEquals(6, client.attempts.size());
+	}
+
+	@Test
+	public void receivedNoticesAreDeliveredAndRelayed() throws InterruptedException {
+		disseminator.receive(withRelay(range(5)));
+		assertEquals(List.of(NOTICE), delivered);
+
+		// The relay list of the received message is not passed on
+		awaitSent(3);
+		assertEquals(members(1), client.sent.get(member(0)));
+		assertEquals(members(3), client.sent.get(member(2)));
+		assertEquals(members(), client.sent.get(member(4)));
+	}
+
+	@Test
+	public void leafOnlyDelivers() throws InterruptedException {
+		disseminator.receive(MSG);
+		assertEquals(List.of(NOTICE), delivered);
+		Thread.sleep(50);
+		assertTrue(client.attempts.isEmpty());
+	}
+
+	@Test
+	public void treeReachesEveryMemberOnce() throws InterruptedException {
+		int n = 100;
+		Map<PicoAddress, Disseminator> nodes = new ConcurrentHashMap<>();
+		Map<PicoAddress, Integer> deliveries = new ConcurrentHashMap<>();
+		Map<PicoAddress, Integer> sends = new ConcurrentHashMap<>();
+		// Every node sends through its own client, which hands the message
+		// to the receiving node. The origin is the last node.
+		for (PicoAddress adr : range(n + 1)) {
+			PicoClient own = new FakeClient() {
+				@Override
+				public void disseminate(PicoAddress remote, RpcNotices msg) {
+					sends.merge(adr, 1, Integer::sum);
+					nodes.get(remote).receive(msg);
+				}
+			};
+			nodes.put(adr, new Disseminator(null, own, notice -> deliveries.merge(adr, 1, Integer::sum)));
+		}
+
+		nodes.get(member(n)).relay(MSG, range(n), true);
+		long until = System.currentTimeMillis() + 5000;
+		while (deliveries.size() < n && System.currentTimeMillis() < until)
+			Thread.sleep(5);
+		Thread.sleep(50);
+
+		assertEquals(n, deliveries.size());
+		for (int count : deliveries.values())
+			assertEquals(1, count);
+		for (int count : sends.values())
+			assertTrue(count <= Disseminator.FANOUT, count + " messages sent by one node");
+	}
+}
@@ -0,0 +1,136 @@
+package se.umu.cs.ads.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.PicoAddress;
+
+public class MembershipEpochsTest {
+	private static final PicoAddress SELF = new PicoAddress("10.0.0.1", 9000);
+	private static final PicoAddress A = new PicoAddress("10.0.0.2", 9000);
+	private static final PicoAddress B = new PicoAddress("10.0.0.3", 9000);
+	private static final PicoAddress C = new PicoAddress("10.0.0.4", 9000);
+
+	private FakeClient client;
+	private List<PicoAddress> added;
+	private MembershipEpochs epochs;
+
+	/**
+	 * Client that records the epochs sent instead of sending them
+	 */
+	private static class FakeClient extends PicoClient {
+		private final Map<PicoAddress, List<RpcMembershipEpoch>> sent = new ConcurrentHashMap<>();
+
+		FakeClient() {
+			super(adr -> {});
+		}
+
+		@Override
+		public void membershipEpoch(PicoAddress remote, RpcMembershipEpoch msg) {
+			sent.computeIfAbsent(remote, adr -> new CopyOnWriteArrayList<>()).add(msg);
+		}
+
+		List<RpcMembershipEpoch> await(PicoAddress remote, int n) throws InterruptedException {
+			long until = System.currentTimeMillis() + 5000;
+			while (sent.getOrDefault(remote, List.of()).size() < n && System.currentTimeMillis() < until)
+				Thread.sleep(5);
+			List<RpcMembershipEpoch> res = sent.getOrDefault(remote, List.of());
+			assertEquals(n, res.size(), "epochs sent to " + remote);
+			return res;
+		}
+	}
+
+	private static RpcNode node(PicoAddress adr) {
+		return RpcNode.newBuilder().setIp(adr.getIP()).setPort(adr.getPort()).build();
+	}
+
+	private static RpcMembershipEpoch epoch(PicoAddress origin, long epoch, PicoAddress... joined) {
+		RpcMembershipEpoch.Builder builder = RpcMembershipEpoch.newBuilder()
+			.setOrigin(RpcMetadata.newBuilder().setIp(origin.getIP()).setPort(origin.getPort()))
+			.setEpoch(epoch);
+		for (PicoAddress adr : joined)
+			builder.addJoined(node(adr));
+		return builder.build();
+	}
+
+	private MembershipEpochs epochs(long now) {
+		return new MembershipEpochs(SELF, () -> new ArrayList<>(List.of(SELF, A, B)),
+			joined -> added.add(new PicoAddress(joined.getIp(), joined.getPort())), client, () -> now);
+	}
+
+	@BeforeEach
+	public void prepare() {
+		client = new FakeClient();
+		added = new CopyOnWriteArrayList<>();
+		epochs = epochs(1000);
+	}
+
+	@Test
+	public void staleEpochsAreSkipped() {
+		assertTrue(epochs.apply(epoch(A, 5, C)));
+		assertEquals(List.of(C), added);
+
+		assertFalse(epochs.apply(epoch(A, 5, C)));
+		assertFalse(epochs.apply(epoch(A, 4, B)));
+		assertEquals(List.of(C), added);
+
+		assertTrue(epochs.apply(epoch(A, 6, B)));
+		assertEquals(List.of(C, B), added);
+	}
+
+	@Test
+	public void epochsAreCountedPerOrigin() {
+		assertTrue(epochs.apply(epoch(A, 5)));
+		assertTrue(epochs.apply(epoch(B, 1)));
+		assertFalse(epochs.apply(epoch(B, 1)));
+		assertTrue(epochs.apply(epoch(A, 7)));
+	}
+
+	@Test
+	public void ownAddressIsNotAdded() {
+		assertTrue(epochs.apply(epoch(A, 1, SELF, C)));
+		assertEquals(List.of(C), added);
+	}
+
+	@Test
+	public void joinsWithinWindowFormOneEpoch() throws InterruptedException {
+		epochs.joined(node(C));
+		epochs.joined(node(new PicoAddress("10.0.0.5", 9000)));
+
+		for (PicoAddress remote : List.of(A, B)) {
+			RpcMembershipEpoch msg = client.await(remote, 1).get(0);
+			assertEquals(1001, msg.getEpoch());
+			assertEquals(SELF.getIP(), msg.getOrigin().getIp());
+			assertEquals(SELF.getPort(), msg.getOrigin().getPort());
+			assertEquals(2, msg.getJoinedCount());
+		}
+		assertFalse(client.sent.containsKey(SELF));
+
+		// The next epoch has a higher number
+		epochs.joined(node(C));
+		assertEquals(1002, client.await(A, 2).get(1).getEpoch());
+	}
+
+	@Test
+	public void restartedOriginIsNotSkipped() throws InterruptedException {
+		MembershipEpochs receiver = new MembershipEpochs(A, () -> new ArrayList<>(List.of(SELF, A)),
+			joined -> {}, new FakeClient(), () -> 0);
+
+		epochs.joined(node(C));
+		assertTrue(receiver.apply(client.await(A, 1).get(0)));
+
+		// The origin restarts later and forgets the epochs it sent, its
+		// numbers are seeded from the clock again
+		client = new FakeClient();
+		epochs = epochs(2000);
+		epochs.joined(node(B));
+		RpcMembershipEpoch msg = client.await(A, 1).get(0);
+		assertEquals(2001, msg.getEpoch());
+		assertTrue(receiver.apply(msg));
+	}
+}
@@ -0,0 +1,93 @@
+package se.umu.cs.ads.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import se.umu.cs.ads.types.PicoAddress;
+
+public class PicoClientTest {
+	private static final PicoAddress REMOTE = new PicoAddress("10.0.0.1", 9000);
+	private static final DeadlineBudget BUDGET = new DeadlineBudget("test", 5000, 100, 10000);
+	private static final long DELAY = 50;
+
+	private final SettableFuture<String> primary = SettableFuture.create();
+	private final SettableFuture<String> hedged = SettableFuture.create();
+	private final AtomicBoolean sent = new AtomicBoolean(false);
+
+	private Callable<ListenableFuture<String>> hedge() {
+		return () -> {
+			sent.set(true);
+			return hedged;
+		};
+	}
+
+	/**
+	 * Runs the hedged read in the background, so that the test can complete
+	 * the calls while it waits
+	 */
+	private Future<String> read() {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return PicoClient.hedge(REMOTE, BUDGET, primary, hedge(), DELAY);
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	private void awaitHedge() throws InterruptedException {
+		long until = System.currentTimeMillis() + 5000;
+		while (!sent.get() && System.currentTimeMillis() < until)
+			Thread.sleep(5);
+		assertTrue(sent.get(), "No hedged request was sent");
+	}
+
+	@Test
+	public void fastReplyIsNotHedged() throws Exception {
+		primary.set("primary");
+		assertEquals("primary", PicoClient.hedge(REMOTE, BUDGET, primary, hedge(), DELAY));
+		assertFalse(sent.get());
+	}
+
+	@Test
+	public void firstReplyWinsAndOtherIsCancelled() throws Exception {
+		Future<String> reply = read();
+		awaitHedge();
+		hedged.set("hedged");
+		assertEquals("hedged", reply.get(5, TimeUnit.SECONDS));
+		assertTrue(primary.isCancelled());
+	}
+
+	@Test
+	public void failedHedgeWaitsForPrimary() throws Exception {
+		Future<String> reply = read();
+		awaitHedge();
+		hedged.setException(new IllegalStateException("hedge failed"));
+		Thread.sleep(DELAY);
+		assertFalse(reply.isDone());
+
+		primary.set("primary");
+		assertEquals("primary", reply.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void bothFailedThrowsCause() throws Exception {
+		Future<String> reply = read();
+		awaitHedge();
+		primary.setException(new IllegalStateException("primary failed"));
+		hedged.setException(new IllegalStateException("hedge failed"));
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> reply.get(5, TimeUnit.SECONDS));
+		Throwable cause = e.getCause();
+		while (!(cause instanceof IllegalStateException) && cause.getCause() != null)
+			cause = cause.getCause();
+		assertTrue(cause instanceof IllegalStateException, "Failed with " + cause);
+	}
+}
@@ -0,0 +1,160 @@
+package se.umu.cs.ads.communication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import se.umu.cs.ads.communication.RpcServiceGrpc.RpcServiceFutureStub;
+
+/**
+ * Load test of the server lanes: calls beyond the bound of a lane are
+ * turned away with RESOURCE_EXHAUSTED, while the other lane keeps serving.
+ */
+public class ServerLanesTest {
+	private static final int QUEUE = 2;
+	private static final int CALLS = 20;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private ServerLanes lanes;
+	private Server server;
+	private ManagedChannel channel;
+	private RpcServiceFutureStub stub;
+
+	/**
+	 * Service whose heavy calls block until released, and whose control
+	 * calls reply at once
+	 */
+	private class BlockingService extends RpcServiceGrpc.RpcServiceImplBase {
+		@Override
+		public void createContainer(RpcContainer msg, StreamObserver<RpcContainer> ro) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			ro.onNext(msg);
+			ro.onCompleted();
+		}
+
+		@Override
+		public void ping(RpcPing msg, StreamObserver<RpcAck> ro) {
+			ro.onNext(RpcAck.newBuilder().setAlive(true).build());
+			ro.onCompleted();
+		}
+	}
+
+	@BeforeEach
+	public void prepare() throws Exception {
+		start(new ServerLanes(1, 1, QUEUE, false));
+	}
+
+	private void start(ServerLanes lanes) throws Exception {
+		this.lanes = lanes;
+		server = NettyServerBuilder.forPort(0)
+			.addService(new BlockingService())
+			.executor(lanes.getDefault())
+			.callExecutor(lanes)
+			.build()
+			.start();
+		channel = NettyChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+		stub = RpcServiceGrpc.newFutureStub(channel);
+	}
+
+	@AfterEach
+	public void cleanup() throws Exception {
+		release.countDown();
+		stop();
+	}
+
+	private void stop() throws Exception {
+		channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+		server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+		lanes.shutdown();
+	}
+
+	@Test
+	public void fullLaneRejectsWithResourceExhausted() throws Exception {
+		assertFullLaneRejects();
+	}
+
+	@Test
+	public void fullPerTaskLaneRejectsWithResourceExhausted() throws Exception {
+		// Platform threads stand in for virtual threads, which the lanes
+		// only start on runtimes that have them
+		stop();
+		start(new ServerLanes(1, 1, QUEUE, task -> {
+			Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		}));
+		assertFullLaneRejects();
+	}
+
+	private void assertFullLaneRejects() throws Exception {
+		List<ListenableFuture<RpcContainer>> calls = new ArrayList<>();
+		for (int i = 0; i < CALLS; i++) {
+			RpcContainer msg = RpcContainer.newBuilder().setName("c" + i).build();
+			calls.add(stub.withDeadlineAfter(30, TimeUnit.SECONDS).createContainer(msg));
+		}
+
+		// The rejected calls fail at once, while the admitted ones block
+		boolean rejected = false;
+		long until = System.currentTimeMillis() + 10_000;
+		while (!rejected && System.currentTimeMillis() < until) {
+			for (ListenableFuture<RpcContainer> call : calls)
+				rejected |= call.isDone() && code(call) == Status.Code.RESOURCE_EXHAUSTED;
+			Thread.sleep(10);
+		}
+		assertTrue(rejected, "No call was rejected");
+
+		// The control lane still answers while the heavy lane is full
+		RpcAck ack = stub.withDeadlineAfter(5, TimeUnit.SECONDS).ping(RpcPing.newBuilder().build()).get();
+		assertTrue(ack.getAlive());
+
+		// Every call either ran once released, or was rejected
+		release.countDown();
+		int ok = 0;
+		for (ListenableFuture<RpcContainer> call : calls) {
+			Status.Code code = code(call);
+			assertTrue(code == Status.Code.OK || code == Status.Code.RESOURCE_EXHAUSTED, "Call failed with " + code);
+			if (code == Status.Code.OK)
+				ok++;
+		}
+		assertTrue(ok >= 1, "No call was admitted");
+		assertTrue(ok < CALLS, "No call was rejected");
+	}
+
+	@Test
+	public void laneTakesCallsAgainOnceDrained() throws Exception {
+		release.countDown();
+		for (int i = 0; i < CALLS; i++) {
+			RpcContainer msg = RpcContainer.newBuilder().setName("c" + i).build();
+			assertEquals("c" + i, stub.withDeadlineAfter(5, TimeUnit.SECONDS).createContainer(msg).get().getName());
+		}
+	}
+
+	private static Status.Code code(Future<?> call) throws InterruptedException {
+		try {
+			call.get(30, TimeUnit.SECONDS);
+			return Status.Code.OK;
+		} catch (ExecutionException e) {
+			return Status.fromThrowable(e.getCause()).getCode();
+		} catch (TimeoutException e) {
+			return Status.Code.DEADLINE_EXCEEDED;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package se.umu.cs.ads.containerengine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ContainerLogTest {
+	// Records do not divide the ring or a segment evenly, so that headers,
+	// payloads and trailers all end up split at the end of the ring
+	private static final int PAYLOAD = 6;
+	private static final int RECORD = ContainerLog.HEADER + PAYLOAD + ContainerLog.TRAILER;
+	private static final int RING = 100;
+	private static final int SEGMENT = 10 * RECORD;
+
+	@TempDir
+	Path dir;
+
+	private static byte[] payload(int i) {
+		return String.format("%0" + PAYLOAD + "d", i).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static long time(int i) {
+		return (i + 1) * 1000L;
+	}
+
+	private ContainerLog log(int records, int maxSegments) {
+		ContainerLog log = new ContainerLog(dir, RING, SEGMENT, maxSegments);
+		for (int i = 0; i < records; i++)
+			log.append(time(i), payload(i));
+		return log;
+	}
+
+	private static List<String> payloads(int from, int to) {
+		List<String> res = new ArrayList<>();
+		for (int i = from; i < to; i++)
+			res.add(new String(payload(i), StandardCharsets.US_ASCII));
+		return res;
+	}
+
+	/**
+	 * Reads the records from an offset to the end of the log, two records
+	 * at a time
+	 */
+	private static List<String> read(ContainerLog log, long pos) {
+		List<byte[]> out = new ArrayList<>();
+		long end = log.getEnd();
+		while (pos < end)
+			pos = log.read(pos, end, out, 2 * PAYLOAD - 1);
+		List<String> res = new ArrayList<>();
+		for (byte[] payload : out)
+			res.add(new String(payload, StandardCharsets.US_ASCII));
+		return res;
+	}
+
+	private long segmentFiles() throws IOException {
+		try (var files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+
+	@Test
+	public void emptyLogAnswersQueries() {
+		ContainerLog log = log(0, 2);
+		assertEquals(0, log.getEnd());
+		assertEquals(0, log.start(-1, 0));
+		assertEquals(0, log.start(5, 0));
+		assertEquals(0, log.start(-1, time(3)));
+		assertEquals(List.of(), read(log, 0));
+	}
+
+	@Test
+	public void recordsAreReadInOrder() {
+		ContainerLog log = log(3, 2);
+		assertEquals(3 * RECORD, log.getEnd());
+		assertEquals(time(2), log.getLastTime());
+		assertEquals(0, log.start(-1, 0));
+		assertEquals(payloads(0, 3), read(log, 0));
+	}
+
+	@Test
+	public void everyRecordIsFoundWhileTheRingWraps() throws IOException {
+		ContainerLog log = new ContainerLog(dir, RING, SEGMENT, 100);
+		for (int n = 1; n <= 60; n++) {
+			log.append(time(n - 1), payload(n - 1));
+			for (int k = 0; k < n; k++) {
+				assertEquals(k * RECORD, log.start(-1, time(k)), "since record " + k + " of " + n);
+				assertEquals(k * RECORD, log.start(-1, time(k) - 1), "before record " + k + " of " + n);
+				assertEquals(k * RECORD, log.start(n - k, 0), "tail of " + (n - k) + " of " + n);
+			}
+			assertEquals(n * RECORD, log.start(-1, time(n - 1) + 1));
+			assertEquals(n * RECORD, log.start(0, 0));
+			assertEquals(0, log.start(n + 1, 0));
+			assertEquals(payloads(0, n), read(log, 0));
+		}
+		// The ring holds the last four records, the rest was spilled
+		assertEquals(6, segmentFiles());
+	}
+
+	@Test
+	public void truncatedLogRefusesWhatItNoLongerHolds() throws IOException {
+		// Records 0 to 39 were in the segments that were dropped
+		ContainerLog log = log(60, 2);
+		assertEquals(2, segmentFiles());
+
+		assertEquals(-1, log.start(-1, 0));
+		assertEquals(40 * RECORD, log.start(20, 0));
+		assertEquals(-1, log.start(21, 0));
+		assertEquals(55 * RECORD, log.start(5, 0));
+
+		assertEquals(-1, log.start(-1, time(39)));
+		assertEquals(40 * RECORD, log.start(-1, time(40)));
+		assertEquals(50 * RECORD, log.start(-1, time(50)));
+		assertEquals(57 * RECORD, log.start(3, time(50)));
+	}
+
+	@Test
+	public void readSkipsDroppedRecords() {
+		ContainerLog log = log(60, 2);
+		assertEquals(payloads(40, 60), read(log, 0));
+		assertEquals(payloads(45, 60), read(log, 45 * RECORD));
+	}
+
+	@Test
+	public void olderRecordsAreSkipped() {
+		ContainerLog log = new ContainerLog(dir, RING, SEGMENT, 2);
+		log.append(-1, payload(0));
+		assertEquals(0, log.getLastTime());
+
+		log.append(time(1), payload(1));
+		log.append(time(0), payload(2));
+		log.append(time(1), payload(3));
+		// Without a time the record counts as the latest
+		log.append(-1, payload(4));
+
+		assertEquals(List.of("000000", "000001", "000004"), read(log, 0));
+		assertEquals(time(1), log.getLastTime());
+	}
+
+	@Test
+	public void longPayloadIsCut() {
+		int size = ContainerLog.HEADER + ContainerLog.MAX_PAYLOAD + ContainerLog.TRAILER;
+		ContainerLog log = new ContainerLog(dir, size + RECORD, 2 * size, 2);
+		log.append(time(0), new byte[ContainerLog.MAX_PAYLOAD + 10]);
+		log.append(time(1), payload(1));
+		assertEquals(size + RECORD, log.getEnd());
+
+		List<byte[]> out = new ArrayList<>();
+		log.read(0, log.getEnd(), out, Integer.MAX_VALUE);
+		assertEquals(2, out.size());
+		assertEquals(ContainerLog.MAX_PAYLOAD, out.get(0).length);
+		assertEquals(size, log.start(1, 0));
+	}
+
+	@Test
+	public void attachedStreamMakesLogLive() {
+		ContainerLog log = new ContainerLog(dir, RING, SEGMENT, 2);
+		assertTrue(log.beginAttach());
+		assertFalse(log.beginAttach(), "A stream is already being attached");
+		log.catchingUp(() -> {});
+		assertFalse(log.isLive());
+
+		log.following(() -> {}, false);
+		assertTrue(log.isLive());
+		assertFalse(log.beginAttach());
+
+		log.detached();
+		assertFalse(log.isLive());
+		assertTrue(log.beginAttach());
+		log.following(() -> {}, true);
+		assertFalse(log.isLive(), "The stream ended before it was set");
+	}
+
+	@Test
+	public void closeStopsStreamAndDeletesSegments() throws IOException {
+		ContainerLog log = log(16, 8);
+		assertEquals(2, segmentFiles());
+
+		AtomicInteger closed = new AtomicInteger();
+		assertTrue(log.beginAttach());
+		log.following(closed::incrementAndGet, false);
+
+		log.close();
+		assertEquals(1, closed.get());
+		assertFalse(log.isLive());
+		assertFalse(log.beginAttach());
+		assertEquals(0, segmentFiles());
+
+		long end = log.getEnd();
+		log.append(time(16), payload(16));
+		assertEquals(end, log.getEnd());
+	}
+}
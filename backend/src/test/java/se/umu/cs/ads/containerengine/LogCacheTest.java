@@ -0,0 +1,118 @@
+package se.umu.cs.ads.containerengine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.Closeable;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LogCacheTest {
+	@TempDir
+	Path dir;
+
+	private List<Stream> opened;
+	private LogCache cache;
+
+	/**
+	 * Log stream handed out by the fake source
+	 */
+	private static class Stream implements Closeable {
+		final String name;
+		final boolean follow;
+		final LogSink sink;
+		boolean closed = false;
+
+		Stream(String name, boolean follow, LogSink sink) {
+			this.name = name;
+			this.follow = follow;
+			this.sink = sink;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	@BeforeEach
+	public void setUp() {
+		opened = new ArrayList<>();
+		cache = new LogCache(dir, (n, since, follow, sink) -> {
+			Stream stream = new Stream(n, follow, sink);
+			opened.add(stream);
+			return stream;
+		}, 2);
+	}
+
+	/**
+	 * Attaches the cache to a container and ends the read of its history,
+	 * so that the cache follows the log
+	 */
+	private Stream follow(String name) {
+		cache.attach(name);
+		Stream history = opened.get(opened.size() - 1);
+		assertEquals(name, history.name);
+		assertFalse(history.follow);
+		history.sink.done(null);
+
+		Stream follow = opened.get(opened.size() - 1);
+		assertEquals(name, follow.name);
+		assertTrue(follow.follow);
+		return follow;
+	}
+
+	@Test
+	public void followedLogAnswersQueries() {
+		assertNull(cache.query("a", -1, 0), "Nothing is cached yet");
+		assertEquals(1, opened.size(), "The query attaches the cache");
+
+		opened.get(0).sink.done(null);
+		assertNotNull(cache.query("a", -1, 0));
+		assertNotNull(cache.query("a", 10, 0));
+	}
+
+	@Test
+	public void leastRecentlyUsedLogIsDropped() {
+		Stream a = follow("a");
+		Stream b = follow("b");
+		// Using a makes b the least recently used log
+		assertNotNull(cache.query("a", -1, 0));
+
+		Stream c = follow("c");
+		assertTrue(b.closed);
+		assertFalse(a.closed);
+		assertFalse(c.closed);
+		assertNotNull(cache.query("a", -1, 0));
+		assertNotNull(cache.query("c", -1, 0));
+
+		// Querying b attaches it again and drops a in turn
+		assertNull(cache.query("b", -1, 0));
+		assertTrue(a.closed);
+		assertFalse(c.closed);
+	}
+
+	@Test
+	public void detachClosesStream() {
+		Stream a = follow("a");
+		cache.detach("a");
+		assertTrue(a.closed);
+		assertFalse(Files.exists(dir.resolve("a")));
+
+		int streams = opened.size();
+		cache.detach("a");
+		assertEquals(streams, opened.size());
+	}
+
+	@Test
+	public void failedHistoryLeavesLogDetached() {
+		cache.attach("a");
+		opened.get(0).sink.done(new RuntimeException("gone"));
+		assertEquals(1, opened.size(), "No stream follows a failed history");
+		assertNull(cache.query("a", -1, 0));
+		assertEquals(2, opened.size(), "The query attaches the cache again");
+	}
+}
@@ -0,0 +1,104 @@
+package se.umu.cs.ads.containerengine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LogSegmentTest {
+	private static final long START = 1000;
+	private static final int RECORD = ContainerLog.HEADER + 6 + ContainerLog.TRAILER;
+
+	@TempDir
+	Path dir;
+
+	private static long time(int i) {
+		return (i + 1) * 1000L;
+	}
+
+	private static byte[] record(int i) {
+		byte[] payload = String.format("%06d", i).getBytes(StandardCharsets.US_ASCII);
+		return ByteBuffer.allocate(RECORD)
+			.putLong(time(i))
+			.putInt(payload.length)
+			.put(payload)
+			.putInt(payload.length)
+			.array();
+	}
+
+	private LogSegment segment(int records, int capacity) throws IOException {
+		LogSegment segment = new LogSegment(dir.resolve(START + ".seg"), START, capacity);
+		for (int i = 0; i < records; i++)
+			segment.append(time(i), record(i), RECORD);
+		return segment;
+	}
+
+	@Test
+	public void recordsAreReadAtTheirOffsets() throws IOException {
+		LogSegment segment = segment(10, 10 * RECORD);
+		assertEquals(START, segment.getStart());
+		assertEquals(START + 10 * RECORD, segment.getEnd());
+		assertEquals(time(9), segment.getLastTime());
+
+		byte[] payload = new byte[6];
+		for (int i = 0; i < 10; i++) {
+			long offset = START + i * RECORD;
+			assertEquals(time(i), segment.readLong(offset));
+			assertEquals(6, segment.readInt(offset + 8));
+			segment.read(offset + ContainerLog.HEADER, payload, 6);
+			assertEquals(String.format("%06d", i), new String(payload, StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void fitsUpToCapacity() throws IOException {
+		LogSegment segment = segment(3, 4 * RECORD);
+		assertTrue(segment.fits(RECORD));
+		assertFalse(segment.fits(RECORD + 1));
+		segment.append(time(3), record(3), RECORD);
+		assertFalse(segment.fits(1));
+	}
+
+	@Test
+	public void floorIsAtOrBeforeTheRecord() throws IOException {
+		// Enough records for the index to grow past its initial size
+		int records = 100 * LogSegment.INDEX_INTERVAL / RECORD;
+		LogSegment segment = segment(records, records * RECORD);
+
+		for (int i = 0; i < records; i++) {
+			long offset = START + (long) i * RECORD;
+			long floor = segment.floor(time(i));
+			assertTrue(floor <= offset, "floor of record " + i);
+			assertTrue(offset - floor <= LogSegment.INDEX_INTERVAL + RECORD, "floor of record " + i + " is too far back");
+			assertEquals(0, (floor - START) % RECORD, "floor of record " + i + " is not a record");
+		}
+		assertEquals(START, segment.floor(0));
+		assertEquals(START, segment.floor(time(0)));
+	}
+
+	@Test
+	public void floorUsesTheIndexedRecords() throws IOException {
+		// The second indexed record is the first at or after INDEX_INTERVAL
+		int second = (LogSegment.INDEX_INTERVAL + RECORD - 1) / RECORD;
+		LogSegment segment = segment(3 * second, 3 * second * RECORD);
+
+		assertEquals(START, segment.floor(time(second)));
+		assertEquals(START + second * RECORD, segment.floor(time(second + 1)));
+		assertEquals(START + second * RECORD, segment.floor(time(2 * second - 1)));
+	}
+
+	@Test
+	public void deleteRemovesFile() throws IOException {
+		LogSegment segment = segment(1, RECORD);
+		Path path = dir.resolve(START + ".seg");
+		assertTrue(Files.exists(path));
+		segment.delete();
+		assertFalse(Files.exists(path));
+		segment.delete();
+	}
+}
@@ -0,0 +1,120 @@
+package se.umu.cs.ads.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+	/**
+	 * Checks that a value lands in a bucket whose highest value is at least
+	 * the value, at most 1/SUB_BUCKETS above it, and that the bucket below
+	 * ends before the value
+	 */
+	private static void assertRoundTrip(long micros) {
+		int index = LatencyHistogram.indexOf(micros);
+		assertTrue(index >= 0 && index < LatencyHistogram.BUCKETS, "bucket of " + micros);
+
+		long highest = LatencyHistogram.highestOf(index);
+		assertTrue(highest >= micros, micros + " is above its bucket, which ends at " + highest);
+		assertTrue(highest - micros <= micros / LatencyHistogram.SUB_BUCKETS, micros + " is too far below " + highest);
+		assertEquals(index, LatencyHistogram.indexOf(highest), "highest value of the bucket of " + micros);
+		if (index > 0)
+			assertTrue(LatencyHistogram.highestOf(index - 1) < micros, micros + " is in the bucket below");
+	}
+
+	@Test
+	public void bucketBoundariesRoundTrip() {
+		for (long micros : new long[] { 0, 1, 31, 32, 33, 63, 64, 65, 66, 67, 127, 128, 129, LatencyHistogram.MAX_VALUE })
+			assertRoundTrip(micros);
+
+		for (int bits = 1; bits <= LatencyHistogram.MAX_BITS; bits++) {
+			long power = 1L << bits;
+			assertRoundTrip(power - 1);
+			if (power <= LatencyHistogram.MAX_VALUE) {
+				assertRoundTrip(power);
+				assertRoundTrip(power + 1);
+			}
+		}
+
+		Random random = new Random(1);
+		for (int i = 0; i < 100_000; i++)
+			assertRoundTrip(random.nextLong() & LatencyHistogram.MAX_VALUE);
+	}
+
+	@Test
+	public void bucketsAreExact() {
+		assertEquals(31, LatencyHistogram.indexOf(31));
+		assertEquals(32, LatencyHistogram.indexOf(32));
+		assertEquals(63, LatencyHistogram.indexOf(63));
+		// From 64 on a bucket holds two values
+		assertEquals(64, LatencyHistogram.indexOf(64));
+		assertEquals(64, LatencyHistogram.indexOf(65));
+		assertEquals(65, LatencyHistogram.highestOf(64));
+		assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE));
+		assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestOf(LatencyHistogram.BUCKETS - 1));
+	}
+
+	@Test
+	public void bucketsCoverEveryValueOnce() {
+		long next = 0;
+		for (int index = 0; index < LatencyHistogram.BUCKETS; index++) {
+			assertEquals(index, LatencyHistogram.indexOf(next), "first value of bucket " + index);
+			next = LatencyHistogram.highestOf(index) + 1;
+		}
+		assertEquals(LatencyHistogram.MAX_VALUE + 1, next);
+	}
+
+	@Test
+	public void percentilesOfUniformDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		List<Long> values = new ArrayList<>();
+		for (long micros = 1; micros <= 1000; micros++)
+			values.add(micros);
+		Collections.shuffle(values, new Random(1));
+		for (long micros : values)
+			histogram.record(micros * 1000);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMean(), 1e-9);
+		assertEquals(1000, histogram.getMax());
+
+		for (double percentile : new double[] { 10, 50, 90, 99, 99.9 }) {
+			long exact = (long) Math.ceil(percentile * 10);
+			long reported = histogram.getPercentile(percentile);
+			assertTrue(reported >= exact && reported <= exact + exact / LatencyHistogram.SUB_BUCKETS,
+				"p" + percentile + " is " + reported + ", expected about " + exact);
+		}
+		assertEquals(503, histogram.getPercentile(50));
+		assertEquals(1, histogram.getPercentile(0));
+		// The last bucket is capped at the maximum
+		assertEquals(1000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void percentileOfSkewedDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++)
+			histogram.record(10_000);
+		histogram.record(5_000_000);
+
+		assertEquals(10, histogram.getPercentile(50));
+		assertEquals(10, histogram.getPercentile(99));
+		assertEquals(5000, histogram.getPercentile(99.5));
+	}
+
+	@Test
+	public void outOfRangeValuesAreClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMean(), 0);
+
+		histogram.record(-5000);
+		assertEquals(0, histogram.getPercentile(50));
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getPercentile(100));
+	}
+}
@@ -0,0 +1,134 @@
+package se.umu.cs.ads.nodemanager;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static se.umu.cs.ads.types.ContainerFixtures.container;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.*;
+
+public class PlaceContainersTest {
+	private static final PicoAddress A = new PicoAddress("10.0.0.1", 9000);
+	private static final PicoAddress B = new PicoAddress("10.0.0.2", 9000);
+	private static final int[] NO_PORTS = new int[0];
+
+	/**
+	 * Evaluations of a batch from a node without conflicts, as returned by
+	 * NodeManager.evaluateContainers
+	 */
+	private static List<ContainerEvaluation> evaluate(List<PicoContainer> batch, double score) {
+		List<ContainerEvaluation> res = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (PicoContainer cont : batch)
+			res.add(new ContainerEvaluation(cont.getName(), score, !names.add(cont.getName()), NO_PORTS));
+		return res;
+	}
+
+	private static List<PicoAddress> nodes(List<Placement> placements) {
+		List<PicoAddress> res = new ArrayList<>();
+		for (Placement placement : placements)
+			res.add(placement.getNode());
+		return res;
+	}
+
+	@Test
+	public void placesOnLowestScore() {
+		List<PicoContainer> batch = List.of(container("web"));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, evaluate(batch, 0.7), B, evaluate(batch, 0.3));
+
+		List<Placement> res = NodeManager.placeContainers(batch, evals);
+		assertEquals(1, res.size());
+		assertTrue(res.get(0).isPlaced());
+		assertEquals("web", res.get(0).getName());
+		assertEquals(B, res.get(0).getNode());
+	}
+
+	@Test
+	public void batchIsSpreadByPenalty() {
+		List<PicoContainer> batch = List.of(container("a"), container("b"), container("c"));
+		double gap = NodeManager.PLACEMENT_PENALTY / 2;
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, evaluate(batch, 0.5), B, evaluate(batch, 0.5 + gap));
+
+		// A gets the first, then B is better by half a penalty, then A again
+		assertEquals(List.of(A, B, A), nodes(NodeManager.placeContainers(batch, evals)));
+	}
+
+	@Test
+	public void portTakenInBatchGoesElsewhere() {
+		List<PicoContainer> batch = List.of(container("first", 8080), container("second", 8080), container("third", 8080));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, evaluate(batch, 0.1), B, evaluate(batch, 0.9));
+
+		List<Placement> res = NodeManager.placeContainers(batch, evals);
+		assertEquals(A, res.get(0).getNode());
+		assertEquals(B, res.get(1).getNode());
+		assertFalse(res.get(2).isPlaced(), "Port 8080 is taken on both nodes");
+		assertNotNull(res.get(2).getError());
+	}
+
+	@Test
+	public void portsTakenInBatchAreKeptPerNode() {
+		List<PicoContainer> batch = List.of(container("first", 8080, 8081), container("second", 8081), container("third", 9090));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, evaluate(batch, 0.1));
+
+		List<Placement> res = NodeManager.placeContainers(batch, evals);
+		assertEquals(A, res.get(0).getNode());
+		assertFalse(res.get(1).isPlaced());
+		assertEquals(A, res.get(2).getNode());
+	}
+
+	@Test
+	public void evaluatedPortConflictSkipsNode() {
+		List<PicoContainer> batch = List.of(container("web", 8080));
+		List<ContainerEvaluation> conflict = List.of(new ContainerEvaluation("web", 0.1, false, new int[] { 8080 }));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, conflict, B, evaluate(batch, 0.9));
+
+		assertEquals(List.of(B), nodes(NodeManager.placeContainers(batch, evals)));
+	}
+
+	@Test
+	public void nameConflictOnAnyNodeFails() {
+		List<PicoContainer> batch = List.of(container("web"), container("db"));
+		List<ContainerEvaluation> conflict = List.of(
+			new ContainerEvaluation("web", 0.1, true, NO_PORTS),
+			new ContainerEvaluation("db", 0.1, false, NO_PORTS));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, conflict, B, evaluate(batch, 0.9));
+
+		List<Placement> res = NodeManager.placeContainers(batch, evals);
+		assertFalse(res.get(0).isPlaced());
+		assertTrue(res.get(0).getError().contains("web"), res.get(0).getError());
+		assertEquals(A, res.get(1).getNode());
+	}
+
+	@Test
+	public void duplicateNameInBatchFailsOnlyTheSecond() {
+		List<PicoContainer> batch = List.of(container("web"), container("db"), container("web"));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, evaluate(batch, 0.1), B, evaluate(batch, 0.9));
+
+		List<Placement> res = NodeManager.placeContainers(batch, evals);
+		assertEquals(3, res.size());
+		assertTrue(res.get(0).isPlaced());
+		assertTrue(res.get(1).isPlaced());
+		assertFalse(res.get(2).isPlaced());
+		assertEquals("web", res.get(2).getName());
+	}
+
+	@Test
+	public void nodeWithoutEvaluationsIsIgnored() {
+		List<PicoContainer> batch = List.of(container("web"), container("db"));
+		Map<PicoAddress, List<ContainerEvaluation>> evals = Map.of(A, List.of(), B, evaluate(batch, 0.9));
+
+		assertEquals(List.of(B, B), nodes(NodeManager.placeContainers(batch, evals)));
+	}
+
+	@Test
+	public void noNodesFailsEveryContainer() {
+		List<PicoContainer> batch = List.of(container("web"), container("db"));
+		List<Placement> res = NodeManager.placeContainers(batch, Map.of());
+
+		assertEquals(2, res.size());
+		for (Placement placement : res)
+			assertFalse(placement.isPlaced());
+	}
+}
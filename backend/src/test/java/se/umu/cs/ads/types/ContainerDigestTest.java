@@ -0,0 +1,89 @@
+package se.umu.cs.ads.types;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static se.umu.cs.ads.types.ContainerFixtures.container;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+public class ContainerDigestTest {
+
+	private static List<PicoContainer> containers(int n) {
+		List<PicoContainer> res = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			res.add(container("c" + i, 8000 + i).setEnv(new ArrayList<>(List.of("ID=" + i))));
+		return res;
+	}
+
+	@Test
+	public void equalViewsHaveNoDiff() {
+		long[] a = ContainerDigest.buckets(containers(100));
+		List<PicoContainer> shuffled = containers(100);
+		Collections.shuffle(shuffled, new Random(1));
+		long[] b = ContainerDigest.buckets(shuffled);
+
+		assertEquals(ContainerDigest.root(a), ContainerDigest.root(b));
+		assertTrue(ContainerDigest.diff(a, b).isEmpty());
+	}
+
+	@Test
+	public void snapshotDigestMatchesViews() {
+		List<PicoContainer> view = containers(100);
+		view.get(3).setPorts(new HashMap<>(Map.of(8003, 80, 9003, 443)));
+		view.add(new PicoContainer("bare"));
+		ContainerSnapshot snapshot = ContainerSnapshot.of(view, 1);
+
+		assertArrayEquals(ContainerDigest.buckets(view), ContainerDigest.buckets(snapshot));
+		assertArrayEquals(ContainerDigest.buckets(snapshot.getContainers()), ContainerDigest.buckets(snapshot));
+	}
+
+	@Test
+	public void changedContainerDiffersInItsBucket() {
+		List<PicoContainer> view = containers(100);
+		long[] before = ContainerDigest.buckets(view);
+		view.get(42).setState(PicoContainerState.STOPPED);
+		long[] after = ContainerDigest.buckets(view);
+
+		assertNotEquals(ContainerDigest.root(before), ContainerDigest.root(after));
+		assertEquals(Set.of(ContainerDigest.bucketOf("c42")), ContainerDigest.diff(before, after));
+	}
+
+	@Test
+	public void missingContainersDifferInTheirBuckets() {
+		List<PicoContainer> full = containers(100);
+		List<PicoContainer> partial = new ArrayList<>(full);
+		partial.remove(7);
+		partial.remove(60);
+
+		Set<Integer> expected = Set.of(ContainerDigest.bucketOf("c7"), ContainerDigest.bucketOf("c61"));
+		Set<Integer> diff = ContainerDigest.diff(ContainerDigest.buckets(full), ContainerDigest.buckets(partial));
+		assertEquals(expected, diff);
+	}
+
+	@Test
+	public void everyFieldIsCovered() {
+		PicoContainer base = containers(1).get(0);
+		long hash = ContainerDigest.hash(base);
+
+		assertNotEquals(hash, ContainerDigest.hash(containers(1).get(0).setImage("redis")));
+		assertNotEquals(hash, ContainerDigest.hash(containers(1).get(0).setState(PicoContainerState.STOPPED)));
+		assertNotEquals(hash, ContainerDigest.hash(containers(1).get(0).setPorts(new HashMap<>(Map.of(8000, 81)))));
+		assertNotEquals(hash, ContainerDigest.hash(containers(1).get(0).setEnv(new ArrayList<>(List.of("ID=1")))));
+		assertEquals(hash, ContainerDigest.hash(containers(1).get(0)));
+	}
+
+	@Test
+	public void shortDigestIsPaddedWithEmptyBuckets() {
+		long[] full = new long[ContainerDigest.BUCKETS];
+		full[3] = 17;
+		assertEquals(Set.of(3), ContainerDigest.diff(full, new long[0]));
+		assertTrue(ContainerDigest.diff(new long[ContainerDigest.BUCKETS], new long[0]).isEmpty());
+	}
+
+	@Test
+	public void emptyViewHasEmptyBuckets() {
+		long[] buckets = ContainerDigest.buckets(List.of());
+		assertArrayEquals(new long[ContainerDigest.BUCKETS], buckets);
+	}
+}
@@ -0,0 +1,39 @@
+package se.umu.cs.ads.types;
+
+import java.util.*;
+
+/**
+ * Containers shared by the tests. The setters of PicoContainer return the
+ * container, so a test changes what it cares about by chaining them.
+ */
+public final class ContainerFixtures {
+
+	private ContainerFixtures() {}
+
+	/**
+	 * Creates a running nginx container that maps the given host ports to
+	 * port 80
+	 * @param name Name of the container
+	 * @param hostPorts Host ports of the container
+	 * @return PicoContainer object
+	 */
+	public static PicoContainer container(String name, int... hostPorts) {
+		Map<Integer, Integer> ports = new HashMap<>();
+		for (int port : hostPorts)
+			ports.put(port, 80);
+		return new PicoContainer(name)
+			.setImage("nginx:latest")
+			.setPorts(ports)
+			.setState(PicoContainerState.RUNNING);
+	}
+
+	/**
+	 * Creates an nginx container without ports in the given state
+	 * @param name Name of the container
+	 * @param state State of the container
+	 * @return PicoContainer object
+	 */
+	public static PicoContainer container(String name, PicoContainerState state) {
+		return container(name).setState(state);
+	}
+}
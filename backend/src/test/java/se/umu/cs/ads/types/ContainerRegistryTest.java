@@ -0,0 +1,216 @@
+package se.umu.cs.ads.types;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+public class ContainerRegistryTest {
+
+	private static PicoContainer container(int i) {
+		return ContainerFixtures.container("c" + i, 10000 + i)
+			.setImage("image-" + (i % 3))
+			.setEnv(new ArrayList<>(List.of("SHARED=1", "ID=" + i)))
+			.setState(PicoContainerState.values()[i % PicoContainerState.values().length]);
+	}
+
+	private static void assertView(PicoContainer expected, PicoContainer view) {
+		assertNotNull(view, expected.getName());
+		assertEquals(expected.getName(), view.getName());
+		assertEquals(expected.getImage(), view.getImage());
+		assertEquals(expected.getPortsMap(), view.getPortsMap());
+		assertEquals(expected.getEnv(), view.getEnv());
+		assertEquals(expected.getState(), view.getState());
+	}
+
+	@Test
+	public void viewsMatchContainers() {
+		List<PicoContainer> containers = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			containers.add(container(i));
+		containers.add(new PicoContainer("bare"));
+
+		ContainerRegistry registry = ContainerRegistry.of(containers);
+		assertEquals(containers.size(), registry.size());
+		for (PicoContainer cont : containers)
+			assertView(cont, registry.get(cont.getName()));
+
+		PicoContainer bare = registry.get("bare");
+		assertNull(bare.getImage());
+		assertNull(bare.getState());
+		assertTrue(bare.getEnv().isEmpty());
+		assertTrue(bare.getPortsMap().isEmpty());
+		assertNull(registry.get("missing"));
+	}
+
+	@Test
+	public void fieldsMatchViews() {
+		List<PicoContainer> containers = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+			containers.add(container(i).setPorts(new HashMap<>(Map.of(10000 + i, 80, 20000 + i, 443))));
+		containers.add(new PicoContainer("bare"));
+
+		ContainerRegistry registry = ContainerRegistry.of(containers);
+		for (int index = 0; index < registry.size(); index++) {
+			PicoContainer view = registry.getContainers().get(index);
+			assertEquals(index, registry.indexOf(registry.nameAt(index)));
+			assertEquals(view.getImage(), registry.imageAt(index));
+			assertEquals(view.getState(), registry.stateAt(index));
+
+			List<String> env = new ArrayList<>();
+			for (int i = 0; i < registry.envCountAt(index); i++)
+				env.add(registry.envAt(index, i));
+			assertEquals(view.getEnv(), env);
+
+			Map<Integer, Integer> ports = new HashMap<>();
+			for (int i = 0; i < registry.portCountAt(index); i++)
+				ports.put(registry.hostPortAt(index, i), registry.containerPortAt(index, i));
+			assertEquals(view.getPortsMap(), ports);
+		}
+		assertEquals(-1, registry.indexOf("missing"));
+		assertThrows(IndexOutOfBoundsException.class, () -> registry.imageAt(registry.size()));
+	}
+
+	@Test
+	public void putReplacesByName() {
+		ContainerRegistry.Builder builder = new ContainerRegistry.Builder(4);
+		assertNull(builder.put(container(1)));
+
+		PicoContainer next = container(1).setState(PicoContainerState.STOPPED).setImage("other");
+		PicoContainer previous = builder.put(next);
+		assertView(container(1), previous);
+
+		ContainerRegistry registry = builder.build();
+		assertEquals(1, registry.size());
+		assertView(next, registry.get("c1"));
+	}
+
+	@Test
+	public void removeMovesLastIntoSlot() {
+		ContainerRegistry.Builder builder = new ContainerRegistry.Builder(4);
+		for (int i = 0; i < 10; i++)
+			builder.put(container(i));
+
+		assertView(container(3), builder.remove("c3"));
+		assertNull(builder.remove("c3"));
+		assertFalse(builder.contains("c3"));
+
+		ContainerRegistry registry = builder.build();
+		assertEquals(9, registry.size());
+		Set<String> names = new HashSet<>();
+		for (PicoContainer cont : registry.getContainers()) {
+			names.add(cont.getName());
+			assertView(container(Integer.parseInt(cont.getName().substring(1))), cont);
+		}
+		assertEquals(9, names.size());
+		assertFalse(names.contains("c3"));
+	}
+
+	@Test
+	public void removeIfMatchesNames() {
+		List<PicoContainer> containers = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+			containers.add(container(i));
+
+		ContainerRegistry.Builder builder = ContainerRegistry.of(containers).toBuilder();
+		builder.removeIf(name -> name.endsWith("0"));
+		ContainerRegistry registry = builder.build();
+
+		assertEquals(45, registry.size());
+		for (int i = 0; i < 50; i++)
+			assertEquals(i % 10 != 0, registry.contains("c" + i));
+	}
+
+	@Test
+	public void tombstonesAreReusedAndLookupsSurvive() {
+		ContainerRegistry.Builder builder = new ContainerRegistry.Builder(4);
+		for (int i = 0; i < 20; i++)
+			builder.put(container(i));
+
+		// Churn far beyond the table size, every removal leaves a tombstone
+		for (int round = 0; round < 1000; round++) {
+			builder.remove("c" + (round % 20));
+			builder.put(container(round % 20));
+		}
+		for (int i = 0; i < 20; i++)
+			assertTrue(builder.contains("c" + i));
+
+		ContainerRegistry registry = builder.build();
+		assertEquals(20, registry.size());
+		for (int i = 0; i < 20; i++)
+			assertView(container(i), registry.get("c" + i));
+		assertFalse(registry.contains("c20"));
+	}
+
+	@Test
+	public void builderDoesNotChangeBase() {
+		ContainerRegistry base = ContainerRegistry.of(List.of(container(1), container(2)));
+		ContainerRegistry.Builder builder = base.toBuilder();
+		builder.remove("c1");
+		builder.put(container(3));
+		builder.put(container(2).setImage("changed"));
+		ContainerRegistry next = builder.build();
+
+		assertEquals(2, base.size());
+		assertView(container(1), base.get("c1"));
+		assertView(container(2), base.get("c2"));
+		assertFalse(base.contains("c3"));
+
+		assertFalse(next.contains("c1"));
+		assertEquals("changed", next.get("c2").getImage());
+		assertView(container(3), next.get("c3"));
+	}
+
+	@Test
+	public void forkedBuildersDoNotShareNewStrings() {
+		ContainerRegistry base = ContainerRegistry.of(List.of(container(1)));
+
+		ContainerRegistry.Builder first = base.toBuilder();
+		ContainerRegistry.Builder second = base.toBuilder();
+		first.put(new PicoContainer("a").setImage("first-image").setEnv(new ArrayList<>(List.of("A=1"))));
+		second.put(new PicoContainer("b").setImage("second-image").setEnv(new ArrayList<>(List.of("B=2"))));
+		ContainerRegistry one = first.build();
+		ContainerRegistry two = second.build();
+
+		assertEquals("first-image", one.get("a").getImage());
+		assertEquals(List.of("A=1"), one.get("a").getEnv());
+		assertEquals("second-image", two.get("b").getImage());
+		assertEquals(List.of("B=2"), two.get("b").getEnv());
+		assertView(container(1), one.get("c1"));
+		assertView(container(1), two.get("c1"));
+		assertView(container(1), base.get("c1"));
+	}
+
+	@Test
+	public void removedStringsAreCompacted() {
+		ContainerRegistry registry = ContainerRegistry.empty();
+		for (int round = 0; round < 100; round++) {
+			ContainerRegistry.Builder builder = registry.toBuilder();
+			for (int i = 0; i < 100; i++) {
+				int id = round * 100 + i;
+				builder.remove("c" + (id - 100));
+				builder.put(container(id));
+			}
+			registry = builder.build();
+		}
+
+		// 100 containers with a unique variable each, three images and one
+		// shared variable. Strings of removed containers are dropped.
+		assertEquals(100, registry.size());
+		assertTrue(registry.dictionarySize() <= 4 * (100 + 4), "Dictionary size " + registry.dictionarySize());
+		for (int i = 9900; i < 10000; i++)
+			assertView(container(i), registry.get("c" + i));
+	}
+
+	@Test
+	public void emptyRegistryStaysEmpty() {
+		ContainerRegistry.Builder builder = ContainerRegistry.empty().toBuilder();
+		builder.put(container(1));
+		builder.build();
+
+		assertEquals(0, ContainerRegistry.empty().size());
+		assertEquals(0, ContainerRegistry.empty().dictionarySize());
+		assertTrue(ContainerRegistry.empty().getContainers().isEmpty());
+	}
+}
@@ -0,0 +1,69 @@
+package se.umu.cs.ads.types;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class MemberUpdateTest {
+	private static final PicoAddress ADR = new PicoAddress("10.0.0.1", 9000);
+
+	private static MemberUpdate update(MemberStatus status, long incarnation) {
+		return new MemberUpdate(ADR, status, incarnation);
+	}
+
+	@Test
+	public void anyUpdateOverridesUnknownMember() {
+		for (MemberStatus status : MemberStatus.values())
+			assertTrue(update(status, 0).overrides(null));
+	}
+
+	@Test
+	public void aliveNeedsHigherIncarnation() {
+		MemberUpdate alive = update(MemberStatus.ALIVE, 3);
+		assertFalse(update(MemberStatus.ALIVE, 3).overrides(alive));
+		assertFalse(update(MemberStatus.ALIVE, 2).overrides(alive));
+		assertTrue(update(MemberStatus.ALIVE, 4).overrides(alive));
+
+		MemberUpdate suspect = update(MemberStatus.SUSPECT, 3);
+		assertFalse(update(MemberStatus.ALIVE, 3).overrides(suspect));
+		assertTrue(update(MemberStatus.ALIVE, 4).overrides(suspect));
+	}
+
+	@Test
+	public void suspectOverridesAliveAtSameIncarnation() {
+		MemberUpdate alive = update(MemberStatus.ALIVE, 3);
+		assertTrue(update(MemberStatus.SUSPECT, 3).overrides(alive));
+		assertTrue(update(MemberStatus.SUSPECT, 4).overrides(alive));
+		assertFalse(update(MemberStatus.SUSPECT, 2).overrides(alive));
+	}
+
+	@Test
+	public void suspectNeedsHigherIncarnationOverSuspect() {
+		MemberUpdate suspect = update(MemberStatus.SUSPECT, 3);
+		assertFalse(update(MemberStatus.SUSPECT, 3).overrides(suspect));
+		assertTrue(update(MemberStatus.SUSPECT, 4).overrides(suspect));
+	}
+
+	@Test
+	public void deadOverridesCurrentIncarnation() {
+		assertTrue(update(MemberStatus.DEAD, 3).overrides(update(MemberStatus.ALIVE, 3)));
+		assertTrue(update(MemberStatus.DEAD, 3).overrides(update(MemberStatus.SUSPECT, 3)));
+		assertTrue(update(MemberStatus.DEAD, 5).overrides(update(MemberStatus.ALIVE, 3)));
+	}
+
+	@Test
+	public void staleDeadDoesNotOverrideRefutation() {
+		assertFalse(update(MemberStatus.DEAD, 3).overrides(update(MemberStatus.ALIVE, 4)));
+		assertFalse(update(MemberStatus.DEAD, 3).overrides(update(MemberStatus.SUSPECT, 4)));
+	}
+
+	@Test
+	public void refutationOverridesDead() {
+		MemberUpdate dead = update(MemberStatus.DEAD, 3);
+		assertTrue(update(MemberStatus.ALIVE, 4).overrides(dead));
+		assertFalse(update(MemberStatus.ALIVE, 3).overrides(dead));
+		assertFalse(update(MemberStatus.SUSPECT, 4).overrides(dead));
+		assertFalse(update(MemberStatus.DEAD, 4).overrides(dead));
+	}
+}
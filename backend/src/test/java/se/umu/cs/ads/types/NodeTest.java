@@ -0,0 +1,130 @@
+package se.umu.cs.ads.types;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static se.umu.cs.ads.types.ContainerFixtures.container;
+
+import java.util.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class NodeTest {
+	private static final PicoAddress ADR = new PicoAddress("10.0.0.1", 9000);
+	private static final long START = 100;
+	private Node node;
+
+	@BeforeEach
+	public void prepare() {
+		node = new Node(ADR, "k8-test", new ArrayList<>(), START);
+	}
+
+	@Test
+	public void noChangesAtCurrentVersion() {
+		List<ContainerEvent> changes = node.getChangesSince(START);
+		assertNotNull(changes);
+		assertTrue(changes.isEmpty());
+	}
+
+	@Test
+	public void changesAreRecordedWithVersions() {
+		node.addContainer(container("a", PicoContainerState.RUNNING));
+		node.addContainer(container("b", PicoContainerState.RUNNING));
+		node.addContainer(container("a", PicoContainerState.STOPPED));
+		assertEquals(START + 3, node.getVersion());
+
+		List<ContainerEvent> changes = node.getChangesSince(START);
+		assertEquals(3, changes.size());
+		assertEquals(ContainerEvent.Type.ADDED, changes.get(0).getType());
+		assertEquals(ContainerEvent.Type.ADDED, changes.get(1).getType());
+		assertEquals(ContainerEvent.Type.UPDATED, changes.get(2).getType());
+		assertEquals(START + 3, changes.get(2).getVersion());
+
+		List<ContainerEvent> since = node.getChangesSince(START + 2);
+		assertEquals(1, since.size());
+		assertEquals("a", since.get(0).getContainer().getName());
+	}
+
+	@Test
+	public void unchangedContainerIsNotRecorded() {
+		node.addContainer(container("a", PicoContainerState.RUNNING));
+		node.addContainer(container("a", PicoContainerState.RUNNING));
+		assertEquals(START + 1, node.getVersion());
+	}
+
+	@Test
+	public void setContainersRecordsRemovals() {
+		node.addContainer(container("a", PicoContainerState.RUNNING));
+		node.addContainer(container("b", PicoContainerState.RUNNING));
+		node.setContainers(List.of(container("b", PicoContainerState.RUNNING)));
+
+		List<ContainerEvent> changes = node.getChangesSince(START + 2);
+		assertEquals(1, changes.size());
+		assertEquals(ContainerEvent.Type.REMOVED, changes.get(0).getType());
+		assertEquals("a", changes.get(0).getContainer().getName());
+		assertFalse(node.hasContainer("a"));
+	}
+
+	@Test
+	public void overflowedLogRequiresSnapshot() {
+		int total = Node.MAX_CHANGES + 10;
+		for (int i = 0; i < total; i++)
+			node.addContainer(container("c" + i, PicoContainerState.RUNNING));
+
+		assertNull(node.getChangesSince(START));
+		assertNull(node.getChangesSince(START + 9));
+
+		List<ContainerEvent> changes = node.getChangesSince(START + 10);
+		assertNotNull(changes);
+		assertEquals(Node.MAX_CHANGES, changes.size());
+		assertEquals(START + 11, changes.get(0).getVersion());
+	}
+
+	@Test
+	public void unknownFutureVersionRequiresSnapshot() {
+		node.addContainer(container("a", PicoContainerState.RUNNING));
+		assertNull(node.getChangesSince(START + 5));
+	}
+
+	@Test
+	public void changesApplyToView() {
+		node.addContainer(container("a", PicoContainerState.RUNNING));
+		node.addContainer(container("b", PicoContainerState.RUNNING));
+		node.setContainers(List.of(container("b", PicoContainerState.STOPPED)));
+
+		Node view = new Node(ADR, "k8-test", new ArrayList<>(), START);
+		assertTrue(view.applyChanges(node.getChangesSince(START), START, node.getVersion()));
+		assertEquals(node.getVersion(), view.getVersion());
+		assertFalse(view.hasContainer("a"));
+		assertEquals(PicoContainerState.STOPPED, view.getContainer("b").getState());
+	}
+
+	@Test
+	public void staleChangesAreIgnored() {
+		Node view = new Node(ADR, "k8-test", new ArrayList<>(), START + 5);
+		List<ContainerEvent> events = List.of(
+			new ContainerEvent(ContainerEvent.Type.ADDED, START + 1, container("a", PicoContainerState.RUNNING)));
+
+		assertFalse(view.applyChanges(events, START, START + 1));
+		assertFalse(view.applyChanges(events, START + 5, START + 5));
+		assertFalse(view.applyChanges(events, START + 5, START + 4));
+		assertEquals(START + 5, view.getVersion());
+		assertFalse(view.hasContainer("a"));
+
+		assertTrue(view.applyChanges(events, START + 5, START + 6));
+		assertEquals(START + 6, view.getVersion());
+		assertTrue(view.hasContainer("a"));
+	}
+
+	@Test
+	public void olderSnapshotIsNotApplied() {
+		node.applySnapshot(List.of(container("a", PicoContainerState.RUNNING)), START + 10);
+
+		assertFalse(node.applySnapshotIfNewer(List.of(), START + 10));
+		assertFalse(node.applySnapshotIfNewer(List.of(), START + 5));
+		assertTrue(node.hasContainer("a"));
+
+		assertTrue(node.applySnapshotIfNewer(List.of(container("b", PicoContainerState.RUNNING)), START + 11));
+		assertFalse(node.hasContainer("a"));
+		assertTrue(node.hasContainer("b"));
+	}
+}
@@ -0,0 +1,129 @@
+package se.umu.cs.ads.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.Closeable;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import se.umu.cs.ads.types.LogLine;
+import se.umu.cs.ads.types.PicoAddress;
+
+public class LogMergeTest {
+	private static final PicoAddress NODE = new PicoAddress("10.0.0.1", 9000);
+
+	/**
+	 * Stream of lines that counts how far it was read and whether it was
+	 * closed
+	 */
+	private static class Source implements Iterator<LogLine>, Closeable {
+		private final Iterator<LogLine> lines;
+		private int read = 0;
+		private boolean closed = false;
+
+		Source(String container, long... times) {
+			List<LogLine> lines = new ArrayList<>();
+			for (long time : times)
+				lines.add(new LogLine(container, NODE, time, container + "@" + time));
+			this.lines = lines.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !closed && lines.hasNext();
+		}
+
+		@Override
+		public LogLine next() {
+			read++;
+			return lines.next();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private static List<String> drain(LogMerge merge) {
+		List<String> res = new ArrayList<>();
+		while (merge.hasNext())
+			res.add(merge.next().getLine());
+		return res;
+	}
+
+	@Test
+	public void linesAreOrderedByTime() {
+		LogMerge merge = new LogMerge(List.of(
+			new Source("a", 1, 4, 7, 10),
+			new Source("b", 2, 5, 8),
+			new Source("c", 3, 6, 9, 11, 12)));
+
+		List<LogLine> lines = new ArrayList<>();
+		merge.forEachRemaining(lines::add);
+		assertEquals(12, lines.size());
+		for (int i = 0; i < lines.size(); i++)
+			assertEquals(i + 1, lines.get(i).getTime());
+	}
+
+	@Test
+	public void equalTimesKeepStreamOrder() {
+		LogMerge merge = new LogMerge(List.of(
+			new Source("a", 1, 2, 2),
+			new Source("b", 2, 3),
+			new Source("c", 1, 2)));
+
+		assertEquals(List.of("a@1", "c@1", "a@2", "a@2", "b@2", "c@2", "b@3"), drain(merge));
+	}
+
+	@Test
+	public void emptyStreamsAreSkipped() {
+		LogMerge merge = new LogMerge(List.of(new Source("a"), new Source("b", 5), new Source("c")));
+		assertEquals(List.of("b@5"), drain(merge));
+
+		assertFalse(new LogMerge(List.of()).hasNext());
+	}
+
+	@Test
+	public void exhaustedMergeThrows() {
+		LogMerge merge = new LogMerge(List.of(new Source("a", 1)));
+		merge.next();
+		assertThrows(NoSuchElementException.class, merge::next);
+	}
+
+	@Test
+	public void streamsAreReadOnDemand() {
+		Source a = new Source("a", 1, 2, 3, 4);
+		Source b = new Source("b", 10, 20);
+		LogMerge merge = new LogMerge(List.of(a, b));
+		assertEquals(0, a.read + b.read, "Nothing is read before the merge is");
+
+		merge.next();
+		merge.next();
+		// One line ahead per stream is held on the heap
+		assertEquals(3, a.read);
+		assertEquals(1, b.read);
+	}
+
+	@Test
+	public void closeEndsMergeAndClosesStreams() {
+		Source a = new Source("a", 1, 2, 3);
+		Source b = new Source("b", 1, 2, 3);
+		LogMerge merge = new LogMerge(List.of(a, b));
+		merge.next();
+
+		merge.close();
+		assertTrue(a.closed);
+		assertTrue(b.closed);
+		assertFalse(merge.hasNext());
+	}
+
+	@Test
+	public void plainIteratorsAreNotClosed() {
+		Iterator<LogLine> plain = List.of(new LogLine("a", NODE, 1, "x")).iterator();
+		LogMerge merge = new LogMerge(List.of(plain));
+		merge.close();
+		assertTrue(plain.hasNext());
+	}
+}
@@ -0,0 +1,111 @@
+package se.umu.cs.ads.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+public class PortBitmapTest {
+
+	@Test
+	public void setGetAndClear() {
+		PortBitmap ports = new PortBitmap();
+		for (int port : new int[] { 1, 63, 64, 65, 8080, PortBitmap.PORTS - 1 }) {
+			assertFalse(ports.get(port));
+			ports.set(port);
+			assertTrue(ports.get(port), "port " + port);
+		}
+		assertEquals(6, ports.cardinality());
+		assertFalse(ports.get(62));
+		assertFalse(ports.get(66));
+
+		ports.clear(64);
+		assertFalse(ports.get(64));
+		assertTrue(ports.get(63));
+		assertTrue(ports.get(65));
+		assertEquals(5, ports.cardinality());
+	}
+
+	@Test
+	public void invalidPortsAreIgnored() {
+		PortBitmap ports = new PortBitmap();
+		for (int port : new int[] { 0, -1, PortBitmap.PORTS, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+			assertFalse(PortBitmap.isPort(port));
+			ports.set(port);
+			assertFalse(ports.get(port));
+			ports.clear(port);
+		}
+		assertEquals(0, ports.cardinality());
+	}
+
+	@Test
+	public void conflictsAndIntersects() {
+		PortBitmap ports = new PortBitmap();
+		ports.set(80);
+		ports.set(443);
+
+		assertArrayEquals(new int[] { 443 }, ports.conflicts(List.of(8080, 443, 0)));
+		assertArrayEquals(new int[0], ports.conflicts(List.of(8080)));
+		assertArrayEquals(new int[0], ports.conflicts(List.of()));
+		assertTrue(ports.intersects(List.of(22, 80)));
+		assertFalse(ports.intersects(List.of(22, -80)));
+	}
+
+	@Test
+	public void nextClearSkipsSetPorts() {
+		PortBitmap ports = new PortBitmap();
+		assertEquals(30000, ports.nextClear(30000, 32767));
+
+		// Spans a word boundary
+		for (int port = 30000; port < 30200; port++)
+			ports.set(port);
+		assertEquals(30200, ports.nextClear(30000, 32767));
+		assertEquals(-1, ports.nextClear(30000, 30199));
+		assertEquals(30200, ports.nextClear(30100, 30200));
+
+		ports.clear(30150);
+		assertEquals(30150, ports.nextClear(30000, 32767));
+	}
+
+	@Test
+	public void nextClearStaysInRange() {
+		PortBitmap ports = new PortBitmap();
+		assertEquals(1, ports.nextClear(0, 10));
+		assertEquals(-1, ports.nextClear(20, 10));
+		assertEquals(-1, ports.nextClear(PortBitmap.PORTS, PortBitmap.PORTS + 10));
+
+		ports.set(PortBitmap.PORTS - 1);
+		assertEquals(-1, ports.nextClear(PortBitmap.PORTS - 1, Integer.MAX_VALUE));
+		ports.set(PortBitmap.PORTS - 2);
+		assertEquals(PortBitmap.PORTS - 3, ports.nextClear(PortBitmap.PORTS - 3, PortBitmap.PORTS + 3));
+	}
+
+	@Test
+	public void nextClearOnFullRange() {
+		PortBitmap ports = new PortBitmap();
+		for (int port = 1; port < PortBitmap.PORTS; port++)
+			ports.set(port);
+		assertEquals(PortBitmap.PORTS - 1, ports.cardinality());
+		assertEquals(-1, ports.nextClear(1, PortBitmap.PORTS - 1));
+	}
+
+	@Test
+	public void orAndCopy() {
+		PortBitmap a = new PortBitmap();
+		PortBitmap b = new PortBitmap();
+		a.set(100);
+		b.set(200);
+
+		PortBitmap copy = a.copy();
+		a.or(b);
+		assertTrue(a.get(100));
+		assertTrue(a.get(200));
+		assertEquals(2, a.cardinality());
+
+		assertTrue(copy.get(100));
+		assertFalse(copy.get(200));
+		copy.set(300);
+		assertFalse(a.get(300));
+	}
+}
@@ -22,6 +22,28 @@ def create_containers(baseUrl, container_names, n) -> list[str]:
 
 	return containers
 
+def create_containers_bulk(baseUrl, container_names, n) -> list[str]:
+	url = baseUrl + "/containers/bulk"
+	containers = []
+	lines = []
+	for i in range(n):
+		image = random.choice(container_names)
+		name = f"{image}-{i}".replace(":", "-")
+		containers.append(name)
+		lines.append(json.dumps({"name": name, "image": image}))
+
+	print(f"CREATE {n} containers in bulk")
+	headers = {"Content-Type": "application/x-ndjson"}
+	resp = requests.post(url, data="\n".join(lines), headers=headers, stream=True)
+	for line in resp.iter_lines():
+		if not line:
+			continue
+		result = json.loads(line)
+		where = result.get("node") if result["placed"] else result.get("error")
+		print(f"CREATE {result['name']}: {where}")
+
+	return containers
+
 def delete_containers(baseUrl, containers):
 	for cont in containers:
 		url = baseUrl + f"/containers/{cont}"
@@ -59,7 +81,7 @@ def stop(baseUrl, containers, n):
 
 def main():
 	if len(sys.argv) < 2:
-		print(f"Usage: {sys.argv[0]} IP:PORT")
+		print(f"Usage: {sys.argv[0]} IP:PORT [--bulk]")
 		exit(1)
 
 	addr = sys.argv[1]
@@ -69,7 +91,10 @@ def main():
 		"nginx:alpine",
 	]
 
-	conts = create_containers(url, container_names, 50)
+	if "--bulk" in sys.argv:
+		conts = create_containers_bulk(url, container_names, 50)
+	else:
+		conts = create_containers(url, container_names, 50)
 	print("Finished creating containers")
 	# time.sleep(10)
 	# restart_containers(url, conts, 20)